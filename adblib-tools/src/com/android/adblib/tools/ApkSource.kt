@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.adblib.tools
+
+import com.android.adblib.AdbInputChannel
+import com.android.adblib.AdbSession
+import com.android.adblib.ByteBufferAdbInputChannel
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+
+/**
+ * The contents of an APK (or any file) to stream to a device, which can be opened as many
+ * times as needed, e.g. once per target device.
+ */
+internal abstract class ApkSource(val path: Path, val size: Long) {
+
+    /**
+     * Returns a new [AdbInputChannel] positioned at the start of the file
+     */
+    abstract suspend fun openChannel(session: AdbSession): AdbInputChannel
+
+    override fun toString(): String = path.toString()
+
+    /**
+     * An [ApkSource] that reads from the file system every time it is opened
+     */
+    private class FileApkSource(path: Path, size: Long) : ApkSource(path, size) {
+
+        override suspend fun openChannel(session: AdbSession): AdbInputChannel {
+            return session.channelFactory.openFile(path)
+        }
+    }
+
+    /**
+     * An [ApkSource] backed by a read-only memory mapping of the file, shared (but not
+     * consumed) by all channels opened from it, so that the file is read from disk only once
+     * no matter how many devices it is streamed to.
+     */
+    private class MappedApkSource(
+        path: Path,
+        private val buffer: ByteBuffer
+    ) : ApkSource(path, buffer.remaining().toLong()) {
+
+        override suspend fun openChannel(session: AdbSession): AdbInputChannel {
+            // Each channel gets its own position and limit over the shared mapping
+            return ByteBufferAdbInputChannel(buffer.duplicate())
+        }
+    }
+
+    companion object {
+
+        fun fromFile(path: Path): ApkSource {
+            return FileApkSource(path, Files.size(path))
+        }
+
+        /**
+         * Returns an [ApkSource] that maps [path] in memory, or that reads from the file system
+         * if the file is too large to be mapped in a single [ByteBuffer].
+         */
+        fun mapFile(path: Path): ApkSource {
+            return FileChannel.open(path, StandardOpenOption.READ).use { channel ->
+                val size = channel.size()
+                if (size > Int.MAX_VALUE) {
+                    FileApkSource(path, size)
+                } else {
+                    MappedApkSource(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, size))
+                }
+            }
+        }
+    }
+}
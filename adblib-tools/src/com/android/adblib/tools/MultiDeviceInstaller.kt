@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.adblib.tools
+
+import com.android.adblib.AdbDeviceServices
+import com.android.adblib.DeviceSelector
+import com.android.adblib.RemoteFileMode
+import com.android.adblib.syncSend
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import kotlinx.coroutines.withContext
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+import java.time.Duration
+
+/**
+ * Default maximum number of devices [installOnDevices] and [syncSendToDevices] transfer
+ * files to concurrently.
+ */
+const val DEFAULT_MAX_CONCURRENT_DEVICES = 8
+
+/**
+ * The outcome of an [installOnDevices] or [syncSendToDevices] operation on a single device.
+ *
+ * @param [device] the [DeviceSelector] corresponding to the target device
+ * @param [duration] the time it took to complete the operation on [device], not including the
+ *   time spent waiting for other devices to free up a concurrency slot
+ * @param [exception] the exception that made the operation fail on [device], or `null`
+ *   if it succeeded
+ */
+class DeviceTransferResult(
+    val device: DeviceSelector,
+    val duration: Duration,
+    val exception: Throwable?
+) {
+
+    val success: Boolean
+        get() = exception == null
+
+    override fun toString(): String {
+        return "DeviceTransferResult(device=$device, duration=$duration, exception=$exception)"
+    }
+}
+
+/**
+ * Install an application made of a list of apks path [apks] on each device of [devices],
+ * installing on at most [maxConcurrentDevices] devices at a time.
+ *
+ * Each apk is read from disk only once, in a memory mapped buffer shared by all devices.
+ *
+ * @param [devices] the [DeviceSelector] corresponding to each target device
+ * @param [apks] the list of apks for this app
+ * @param [options] the install options. e.g.: {"-t", "-r"}.
+ * @param [timeout] the total amount of time allowed to install on each device, including
+ *   all sub-commands
+ * @param [maxConcurrentDevices] the maximum number of devices to install on concurrently
+ *
+ * This function does not throw if the installation fails on some devices. Instead, it returns
+ * a [DeviceTransferResult] for each device, in the same order as [devices], with the exception
+ * (e.g. [InstallException]) that made the installation fail, and the time it took.
+ */
+suspend fun AdbDeviceServices.installOnDevices(
+    devices: List<DeviceSelector>,
+    apks: List<Path>,
+    options: List<String> = listOf(),
+    timeout: Duration = Duration.ofSeconds(120),
+    maxConcurrentDevices: Int = DEFAULT_MAX_CONCURRENT_DEVICES
+): List<DeviceTransferResult> {
+    return withContext(session.host.ioDispatcher) { // Make sure we NEVER run on EDT
+        val sources = apks.map { ApkSource.mapFile(it) }
+        forEachDevice(devices, maxConcurrentDevices) { device ->
+            session.host.timeProvider.withErrorTimeout(timeout) {
+                PMDriver(this@installOnDevices, device).installSources(sources, options)
+            }
+        }
+    }
+}
+
+/**
+ * Uploads the file at [sourcePath] to [remoteFilePath] on each device of [devices],
+ * uploading to at most [maxConcurrentDevices] devices at a time.
+ *
+ * The file is read from disk only once, in a memory mapped buffer shared by all devices.
+ *
+ * This function does not throw if the upload fails on some devices. Instead, it returns
+ * a [DeviceTransferResult] for each device, in the same order as [devices].
+ *
+ * @see [com.android.adblib.AdbDeviceSyncServices.send]
+ */
+suspend fun AdbDeviceServices.syncSendToDevices(
+    devices: List<DeviceSelector>,
+    sourcePath: Path,
+    remoteFilePath: String,
+    remoteFileMode: RemoteFileMode,
+    remoteFileTime: FileTime? = null,
+    timeout: Duration = Duration.ofSeconds(120),
+    maxConcurrentDevices: Int = DEFAULT_MAX_CONCURRENT_DEVICES
+): List<DeviceTransferResult> {
+    return withContext(session.host.ioDispatcher) {
+        val source = ApkSource.mapFile(sourcePath)
+        forEachDevice(devices, maxConcurrentDevices) { device ->
+            session.host.timeProvider.withErrorTimeout(timeout) {
+                source.openChannel(session).use {
+                    syncSend(device, it, remoteFilePath, remoteFileMode, remoteFileTime)
+                }
+            }
+        }
+    }
+}
+
+private suspend fun AdbDeviceServices.forEachDevice(
+    devices: List<DeviceSelector>,
+    maxConcurrentDevices: Int,
+    block: suspend (DeviceSelector) -> Unit
+): List<DeviceTransferResult> {
+    require(maxConcurrentDevices > 0) { "maxConcurrentDevices must be greater than zero" }
+    val logger = session.host.logger
+    val timeProvider = session.host.timeProvider
+    val semaphore = Semaphore(maxConcurrentDevices)
+    return coroutineScope {
+        devices.map { device ->
+            async {
+                semaphore.withPermit {
+                    val startNanos = timeProvider.nanoTime()
+                    val exception = try {
+                        block(device)
+                        null
+                    } catch (e: CancellationException) {
+                        throw e
+                    } catch (t: Throwable) {
+                        t
+                    }
+                    val duration = Duration.ofNanos(timeProvider.nanoTime() - startNanos)
+                    logger.info { "$device: done in ${duration.toMillis()} ms (exception=$exception)" }
+                    DeviceTransferResult(device, duration, exception)
+                }
+            }
+        }.awaitAll()
+    }
+}
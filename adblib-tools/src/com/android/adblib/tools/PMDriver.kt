@@ -20,7 +20,6 @@ import com.android.adblib.DeviceSelector
 import com.android.adblib.deviceProperties
 import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.withContext
-import java.nio.file.Files
 import java.nio.file.Path
 import java.util.regex.Matcher
 import java.util.regex.Pattern
@@ -73,6 +72,19 @@ internal class PMDriver(private val service : AdbDeviceServices, private val dev
     suspend fun install(
         apks: List<Path>,
         options: List<String> = listOf()
+    ) {
+        withContext(service.session.host.ioDispatcher){
+           installOnIODispatcher(apks.map { ApkSource.fromFile(it) }, options)
+        }
+    }
+
+    /**
+     * Same as [install], but reading the APKs from [ApkSource] instances, which can be
+     * shared when installing the same APKs on several devices.
+     */
+    suspend fun installSources(
+        apks: List<ApkSource>,
+        options: List<String> = listOf()
     ) {
         withContext(service.session.host.ioDispatcher){
            installOnIODispatcher(apks, options)
@@ -80,7 +92,7 @@ internal class PMDriver(private val service : AdbDeviceServices, private val dev
     }
 
     private suspend fun installOnIODispatcher(
-        apks: List<Path>,
+        apks: List<ApkSource>,
         options: List<String> = listOf()
     ) {
 
@@ -114,11 +126,10 @@ internal class PMDriver(private val service : AdbDeviceServices, private val dev
 
             // 2/ Write all apks
             apks.forEach { apk ->
-                val size = Files.size(apk)
                 // Make sure we have a filename that won't mess with our command
-                val filename = cleanFilename(apk.fileName.toString())
-                service.session.channelFactory.openFile(apk).use {
-                    val flow = pm.streamApk(device, sessionID, it, filename, size)
+                val filename = cleanFilename(apk.path.fileName.toString())
+                apk.openChannel(service.session).use {
+                    val flow = pm.streamApk(device, sessionID, it, filename, apk.size)
                     parseInstallResult(flow.first())
                 }
             }
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.adblib.tools.tests
+
+import com.android.adblib.DeviceSelector
+import com.android.adblib.RemoteFileMode
+import com.android.adblib.testingutils.FakeAdbServerProvider
+import com.android.adblib.tools.installOnDevices
+import com.android.adblib.tools.syncSendToDevices
+import com.android.fakeadbserver.devicecommandhandlers.SyncCommandHandler
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert
+import org.junit.Test
+import java.nio.file.Files
+
+class TestInstallOnDevices : TestInstallBase() {
+
+    @Test
+    fun testInstallOnDevicesSuccess() {
+        val fakeAdb = registerCloseable(FakeAdbServerProvider().buildDefault().start())
+        val fakeDevices = (1..3).map { addFakeDevice(fakeAdb, 30, "serial$it") }
+        val deviceServices = createDeviceServices(fakeAdb)
+        val deviceSelectors = fakeDevices.map { DeviceSelector.fromSerialNumber(it.deviceId) }
+
+        val apk = Files.createTempFile("adblib-tools_test.apk", null)
+        try {
+            Files.write(apk, ByteArray(10_000) { it.toByte() })
+
+            val results = runBlocking {
+                deviceServices.installOnDevices(deviceSelectors, listOf(apk), maxConcurrentDevices = 2)
+            }
+
+            Assert.assertEquals(deviceSelectors, results.map { it.device })
+            results.forEach { Assert.assertTrue("$it", it.success) }
+            fakeDevices.forEach {
+                Assert.assertEquals(3, it.abbLogs.size)
+                Assert.assertEquals("package\u0000install-create", it.abbLogs[0])
+                Assert.assertTrue(it.abbLogs[1].startsWith("package\u0000install-write\u0000-S\u000010000"))
+                Assert.assertEquals("package\u0000install-commit\u00001234", it.abbLogs[2])
+            }
+        } finally {
+            Files.delete(apk)
+        }
+    }
+
+    @Test
+    fun testInstallOnDevicesReportsFailurePerDevice() {
+        val fakeAdb = registerCloseable(FakeAdbServerProvider().buildDefault().start())
+        val fakeDevice = addFakeDevice(fakeAdb, 30)
+        val deviceServices = createDeviceServices(fakeAdb)
+        val deviceSelectors = listOf(
+            DeviceSelector.fromSerialNumber("not-connected"),
+            DeviceSelector.fromSerialNumber(fakeDevice.deviceId)
+        )
+
+        val results = runBlocking {
+            deviceServices.installOnDevices(deviceSelectors, listOf(), emptyList())
+        }
+
+        Assert.assertEquals(2, results.size)
+        Assert.assertFalse(results[0].success)
+        Assert.assertNotNull(results[0].exception)
+        Assert.assertTrue(results[1].success)
+        Assert.assertEquals(2, fakeDevice.abbLogs.size)
+    }
+
+    @Test
+    fun testSyncSendToDevices() {
+        val fakeAdb = registerCloseable(FakeAdbServerProvider())
+            .installDeviceHandler(SyncCommandHandler())
+            .buildDefault()
+            .start()
+        val fakeDevices = (1..3).map { addFakeDevice(fakeAdb, 30, "serial$it") }
+        val deviceServices = createDeviceServices(fakeAdb)
+        val deviceSelectors = fakeDevices.map { DeviceSelector.fromSerialNumber(it.deviceId) }
+
+        val file = Files.createTempFile("adblib-tools_test.bin", null)
+        val fileBytes = ByteArray(200_000) { (it % 251).toByte() }
+        try {
+            Files.write(file, fileBytes)
+
+            val results = runBlocking {
+                deviceServices.syncSendToDevices(
+                    deviceSelectors,
+                    file,
+                    "/data/local/tmp/test.bin",
+                    RemoteFileMode.DEFAULT
+                )
+            }
+
+            results.forEach { Assert.assertTrue("$it", it.success) }
+            fakeDevices.forEach {
+                Assert.assertArrayEquals(fileBytes, it.getFile("/data/local/tmp/test.bin")?.bytes)
+            }
+        } finally {
+            Files.delete(file)
+        }
+    }
+}
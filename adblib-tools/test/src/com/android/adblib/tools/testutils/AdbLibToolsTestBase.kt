@@ -78,10 +78,14 @@ open class AdbLibToolsTestBase {
         return createSession(fakeAdb).hostServices
     }
 
-    protected fun addFakeDevice(fakeAdb: FakeAdbServerProvider, api: Int): DeviceState {
+    protected fun addFakeDevice(
+        fakeAdb: FakeAdbServerProvider,
+        api: Int,
+        serialNumber: String = "1234"
+    ): DeviceState {
         val fakeDevice =
             fakeAdb.connectDevice(
-                "1234",
+                serialNumber,
                 "test1",
                 "test2",
                 "model",
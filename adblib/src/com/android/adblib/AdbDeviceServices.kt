@@ -666,6 +666,40 @@ suspend fun AdbDeviceServices.syncRecv(
     }
 }
 
+/**
+ * Uploads a batch of files to a remote device over a single `sync` session.
+ *
+ * @see [AdbDeviceSyncServices.sendAll]
+ */
+suspend fun AdbDeviceServices.syncSendAll(
+    device: DeviceSelector,
+    entries: List<SyncSendEntry>,
+    progress: SyncBatchProgress? = null,
+    bufferSize: Int = SYNC_DATA_MAX,
+    maxPendingFiles: Int = SYNC_BATCH_MAX_PENDING_FILES
+) {
+    sync(device).use {
+        it.sendAll(entries, progress, bufferSize, maxPendingFiles)
+    }
+}
+
+/**
+ * Retrieves a batch of files from a remote device over a single `sync` session.
+ *
+ * @see [AdbDeviceSyncServices.recvAll]
+ */
+suspend fun AdbDeviceServices.syncRecvAll(
+    device: DeviceSelector,
+    entries: List<SyncRecvEntry>,
+    progress: SyncBatchProgress? = null,
+    bufferSize: Int = SYNC_DATA_MAX,
+    maxPendingFiles: Int = SYNC_BATCH_MAX_PENDING_FILES
+) {
+    sync(device).use {
+        it.recvAll(entries, progress, bufferSize, maxPendingFiles)
+    }
+}
+
 /**
  * Returns a [DeviceProperties] instance for the given device. [DeviceProperties]
  * gives access to device properties returned by the `getprop` shell command.
@@ -694,11 +728,60 @@ interface DeviceProperties {
      */
     suspend fun allReadonly(): Map<String, String>
 
+    /**
+     * Returns the value of the property [name], or `null` if the device does not define it.
+     *
+     * Values of `"ro."` properties come from [allReadonly], other values may come from a
+     * `getprop` command that ran up to a couple of seconds earlier.
+     */
+    suspend fun get(name: String): String?
+
+    /**
+     * Returns the value of the property [name] as an [Int], or `null` if the device does not
+     * define it or if it is not a number.
+     */
+    suspend fun getInt(name: String): Int? {
+        return get(name)?.toIntOrNull()
+    }
+
+    /**
+     * Returns the value of the property [name] as a [Boolean], using the same conventions as
+     * `android.os.SystemProperties.getBoolean`, or `null` if the device does not define it or
+     * if it is not a boolean.
+     */
+    suspend fun getBoolean(name: String): Boolean? {
+        return when (get(name)) {
+            "1", "y", "yes", "on", "true" -> true
+            "0", "n", "no", "off", "false" -> false
+            else -> null
+        }
+    }
+
     /**
      * Return the API level (as an [Int]) of the device, or [default] if an error
      * occurs.
      */
     suspend fun api(default: Int = 1): Int
+
+    /**
+     * Counters of the requests for properties of this device, see [DevicePropertiesStats]
+     */
+    val stats: DevicePropertiesStats
 }
 
 data class DeviceProperty(val name: String, val value: String)
+
+data class DevicePropertiesStats(
+    /**
+     * Number of requests answered from cached properties
+     */
+    val hitCount: Long,
+    /**
+     * Number of requests that ran a `getprop` command on the device
+     */
+    val missCount: Long,
+    /**
+     * Number of requests answered by a `getprop` command another request was running
+     */
+    val coalescedCount: Long
+)
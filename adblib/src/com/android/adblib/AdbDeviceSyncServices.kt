@@ -23,6 +23,13 @@ import java.nio.file.attribute.FileTime
  */
 const val SYNC_DATA_MAX = 64 * 1024
 
+/**
+ * Default maximum number of files of a [AdbDeviceSyncServices.sendAll] or
+ * [AdbDeviceSyncServices.recvAll] batch that can be in flight, i.e. sent (or requested) but
+ * not yet acknowledged (or received) by the ADB daemon.
+ */
+const val SYNC_BATCH_MAX_PENDING_FILES = 64
+
 /**
  * Allows transferring files to and from a device, using the protocol documented in
  * [SYNC.TXT](https://cs.android.com/android/platform/superproject/+/fbe41e9a47a57f0d20887ace0fc4d0022afd2f5f:packages/modules/adb/SYNC.TXT)
@@ -69,6 +76,79 @@ interface AdbDeviceSyncServices : AutoCloseable {
         progress: SyncProgress?,
         bufferSize: Int = SYNC_DATA_MAX
     )
+
+    /**
+     * Sends a batch of files to the remote device (`SEND` commands), without waiting for
+     * the acknowledgement of a file before starting to send the next one, so that the
+     * transfer of many small files is not bound by the round-trip latency to the device.
+     *
+     * The source channel of each entry is opened (by [SyncSendEntry.openSourceChannel]) just
+     * before the file is sent, and closed once its contents have been sent. At most
+     * [maxPendingFiles] files are waiting for their acknowledgement at any given time.
+     *
+     * If a file cannot be written on the device, the whole batch is aborted with an
+     * [AdbFailResponseException], and this [AdbDeviceSyncServices] instance should be closed,
+     * as the files following the failed one may have been partially sent already.
+     *
+     * @throws AdbFailResponseException if the ADB daemon cannot process the contents of a file
+     * @throws AdbProtocolErrorException if there is an unexpected ADB protocol error
+     * @throws IOException if there is an I/O error
+     */
+    suspend fun sendAll(
+        entries: List<SyncSendEntry>,
+        progress: SyncBatchProgress?,
+        bufferSize: Int = SYNC_DATA_MAX,
+        maxPendingFiles: Int = SYNC_BATCH_MAX_PENDING_FILES
+    )
+
+    /**
+     * Retrieves a batch of files from the remote device (`RECV` commands), sending the
+     * request for a file without waiting for the contents of the previous files to be received.
+     *
+     * The destination channel of each entry is opened (by
+     * [SyncRecvEntry.openDestinationChannel]) when the contents of the file start
+     * being received, and closed once they have been written. At most [maxPendingFiles] files
+     * are requested but not yet received at any given time.
+     *
+     * If a file cannot be read on the device, the whole batch is aborted with an
+     * [AdbFailResponseException], and this [AdbDeviceSyncServices] instance should be closed.
+     *
+     * @throws AdbFailResponseException if the ADB daemon cannot send the contents of a file
+     * @throws AdbProtocolErrorException if there is an unexpected ADB protocol error
+     * @throws IOException if there is an I/O error
+     */
+    suspend fun recvAll(
+        entries: List<SyncRecvEntry>,
+        progress: SyncBatchProgress?,
+        bufferSize: Int = SYNC_DATA_MAX,
+        maxPendingFiles: Int = SYNC_BATCH_MAX_PENDING_FILES
+    )
+}
+
+/**
+ * A file to send to a remote device as part of a [AdbDeviceSyncServices.sendAll] batch.
+ *
+ * If [remoteFileTime] is not provided, it defaults to the current system time.
+ */
+class SyncSendEntry(
+    val remoteFilePath: String,
+    val remoteFileMode: RemoteFileMode,
+    val remoteFileTime: FileTime? = null,
+    val openSourceChannel: suspend () -> AdbInputChannel
+) {
+
+    override fun toString(): String = remoteFilePath
+}
+
+/**
+ * A file to retrieve from a remote device as part of a [AdbDeviceSyncServices.recvAll] batch.
+ */
+class SyncRecvEntry(
+    val remoteFilePath: String,
+    val openDestinationChannel: suspend () -> AdbOutputChannel
+) {
+
+    override fun toString(): String = remoteFilePath
 }
 
 /**
@@ -106,3 +186,51 @@ open class SyncProgressAdapter : SyncProgress {
 
     override suspend fun transferDone(remotePath: String, totalBytes: Long) {}
 }
+
+/**
+ * Reports the overall progress of a batch of remote file transfers. Callbacks are always
+ * invoked sequentially, in the order the files of the batch have been transferred.
+ *
+ * @see [AdbDeviceSyncServices.sendAll]
+ * @see [AdbDeviceSyncServices.recvAll]
+ */
+interface SyncBatchProgress {
+
+    /**
+     * Invoked just before the transfer of the first file starts
+     */
+    suspend fun batchStarted(fileCount: Int)
+
+    /**
+     * Invoked after each file has been successfully transferred, i.e. after it has been
+     * acknowledged by the device (`SEND`), or fully written to its destination (`RECV`)
+     */
+    suspend fun fileDone(
+        remotePath: String,
+        fileBytes: Long,
+        fileCountSoFar: Int,
+        totalBytesSoFar: Long
+    )
+
+    /**
+     * Invoked just after all the files of the batch have been successfully transferred
+     */
+    suspend fun batchDone(fileCount: Int, totalBytes: Long)
+}
+
+/**
+ * Trivial implementation of the [SyncBatchProgress] interface.
+ */
+open class SyncBatchProgressAdapter : SyncBatchProgress {
+
+    override suspend fun batchStarted(fileCount: Int) {}
+
+    override suspend fun fileDone(
+        remotePath: String,
+        fileBytes: Long,
+        fileCountSoFar: Int,
+        totalBytesSoFar: Long
+    ) {}
+
+    override suspend fun batchDone(fileCount: Int, totalBytes: Long) {}
+}
@@ -21,7 +21,10 @@ import com.android.adblib.AdbInputChannel
 import com.android.adblib.AdbOutputChannel
 import com.android.adblib.DeviceSelector
 import com.android.adblib.RemoteFileMode
+import com.android.adblib.SyncBatchProgress
 import com.android.adblib.SyncProgress
+import com.android.adblib.SyncRecvEntry
+import com.android.adblib.SyncSendEntry
 import com.android.adblib.impl.services.AdbServiceRunner
 import com.android.adblib.utils.closeOnException
 import kotlinx.coroutines.withContext
@@ -83,6 +86,24 @@ internal class AdbDeviceSyncServicesImpl private constructor(
         recvHandler.recv(remoteFilePath, destinationChannel, progress)
     }
 
+    override suspend fun sendAll(
+        entries: List<SyncSendEntry>,
+        progress: SyncBatchProgress?,
+        bufferSize: Int,
+        maxPendingFiles: Int
+    ) {
+        sendHandler.sendAll(entries, progress, bufferSize, maxPendingFiles)
+    }
+
+    override suspend fun recvAll(
+        entries: List<SyncRecvEntry>,
+        progress: SyncBatchProgress?,
+        bufferSize: Int,
+        maxPendingFiles: Int
+    ) {
+        recvHandler.recvAll(entries, progress, maxPendingFiles)
+    }
+
     companion object {
 
         /**
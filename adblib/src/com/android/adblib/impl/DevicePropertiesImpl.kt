@@ -20,10 +20,12 @@ import com.android.adblib.AdbFeatures
 import com.android.adblib.AdbSession
 import com.android.adblib.CoroutineScopeCache
 import com.android.adblib.DeviceProperties
+import com.android.adblib.DevicePropertiesStats
 import com.android.adblib.DeviceProperty
 import com.android.adblib.DevicePropertyNames.RO_BUILD_VERSION_SDK
 import com.android.adblib.DeviceSelector
 import com.android.adblib.ShellCommandOutputElement
+import com.android.adblib.SystemNanoTimeProvider
 import com.android.adblib.availableFeatures
 import com.android.adblib.thisLogger
 import com.android.adblib.utils.LineShellCollector
@@ -34,21 +36,136 @@ import com.android.adblib.utils.toImmutableMap
 import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.flow.mapNotNull
 import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import java.time.Duration
+import java.util.concurrent.atomic.AtomicLong
 
+/**
+ * How long the result of a `getprop` command is used to answer requests for properties
+ * that can change while the device is online, i.e. properties that don't start with `"ro."`.
+ */
+val DEFAULT_VOLATILE_PROPERTIES_TTL: Duration = Duration.ofSeconds(2)
+
+/**
+ * [DeviceProperties] of a single device, kept in the [CoroutineScopeCache] of the device
+ * so that it is discarded when the device is disconnected.
+ *
+ * The output of `getprop` is parsed once per command, and the resulting snapshot is used
+ * for [volatileTtl] to answer requests for any property. `"ro."` properties are kept from the
+ * first snapshot for the lifetime of this instance, since they don't change until the device
+ * is restarted. Concurrent requests that need a new snapshot share a single `getprop` command.
+ */
 class DevicePropertiesImpl(
     val deviceServices: AdbDeviceServices,
     val cache: CoroutineScopeCache,
-    val device: DeviceSelector
+    val device: DeviceSelector,
+    private val volatileTtl: Duration = DEFAULT_VOLATILE_PROPERTIES_TTL,
+    private val timeProvider: SystemNanoTimeProvider = deviceServices.session.host.timeProvider
 ) : DeviceProperties {
 
     private val logger = thisLogger(deviceServices.session)
 
-    private val allReadonlyKey = CoroutineScopeCache.Key<Map<String, String>>("allReadonly")
-
     private val session: AdbSession
         get() = deviceServices.session
 
+    /**
+     * Only one `getprop` command runs at a time, callers waiting for it use its result
+     */
+    private val fetchMutex = Mutex()
+
+    @Volatile
+    private var snapshot: Snapshot? = null
+
+    @Volatile
+    private var readonly: Map<String, String>? = null
+
+    private val hitCount = AtomicLong()
+    private val missCount = AtomicLong()
+    private val coalescedCount = AtomicLong()
+
+    override val stats: DevicePropertiesStats
+        get() = DevicePropertiesStats(hitCount.get(), missCount.get(), coalescedCount.get())
+
     override suspend fun all(): List<DeviceProperty> {
+        return snapshot().properties
+    }
+
+    override suspend fun allReadonly(): Map<String, String> {
+        readonly?.also {
+            hitCount.incrementAndGet()
+            return it
+        }
+        snapshot()
+        return readonly!!
+    }
+
+    override suspend fun get(name: String): String? {
+        return if (name.startsWith("ro.")) {
+            allReadonly()[name]
+        } else {
+            snapshot().values[name]
+        }
+    }
+
+    override suspend fun api(default: Int): Int {
+        val api = allReadonly()[RO_BUILD_VERSION_SDK]
+        if (api == null) {
+            thisLogger(this.session).info {
+                "Property '$RO_BUILD_VERSION_SDK' not found, returning $default instead"
+            }
+            return default
+        }
+        return try {
+            api.toInt()
+        } catch (e: NumberFormatException) {
+            thisLogger(this.session).info {
+                "Property '$RO_BUILD_VERSION_SDK' (\"$api\") is not a number, returning $default instead"
+            }
+            return default
+        }
+    }
+
+    private suspend fun snapshot(): Snapshot {
+        val current = snapshot
+        if (current != null && isFresh(current)) {
+            hitCount.incrementAndGet()
+            return current
+        }
+
+        // Any snapshot with a later generation was fetched after this request was made, so it
+        // is as good as one we would fetch ourselves.
+        val generation = current?.generation ?: 0L
+        return fetchMutex.withLock {
+            val latest = snapshot
+            if (latest != null && latest.generation > generation) {
+                coalescedCount.incrementAndGet()
+                return@withLock latest
+            }
+            missCount.incrementAndGet()
+            val properties = fetchAll()
+            Snapshot(
+                properties,
+                properties.associate { it.name to it.value },
+                timeProvider.nanoTime(),
+                generation + 1
+            ).also { fetched ->
+                if (readonly == null) {
+                    readonly = properties
+                        .filter { prop -> prop.name.startsWith("ro.") }
+                        .associate { it.name to it.value }
+                        .toImmutableMap()
+                }
+                snapshot = fetched
+            }
+        }
+    }
+
+    private fun isFresh(snapshot: Snapshot): Boolean {
+        return timeProvider.nanoTime() - snapshot.nanoTime < volatileTtl.toNanos()
+    }
+
+    private suspend fun fetchAll(): List<DeviceProperty> {
         val shellV2Supported = runCatching {
             session.hostServices.availableFeatures(device).contains(AdbFeatures.SHELL_V2)
         }.getOrElse {
@@ -78,30 +195,13 @@ class DevicePropertiesImpl(
         }
     }
 
-    override suspend fun allReadonly(): Map<String, String> {
-        return cache.getOrPutSuspending(allReadonlyKey) {
-            all()
-                .filter { prop -> prop.name.startsWith("ro.") }
-                .associate { it.name to it.value }
-                .toImmutableMap()
-        }
-    }
-
-    override suspend fun api(default: Int): Int {
-        val api = allReadonly()[RO_BUILD_VERSION_SDK]
-        if (api == null) {
-            thisLogger(this.session).info {
-                "Property '$RO_BUILD_VERSION_SDK' not found, returning $default instead"
-            }
-            return default
-        }
-        return try {
-            api.toInt()
-        } catch (e: NumberFormatException) {
-            thisLogger(this.session).info {
-                "Property '$RO_BUILD_VERSION_SDK' (\"$api\") is not a number, returning $default instead"
-            }
-            return default
-        }
-    }
+    private class Snapshot(
+        val properties: List<DeviceProperty>,
+        val values: Map<String, String>,
+        val nanoTime: Long,
+        /**
+         * Number of `getprop` commands run to get this snapshot
+         */
+        val generation: Long
+    )
 }
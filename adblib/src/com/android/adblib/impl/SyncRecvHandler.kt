@@ -20,11 +20,17 @@ import com.android.adblib.AdbSessionHost
 import com.android.adblib.AdbOutputChannel
 import com.android.adblib.AdbProtocolErrorException
 import com.android.adblib.DeviceSelector
+import com.android.adblib.SyncBatchProgress
 import com.android.adblib.SyncProgress
+import com.android.adblib.SyncRecvEntry
 import com.android.adblib.impl.services.AdbServiceRunner
 import com.android.adblib.thisLogger
 import com.android.adblib.utils.AdbProtocolUtils
+import com.android.adblib.utils.ResizableBuffer
 import com.android.adblib.withPrefix
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import java.nio.ByteOrder
 
@@ -46,6 +52,12 @@ internal class SyncRecvHandler(
 
     private val workBuffer = serviceRunner.newResizableBuffer().order(ByteOrder.LITTLE_ENDIAN)
 
+    /**
+     * Buffer used to send the `RECV` requests of a [recvAll] batch while [workBuffer] is used
+     * to receive the contents of the previous files
+     */
+    private val requestBuffer = serviceRunner.newResizableBuffer().order(ByteOrder.LITTLE_ENDIAN)
+
     /**
      * See (SYNC.TXT)[https://cs.android.com/android/platform/superproject/+/fbe41e9a47a57f0d20887ace0fc4d0022afd2f5f:packages/modules/adb/SYNC.TXT]
      *
@@ -73,15 +85,11 @@ internal class SyncRecvHandler(
         withContext(host.ioDispatcher) {
             logger.info { "\"$remoteFilePath\" -> $destinationChannel" }
 
-            if (remoteFilePath.length > REMOTE_PATH_MAX_LENGTH) {
-                logger.warn("\"$remoteFilePath\": Remote path length is too long ($REMOTE_PATH_MAX_LENGTH)")
-                throw IllegalArgumentException(
-                    "Remote paths are limited to $REMOTE_PATH_MAX_LENGTH characters"
-                )
-            }
+            checkRemoteFilePath(remoteFilePath)
 
             // Receive the file using the "RECV" query
-            startRecvRequest(remoteFilePath, progress)
+            progress?.transferStarted(remoteFilePath)
+            startRecvRequest(remoteFilePath, workBuffer)
 
             // Send the contents of the file from the input stream
             val byteCount = receiveFileContents(remoteFilePath, destinationChannel, progress)
@@ -91,21 +99,76 @@ internal class SyncRecvHandler(
         }
     }
 
-    private suspend fun startRecvRequest(remoteFilePath: String, progress: SyncProgress?) {
-        progress?.transferStarted(remoteFilePath)
+    /**
+     * Retrieves all files of [entries] using the `RECV` protocol described in [recv], except
+     * the `RECV` requests are written by a separate coroutine, without waiting for the
+     * contents of the previous files to be received, with at most [maxPendingFiles] files
+     * requested but not received yet. The ADB daemon processes sync requests sequentially,
+     * so the contents of the files are received in the order they were requested.
+     */
+    suspend fun recvAll(
+        entries: List<SyncRecvEntry>,
+        progress: SyncBatchProgress?,
+        maxPendingFiles: Int
+    ) {
+        withContext(host.ioDispatcher) {
+            logger.info { "Receiving ${entries.size} files" }
+            require(maxPendingFiles > 0) { "maxPendingFiles must be greater than zero" }
+            entries.forEach { checkRemoteFilePath(it.remoteFilePath) }
+
+            progress?.batchStarted(entries.size)
+            val requestedFiles = Channel<SyncRecvEntry>(maxPendingFiles)
+            var totalBytes = 0L
+            coroutineScope {
+                launch {
+                    try {
+                        for (entry in entries) {
+                            startRecvRequest(entry.remoteFilePath, requestBuffer)
+                            requestedFiles.send(entry)
+                        }
+                    } finally {
+                        requestedFiles.close()
+                    }
+                }
+
+                var fileCount = 0
+                for (entry in requestedFiles) {
+                    val byteCount = entry.openDestinationChannel().use { destinationChannel ->
+                        receiveFileContents(entry.remoteFilePath, destinationChannel, null).also {
+                            destinationChannel.close()
+                        }
+                    }
+                    fileCount++
+                    totalBytes += byteCount
+                    progress?.fileDone(entry.remoteFilePath, byteCount, fileCount, totalBytes)
+                }
+            }
+            progress?.batchDone(entries.size, totalBytes)
+        }
+    }
+
+    private fun checkRemoteFilePath(remoteFilePath: String) {
+        if (remoteFilePath.length > REMOTE_PATH_MAX_LENGTH) {
+            logger.warn("\"$remoteFilePath\": Remote path length is too long ($REMOTE_PATH_MAX_LENGTH)")
+            throw IllegalArgumentException(
+                "Remote paths are limited to $REMOTE_PATH_MAX_LENGTH characters"
+            )
+        }
+    }
 
+    private suspend fun startRecvRequest(remoteFilePath: String, buffer: ResizableBuffer) {
         logger.debug { "sending \"RECV\" command to device $device" }
         // Bytes 0-3: 'RECV'
         // Bytes 4-7: request size (little endian)
         // Bytes 8-xx: An utf-8 string with the remote file path
-        workBuffer.clear()
-        workBuffer.appendString("RECV", AdbProtocolUtils.ADB_CHARSET)
-        val lengthPos = workBuffer.position
-        workBuffer.appendInt(0) // Set later
-        workBuffer.appendString(remoteFilePath, AdbProtocolUtils.ADB_CHARSET)
-        workBuffer.setInt(lengthPos, workBuffer.position - 8)
-
-        deviceChannel.writeExactly(workBuffer.forChannelWrite())
+        buffer.clear()
+        buffer.appendString("RECV", AdbProtocolUtils.ADB_CHARSET)
+        val lengthPos = buffer.position
+        buffer.appendInt(0) // Set later
+        buffer.appendString(remoteFilePath, AdbProtocolUtils.ADB_CHARSET)
+        buffer.setInt(lengthPos, buffer.position - 8)
+
+        deviceChannel.writeExactly(buffer.forChannelWrite())
     }
 
     private suspend fun receiveFileContents(
@@ -20,11 +20,17 @@ import com.android.adblib.AdbInputChannel
 import com.android.adblib.AdbSessionHost
 import com.android.adblib.DeviceSelector
 import com.android.adblib.RemoteFileMode
+import com.android.adblib.SyncBatchProgress
 import com.android.adblib.SyncProgress
+import com.android.adblib.SyncSendEntry
 import com.android.adblib.impl.services.AdbServiceRunner
 import com.android.adblib.thisLogger
 import com.android.adblib.utils.AdbProtocolUtils
 import com.android.adblib.withPrefix
+import kotlinx.coroutines.async
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.ReceiveChannel
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.withContext
 import java.nio.ByteOrder
 import java.nio.file.attribute.FileTime
@@ -47,6 +53,12 @@ internal class SyncSendHandler(
 
     private val workBuffer = serviceRunner.newResizableBuffer().order(ByteOrder.LITTLE_ENDIAN)
 
+    /**
+     * Buffer used to read `OKAY`/`FAIL` responses while [workBuffer] is used to send the
+     * next files of a [sendAll] batch
+     */
+    private val ackBuffer = serviceRunner.newResizableBuffer().order(ByteOrder.LITTLE_ENDIAN)
+
     /**
      * From [SYNC.TXT](https://cs.android.com/android/platform/superproject/+/fbe41e9a47a57f0d20887ace0fc4d0022afd2f5f:packages/modules/adb/SYNC.TXT;l=50)
      *
@@ -91,12 +103,8 @@ internal class SyncSendHandler(
             //       See [https://cs.android.com/android/platform/superproject/+/fbe41e9a47a57f0d20887ace0fc4d0022afd2f5f:packages/modules/adb/daemon/file_sync_service.cpp;l=498;drc=fbe41e9a47a57f0d20887ace0fc4d0022afd2f5f;bpv=0;bpt=1]
             logger.info { "$sourceChannel -> \"$remoteFilePath\"" }
 
-            if (remoteFilePath.length > REMOTE_PATH_MAX_LENGTH) {
-                throw IllegalArgumentException("Remote paths are limited to $REMOTE_PATH_MAX_LENGTH characters")
-            }
-            val remoteFileEpoch =
-                if (remoteFileTime == null) (host.timeProvider.nanoTime() / 1_000_000_000L).toInt()
-                else AdbProtocolUtils.convertFileTimeToEpochSeconds(remoteFileTime)
+            checkRemoteFilePath(remoteFilePath)
+            val remoteFileEpoch = toRemoteFileEpoch(remoteFileTime)
 
             // Send the file using the "SEND" query
             startSendRequest(remoteFilePath, remoteFileMode, progress)
@@ -120,6 +128,84 @@ internal class SyncSendHandler(
         }
     }
 
+    /**
+     * Sends all files of [entries] using the `SEND` protocol described in [send], except the
+     * `SEND`, `DATA` and `DONE` requests of a file are written without waiting for the "OKAY"
+     * response of the previous files. The responses are consumed concurrently, in the order
+     * the files were sent, by a separate coroutine, with at most [maxPendingFiles] files
+     * waiting for their response.
+     *
+     * Note: The ADB daemon processes sync requests sequentially, and closes the connection
+     * after the first "FAIL" response, so the responses to the pending files are never
+     * received once a transfer fails.
+     */
+    suspend fun sendAll(
+        entries: List<SyncSendEntry>,
+        progress: SyncBatchProgress?,
+        bufferSize: Int,
+        maxPendingFiles: Int
+    ) {
+        withContext(host.ioDispatcher) {
+            logger.info { "Sending ${entries.size} files" }
+            require(maxPendingFiles > 0) { "maxPendingFiles must be greater than zero" }
+            entries.forEach { checkRemoteFilePath(it.remoteFilePath) }
+
+            progress?.batchStarted(entries.size)
+            val pendingFiles = Channel<PendingFile>(maxPendingFiles)
+            val totalBytes = coroutineScope {
+                val acknowledgements = async {
+                    consumeAcknowledgements(pendingFiles, progress)
+                }
+                try {
+                    for (entry in entries) {
+                        val remoteFileEpoch = toRemoteFileEpoch(entry.remoteFileTime)
+                        val byteCount = entry.openSourceChannel().use { sourceChannel ->
+                            startSendRequest(entry.remoteFilePath, entry.remoteFileMode, null)
+                            sendFileContents(entry.remoteFilePath, sourceChannel, bufferSize, null)
+                        }
+                        commitRemoteFile(entry.remoteFilePath, remoteFileEpoch, null, byteCount)
+                        pendingFiles.send(PendingFile(entry.remoteFilePath, byteCount))
+                    }
+                } finally {
+                    pendingFiles.close()
+                }
+                acknowledgements.await()
+            }
+            progress?.batchDone(entries.size, totalBytes)
+        }
+    }
+
+    private suspend fun consumeAcknowledgements(
+        pendingFiles: ReceiveChannel<PendingFile>,
+        progress: SyncBatchProgress?
+    ): Long {
+        var fileCount = 0
+        var totalBytes = 0L
+        for (pendingFile in pendingFiles) {
+            serviceRunner.consumeSyncOkayFailResponse(
+                deviceChannel,
+                ackBuffer,
+                TimeoutTracker.INFINITE
+            )
+            fileCount++
+            totalBytes += pendingFile.byteCount
+            logger.debug { "Remote file ${pendingFile.remoteFilePath} acknowledged ($fileCount files so far)" }
+            progress?.fileDone(pendingFile.remoteFilePath, pendingFile.byteCount, fileCount, totalBytes)
+        }
+        return totalBytes
+    }
+
+    private fun checkRemoteFilePath(remoteFilePath: String) {
+        if (remoteFilePath.length > REMOTE_PATH_MAX_LENGTH) {
+            throw IllegalArgumentException("Remote paths are limited to $REMOTE_PATH_MAX_LENGTH characters")
+        }
+    }
+
+    private fun toRemoteFileEpoch(remoteFileTime: FileTime?): Int {
+        return if (remoteFileTime == null) (host.timeProvider.nanoTime() / 1_000_000_000L).toInt()
+        else AdbProtocolUtils.convertFileTimeToEpochSeconds(remoteFileTime)
+    }
+
     private suspend fun startSendRequest(
         remoteFilePath: String,
         remoteFileMode: RemoteFileMode,
@@ -198,4 +284,9 @@ internal class SyncSendHandler(
 
         progress?.transferDone(remoteFilePath, byteCount)
     }
+
+    /**
+     * A file of a [sendAll] batch that has been sent, but not acknowledged yet
+     */
+    private class PendingFile(val remoteFilePath: String, val byteCount: Long)
 }
@@ -15,6 +15,7 @@
  */
 package com.android.adblib
 
+import com.android.adblib.impl.DevicePropertiesImpl
 import com.android.adblib.impl.channels.AdbInputChannelReader
 import com.android.adblib.impl.channels.AdbInputStreamChannel
 import com.android.adblib.impl.channels.AdbOutputStreamChannel
@@ -37,6 +38,8 @@ import com.android.fakeadbserver.DeviceFileState
 import com.android.fakeadbserver.DeviceState
 import com.android.fakeadbserver.devicecommandhandlers.SyncCommandHandler
 import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
 import kotlinx.coroutines.cancel
 import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.delay
@@ -1671,6 +1674,92 @@ class AdbDeviceServicesTest {
         Assert.assertEquals(30, api)
     }
 
+    @Test
+    fun testDevicePropertiesTypedAccessorsWork() = runBlockingWithTimeout {
+        // Prepare
+        val fakeAdb = registerCloseable(FakeAdbServerProvider().buildDefault().start())
+        val device = addFakeDevice(fakeAdb)
+        device.properties["sys.boot_completed"] = "1"
+        device.properties["persist.sys.timezone"] = "Europe/Paris"
+        val deviceServices = createDeviceServices(fakeAdb)
+        val deviceSelector = DeviceSelector.fromSerialNumber(device.deviceId)
+
+        // Act
+        val properties = deviceServices.deviceProperties(deviceSelector)
+        val model = properties.get("ro.product.model")
+        val sdk = properties.getInt("ro.build.version.sdk")
+        val bootCompleted = properties.getBoolean("sys.boot_completed")
+        val timezone = properties.get("persist.sys.timezone")
+        val notABoolean = properties.getBoolean("persist.sys.timezone")
+        val missing = properties.get("foo.bar")
+
+        // Assert
+        Assert.assertEquals("test2", model)
+        Assert.assertEquals(30, sdk)
+        Assert.assertEquals(true, bootCompleted)
+        Assert.assertEquals("Europe/Paris", timezone)
+        Assert.assertNull(notABoolean)
+        Assert.assertNull(missing)
+        Assert.assertEquals(6, properties.stats.hitCount + properties.stats.missCount)
+    }
+
+    @Test
+    fun testDevicePropertiesCoalescesConcurrentRequests() = runBlockingWithTimeout {
+        // Prepare
+        val fakeAdb = registerCloseable(FakeAdbServerProvider().buildDefault().start())
+        val device = addFakeDevice(fakeAdb)
+        val deviceServices = createDeviceServices(fakeAdb)
+        val deviceSelector = DeviceSelector.fromSerialNumber(device.deviceId)
+        val properties = deviceServices.deviceProperties(deviceSelector)
+
+        // Act
+        val results = (1..10).map {
+            async { properties.all() }
+        }.awaitAll()
+
+        // Assert
+        results.forEach {
+            Assert.assertEquals(results[0], it)
+        }
+        Assert.assertEquals(1, properties.stats.missCount)
+        Assert.assertEquals(9, properties.stats.hitCount + properties.stats.coalescedCount)
+    }
+
+    @Test
+    fun testDevicePropertiesRefreshesVolatileProperties() = runBlockingWithTimeout {
+        // Prepare
+        val fakeAdb = registerCloseable(FakeAdbServerProvider().buildDefault().start())
+        val device = addFakeDevice(fakeAdb)
+        device.properties["sys.boot_completed"] = "0"
+        val deviceServices = createDeviceServices(fakeAdb)
+        val deviceSelector = DeviceSelector.fromSerialNumber(device.deviceId)
+        val timeProvider = TestNanoProvider()
+        val properties = DevicePropertiesImpl(
+            deviceServices,
+            deviceServices.session.deviceCache(deviceSelector),
+            deviceSelector,
+            Duration.ofSeconds(2),
+            timeProvider
+        )
+
+        // Act
+        val before = properties.getBoolean("sys.boot_completed")
+        device.properties["sys.boot_completed"] = "1"
+        val cached = properties.getBoolean("sys.boot_completed")
+        timeProvider.advance(3, TimeUnit.SECONDS)
+        val refreshed = properties.getBoolean("sys.boot_completed")
+        timeProvider.advance(3, TimeUnit.SECONDS)
+        val sdk = properties.api()
+
+        // Assert
+        Assert.assertEquals(false, before)
+        Assert.assertEquals(false, cached)
+        Assert.assertEquals(true, refreshed)
+        Assert.assertEquals(30, sdk)
+        // "ro." properties never need a new "getprop"
+        Assert.assertEquals(2, properties.stats.missCount)
+    }
+
     @Test
     fun testSyncSendFileWorks() {
         // Prepare
@@ -2044,6 +2133,136 @@ class AdbDeviceServicesTest {
         Assert.assertArrayEquals(fileBytes2, outputStream2.toByteArray())
     }
 
+    @Test
+    fun testSyncSendAllWorks() {
+        // Prepare
+        val fakeAdb = registerCloseable(FakeAdbServerProvider())
+            .installDeviceHandler(SyncCommandHandler())
+            .build()
+            .start()
+        val fakeDevice = addFakeDevice(fakeAdb)
+        val deviceServices = createDeviceServices(fakeAdb)
+        val deviceSelector = DeviceSelector.fromSerialNumber(fakeDevice.deviceId)
+
+        val fileMode = RemoteFileMode.fromPosixPermissions(OWNER_READ, OWNER_WRITE)
+        val fileDate = FileTime.from(1_000_000, TimeUnit.SECONDS)
+        val files = (0 until 100).associate { "/sdcard/foo/bar$it.bin" to createFileBytes(it * 100) }
+        val entries = files.map { (filePath, fileBytes) ->
+            SyncSendEntry(filePath, fileMode, fileDate) {
+                AdbInputStreamChannel(deviceServices.session.host, fileBytes.inputStream())
+            }
+        }
+        val progress = TestSyncBatchProgress()
+
+        // Act
+        runBlocking {
+            deviceServices.syncSendAll(
+                deviceSelector,
+                entries,
+                progress,
+                bufferSize = 1_024,
+                maxPendingFiles = 8
+            )
+        }
+
+        // Assert
+        Assert.assertEquals(files.size, progress.startedFileCount)
+        Assert.assertEquals(files.keys.toList(), progress.donePaths)
+        Assert.assertEquals(files.values.sumOf { it.size.toLong() }, progress.doneTotalBytes)
+
+        files.forEach { (filePath, fileBytes) ->
+            Assert.assertNotNull(fakeDevice.getFile(filePath))
+            fakeDevice.getFile(filePath)?.run {
+                Assert.assertEquals(fileMode.modeBits, permission)
+                Assert.assertEquals(fileDate.toMillis() / 1_000, modifiedDate.toLong())
+                Assert.assertArrayEquals(fileBytes, bytes)
+            }
+        }
+    }
+
+    @Test
+    fun testSyncRecvAllWorks() {
+        // Prepare
+        val fakeAdb = registerCloseable(FakeAdbServerProvider())
+            .installDeviceHandler(SyncCommandHandler())
+            .build()
+            .start()
+        val fakeDevice = addFakeDevice(fakeAdb)
+        val deviceServices = createDeviceServices(fakeAdb)
+        val deviceSelector = DeviceSelector.fromSerialNumber(fakeDevice.deviceId)
+
+        val fileMode = RemoteFileMode.fromPosixPermissions(OWNER_READ, OWNER_WRITE)
+        val fileDate = FileTime.from(1_000_000, TimeUnit.SECONDS)
+        val files = (0 until 100).associate { "/sdcard/foo/bar$it.bin" to createFileBytes(it * 100) }
+        files.forEach { (filePath, fileBytes) ->
+            fakeDevice.createFile(
+                DeviceFileState(
+                    filePath,
+                    fileMode.modeBits,
+                    (fileDate.toMillis() / 1_000).toInt(),
+                    fileBytes
+                )
+            )
+        }
+        val outputStreams = files.keys.associateWith { ByteArrayOutputStream() }
+        val entries = outputStreams.map { (filePath, outputStream) ->
+            SyncRecvEntry(filePath) {
+                AdbOutputStreamChannel(deviceServices.session.host, outputStream)
+            }
+        }
+        val progress = TestSyncBatchProgress()
+
+        // Act
+        runBlocking {
+            deviceServices.syncRecvAll(deviceSelector, entries, progress, maxPendingFiles = 8)
+        }
+
+        // Assert
+        Assert.assertEquals(files.size, progress.startedFileCount)
+        Assert.assertEquals(files.keys.toList(), progress.donePaths)
+        Assert.assertEquals(files.values.sumOf { it.size.toLong() }, progress.doneTotalBytes)
+
+        files.forEach { (filePath, fileBytes) ->
+            Assert.assertArrayEquals(fileBytes, outputStreams.getValue(filePath).toByteArray())
+        }
+    }
+
+    @Test
+    fun testSyncRecvAllThrowsExceptionIfFileDoesNotExist() {
+        // Prepare
+        val fakeAdb = registerCloseable(FakeAdbServerProvider())
+            .installDeviceHandler(SyncCommandHandler())
+            .build()
+            .start()
+        val fakeDevice = addFakeDevice(fakeAdb)
+        val deviceServices = createDeviceServices(fakeAdb)
+        val deviceSelector = DeviceSelector.fromSerialNumber(fakeDevice.deviceId)
+
+        val filePath = "/sdcard/foo/bar.bin"
+        val fileMode = RemoteFileMode.fromPosixPermissions(OWNER_READ, OWNER_WRITE)
+        fakeDevice.createFile(DeviceFileState(filePath, fileMode.modeBits, 0, createFileBytes(10)))
+        val entries = listOf(filePath, "/sdcard/foo/missing.bin", filePath).map {
+            SyncRecvEntry(it) {
+                AdbOutputStreamChannel(deviceServices.session.host, ByteArrayOutputStream())
+            }
+        }
+        val progress = TestSyncBatchProgress()
+
+        // Act
+        exceptionRule.expect(AdbFailResponseException::class.java)
+        runBlocking {
+            try {
+                deviceServices.syncRecvAll(deviceSelector, entries, progress)
+            } finally {
+                Assert.assertEquals(listOf(filePath), progress.donePaths)
+                Assert.assertFalse(progress.batchDone)
+            }
+        }
+
+        // Assert
+        Assert.fail() // Should not be reachable
+    }
+
     @Test
     fun testSyncSendThenRecvFileInSameSessionWorks() {
         // Prepare
@@ -2592,6 +2811,32 @@ class AdbDeviceServicesTest {
         }
     }
 
+    class TestSyncBatchProgress : SyncBatchProgress {
+
+        var startedFileCount = -1
+        val donePaths = mutableListOf<String>()
+        var doneTotalBytes = 0L
+        var batchDone = false
+
+        override suspend fun batchStarted(fileCount: Int) {
+            startedFileCount = fileCount
+        }
+
+        override suspend fun fileDone(
+            remotePath: String,
+            fileBytes: Long,
+            fileCountSoFar: Int,
+            totalBytesSoFar: Long
+        ) {
+            donePaths.add(remotePath)
+            doneTotalBytes = totalBytesSoFar
+        }
+
+        override suspend fun batchDone(fileCount: Int, totalBytes: Long) {
+            batchDone = true
+        }
+    }
+
     private fun createFileBytes(size: Int): ByteArray {
         val result = ByteArray(size)
         for (i in 0 until size) {
@@ -2600,6 +2845,19 @@ class AdbDeviceServicesTest {
         return result
     }
 
+    private class TestNanoProvider : SystemNanoTimeProvider() {
+
+        private var currentTimeNano: Long = 1_000_000
+
+        override fun nanoTime(): Long {
+            return currentTimeNano
+        }
+
+        fun advance(time: Long, unit: TimeUnit) {
+            currentTimeNano += TimeUnit.NANOSECONDS.convert(time, unit)
+        }
+    }
+
     private fun createDeviceServices(fakeAdb: FakeAdbServerProvider): AdbDeviceServices {
         val host = registerCloseable(TestingAdbSessionHost())
         val channelProvider = fakeAdb.createChannelProvider(host)
@@ -134,6 +134,8 @@ ARTIFACTS = [
     "org.jetbrains.kotlinx:kotlinx-cli-jvm:0.3.1",
     "org.jetbrains.kotlinx:kotlinx-coroutines-core:1.6.3",
     "org.mockito:mockito-core:3.12.4",
+    "org.openjdk.jmh:jmh-core:1.36",
+    "org.openjdk.jmh:jmh-generator-annprocess:1.36",
     "org.ow2.asm:asm:9.2",
     "org.ow2.asm:asm-analysis:9.2",
     "org.ow2.asm:asm-commons:9.2",
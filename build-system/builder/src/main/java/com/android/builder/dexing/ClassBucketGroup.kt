@@ -16,6 +16,9 @@
 
 package com.android.builder.dexing
 
+import com.android.zipflinger.MappedZipReader
+import com.android.zipflinger.Zip64
+import com.android.zipflinger.ZipMap
 import java.io.File
 import java.io.Serializable
 
@@ -65,6 +68,58 @@ class JarBucketGroup(
 
     override fun getRoots() = listOf(jarFile)
 
+    /**
+     * Returns the [ClassBucket]s of this group. The central directory of the jar is read once to
+     * find the class entries of all the buckets, instead of once by each bucket.
+     *
+     * If the jar does not exist, or is too large to be mapped, the returned buckets look for their
+     * entries themselves.
+     */
+    fun partition(): List<ClassBucket> {
+        val path = jarFile.toPath()
+        if (!jarFile.isFile || !MappedZipReader.canMap(path)) {
+            return (0 until numOfBuckets).map { ClassBucket(this, it) }
+        }
+
+        val buckets = List(numOfBuckets) { ArrayList<JarEntryLocation>() }
+        MappedZipReader(path).use { reader ->
+            for (entry in ZipMap.from(reader, Zip64.Policy.ALLOW).entries.values) {
+                if (!ClassFileInput.CLASS_MATCHER.test(entry.name)) {
+                    continue
+                }
+                val payload = entry.payloadLocation
+                buckets[getBucketNumber(entry.name, numOfBuckets, isJarFile = true)].add(
+                    JarEntryLocation(
+                        entry.name,
+                        payload.first,
+                        payload.size(),
+                        entry.isCompressed,
+                        entry.uncompressedSize
+                    )
+                )
+            }
+        }
+        return buckets.mapIndexed { bucketNumber, entries ->
+            // Read entries in the order they are stored in the jar
+            entries.sortBy { it.payloadOffset }
+            ClassBucket(this, bucketNumber, entries)
+        }
+    }
+
+    companion object {
+        private const val serialVersionUID = 1L
+    }
+}
+
+/** Location of the data of a class entry in a jar, see [JarBucketGroup.partition]. */
+class JarEntryLocation(
+    val name: String,
+    val payloadOffset: Long,
+    val payloadSize: Long,
+    val isCompressed: Boolean,
+    val uncompressedSize: Long
+) : Serializable {
+
     companion object {
         private const val serialVersionUID = 1L
     }
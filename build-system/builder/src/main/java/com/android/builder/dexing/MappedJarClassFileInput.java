@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.dexing;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.BiPredicate;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A {@link ClassFileInput} for class entries of a jar whose locations are already known (see
+ * {@link JarBucketGroup#partition()}), so the central directory of the jar is not read again.
+ * Entries are read from a memory mapping of the jar.
+ */
+final class MappedJarClassFileInput implements ClassFileInput {
+
+    @NonNull private final Path rootPath;
+    @NonNull private final List<JarEntryLocation> locations;
+    @Nullable private FileChannel channel;
+    @Nullable private MappedByteBuffer mapping;
+
+    MappedJarClassFileInput(@NonNull Path rootPath, @NonNull List<JarEntryLocation> locations) {
+        this.rootPath = rootPath;
+        this.locations = locations;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    @Override
+    @NonNull
+    public Stream<ClassFileEntry> entries(BiPredicate<Path, String> filter) {
+        if (mapping == null) {
+            try {
+                channel = FileChannel.open(rootPath, StandardOpenOption.READ);
+                mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (IOException e) {
+                throw new JarClassFileInput.JarClassFileInputsException(
+                        "Unable to read jar file " + rootPath.toString(), e);
+            }
+        }
+        MappedByteBuffer jar = mapping;
+        return locations.stream()
+                .filter(location -> filter.test(rootPath, location.getName()))
+                .map(location -> new MappedJarClassFileEntry(location, jar, this));
+    }
+
+    @Override
+    public Path getPath() {
+        return rootPath;
+    }
+
+    private static final class MappedJarClassFileEntry implements ClassFileEntry {
+
+        @NonNull private final JarEntryLocation location;
+        @NonNull private final ByteBuffer jar;
+        @NonNull private final ClassFileInput input;
+
+        MappedJarClassFileEntry(
+                @NonNull JarEntryLocation location,
+                @NonNull ByteBuffer jar,
+                @NonNull ClassFileInput input) {
+            this.location = location;
+            this.jar = jar;
+            this.input = input;
+        }
+
+        @Override
+        public String name() {
+            return "Zip:" + location.getName();
+        }
+
+        @Override
+        public long getSize() {
+            return location.getUncompressedSize();
+        }
+
+        @Override
+        public String getRelativePath() {
+            return location.getName();
+        }
+
+        @NonNull
+        @Override
+        public ClassFileInput getInput() {
+            return input;
+        }
+
+        @Override
+        public byte[] readAllBytes() throws IOException {
+            byte[] bytes = new byte[Math.toIntExact(location.getUncompressedSize())];
+            readAllBytes(bytes);
+            return bytes;
+        }
+
+        @Override
+        public int readAllBytes(byte[] bytes) throws IOException {
+            int size = Math.toIntExact(location.getUncompressedSize());
+            if (bytes.length < size) {
+                throw new IOException(
+                        "Buffer of " + bytes.length + " bytes too small for " + name());
+            }
+            ByteBuffer payload = jar.duplicate();
+            payload.position(Math.toIntExact(location.getPayloadOffset()));
+            payload.limit(Math.toIntExact(location.getPayloadOffset() + location.getPayloadSize()));
+            if (!location.isCompressed()) {
+                payload.get(bytes, 0, size);
+                return size;
+            }
+
+            byte[] compressed = new byte[payload.remaining()];
+            payload.get(compressed);
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(compressed);
+                int read = 0;
+                while (read < size && !inflater.finished()) {
+                    int count = inflater.inflate(bytes, read, size - read);
+                    if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    read += count;
+                }
+                if (read != size) {
+                    throw new IOException("Truncated entry " + name());
+                }
+                return read;
+            } catch (DataFormatException e) {
+                throw new IOException("Invalid compressed entry " + name(), e);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+}
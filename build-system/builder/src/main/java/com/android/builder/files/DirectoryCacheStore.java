@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.files;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.utils.FileUtils;
+import com.google.common.base.Preconditions;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A {@link KeyedFileCacheStore} that keeps one file per key in a directory, with no bound on its
+ * size. Every lookup checks the file system.
+ */
+public class DirectoryCacheStore implements KeyedFileCacheStore {
+
+    /** Prefix of the temporary files entries are written to before being moved in place. */
+    static final String TEMP_FILE_PREFIX = ".tmp-";
+
+    /** The directory where the cache exists. */
+    @NonNull private final File directory;
+
+    /**
+     * Creates a new store.
+     *
+     * @param directory the directory where the cache is stored
+     */
+    public DirectoryCacheStore(@NonNull File directory) {
+        Preconditions.checkArgument(directory.isDirectory(), "!File.isDirectory(): %s", directory);
+        this.directory = directory;
+    }
+
+    @Nullable
+    @Override
+    public File get(@NonNull String key) {
+        File file = new File(directory, key);
+        if (file.isFile()) {
+            return file;
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public void put(@NonNull String key, @NonNull EntryWriter writer) throws IOException {
+        if (!directory.isDirectory()) {
+            FileUtils.mkdirs(directory);
+        }
+
+        writeAtomically(new File(directory, key), writer);
+    }
+
+    @Override
+    public void remove(@NonNull String key) throws IOException {
+        File toRemove = new File(directory, key);
+        if (toRemove.exists()) {
+            FileUtils.delete(toRemove);
+        }
+    }
+
+    @Override
+    public void clear() throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File f : files) {
+            if (f.isFile()) {
+                FileUtils.delete(f);
+            }
+        }
+    }
+
+    /**
+     * Writes a file by writing a temporary file in the same directory and moving it in place, so
+     * that readers see either the previous contents or the new ones.
+     */
+    static void writeAtomically(@NonNull File file, @NonNull EntryWriter writer)
+            throws IOException {
+        File temp = File.createTempFile(TEMP_FILE_PREFIX, null, file.getParentFile());
+        try {
+            writer.write(temp);
+            Files.move(
+                    temp.toPath(),
+                    file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+}
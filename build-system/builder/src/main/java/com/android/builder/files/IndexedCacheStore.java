@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.files;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.utils.FileUtils;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.io.CountingInputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UTFDataFormatException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * A {@link KeyedFileCacheStore} that keeps one file per key in a directory, like {@link
+ * DirectoryCacheStore}, plus an in-memory index of the entries so that lookups don't need the file
+ * system, and that evicts the least recently used entries when the cache grows over a given size.
+ *
+ * <p>The index is persisted in an append-only log in the directory, which is replayed when the store
+ * is created, and rewritten when it has grown much larger than the index. Lookups don't write to the
+ * log: the entries they use are recorded with the next change to the cache. Each record of the log
+ * ends with its CRC32, and a damaged log is never an error: the records after the damage are
+ * dropped.
+ *
+ * <p>The files of the directory must not be changed other than through this store, and a directory
+ * must only be used by one store at a time. Entries are only evicted by {@link #put}, which never
+ * evicts the entry it stores.
+ */
+public class IndexedCacheStore implements KeyedFileCacheStore {
+
+    /** Name of the log file, which can't clash with {@link KeyedFileCache#fileNameKey} keys. */
+    @VisibleForTesting static final String INDEX_FILE_NAME = ".index";
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final byte OP_USE = 3;
+
+    /** Number of log records above twice the number of entries which triggers a rewrite. */
+    private static final int MAX_EXTRA_LOG_RECORDS = 1024;
+
+    @NonNull private final File directory;
+
+    @NonNull private final File indexFile;
+
+    private final long maxBytes;
+
+    /** Sizes of the entries, from least to most recently used. */
+    @NonNull
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Entries used since the log was last written to. */
+    @NonNull private final Set<String> used = new LinkedHashSet<>();
+
+    private long totalBytes;
+
+    private int logRecords;
+
+    /**
+     * Creates a new store, loading the index of the directory.
+     *
+     * @param directory the directory where the cache is stored
+     * @param maxBytes the size over which least recently used entries are evicted
+     * @throws IOException failed to load or create the index
+     */
+    public IndexedCacheStore(@NonNull File directory, long maxBytes) throws IOException {
+        Preconditions.checkArgument(directory.isDirectory(), "!File.isDirectory(): %s", directory);
+        Preconditions.checkArgument(maxBytes > 0, "maxBytes <= 0: %s", maxBytes);
+        this.directory = directory;
+        this.indexFile = new File(directory, INDEX_FILE_NAME);
+        this.maxBytes = maxBytes;
+
+        deleteTempFiles();
+        if (indexFile.isFile()) {
+            loadIndex();
+        } else {
+            scanDirectory();
+            rewriteIndex();
+        }
+        if (!evict(null).isEmpty()) {
+            rewriteIndex();
+        }
+    }
+
+    @Nullable
+    @Override
+    public synchronized File get(@NonNull String key) {
+        if (entries.get(key) == null) {
+            return null;
+        }
+        used.add(key);
+        return new File(directory, key);
+    }
+
+    @Override
+    public synchronized void put(@NonNull String key, @NonNull EntryWriter writer)
+            throws IOException {
+        checkKey(key);
+        if (!directory.isDirectory()) {
+            // The whole cache was deleted, index included.
+            FileUtils.mkdirs(directory);
+            reset();
+        }
+
+        File file = new File(directory, key);
+        DirectoryCacheStore.writeAtomically(file, writer);
+        long size = file.length();
+        Long previous = entries.put(key, size);
+        totalBytes += size - (previous == null ? 0 : previous);
+
+        try (DataOutputStream log = openLog()) {
+            writeRecord(log, OP_PUT, key, size);
+            for (String evicted : evict(key)) {
+                writeRecord(log, OP_REMOVE, evicted, 0);
+            }
+        }
+        maybeRewriteIndex();
+    }
+
+    @Override
+    public synchronized void remove(@NonNull String key) throws IOException {
+        Long size = entries.remove(key);
+        if (size == null) {
+            return;
+        }
+        totalBytes -= size;
+        FileUtils.deleteIfExists(new File(directory, key));
+        try (DataOutputStream log = openLog()) {
+            writeRecord(log, OP_REMOVE, key, 0);
+        }
+        maybeRewriteIndex();
+    }
+
+    @Override
+    public synchronized void clear() throws IOException {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.isFile()) {
+                    FileUtils.delete(f);
+                }
+            }
+        }
+        reset();
+    }
+
+    /** Returns the total size of the entries. */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    private void reset() {
+        entries.clear();
+        used.clear();
+        totalBytes = 0;
+        logRecords = 0;
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache fits in {@link #maxBytes}.
+     *
+     * @param keep the key of an entry never to evict
+     * @return the keys of the evicted entries
+     */
+    @NonNull
+    private List<String> evict(@Nullable String keep) throws IOException {
+        List<String> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            if (entry.getKey().equals(keep)) {
+                continue;
+            }
+            it.remove();
+            totalBytes -= entry.getValue();
+            used.remove(entry.getKey());
+            FileUtils.deleteIfExists(new File(directory, entry.getKey()));
+            evicted.add(entry.getKey());
+        }
+        return evicted;
+    }
+
+    /**
+     * Replays the log, up to the first record that is partial or damaged, e.g. by an interrupted
+     * write, and drops the rest of the log. The directory is indexed again if no record is valid.
+     */
+    private void loadIndex() throws IOException {
+        long validLength = 0;
+        try (CountingInputStream counting =
+                        new CountingInputStream(
+                                new BufferedInputStream(new FileInputStream(indexFile)));
+                CheckedInputStream checked = new CheckedInputStream(counting, new CRC32());
+                DataInputStream in = new DataInputStream(checked)) {
+            while (true) {
+                checked.getChecksum().reset();
+                byte op = in.readByte();
+                String key = in.readUTF();
+                long size = in.readLong();
+                int crc = (int) checked.getChecksum().getValue();
+                if (in.readInt() != crc) {
+                    break;
+                }
+                if (op == OP_PUT) {
+                    Long previous = entries.put(key, size);
+                    totalBytes += size - (previous == null ? 0 : previous);
+                } else if (op == OP_REMOVE) {
+                    Long removed = entries.remove(key);
+                    totalBytes -= removed == null ? 0 : removed;
+                } else if (op == OP_USE) {
+                    entries.get(key);
+                } else {
+                    break;
+                }
+                logRecords++;
+                validLength = counting.getCount();
+            }
+        } catch (EOFException | UTFDataFormatException e) {
+            // End of the log.
+        }
+
+        if (validLength == 0 && indexFile.length() > 0) {
+            reset();
+            scanDirectory();
+            rewriteIndex();
+        } else if (validLength < indexFile.length()) {
+            try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+                raf.setLength(validLength);
+            }
+        }
+    }
+
+    /** Indexes a directory written without an index, e.g. by {@link DirectoryCacheStore}. */
+    private void scanDirectory() {
+        File[] files =
+                directory.listFiles(f -> f.isFile() && !f.getName().equals(INDEX_FILE_NAME));
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            long size = file.length();
+            entries.put(file.getName(), size);
+            totalBytes += size;
+        }
+    }
+
+    private void maybeRewriteIndex() throws IOException {
+        if (logRecords > 2 * entries.size() + MAX_EXTRA_LOG_RECORDS) {
+            rewriteIndex();
+        }
+    }
+
+    /** Replaces the log with one record per entry, from least to most recently used. */
+    private void rewriteIndex() throws IOException {
+        used.clear();
+        DirectoryCacheStore.writeAtomically(
+                indexFile,
+                file -> {
+                    try (DataOutputStream out =
+                            new DataOutputStream(
+                                    new BufferedOutputStream(new FileOutputStream(file)))) {
+                        for (Map.Entry<String, Long> entry : entries.entrySet()) {
+                            writeRecord(out, OP_PUT, entry.getKey(), entry.getValue());
+                        }
+                    }
+                });
+        logRecords = entries.size();
+    }
+
+    /** Opens the log for appending, after recording the entries used since the last change. */
+    @NonNull
+    private DataOutputStream openLog() throws IOException {
+        DataOutputStream out =
+                new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(indexFile, true)));
+        for (String key : used) {
+            if (entries.containsKey(key)) {
+                writeRecord(out, OP_USE, key, 0);
+            }
+        }
+        used.clear();
+        return out;
+    }
+
+    private void writeRecord(@NonNull DataOutputStream out, byte op, @NonNull String key, long size)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeByte(op);
+        record.writeUTF(key);
+        record.writeLong(size);
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        bytes.writeTo(out);
+        out.writeInt((int) crc.getValue());
+        logRecords++;
+    }
+
+    private void deleteTempFiles() throws IOException {
+        File[] files =
+                directory.listFiles(
+                        f -> f.getName().startsWith(DirectoryCacheStore.TEMP_FILE_PREFIX));
+        if (files != null) {
+            for (File f : files) {
+                FileUtils.deleteIfExists(f);
+            }
+        }
+    }
+
+    private static void checkKey(@NonNull String key) {
+        Preconditions.checkArgument(
+                !key.equals(INDEX_FILE_NAME)
+                        && !key.startsWith(DirectoryCacheStore.TEMP_FILE_PREFIX),
+                "Reserved cache key: %s",
+                key);
+    }
+}
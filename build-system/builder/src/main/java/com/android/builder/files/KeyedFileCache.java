@@ -18,7 +18,6 @@ package com.android.builder.files;
 
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
-import com.android.utils.FileUtils;
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.hash.Hashing;
@@ -51,11 +50,8 @@ import org.apache.commons.codec.binary.Base64;
  */
 public class KeyedFileCache {
 
-    /**
-     * The directory where the cache exists.
-     */
-    @NonNull
-    private final File directory;
+    /** Where the cached files are stored. */
+    @NonNull private final KeyedFileCacheStore store;
 
     /**
      * The function that maps a file to its location in the cache. See {@link #fileNameKey(File)}
@@ -64,15 +60,27 @@ public class KeyedFileCache {
     @NonNull private final Function<File, String> keyFunction;
 
     /**
-     * Creates a new cache.
+     * Creates a new cache storing one file per key in the given directory, without any bound on
+     * its size.
      *
      * @param directory the directory where the cache is stored
      * @param keyFunction a function that maps a file to its location in the cache. See {@link
      *     #fileNameKey(File)} for one example.
      */
     public KeyedFileCache(@NonNull File directory, @NonNull Function<File, String> keyFunction) {
-        Preconditions.checkArgument(directory.isDirectory(), "!File.isDirectory(): %s", directory);
-        this.directory = directory;
+        this(new DirectoryCacheStore(directory), keyFunction);
+    }
+
+    /**
+     * Creates a new cache.
+     *
+     * @param store where the cache is stored, e.g. an {@link IndexedCacheStore} to bound its size
+     * @param keyFunction a function that maps a file to its location in the cache. See {@link
+     *     #fileNameKey(File)} for one example.
+     */
+    public KeyedFileCache(
+            @NonNull KeyedFileCacheStore store, @NonNull Function<File, String> keyFunction) {
+        this.store = store;
         this.keyFunction = keyFunction;
     }
 
@@ -85,12 +93,7 @@ public class KeyedFileCache {
     public void add(@NonNull File f) throws IOException {
         Preconditions.checkArgument(f.isFile(), "!File.isFile(): %s", f);
 
-        if (!directory.isDirectory()) {
-            FileUtils.mkdirs(directory);
-        }
-
-        String k = key(f);
-        Files.copy(f, new File(directory, k));
+        store.put(key(f), target -> Files.copy(f, target));
     }
 
     /**
@@ -103,11 +106,7 @@ public class KeyedFileCache {
         final File file = centralDirectory.getFile();
         Preconditions.checkArgument(file.isFile(), "!File.isFile(): %s", file);
 
-        if (!directory.isDirectory()) {
-            FileUtils.mkdirs(directory);
-        }
-
-        centralDirectory.writeTo(new File(directory, key(file)));
+        store.put(key(file), centralDirectory::writeTo);
     }
 
     /**
@@ -119,12 +118,7 @@ public class KeyedFileCache {
      */
     @Nullable
     public File get(@NonNull File f) {
-        File file = new File(directory, key(f));
-        if (file.isFile()) {
-            return file;
-        } else {
-            return null;
-        }
+        return store.get(key(f));
     }
 
     /**
@@ -134,10 +128,7 @@ public class KeyedFileCache {
      * @throws IOException failed to remove the file
      */
     public void remove(@NonNull File f) throws IOException {
-        File toRemove = new File(directory, key(f));
-        if (toRemove.exists()) {
-            FileUtils.delete(toRemove);
-        }
+        store.remove(key(f));
     }
 
     private String key(@NonNull File f) {
@@ -170,15 +161,6 @@ public class KeyedFileCache {
      * @throws IOException failed to clear the cache
      */
     public void clear() throws IOException {
-        File[] files = directory.listFiles();
-        if (files == null) {
-            return;
-        }
-
-        for (File f : files) {
-            if (f.isFile()) {
-                FileUtils.delete(f);
-            }
-        }
+        store.clear();
     }
 }
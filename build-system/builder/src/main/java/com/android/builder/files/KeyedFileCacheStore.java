@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.files;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Storage of the files of a {@link KeyedFileCache}, by key.
+ *
+ * <p>{@link DirectoryCacheStore} keeps one file per key in a directory and asks the file system for
+ * every lookup. {@link IndexedCacheStore} keeps an index of the directory in memory and bounds its
+ * size.
+ */
+public interface KeyedFileCacheStore {
+
+    /** Writes the contents of an entry. */
+    interface EntryWriter {
+        void write(@NonNull File file) throws IOException;
+    }
+
+    /**
+     * Obtains the file stored for the given key.
+     *
+     * @return the file, {@code null} if there is no entry for the key
+     */
+    @Nullable
+    File get(@NonNull String key);
+
+    /**
+     * Stores an entry, replacing any entry with the same key. The entry is written to a temporary
+     * file first, so that a failed or interrupted write never leaves a partial entry behind.
+     *
+     * @throws IOException failed to write the entry
+     */
+    void put(@NonNull String key, @NonNull EntryWriter writer) throws IOException;
+
+    /**
+     * Removes the entry for the given key, if any.
+     *
+     * @throws IOException failed to remove the entry
+     */
+    void remove(@NonNull String key) throws IOException;
+
+    /**
+     * Removes all entries.
+     *
+     * @throws IOException failed to remove the entries
+     */
+    void clear() throws IOException;
+}
@@ -31,6 +31,23 @@ interface Aapt2 {
     /** Perform the requested compilation. Throws [Aapt2Exception] on failure */
     fun compile(request: CompileResourceRequest, logger: ILogger)
 
+    /**
+     * Perform the requested compilations, in order.
+     *
+     * Implementations may send the requests to AAPT2 together, in which case the requests after a
+     * failing one are still processed. Throws [Aapt2Exception] on failure, with the
+     * [Aapt2Exception.compileRequest] that failed.
+     */
+    fun compile(requests: List<CompileResourceRequest>, logger: ILogger) {
+        requests.forEach { request ->
+            try {
+                compile(request, logger)
+            } catch (e: Aapt2Exception) {
+                throw e.withCompileRequest(request)
+            }
+        }
+    }
+
     /** Perform the requested linking. Throws [Aapt2Exception] on failure. */
     fun link(request: AaptPackageConfig, logger: ILogger)
 
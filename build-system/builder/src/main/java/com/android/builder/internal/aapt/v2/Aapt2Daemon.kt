@@ -29,9 +29,11 @@ import javax.annotation.concurrent.NotThreadSafe
  * Manages an AAPT2 daemon process. Implementations are not expected to be thread safe.
  *
  * This must be used in the following sequence:
+ * Optionally call [start] to start the underlying daemon process ahead of its first use.
  * Call [compile] or [link] as many times as needed.
  * These methods block until the operation requested is complete.
- * The first call to either of [compile] or [link] will start the underlying daemon process.
+ * The first call to either of [compile] or [link] will start the underlying daemon process if
+ * [start] was not called.
  * Call [shutDown()], which blocks until the daemon process has exited.
  *
  * Processes cannot be re-started.
@@ -48,6 +50,9 @@ abstract class Aapt2Daemon(
     var state: State = State.NEW
         private set
 
+    /** Starts the underlying daemon process if it is not running yet, blocking until it is ready. */
+    fun start() = checkStarted()
+
     private fun checkStarted() {
         when (state) {
             State.NEW -> {
@@ -118,6 +123,39 @@ abstract class Aapt2Daemon(
     @Throws(TimeoutException::class, Aapt2InternalException::class, Aapt2Exception::class)
     protected abstract fun doCompile(request: CompileResourceRequest, logger: ILogger)
 
+    override fun compile(requests: List<CompileResourceRequest>, logger: ILogger) {
+        checkStarted()
+        try {
+            doCompile(requests, logger)
+        } catch (e: Aapt2Exception) {
+            // Propagate errors in the users sources directly.
+            throw e
+        } catch (e: TimeoutException) {
+            handleError("Compile of ${requests.size} files timed out", e)
+        } catch (e: Exception) {
+            handleError("Unexpected error during compile of ${requests.size} files", e)
+        }
+    }
+
+    /**
+     * Implementors may override this to compile the files in the requests given in fewer round
+     * trips to the daemon process. By default, the requests are compiled one at a time.
+     *
+     * Compilation failures must be thrown with the [Aapt2Exception.compileRequest] that failed.
+     *
+     * This will only be called after [startProcess] is called and before [stopProcess] is called
+     */
+    @Throws(TimeoutException::class, Aapt2InternalException::class, Aapt2Exception::class)
+    protected open fun doCompile(requests: List<CompileResourceRequest>, logger: ILogger) {
+        requests.forEach { request ->
+            try {
+                doCompile(request, logger)
+            } catch (e: Aapt2Exception) {
+                throw e.withCompileRequest(request)
+            }
+        }
+    }
+
     override fun link(request: AaptPackageConfig, logger: ILogger) {
         checkStarted()
         try {
@@ -138,35 +138,87 @@ class Aapt2DaemonImpl(
         try {
             processOutput.delegate = waitForTask
             Aapt2DaemonUtil.requestCompile(writer, request)
-            // Temporary workaround for b/111629686, manually generate the partial R file for raw and non xml res.
-            request.partialRFile?.apply {
-                if (request.inputDirectoryName.startsWith("raw") || !request.inputFile.path.endsWith(".xml")) {
-                    val type = request.inputDirectoryName.substringBefore('-')
-                    val nameWithoutExtension = request.inputFile.name.substringBefore('.')
-                    Files.write(toPath(), ImmutableList.of("default int $type $nameWithoutExtension"))
-                }
+            writePartialRFileWorkaround(request)
+            checkCompileResult(
+                request,
+                waitForTask.future.get(daemonTimeouts.compile, daemonTimeouts.compileUnit),
+                logger
+            )
+        } finally {
+            processOutput.delegate = noOutputExpected
+        }
+    }
+
+    /**
+     * Sends all the requests to the daemon before waiting for any of them, so the daemon does not
+     * wait for this thread between two files. The results are read in order, and the first
+     * compilation failure is thrown once the daemon has processed all the requests, with the
+     * failures of later requests suppressed. Each failure carries the request that caused it.
+     */
+    @Throws(TimeoutException::class, Aapt2InternalException::class, Aapt2Exception::class)
+    override fun doCompile(requests: List<CompileResourceRequest>, logger: ILogger) {
+        val waitForBatch = WaitForBatchCompletion(displayName, logger, requests.size)
+        try {
+            processOutput.delegate = waitForBatch
+            requests.forEach { request ->
+                Aapt2DaemonUtil.requestCompile(writer, request)
+                writePartialRFileWorkaround(request)
             }
-            when (val result = waitForTask.future.get(daemonTimeouts.compile, daemonTimeouts.compileUnit)) {
-                is WaitForTaskCompletion.Result.Succeeded -> {}
-                is WaitForTaskCompletion.Result.Failed -> {
-                    val args = makeCompileCommand(request).joinToString(" \\\n        ")
-                    throw Aapt2Exception.create(
-                        logger = logger,
-                        description = "Android resource compilation failed",
-                        output = result.stdErr,
-                        processName = displayName,
-                        command = "$aaptPath compile $args"
-                    )
-                }
-                is WaitForTaskCompletion.Result.InternalAapt2Error -> {
-                    throw result.failure
+            var failure: Aapt2Exception? = null
+            requests.forEachIndexed { index, request ->
+                val result = waitForBatch.tasks[index].future
+                    .get(daemonTimeouts.compile, daemonTimeouts.compileUnit)
+                try {
+                    checkCompileResult(request, result, logger)
+                } catch (e: Aapt2Exception) {
+                    if (failure == null) failure = e else failure!!.addSuppressed(e)
                 }
             }
+            failure?.let { throw it }
         } finally {
             processOutput.delegate = noOutputExpected
         }
     }
 
+    /**
+     * Temporary workaround for b/111629686, manually generate the partial R file for raw and non
+     * xml res.
+     */
+    private fun writePartialRFileWorkaround(request: CompileResourceRequest) {
+        request.partialRFile?.apply {
+            if (request.inputDirectoryName.startsWith("raw") ||
+                    !request.inputFile.path.endsWith(".xml")) {
+                val type = request.inputDirectoryName.substringBefore('-')
+                val nameWithoutExtension = request.inputFile.name.substringBefore('.')
+                Files.write(toPath(), ImmutableList.of("default int $type $nameWithoutExtension"))
+            }
+        }
+    }
+
+    private fun checkCompileResult(
+        request: CompileResourceRequest,
+        result: WaitForTaskCompletion.Result,
+        logger: ILogger
+    ) {
+        when (result) {
+            is WaitForTaskCompletion.Result.Succeeded -> {}
+            is WaitForTaskCompletion.Result.Failed -> {
+                val args = makeCompileCommand(request).joinToString(" \\\n        ")
+                throw Aapt2Exception.create(
+                    logger = logger,
+                    description = "Android resource compilation failed",
+                    output = result.stdErr,
+                    processName = displayName,
+                    command = "$aaptPath compile $args",
+                    compileRequest = request
+                )
+            }
+            is WaitForTaskCompletion.Result.InternalAapt2Error -> {
+                throw result.failure
+            }
+        }
+    }
+
     @Throws(TimeoutException::class, Aapt2InternalException::class, Aapt2Exception::class)
     override fun doLink(request: AaptPackageConfig, logger: ILogger) {
         val waitForTask = WaitForTaskCompletion(displayName, logger)
@@ -364,6 +416,41 @@ class Aapt2DaemonImpl(
         }
     }
 
+    /**
+     * Reads the output of several tasks sent to the daemon at once, which answers them in the order
+     * they were sent.
+     */
+    class WaitForBatchCompletion(
+            displayName: String,
+            val logger: ILogger,
+            taskCount: Int) : GrabProcessOutput.IProcessOutput {
+
+        val tasks = List(taskCount) { WaitForTaskCompletion(displayName, logger) }
+        private var current = 0
+
+        override fun out(line: String?) {
+            if (current < tasks.size) {
+                tasks[current].out(line)
+            }
+        }
+
+        override fun err(line: String?) {
+            if (line == null) {
+                // The process exited, so none of the remaining tasks will complete.
+                while (current < tasks.size) {
+                    tasks[current++].err(null)
+                }
+                return
+            }
+            if (current < tasks.size) {
+                tasks[current].err(line)
+                if (line == "Done") {
+                    current++
+                }
+            }
+        }
+    }
+
     class AllowShutdown(private val displayName: String,
             val logger: ILogger) : GrabProcessOutput.IProcessOutput {
 
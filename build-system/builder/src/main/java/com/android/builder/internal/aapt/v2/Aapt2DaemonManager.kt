@@ -25,6 +25,8 @@ import com.android.utils.ILogger
 import com.google.common.base.Preconditions
 import com.google.common.base.Ticker
 import java.io.Closeable
+import java.util.concurrent.Executor
+import java.util.concurrent.Semaphore
 import java.util.concurrent.TimeUnit
 import javax.annotation.concurrent.GuardedBy
 import javax.annotation.concurrent.NotThreadSafe
@@ -33,10 +35,10 @@ import javax.annotation.concurrent.ThreadSafe
 /**
  * Maintains a pool of AAPT2 daemon processes.
  *
- * The pool is expanded if all processes are busy when a request is received.
- * No attempt is made to limit the size of the pool.
- * Users of this class are expected to manage the desired concurrency level through the use of
- * gradle workers, a thread pool or similar.
+ * The pool is expanded if all processes are busy when a request is received, up to [maxDaemons]
+ * processes. Once that many processes are leased, further requests wait for one to be returned.
+ * Users of this class are still expected to manage the desired concurrency level through the use
+ * of gradle workers, a thread pool or similar, as waiting threads are blocked.
  *
  * Users of this class are expected to call leaseProcess on a worker thread in a
  * try-with-resources/use block. The operations on the [LeasedAaptDaemon] are then blocking on that
@@ -49,20 +51,41 @@ class Aapt2DaemonManager(
         expiryTime: Long,
         expiryTimeUnit: TimeUnit,
         private val listener: Listener = NoOpListener(),
-        private val timeSource: Ticker = Ticker.systemTicker()) {
+        private val timeSource: Ticker = Ticker.systemTicker(),
+        val maxDaemons: Int = Int.MAX_VALUE) {
+
+    init {
+        Preconditions.checkArgument(maxDaemons > 0, "maxDaemons must be positive: %s", maxDaemons)
+    }
 
     private val expiryTimeNanoSeconds = expiryTimeUnit.toNanos(expiryTime)
 
+    /** One permit per daemon that can be leased, acquired without holding the lock on this. */
+    private val leases = Semaphore(maxDaemons, true)
+
     @GuardedBy("this")
     private var latestDisplayId: Int = 0
 
     @GuardedBy("this")
     private val pool: MutableList<LeasableAaptDaemon> = mutableListOf()
 
+    @GuardedBy("this")
+    private var leaseCount: Long = 0
+
+    @GuardedBy("this")
+    private var queueWaitNanoSeconds: Long = 0
+
+    @GuardedBy("this")
+    private var busyNanoSeconds: Long = 0
+
+    @GuardedBy("this")
+    private var restartCount: Int = 0
+
     internal class LeasableAaptDaemon(
             val daemon: Aapt2Daemon,
             var lastUsedNanoSeconds: Long,
             var busy: Boolean = false) {
+        var leasedNanoSeconds: Long = 0
         fun shutdown() = daemon.shutDown()
     }
 
@@ -70,16 +93,66 @@ class Aapt2DaemonManager(
      * Returns a [LeasedAaptDaemon], either from a pool of started daemons,
      * Or starting a new process if all the existing daemons in the pool are in use
      *
-     * Blocks until the daemon is ready to receive commands.
+     * Blocks until a daemon can be leased without exceeding [maxDaemons], and then until the
+     * daemon is ready to receive commands.
      */
-    @Synchronized
     fun leaseDaemon(): LeasedAaptDaemon {
+        // Not synchronized while waiting, so that daemons can be returned in the meantime.
+        val queuedNanoSeconds = timeSource.read()
+        leases.acquire()
+        try {
+            return takeDaemonFromPool(timeSource.read() - queuedNanoSeconds)
+        } catch (e: Throwable) {
+            leases.release()
+            throw e
+        }
+    }
+
+    @Synchronized
+    private fun takeDaemonFromPool(queueWaitNanoSeconds: Long): LeasedAaptDaemon {
         val daemon =
                 pool.find { !it.busy } ?: newAaptDaemon()
         daemon.busy = true
+        daemon.leasedNanoSeconds = timeSource.read()
+        leaseCount++
+        this.queueWaitNanoSeconds += queueWaitNanoSeconds
         return LeasedAaptDaemon(daemon, this::returnProcess)
     }
 
+    /**
+     * Starts new daemons on [executor] until there are [count] daemons in the pool, so that they
+     * are ready when they are first leased.
+     *
+     * Does not wait for daemons to be returned if [maxDaemons] are already leased, and does not
+     * wait for the daemons to start. A daemon that fails to start is dropped from the pool, the
+     * failure is only logged as a warning.
+     */
+    fun prewarm(count: Int, executor: Executor) {
+        for (daemon in takeDaemonsToStart(count)) {
+            executor.execute {
+                try {
+                    daemon.daemon.start()
+                } catch (e: Exception) {
+                    logger.warning("Failed to start AAPT2 daemon ahead of use: %1\$s", e.message)
+                } finally {
+                    returnProcess(daemon)
+                }
+            }
+        }
+    }
+
+    @Synchronized
+    private fun takeDaemonsToStart(count: Int): List<LeasableAaptDaemon> {
+        val daemons = mutableListOf<LeasableAaptDaemon>()
+        while (pool.size < count && leases.tryAcquire()) {
+            daemons.add(newAaptDaemon().apply {
+                busy = true
+                leasedNanoSeconds = timeSource.read()
+            })
+        }
+        return daemons
+    }
+
     /**
      * Checks if any processes are not needed in the pool any more and blocks while they shut down.
      */
@@ -117,17 +190,26 @@ class Aapt2DaemonManager(
     /** Marks the process as returned, and updates when it was last used */
     @Synchronized
     private fun returnProcess(key: LeasableAaptDaemon) {
-        if (key.daemon.state != Aapt2Daemon.State.RUNNING) {
-            // If the daemon was not started or has stopped there's no point keeping it in the pool.
-            // No need to shut it down either, that would have already happened if needed.
-            pool.remove(key)
-            if (pool.isEmpty()) {
-                listener.lastDaemonStopped()
+        try {
+            val now = timeSource.read()
+            busyNanoSeconds += now - key.leasedNanoSeconds
+            if (key.daemon.state != Aapt2Daemon.State.RUNNING) {
+                // If the daemon was not started or has stopped there's no point keeping it in the
+                // pool. No need to shut it down either, that would have already happened if needed.
+                if (key.daemon.state == Aapt2Daemon.State.SHUTDOWN) {
+                    restartCount++
+                }
+                pool.remove(key)
+                if (pool.isEmpty()) {
+                    listener.lastDaemonStopped()
+                }
+                return
             }
-            return
+            key.lastUsedNanoSeconds = now
+            key.busy = false
+        } finally {
+            leases.release()
         }
-        key.lastUsedNanoSeconds = timeSource.read()
-        key.busy = false
     }
 
     @Synchronized
@@ -170,6 +252,12 @@ class Aapt2DaemonManager(
             leasableDaemon.daemon.compile(request, logger)
         }
 
+        @Throws(Aapt2Exception::class)
+        override fun compile(requests: List<CompileResourceRequest>, logger: ILogger) {
+            Preconditions.checkState(leaseValid, "Leased process is already closed")
+            leasableDaemon.daemon.compile(requests, logger)
+        }
+
         @Throws(Aapt2Exception::class)
         override fun link(request: AaptPackageConfig, logger: ILogger) {
             Preconditions.checkState(leaseValid, "Leased process is already closed")
@@ -182,6 +270,12 @@ class Aapt2DaemonManager(
             leasableDaemon.daemon.convert(request, logger)
         }
 
+        /** Starts the underlying daemon if needed, see [Aapt2Daemon.start]. */
+        fun start() {
+            Preconditions.checkState(leaseValid, "Leased process is already closed")
+            leasableDaemon.daemon.start()
+        }
+
         override fun close() {
             Preconditions.checkState(leaseValid, "Leased process is already closed")
             closeAction(leasableDaemon)
@@ -195,6 +289,10 @@ class Aapt2DaemonManager(
             leaseDaemon().use { it.compile(request, logger) }
         }
 
+        override fun compile(requests: List<CompileResourceRequest>, logger: ILogger) {
+            leaseDaemon().use { it.compile(requests, logger) }
+        }
+
         override fun link(request: AaptPackageConfig, logger: ILogger) {
             leaseDaemon().use { it.link(request, logger) }
         }
@@ -225,9 +323,31 @@ class Aapt2DaemonManager(
     }
 
     @Synchronized
-    fun stats(): Stats = Stats(poolSize = pool.size, busyCount = pool.count { it.busy })
+    fun stats(): Stats = Stats(
+            poolSize = pool.size,
+            busyCount = pool.count { it.busy },
+            waitingCount = leases.queueLength,
+            leaseCount = leaseCount,
+            queueWaitNanoSeconds = queueWaitNanoSeconds,
+            busyNanoSeconds = busyNanoSeconds,
+            restartCount = restartCount)
 
-    data class Stats(val poolSize: Int, val busyCount: Int)
+    /**
+     * A snapshot of the state of the pool, and of the totals since the manager was created.
+     *
+     * [queueWaitNanoSeconds] is the time spent by [leaseDaemon] waiting for a daemon to be
+     * returned, [busyNanoSeconds] the time daemons spent leased, counted when they are returned.
+     * [restartCount] is the number of daemons that failed to start or stopped while leased (e.g.
+     * after a timeout or a crash), so that a new daemon has to be started in their place.
+     */
+    data class Stats(
+            val poolSize: Int,
+            val busyCount: Int,
+            val waitingCount: Int = 0,
+            val leaseCount: Long = 0,
+            val queueWaitNanoSeconds: Long = 0,
+            val busyNanoSeconds: Long = 0,
+            val restartCount: Int = 0)
 
 }
 
@@ -16,6 +16,7 @@
 
 package com.android.builder.internal.aapt.v2
 
+import com.android.ide.common.resources.CompileResourceRequest
 import com.android.utils.ILogger
 
 /** Exception thrown when an error occurs during `aapt2` processing.  */
@@ -24,8 +25,22 @@ class Aapt2Exception private constructor(
     cause: Throwable? = null,
     val output: String? = null,
     val processName: String? = null,
-    val command: String? = null
+    val command: String? = null,
+    /** The request that failed to compile, so that errors of a batch can be blamed on it. */
+    val compileRequest: CompileResourceRequest? = null
  ) : RuntimeException(makeMessage(description, output), cause) {
+
+    /** Returns this exception, or a copy of it, with [compileRequest] set to [request]. */
+    fun withCompileRequest(request: CompileResourceRequest): Aapt2Exception {
+        if (compileRequest == request) {
+            return this
+        }
+        return Aapt2Exception(description, cause, output, processName, command, request).also {
+            it.stackTrace = stackTrace
+            suppressed.forEach(it::addSuppressed)
+        }
+    }
+
     companion object {
         private const val serialVersionUID = 7034893190645766936L
         @JvmStatic
@@ -36,8 +51,8 @@ class Aapt2Exception private constructor(
             cause: Throwable? = null,
             output: String? = null,
             processName: String? = null,
-            command: String? = null
-
+            command: String? = null,
+            compileRequest: CompileResourceRequest? = null
         ) : Aapt2Exception {
             logger?.info("$description:\n" +
                     "process = $processName:\n" +
@@ -47,7 +62,8 @@ class Aapt2Exception private constructor(
                 cause = cause,
                 output = output,
                 processName = processName,
-                command = command)
+                command = command,
+                compileRequest = compileRequest)
         }
     }
 }
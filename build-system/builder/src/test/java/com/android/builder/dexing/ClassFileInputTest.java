@@ -23,13 +23,21 @@ import com.android.annotations.NonNull;
 import com.android.tools.build.apkzlib.zip.ZFile;
 import com.android.utils.FileUtils;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.Closer;
 import com.google.common.truth.Truth;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -191,6 +199,60 @@ public class ClassFileInputTest {
         validateEntries(input, ImmutableList.of());
     }
 
+    @Test
+    public void testPartitionedJarBucketsMatchScannedBuckets() throws IOException {
+        File jarFile = FileUtils.join(temporaryFolder.getRoot(), "input.jar");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jarFile))) {
+            for (int i = 0; i < 40; i++) {
+                byte[] content = new byte[100 + i];
+                Arrays.fill(content, (byte) i);
+                ZipEntry entry = new ZipEntry("pkg" + (i % 10) + "/C" + i + ".class");
+                if (i % 3 == 0) {
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(content.length);
+                    CRC32 crc = new CRC32();
+                    crc.update(content);
+                    entry.setCrc(crc.getValue());
+                }
+                out.putNextEntry(entry);
+                out.write(content);
+                out.closeEntry();
+            }
+            out.putNextEntry(new ZipEntry("pkg0/ignored.txt"));
+            out.closeEntry();
+        }
+
+        JarBucketGroup group = new JarBucketGroup(jarFile, 4);
+        List<ClassBucket> partitioned = group.partition();
+        assertThat(partitioned).hasSize(4);
+        int count = 0;
+        for (ClassBucket bucket : partitioned) {
+            Map<String, byte[]> expected =
+                    readBucket(new ClassBucket(group, bucket.getBucketNumber()));
+            Map<String, byte[]> actual = readBucket(bucket);
+            assertThat(actual.keySet()).containsExactlyElementsIn(expected.keySet());
+            for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+                assertThat(actual.get(entry.getKey())).isEqualTo(entry.getValue());
+            }
+            count += actual.size();
+        }
+        assertThat(count).isEqualTo(40);
+    }
+
+    @NonNull
+    private static Map<String, byte[]> readBucket(@NonNull ClassBucket bucket)
+            throws IOException {
+        Map<String, byte[]> contents = new HashMap<>();
+        try (Closer closer = Closer.create()) {
+            for (ClassFileEntry entry :
+                    bucket.getClassFiles((file, path) -> true, closer)
+                            .collect(Collectors.toList())) {
+                contents.put(entry.getRelativePath(), entry.readAllBytes());
+            }
+        }
+        return contents;
+    }
+
     private void validateEntries(@NonNull File rootPath, @NonNull List<String> fileNames)
             throws IOException {
         List<String> filesRead =
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests for {@link IndexedCacheStore}. */
+public class IndexedCacheStoreTest {
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File cacheDir;
+
+    @Before
+    public void before() throws Exception {
+        cacheDir = temporaryFolder.newFolder("cache");
+    }
+
+    private static void put(KeyedFileCacheStore store, String key, int size) throws IOException {
+        store.put(key, file -> Files.write(new byte[size], file));
+    }
+
+    @Test
+    public void putAndGet() throws Exception {
+        IndexedCacheStore store = new IndexedCacheStore(cacheDir, 1000);
+        byte[] data = {1, 2, 3};
+        store.put("a", file -> Files.write(data, file));
+
+        File a = store.get("a");
+        assertNotNull(a);
+        assertArrayEquals(data, Files.toByteArray(a));
+        assertNull(store.get("b"));
+        assertEquals(3, store.getTotalBytes());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        IndexedCacheStore store = new IndexedCacheStore(cacheDir, 300);
+        put(store, "a", 100);
+        put(store, "b", 100);
+        put(store, "c", 100);
+        assertNotNull(store.get("a"));
+
+        put(store, "d", 100);
+        assertNotNull(store.get("a"));
+        assertNull(store.get("b"));
+        assertFalse(new File(cacheDir, "b").exists());
+        assertNotNull(store.get("c"));
+        assertNotNull(store.get("d"));
+        assertEquals(300, store.getTotalBytes());
+    }
+
+    @Test
+    public void neverEvictsAddedEntry() throws Exception {
+        IndexedCacheStore store = new IndexedCacheStore(cacheDir, 100);
+        put(store, "a", 50);
+        put(store, "b", 500);
+
+        assertNull(store.get("a"));
+        assertNotNull(store.get("b"));
+    }
+
+    @Test
+    public void indexIsPersisted() throws Exception {
+        IndexedCacheStore store = new IndexedCacheStore(cacheDir, 300);
+        put(store, "a", 100);
+        put(store, "b", 100);
+        put(store, "c", 100);
+        store.remove("c");
+        assertNotNull(store.get("a"));
+        put(store, "c", 50);
+
+        store = new IndexedCacheStore(cacheDir, 300);
+        assertEquals(250, store.getTotalBytes());
+        assertNull(store.get("d"));
+
+        // "b" is now the least recently used entry.
+        put(store, "d", 100);
+        assertNull(store.get("b"));
+        assertNotNull(store.get("a"));
+        assertNotNull(store.get("c"));
+    }
+
+    @Test
+    public void partialIndexRecordIsDropped() throws Exception {
+        IndexedCacheStore store = new IndexedCacheStore(cacheDir, 1000);
+        put(store, "a", 10);
+        File index = new File(cacheDir, IndexedCacheStore.INDEX_FILE_NAME);
+        long length = index.length();
+        put(store, "b", 10);
+        try (RandomAccessFile raf = new RandomAccessFile(index, "rw")) {
+            raf.setLength(index.length() - 3);
+        }
+
+        store = new IndexedCacheStore(cacheDir, 1000);
+        assertNotNull(store.get("a"));
+        assertNull(store.get("b"));
+        assertEquals(length, index.length());
+    }
+
+    @Test
+    public void damagedIndexRecordsAreDropped() throws Exception {
+        IndexedCacheStore store = new IndexedCacheStore(cacheDir, 1000);
+        put(store, "a", 10);
+        put(store, "b", 20);
+        File index = new File(cacheDir, IndexedCacheStore.INDEX_FILE_NAME);
+        long length = index.length();
+
+        // A zero-filled tail, as left by a crash on some file systems
+        try (RandomAccessFile raf = new RandomAccessFile(index, "rw")) {
+            raf.setLength(length + 32);
+        }
+        store = new IndexedCacheStore(cacheDir, 1000);
+        assertNotNull(store.get("a"));
+        assertNotNull(store.get("b"));
+        assertEquals(30, store.getTotalBytes());
+        assertEquals(length, index.length());
+
+        // A put record with a wrong checksum
+        try (RandomAccessFile raf = new RandomAccessFile(index, "rw")) {
+            raf.seek(length);
+            raf.write(new byte[] {1, 0, 1, 'c', 0, 0, 0, 0, 0, 0, 0, 10, 1, 2, 3, 4});
+        }
+        store = new IndexedCacheStore(cacheDir, 1000);
+        assertNull(store.get("c"));
+        assertEquals(30, store.getTotalBytes());
+        assertEquals(length, index.length());
+
+        // The store still works after recovering.
+        put(store, "c", 30);
+        store = new IndexedCacheStore(cacheDir, 1000);
+        assertNotNull(store.get("c"));
+        assertEquals(60, store.getTotalBytes());
+    }
+
+    @Test
+    public void unreadableIndexIsRebuilt() throws Exception {
+        IndexedCacheStore store = new IndexedCacheStore(cacheDir, 1000);
+        put(store, "a", 10);
+        put(store, "b", 20);
+        File index = new File(cacheDir, IndexedCacheStore.INDEX_FILE_NAME);
+        Files.write(new byte[64], index);
+
+        store = new IndexedCacheStore(cacheDir, 1000);
+        assertNotNull(store.get("a"));
+        assertNotNull(store.get("b"));
+        assertEquals(30, store.getTotalBytes());
+
+        store = new IndexedCacheStore(cacheDir, 1000);
+        assertEquals(30, store.getTotalBytes());
+    }
+
+    @Test
+    public void indexesExistingDirectory() throws Exception {
+        DirectoryCacheStore directoryStore = new DirectoryCacheStore(cacheDir);
+        put(directoryStore, "a", 100);
+        put(directoryStore, "b", 200);
+
+        IndexedCacheStore store = new IndexedCacheStore(cacheDir, 1000);
+        assertNotNull(store.get("a"));
+        assertNotNull(store.get("b"));
+        assertEquals(300, store.getTotalBytes());
+    }
+
+    @Test
+    public void failedWriteLeavesPreviousEntry() throws Exception {
+        IndexedCacheStore store = new IndexedCacheStore(cacheDir, 1000);
+        put(store, "a", 10);
+        try {
+            store.put(
+                    "a",
+                    file -> {
+                        Files.write(new byte[20], file);
+                        throw new IOException("failed");
+                    });
+            fail();
+        } catch (IOException expected) {
+        }
+
+        File a = store.get("a");
+        assertNotNull(a);
+        assertEquals(10, a.length());
+        File[] files = cacheDir.listFiles();
+        assertNotNull(files);
+        assertEquals(2, files.length);
+    }
+
+    @Test
+    public void clear() throws Exception {
+        IndexedCacheStore store = new IndexedCacheStore(cacheDir, 1000);
+        put(store, "a", 10);
+        store.clear();
+
+        assertNull(store.get("a"));
+        assertEquals(0, store.getTotalBytes());
+        put(store, "b", 10);
+        store = new IndexedCacheStore(cacheDir, 1000);
+        assertNull(store.get("a"));
+        assertNotNull(store.get("b"));
+    }
+
+    @Test
+    public void reservedKeys() throws Exception {
+        IndexedCacheStore store = new IndexedCacheStore(cacheDir, 1000);
+        try {
+            put(store, IndexedCacheStore.INDEX_FILE_NAME, 10);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        assertTrue(new File(cacheDir, IndexedCacheStore.INDEX_FILE_NAME).isFile());
+    }
+
+    @Test
+    public void worksWithKeyedFileCache() throws Exception {
+        File f = temporaryFolder.newFile("f");
+        Files.write(new byte[] {4, 5, 6}, f);
+        KeyedFileCache cache =
+                new KeyedFileCache(
+                        new IndexedCacheStore(cacheDir, 1000), KeyedFileCache::fileNameKey);
+
+        cache.add(f);
+        File inCache = cache.get(f);
+        assertNotNull(inCache);
+        assertArrayEquals(Files.toByteArray(f), Files.toByteArray(inCache));
+
+        cache.remove(f);
+        assertNull(cache.get(f));
+    }
+}
@@ -85,6 +85,69 @@ class Aapt2DaemonImplTest {
                 requests.map { Aapt2RenamingConventions.compilationRename(it.inputFile) })
     }
 
+    @Test
+    fun testCompileBatch() {
+        val outDir = temporaryFolder.newFolder()
+        val requests = listOf(
+            CompileResourceRequest(
+                inputFile = valuesFile("strings", "<resources></resources>"),
+                outputDirectory = outDir
+            ),
+            CompileResourceRequest(
+                inputFile = valuesFile("styles", "<resources></resources>"),
+                outputDirectory = outDir
+            ),
+            CompileResourceRequest(
+                inputFile = resourceFile("raw", "my_raw_resource.txt", "Raw Content"),
+                outputDirectory = outDir
+            )
+        )
+        val daemon = createDaemon()
+        daemon.compile(requests, logger)
+        assertThat(outDir.list()).asList()
+            .containsExactlyElementsIn(
+                requests.map { Aapt2RenamingConventions.compilationRename(it.inputFile) })
+    }
+
+    @Test
+    fun testCompileBatchWithInvalidFile() {
+        val outDir = temporaryFolder.newFolder()
+        val before = CompileResourceRequest(
+            inputFile = resourceFile("raw", "my_raw_resource.txt", "Raw Content"),
+            outputDirectory = outDir
+        )
+        val invalid = CompileResourceRequest(
+            inputFile = resourceFile("values", "foo.txt", "content"),
+            outputDirectory = outDir
+        )
+        val valid = CompileResourceRequest(
+            inputFile = valuesFile("strings", "<resources></resources>"),
+            outputDirectory = outDir
+        )
+        val daemon = createDaemon()
+        val exception = assertFailsWith(Aapt2Exception::class) {
+            daemon.compile(listOf(before, invalid, valid), logger)
+        }
+        assertThat(exception.message).contains("foo.txt")
+        // The failure is blamed on the request that caused it.
+        assertThat(exception.compileRequest).isSameAs(invalid)
+        // The requests after the failing one are still compiled.
+        assertThat(outDir.list()).asList()
+            .containsExactly(
+                Aapt2RenamingConventions.compilationRename(before.inputFile),
+                Aapt2RenamingConventions.compilationRename(valid.inputFile))
+
+        // The daemon is still in sync with its output.
+        val styles = CompileResourceRequest(
+            inputFile = valuesFile("styles", "<resources></resources>"),
+            outputDirectory = outDir
+        )
+        daemon.compile(listOf(styles), logger)
+        assertThat(outDir.list()).asList()
+            .contains(Aapt2RenamingConventions.compilationRename(styles.inputFile))
+        logger.clear()
+    }
+
     @Test
     fun testPartialR() {
         val outDir = temporaryFolder.newFolder()
@@ -25,6 +25,7 @@ import com.android.testutils.NoErrorsOrWarningsLogger
 import com.android.utils.ILogger
 import com.google.common.base.Ticker
 import com.google.common.truth.Truth.assertThat
+import com.google.common.util.concurrent.MoreExecutors
 import org.junit.Before
 import org.junit.Rule
 import org.junit.Test
@@ -235,11 +236,86 @@ class Aapt2DaemonManagerTest {
 
         // Daemon should be removed from pool, as it is now stopped.
         assertThat(manager.stats().poolSize).isEqualTo(0)
+        assertThat(manager.stats().restartCount).isEqualTo(1)
         manager.shutdown()
         Listener.assertStartCountEquals(1)
         Listener.assertStopCountEquals(1)
     }
 
+    @Test
+    fun testBoundedPool() {
+        val manager = createManager(maxDaemons = 2) { TestAapt2Daemon(it) }
+        val first = manager.leaseDaemon()
+        val second = manager.leaseDaemon()
+        val thread = Thread { manager.leaseDaemon().use { } }
+        thread.start()
+        // The third lease waits for one of the daemons to be returned.
+        while (manager.stats().waitingCount == 0) {
+            Thread.sleep(10)
+        }
+        assertThat(manager.stats().poolSize).isEqualTo(2)
+        assertThat(manager.stats().busyCount).isEqualTo(2)
+
+        setTime(1, TimeUnit.SECONDS)
+        first.close()
+        thread.join()
+        second.close()
+
+        val stats = manager.stats()
+        assertThat(stats.poolSize).isEqualTo(2)
+        assertThat(stats.busyCount).isEqualTo(0)
+        assertThat(stats.waitingCount).isEqualTo(0)
+        assertThat(stats.leaseCount).isEqualTo(3)
+        assertThat(stats.queueWaitNanoSeconds).isEqualTo(TimeUnit.SECONDS.toNanos(1))
+        assertThat(stats.busyNanoSeconds).isEqualTo(TimeUnit.SECONDS.toNanos(2))
+        assertThat(stats.restartCount).isEqualTo(0)
+        manager.shutdown()
+    }
+
+    @Test
+    fun testPrewarm() {
+        val daemons = mutableListOf<TestAapt2Daemon>()
+        val manager = createManager(maxDaemons = 2) { id ->
+            TestAapt2Daemon(id).also { daemons.add(it) }
+        }
+        manager.prewarm(3, MoreExecutors.directExecutor())
+        assertThat(daemons.map { it.state })
+            .containsExactly(Aapt2Daemon.State.RUNNING, Aapt2Daemon.State.RUNNING)
+        assertThat(manager.stats().poolSize).isEqualTo(2)
+        assertThat(manager.stats().busyCount).isEqualTo(0)
+        Listener.assertStartCountEquals(1)
+
+        // The pool already has enough daemons.
+        manager.prewarm(2, MoreExecutors.directExecutor())
+        assertThat(daemons).hasSize(2)
+        manager.leaseDaemon().use { }
+        assertThat(daemons).hasSize(2)
+
+        manager.shutdown()
+        Listener.assertStartCountEquals(1)
+        Listener.assertStopCountEquals(1)
+    }
+
+    @Test
+    fun testBatchCompile() {
+        val daemons = mutableListOf<TestAapt2Daemon>()
+        val manager = createManager { id -> TestAapt2Daemon(id).also { daemons.add(it) } }
+        val requests = listOf(
+                CompileResourceRequest(
+                        inputFile = File("in1"),
+                        outputDirectory = File("out1"),
+                        inputDirectoryName = "values"),
+                CompileResourceRequest(
+                        inputFile = File("in2"),
+                        outputDirectory = File("out1"),
+                        inputDirectoryName = "values"))
+        manager.leasingAapt2Daemon.compile(requests, NoErrorsOrWarningsLogger())
+        assertThat(daemons.single().compileRequests).containsExactlyElementsIn(requests).inOrder()
+        // All the requests are sent to the same daemon, under one lease.
+        assertThat(manager.stats().leaseCount).isEqualTo(1)
+        manager.shutdown()
+    }
+
     class TestAapt2Daemon(displayId: Int) : Aapt2Daemon("Test AAPT Daemon #$displayId",
             NoErrorsOrWarningsLogger()) {
         val compileRequests = mutableListOf<CompileResourceRequest>()
@@ -263,14 +339,17 @@ class Aapt2DaemonManagerTest {
         }
     }
 
-    private fun createManager(daemonFactory: (Int) -> Aapt2Daemon) =
+    private fun createManager(
+            maxDaemons: Int = Int.MAX_VALUE,
+            daemonFactory: (Int) -> Aapt2Daemon) =
             Aapt2DaemonManager(
                     logger = NoErrorsOrWarningsLogger(),
                     daemonFactory = daemonFactory,
                     expiryTime = 1,
                     expiryTimeUnit = TimeUnit.MINUTES,
                     timeSource = ticker,
-                    listener = Listener)
+                    listener = Listener,
+                    maxDaemons = maxDaemons)
 
     private fun setTime(value: Long, timeUnit: TimeUnit) {
         nanoTime = timeUnit.toNanos(value)
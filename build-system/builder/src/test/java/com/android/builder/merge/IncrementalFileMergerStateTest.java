@@ -18,12 +18,21 @@ package com.android.builder.merge;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.junit.Assert.fail;
+
 import com.google.common.collect.ImmutableList;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 /** Test cases for {@link IncrementalFileMergerState}. */
 public class IncrementalFileMergerStateTest {
 
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Test
     public void testChangeStates() {
         IncrementalFileMergerState firstState = new IncrementalFileMergerState();
@@ -71,4 +80,55 @@ public class IncrementalFileMergerStateTest {
         assertThat(fourthState.inputsFor("path2")).containsExactly("input1");
         assertThat(fourthState.inputsFor("path3")).hasSize(0);
     }
+
+    @Test
+    public void testWriteAndReadState() throws IOException {
+        IncrementalFileMergerState.Builder builder =
+                new IncrementalFileMergerState.Builder(new IncrementalFileMergerState());
+        builder.setInputNames(ImmutableList.of("input1", "input2", "input3"));
+        builder.set("META-INF/a.kotlin_module", ImmutableList.of("input1"));
+        builder.set("META-INF/services/com.example.Service", ImmutableList.of("input2", "input1"));
+        builder.set("META-INF/services/com.example.S\u00e9rvice", ImmutableList.of("input2"));
+        for (int i = 0; i < 1000; i++) {
+            builder.set("com/example/res" + i + ".txt", ImmutableList.of("input3"));
+        }
+        IncrementalFileMergerState state = builder.build();
+
+        File file = temporaryFolder.newFile("state.bin");
+        state.writeTo(file);
+        IncrementalFileMergerState read = IncrementalFileMergerState.readFrom(file);
+
+        assertThat(read.getInputNames()).containsExactly("input1", "input2", "input3").inOrder();
+        assertThat(read.inputsFor("META-INF/services/com.example.Service"))
+                .containsExactly("input2", "input1")
+                .inOrder();
+        assertThat(read.inputsFor("META-INF/services/com.example.S\u00e9rvice"))
+                .containsExactly("input2");
+        assertThat(read.inputsFor("com/example/res999.txt")).containsExactly("input3");
+        for (String input : state.getInputNames()) {
+            assertThat(read.filesOf(input)).containsExactlyElementsIn(state.filesOf(input));
+        }
+    }
+
+    @Test
+    public void testReadInvalidState() throws IOException {
+        File file = temporaryFolder.newFile("state.bin");
+        Files.write(file.toPath(), new byte[] {1, 2, 3, 4, 5});
+        try {
+            IncrementalFileMergerState.readFrom(file);
+            fail();
+        } catch (IOException e) {
+            // Not a state file
+        }
+
+        new IncrementalFileMergerState().writeTo(file);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), new byte[] {bytes[0], bytes[1], bytes[2], bytes[3], 2});
+        try {
+            IncrementalFileMergerState.readFrom(file);
+            fail();
+        } catch (IOException e) {
+            // Unknown version
+        }
+    }
 }
@@ -75,6 +75,7 @@ import com.android.build.gradle.internal.services.AndroidLocationsBuildService
 import com.android.build.gradle.internal.services.ClassesHierarchyBuildService
 import com.android.build.gradle.internal.services.DslServices
 import com.android.build.gradle.internal.services.DslServicesImpl
+import com.android.build.gradle.internal.services.LibraryManifestCacheBuildService
 import com.android.build.gradle.internal.services.LintClassLoaderBuildService
 import com.android.build.gradle.internal.services.StringCachingBuildService
 import com.android.build.gradle.internal.services.SymbolTableBuildService
@@ -390,6 +391,7 @@ abstract class BasePlugin<
 
         SymbolTableBuildService.RegistrationAction(project).execute()
         ClassesHierarchyBuildService.RegistrationAction(project).execute()
+        LibraryManifestCacheBuildService.RegistrationAction(project).execute()
         LintFixBuildService.RegistrationAction(project).execute()
         LintClassLoaderBuildService.RegistrationAction(project).execute()
         JacocoInstrumentationService.RegistrationAction(project).execute()
@@ -52,17 +52,12 @@ fun runAapt2Compile(
     val loggerWrapper = LoggerWrapper(logger)
     val daemon = aapt2Input.getLeasingAapt2()
     val errorFormatMode = aapt2Input.buildService.get().parameters.errorFormatMode.get()
-    requests.forEach { request ->
-        try {
-            daemon.compile(request, loggerWrapper)
-        } catch (exception: Aapt2Exception) {
-            throw rewriteCompileException(
-                exception,
-                request,
-                errorFormatMode,
-                enableBlame,
-                logger
-            )
-        }
+    try {
+        daemon.compile(requests, loggerWrapper)
+    } catch (exception: Aapt2Exception) {
+        // Only the first failure is blamed on its request, the failures of later requests in the
+        // batch stay suppressed as they are.
+        val request = exception.compileRequest ?: requests.singleOrNull() ?: throw exception
+        throw rewriteCompileException(exception, request, errorFormatMode, enableBlame, logger)
     }
 }
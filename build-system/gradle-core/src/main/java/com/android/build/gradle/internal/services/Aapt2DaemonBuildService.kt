@@ -23,6 +23,8 @@ import com.android.annotations.concurrency.GuardedBy
 import com.android.build.gradle.internal.LoggerWrapper
 import com.android.build.gradle.internal.workeractions.WorkerActionServiceRegistry
 import com.android.build.gradle.internal.profile.ProfileAwareWorkAction
+import com.android.build.gradle.options.BooleanOption
+import com.android.build.gradle.options.IntegerOption
 import com.android.build.gradle.options.ProjectOptions
 import com.android.build.gradle.options.SyncOptions
 import com.android.builder.internal.aapt.v2.Aapt2
@@ -32,6 +34,7 @@ import com.android.builder.internal.aapt.v2.Aapt2DaemonTimeouts
 import com.android.ide.common.process.ProcessException
 import com.android.utils.ILogger
 import com.google.common.io.Closer
+import com.google.common.util.concurrent.ThreadFactoryBuilder
 import org.gradle.api.InvalidUserDataException
 import org.gradle.api.Project
 import org.gradle.api.file.ConfigurableFileCollection
@@ -44,6 +47,7 @@ import java.io.Closeable
 import java.io.IOException
 import java.nio.file.Files
 import java.nio.file.Path
+import java.util.concurrent.ExecutorService
 import java.util.concurrent.Executors
 import java.util.concurrent.ScheduledExecutorService
 import java.util.concurrent.ScheduledFuture
@@ -84,6 +88,8 @@ abstract class Aapt2DaemonBuildService : BuildService<Aapt2DaemonBuildService.Pa
     private val services = mutableMapOf<Aapt2DaemonServiceKey, Aapt2DaemonManager>()
     private val closer = Closer.create()
     private val logger: ILogger = LoggerWrapper.getLogger(this.javaClass)
+    @GuardedBy("this")
+    private var prewarmExecutor: ExecutorService? = null
 
     fun getLeasingAapt2(aapt2Input: Aapt2Input) : Aapt2 {
         val manager = getManager(Aapt2DaemonServiceKey(aapt2Input.version.get()), getAapt2ExecutablePath(aapt2Input))
@@ -120,11 +126,23 @@ abstract class Aapt2DaemonBuildService : BuildService<Aapt2DaemonBuildService.Pa
                 },
                 expiryTime = daemonExpiryTimeSeconds,
                 expiryTimeUnit = TimeUnit.SECONDS,
-                listener = Aapt2DaemonManagerMaintainer()
-            )
+                listener = Aapt2DaemonManagerMaintainer(),
+                maxDaemons = parameters.maxDaemons.get()
+            ).also { manager ->
+                if (parameters.prewarmDaemons.get() > 0) {
+                    manager.prewarm(parameters.prewarmDaemons.get(), getPrewarmExecutor())
+                }
+            }
         }.also { closer.register(Closeable { it.shutdown() }) }
     }
 
+    @GuardedBy("this")
+    private fun getPrewarmExecutor(): ExecutorService {
+        return prewarmExecutor ?: Executors.newCachedThreadPool(
+            ThreadFactoryBuilder().setNameFormat("aapt2-prewarm-%d").setDaemon(true).build()
+        ).also { prewarmExecutor = it }
+    }
+
     fun getAapt2ExecutablePath(aapt2: Aapt2Input): Path {
         return aapt2.binaryDirectory.singleFile.toPath().resolve(SdkConstants.FN_AAPT2).also {
             if (!Files.exists(it)) {
@@ -136,12 +154,70 @@ abstract class Aapt2DaemonBuildService : BuildService<Aapt2DaemonBuildService.Pa
         }
     }
 
+    @Synchronized
     override fun close() {
+        // Daemons cannot be shut down while they are starting.
+        prewarmExecutor?.let {
+            it.shutdown()
+            it.awaitTermination(daemonTimeouts.start, daemonTimeouts.startUnit)
+        }
+        services.forEach { (key, manager) ->
+            logger.info("AAPT2 %1\$s daemons: %2\$s", key.version, manager.stats())
+        }
         closer.close()
     }
 
     abstract class Parameters: BuildServiceParameters {
         abstract val errorFormatMode: Property<SyncOptions.ErrorFormatMode>
+        abstract val maxDaemons: Property<Int>
+        abstract val prewarmDaemons: Property<Int>
+    }
+
+    companion object {
+        /**
+         * Returns the maximum number of AAPT2 daemons, which is unbounded unless
+         * [IntegerOption.AAPT2_MAX_DAEMONS] is set.
+         *
+         * The pool is shared by all AAPT2 work of the build (compile, link, ...), which is already
+         * bounded by the number of Gradle workers, so a lower bound only makes workers wait.
+         */
+        fun calculateMaxDaemons(projectOptions: ProjectOptions): Int {
+            val maxDaemons = projectOptions.get(IntegerOption.AAPT2_MAX_DAEMONS) ?: Int.MAX_VALUE
+            if (maxDaemons < 1) {
+                throw InvalidUserDataException(
+                    "${IntegerOption.AAPT2_MAX_DAEMONS.propertyName} must be positive: $maxDaemons"
+                )
+            }
+            return maxDaemons
+        }
+
+        /**
+         * Returns the number of AAPT2 daemons to start ahead of use, which is 0 unless
+         * [BooleanOption.AAPT2_DAEMON_PREWARM] is set. Otherwise it is the number of buckets AAPT2
+         * work is split into (see [computeMaxAapt2Daemons]) unless the physical memory not used by
+         * the Gradle daemon cannot fit that many AAPT2 daemons, and never more than [maxDaemons].
+         * An explicit [IntegerOption.AAPT2_THREAD_POOL_SIZE] is not capped by memory.
+         */
+        fun calculatePrewarmDaemons(
+            projectOptions: ProjectOptions,
+            maxDaemons: Int,
+            maxRuntimeMemory: Long,
+            totalPhysicalMemory: Long?
+        ): Int {
+            if (!projectOptions.get(BooleanOption.AAPT2_DAEMON_PREWARM)) {
+                return 0
+            }
+            val bucketCount = computeMaxAapt2Daemons(projectOptions).coerceAtMost(maxDaemons)
+            if (projectOptions.get(IntegerOption.AAPT2_THREAD_POOL_SIZE) != null) {
+                return bucketCount
+            }
+            // We assume an AAPT2 daemon will use up to 512 megabytes.
+            val memoryPerDaemon = 512 * 1024 * 1024L
+            val availableMemory = (totalPhysicalMemory ?: return bucketCount) - maxRuntimeMemory
+            return Math.floorDiv(availableMemory, memoryPerDaemon)
+                .coerceIn(1, bucketCount.toLong())
+                .toInt()
+        }
     }
 
     class RegistrationAction(project: Project, val projectOptions: ProjectOptions) :
@@ -152,6 +228,16 @@ abstract class Aapt2DaemonBuildService : BuildService<Aapt2DaemonBuildService.Pa
         ) {
         override fun configure(parameters: Parameters) {
             parameters.errorFormatMode.set(SyncOptions.getErrorFormatMode(projectOptions))
+            val maxDaemons = calculateMaxDaemons(projectOptions)
+            parameters.maxDaemons.set(maxDaemons)
+            parameters.prewarmDaemons.set(
+                calculatePrewarmDaemons(
+                    projectOptions,
+                    maxDaemons,
+                    Runtime.getRuntime().maxMemory(),
+                    getTotalPhysicalMemory()
+                )
+            )
         }
     }
 }
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.services
+
+import com.android.manifmerger.LibraryManifestCache
+import org.gradle.api.Project
+import org.gradle.api.services.BuildService
+import org.gradle.api.services.BuildServiceParameters
+
+/**
+ * Build service holding the [LibraryManifestCache] shared by the manifest merges of all the
+ * variants of all the projects, so that each library manifest is only parsed once per build.
+ */
+abstract class LibraryManifestCacheBuildService : BuildService<BuildServiceParameters.None>,
+    AutoCloseable {
+
+    val libraryManifestCache = LibraryManifestCache()
+
+    override fun close() {
+        libraryManifestCache.clear()
+    }
+
+    class RegistrationAction(project: Project) :
+        ServiceRegistrationAction<LibraryManifestCacheBuildService, BuildServiceParameters.None>(
+            project,
+            LibraryManifestCacheBuildService::class.java
+        ) {
+
+        override fun configure(parameters: BuildServiceParameters.None) {
+            // do nothing
+        }
+    }
+}
@@ -126,7 +126,7 @@ fun BuildServiceRegistry.getLintParallelBuildService(projectOptions: ProjectOpti
             )
     }
 
-private fun getTotalPhysicalMemory() = try {
+internal fun getTotalPhysicalMemory() = try {
     (ManagementFactory.getOperatingSystemMXBean() as OperatingSystemMXBean).totalPhysicalMemorySize
 } catch (t: Throwable) {
     Logging.getLogger(LintParallelBuildService::class.java)
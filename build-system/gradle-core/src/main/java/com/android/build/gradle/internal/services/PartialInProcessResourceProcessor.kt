@@ -34,20 +34,35 @@ class PartialInProcessResourceProcessor (val delegate: Aapt2):
     Aapt2 {
     override fun compile(request: CompileResourceRequest, logger: ILogger) {
         if (canCompileResourceInJvm(request.inputFile, request.isPngCrunching)) {
-            val options = ResourceCompilerOptions(
-                    pseudolocalize = request.isPseudoLocalize,
-                    legacyMode = true,
-                    sourcePath = request.sourcePath,
-                    partialRFile = request.partialRFile,
-            )
-
-            val blameLogger = blameLoggerFor(request, LoggerWrapper.getLogger(this::class.java))
-            compileResource(request.inputFile, request.outputDirectory, options, blameLogger)
+            compileInJvm(request)
         } else {
             delegate.compile(request, logger)
         }
     }
 
+    /** Compiles the requests that can be compiled in process, and the others in one batch. */
+    override fun compile(requests: List<CompileResourceRequest>, logger: ILogger) {
+        val (inJvmRequests, aapt2Requests) = requests.partition {
+            canCompileResourceInJvm(it.inputFile, it.isPngCrunching)
+        }
+        inJvmRequests.forEach { compileInJvm(it) }
+        if (aapt2Requests.isNotEmpty()) {
+            delegate.compile(aapt2Requests, logger)
+        }
+    }
+
+    private fun compileInJvm(request: CompileResourceRequest) {
+        val options = ResourceCompilerOptions(
+                pseudolocalize = request.isPseudoLocalize,
+                legacyMode = true,
+                sourcePath = request.sourcePath,
+                partialRFile = request.partialRFile,
+        )
+
+        val blameLogger = blameLoggerFor(request, LoggerWrapper.getLogger(this::class.java))
+        compileResource(request.inputFile, request.outputDirectory, options, blameLogger)
+    }
+
     override fun link(request: AaptPackageConfig, logger: ILogger) = delegate.link(request, logger)
 
     override fun convert(request: AaptConvertConfig, logger: ILogger) = delegate.convert(request,logger)
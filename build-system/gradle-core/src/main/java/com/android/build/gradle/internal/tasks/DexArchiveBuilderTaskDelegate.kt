@@ -414,6 +414,9 @@ class DexArchiveBuilderTaskDelegate(
     ) {
         inputs.getRoots().forEach { loggerWrapper.verbose("Dexing ${it.absolutePath}") }
 
+        // Scan jars once for all the buckets, rather than once in each DexWorkAction
+        val classBuckets = (inputs as? JarBucketGroup)?.partition()
+
         for (bucketId in 0 until numberOfBuckets) {
             // For directory inputs, we prefer dexPerClass mode to support incremental dexing per
             // class, but dexPerClass mode is not supported by D8 when generating keep rules for
@@ -464,7 +467,7 @@ class DexArchiveBuilderTaskDelegate(
                 }
             }
 
-            val classBucket = ClassBucket(inputs, bucketId)
+            val classBucket = classBuckets?.get(bucketId) ?: ClassBucket(inputs, bucketId)
             workerExecutor.noIsolation().submit(DexWorkAction::class.java) { params ->
                 params.initializeWith(projectPath, taskPath, analyticsService)
                 params.dexSpec.set(
@@ -21,6 +21,7 @@ import com.android.build.gradle.internal.profile.ProfileAwareWorkAction
 import com.android.builder.files.KeyedFileCache
 import com.android.builder.files.SerializableInputChanges
 import com.android.builder.merge.IncrementalFileMergerInput
+import com.android.builder.merge.IncrementalFileMergerState
 import com.android.ide.common.resources.FileStatus
 import com.android.utils.FileUtils
 import org.gradle.api.file.ConfigurableFileCollection
@@ -37,9 +38,16 @@ import java.io.File
  */
 abstract class MergeJavaResWorkAction : ProfileAwareWorkAction<MergeJavaResWorkAction.Params>() {
     override fun run() {
-        val isIncremental = parameters.incremental.get()
         val outputFile = parameters.outputFile.get().asFile
         val incrementalStateFile = parameters.incrementalStateFile.asFile.get()
+        // Without a readable state from the previous merge, merge everything again
+        val mergeState =
+            if (parameters.incremental.get()) {
+                MergeJavaResourcesDelegate.loadMergeState(incrementalStateFile)
+            } else {
+                null
+            }
+        val isIncremental = mergeState != null
         if (!isIncremental) {
             FileUtils.deleteIfExists(outputFile)
             FileUtils.deleteIfExists(incrementalStateFile)
@@ -82,7 +90,7 @@ abstract class MergeJavaResWorkAction : ProfileAwareWorkAction<MergeJavaResWorkA
                     parameters.merges.get()
                 ),
                 incrementalStateFile,
-                isIncremental,
+                mergeState ?: IncrementalFileMergerState(),
                 parameters.noCompress.get()
             )
         mergeJavaResDelegate.run()
@@ -35,10 +35,8 @@ import com.google.common.collect.ImmutableList
 import org.gradle.api.logging.Logging
 import java.io.File
 import java.io.FileInputStream
-import java.io.FileOutputStream
 import java.io.IOException
 import java.io.ObjectInputStream
-import java.io.ObjectOutputStream
 import java.util.function.Predicate
 
 @Suppress("DEPRECATION") // Legacy support
@@ -57,7 +55,7 @@ class MergeJavaResourcesDelegate(
     private val scopeMap: MutableMap<IncrementalFileMergerInput, com.android.build.api.transform.QualifiedContent.ScopeType>,
     private val packagingOptions: ParsedPackagingOptions,
     private val incrementalStateFile: File,
-    private val isIncremental: Boolean,
+    private val mergeState: IncrementalFileMergerState,
     private val noCompress: Collection<String>
 ) {
 
@@ -68,24 +66,6 @@ class MergeJavaResourcesDelegate(
         this.inputs = inputs.toMutableList()
     }
 
-    /**
-     * Returns the incremental state.
-     *
-     * @throws IOException if fails to load the incremental state
-     */
-    private fun loadMergeState(): IncrementalFileMergerState {
-        if (!incrementalStateFile.isFile || !isIncremental) {
-            return IncrementalFileMergerState()
-        }
-        try {
-            ObjectInputStream(FileInputStream(incrementalStateFile)).use {
-                return it.readObject() as IncrementalFileMergerState
-            }
-        } catch (e: ClassNotFoundException) {
-            throw IOException(e)
-        }
-    }
-
     /**
      * Save the incremental merge state.
      *
@@ -94,7 +74,7 @@ class MergeJavaResourcesDelegate(
      */
     private fun saveMergeState(state: IncrementalFileMergerState) {
         FileUtils.mkdirs(incrementalStateFile.parentFile)
-        ObjectOutputStream(FileOutputStream(incrementalStateFile)).use { it.writeObject(state) }
+        state.writeTo(incrementalStateFile)
     }
 
     fun run() {
@@ -225,9 +205,46 @@ class MergeJavaResourcesDelegate(
             IncrementalFileMerger.merge(
                 inputs.toList(),
                 output,
-                loadMergeState(),
+                mergeState,
                 PackagingUtils.getNoCompressPredicateForJavaRes(noCompress)
             )
         )
     }
+
+    companion object {
+
+        /**
+         * Returns the incremental state saved by a previous merge, or null if there is none or it
+         * cannot be read, in which case the merge must not be incremental.
+         *
+         * States saved with object serialization by earlier versions are still read.
+         */
+        @JvmStatic
+        fun loadMergeState(incrementalStateFile: File): IncrementalFileMergerState? {
+            if (!incrementalStateFile.isFile) {
+                return null
+            }
+            val logger = Logging.getLogger(MergeJavaResourcesDelegate::class.java)
+            try {
+                return IncrementalFileMergerState.readFrom(incrementalStateFile)
+            } catch (e: IOException) {
+                logger.debug("Unable to read incremental merge state $incrementalStateFile", e)
+            }
+            return try {
+                ObjectInputStream(FileInputStream(incrementalStateFile)).use {
+                    it.readObject() as IncrementalFileMergerState
+                }
+            } catch (e: Exception) {
+                when (e) {
+                    is IOException, is ClassNotFoundException, is ClassCastException -> {
+                        logger.info(
+                            "Ignoring unreadable incremental merge state $incrementalStateFile"
+                        )
+                        null
+                    }
+                    else -> throw e
+                }
+            }
+        }
+    }
 }
@@ -20,6 +20,7 @@ import com.android.SdkConstants.DOT_XML
 import com.android.ide.common.blame.SourceFile
 import com.android.ide.common.blame.SourceFilePosition
 import com.android.ide.common.blame.SourcePosition
+import com.android.manifmerger.LibraryManifestCache
 import com.android.manifmerger.ManifestMerger2
 import com.android.manifmerger.ManifestProvider
 import com.android.manifmerger.ManifestSystemProperty
@@ -59,7 +60,8 @@ fun mergeManifests(
     optionalFeatures: Collection<ManifestMerger2.Invoker.Feature>,
     dependencyFeatureNames: Collection<String>,
     reportFile: File?,
-    logger: ILogger
+    logger: ILogger,
+    libraryManifestCache: LibraryManifestCache? = null
 ): MergingReport {
 
     try {
@@ -75,6 +77,7 @@ fun mergeManifests(
             .addDependencyFeatureNames(dependencyFeatureNames)
             .setNamespace(namespace)
             .withFeatures(ManifestMerger2.Invoker.Feature.WARN_IF_PACKAGE_IN_SOURCE_MANIFEST)
+            .withLibraryManifestCache(libraryManifestCache)
         val isAppMerge = mergeType == ManifestMerger2.MergeType.APPLICATION
         val injectProfileable = isAppMerge && profileable
 
@@ -212,6 +212,9 @@ enum class BooleanOption(
     PRIVACY_SANDBOX_SDK_SUPPORT("android.experimental.privacysandboxsdk.enable", false, FeatureStage.Experimental),
 
     BUILD_ANALYZER_TASK_LABELS("android.experimental.buildanalyzer.tasklabels.enable", false, FeatureStage.Experimental),
+
+    /** Whether to start AAPT2 daemons in the background as soon as the first one is needed. */
+    AAPT2_DAEMON_PREWARM("android.experimental.aapt2DaemonPrewarm", false, FeatureStage.Experimental),
     /* ------------------------
      * SOFTLY-ENFORCED FEATURES
      */
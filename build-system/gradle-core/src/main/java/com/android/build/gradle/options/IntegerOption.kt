@@ -69,6 +69,12 @@ enum class IntegerOption(
      */
     AAPT2_THREAD_POOL_SIZE("android.aapt2ThreadPoolSize", ApiStage.Experimental),
 
+    /**
+     * Maximum number of AAPT2 daemons running at once across all modules, beyond which AAPT2 work
+     * waits for a daemon to be returned. Not bounded by default.
+     */
+    AAPT2_MAX_DAEMONS("android.experimental.aapt2MaxDaemons", ApiStage.Experimental),
+
     /**
      * Max number of R8 workers to run at once
      */
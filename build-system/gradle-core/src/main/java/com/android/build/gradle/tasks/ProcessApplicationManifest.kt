@@ -32,6 +32,8 @@ import com.android.build.gradle.internal.publishing.AndroidArtifacts.ConsumedCon
 import com.android.build.gradle.internal.scope.InternalArtifactType
 import com.android.build.gradle.internal.scope.InternalArtifactType.MANIFEST_MERGE_REPORT
 import com.android.build.gradle.internal.scope.InternalArtifactType.NAVIGATION_JSON
+import com.android.build.gradle.internal.services.LibraryManifestCacheBuildService
+import com.android.build.gradle.internal.services.getBuildService
 import com.android.build.gradle.internal.tasks.BuildAnalyzer
 import com.android.build.gradle.internal.tasks.factory.VariantTaskCreationAction
 import com.android.build.gradle.internal.tasks.manifest.ManifestProviderImpl
@@ -186,7 +188,8 @@ abstract class ProcessApplicationManifest : ManifestProcessorTask() {
             ),
             dependencyFeatureNames,
             reportFile.get().asFile,
-            LoggerWrapper.getLogger(ProcessApplicationManifest::class.java)
+            LoggerWrapper.getLogger(ProcessApplicationManifest::class.java),
+            libraryManifestCacheBuildService.get().libraryManifestCache
         )
         outputMergeBlameContents(mergingReport, mergeBlameFile.get().asFile)
     }
@@ -294,6 +297,9 @@ abstract class ProcessApplicationManifest : ManifestProcessorTask() {
     @get:Internal("only for task execution")
     abstract val projectBuildFile: RegularFileProperty
 
+    @get:Internal
+    abstract val libraryManifestCacheBuildService: Property<LibraryManifestCacheBuildService>
+
     @get:Nested
     abstract val variantOutput: Property<VariantOutputImpl>
 
@@ -455,6 +461,9 @@ abstract class ProcessApplicationManifest : ManifestProcessorTask() {
             task.buildTypeName = creationConfig.buildType
             task.projectBuildFile.set(task.project.buildFile)
             task.projectBuildFile.disallowChanges()
+            task.libraryManifestCacheBuildService.setDisallowChanges(
+                getBuildService(creationConfig.services.buildServiceRegistry)
+            )
             // TODO: here in the "else" block should be the code path for the namespaced pipeline
         }
 
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.services
+
+import com.android.build.gradle.options.BooleanOption
+import com.android.build.gradle.options.IntegerOption
+import com.android.build.gradle.options.ProjectOptions
+import com.android.builder.core.ComponentTypeImpl
+import com.android.builder.internal.aapt.AaptConvertConfig
+import com.android.builder.internal.aapt.AaptOptions
+import com.android.builder.internal.aapt.AaptPackageConfig
+import com.android.builder.internal.aapt.v2.Aapt2Daemon
+import com.android.builder.internal.aapt.v2.Aapt2DaemonManager
+import com.android.ide.common.resources.CompileResourceRequest
+import com.android.testutils.NoErrorsOrWarningsLogger
+import com.android.utils.ILogger
+import com.google.common.truth.Truth
+import org.gradle.api.InvalidUserDataException
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.mockito.Mock
+import org.mockito.Mockito
+import org.mockito.junit.MockitoJUnit
+import org.mockito.junit.MockitoRule
+import java.util.concurrent.CyclicBarrier
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import kotlin.test.assertFailsWith
+
+/** Unit tests for [Aapt2DaemonBuildService] */
+class Aapt2DaemonBuildServiceTest {
+
+    @get:Rule
+    val rule: MockitoRule = MockitoJUnit.rule()
+
+    @Mock
+    lateinit var projectOptions: ProjectOptions
+
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    @Test fun testCalculateMaxDaemons() {
+        // Not bounded by default
+        Truth.assertThat(Aapt2DaemonBuildService.calculateMaxDaemons(projectOptions))
+            .isEqualTo(Int.MAX_VALUE)
+
+        Mockito.`when`(projectOptions.get(IntegerOption.AAPT2_MAX_DAEMONS)).thenReturn(3)
+        Truth.assertThat(Aapt2DaemonBuildService.calculateMaxDaemons(projectOptions))
+            .isEqualTo(3)
+
+        Mockito.`when`(projectOptions.get(IntegerOption.AAPT2_MAX_DAEMONS)).thenReturn(0)
+        assertFailsWith<InvalidUserDataException> {
+            Aapt2DaemonBuildService.calculateMaxDaemons(projectOptions)
+        }
+    }
+
+    @Test fun testCalculatePrewarmDaemons() {
+        // Nothing is pre-warmed by default
+        Truth.assertThat(
+            Aapt2DaemonBuildService.calculatePrewarmDaemons(
+                projectOptions,
+                maxDaemons = Int.MAX_VALUE,
+                maxRuntimeMemory = 8 * GB,
+                totalPhysicalMemory = 64 * GB
+            )
+        ).isEqualTo(0)
+
+        Mockito.`when`(projectOptions.get(BooleanOption.AAPT2_DAEMON_PREWARM)).thenReturn(true)
+        val bucketCount = computeMaxAapt2Daemons(projectOptions)
+
+        // Check normal case, limited by the number of AAPT2 buckets
+        Truth.assertThat(
+            Aapt2DaemonBuildService.calculatePrewarmDaemons(
+                projectOptions,
+                maxDaemons = Int.MAX_VALUE,
+                maxRuntimeMemory = 8 * GB,
+                totalPhysicalMemory = 64 * GB
+            )
+        ).isEqualTo(bucketCount)
+
+        // Check case when the total physical memory is unknown
+        Truth.assertThat(
+            Aapt2DaemonBuildService.calculatePrewarmDaemons(
+                projectOptions,
+                maxDaemons = Int.MAX_VALUE,
+                maxRuntimeMemory = 8 * GB,
+                totalPhysicalMemory = null
+            )
+        ).isEqualTo(bucketCount)
+
+        // Check case when there's not enough memory, but should still return 1
+        Truth.assertThat(
+            Aapt2DaemonBuildService.calculatePrewarmDaemons(
+                projectOptions,
+                maxDaemons = Int.MAX_VALUE,
+                maxRuntimeMemory = 8 * GB,
+                totalPhysicalMemory = 8 * GB
+            )
+        ).isEqualTo(1)
+
+        // Check that no more daemons than the maximum are pre-warmed
+        Truth.assertThat(
+            Aapt2DaemonBuildService.calculatePrewarmDaemons(
+                projectOptions,
+                maxDaemons = 1,
+                maxRuntimeMemory = 8 * GB,
+                totalPhysicalMemory = 64 * GB
+            )
+        ).isEqualTo(1)
+
+        // Check that an explicit thread pool size is not limited by memory
+        Mockito.`when`(projectOptions.get(IntegerOption.AAPT2_THREAD_POOL_SIZE)).thenReturn(16)
+        Truth.assertThat(
+            Aapt2DaemonBuildService.calculatePrewarmDaemons(
+                projectOptions,
+                maxDaemons = Int.MAX_VALUE,
+                maxRuntimeMemory = 8 * GB,
+                totalPhysicalMemory = 8 * GB
+            )
+        ).isEqualTo(16)
+    }
+
+    @Test fun testParallelLinksAreNotThrottled() {
+        // More links at once than AAPT2 buckets, e.g. from many modules
+        val linkCount = computeMaxAapt2Daemons(projectOptions) * 2
+        val allLinking = CyclicBarrier(linkCount)
+        val manager = Aapt2DaemonManager(
+            logger = NoErrorsOrWarningsLogger(),
+            daemonFactory = { displayId -> LinkingAapt2Daemon(displayId, allLinking) },
+            expiryTime = 1,
+            expiryTimeUnit = TimeUnit.MINUTES,
+            maxDaemons = Aapt2DaemonBuildService.calculateMaxDaemons(projectOptions)
+        )
+        val request = AaptPackageConfig(
+            androidJarPath = null,
+            manifestFile = temporaryFolder.newFile("AndroidManifest.xml"),
+            resourceOutputApk = temporaryFolder.newFile("out.apk"),
+            options = AaptOptions(),
+            componentType = ComponentTypeImpl.BASE_APK
+        )
+
+        val executor = Executors.newFixedThreadPool(linkCount)
+        try {
+            val links = (1..linkCount).map {
+                executor.submit {
+                    manager.leasingAapt2Daemon.link(request, NoErrorsOrWarningsLogger())
+                }
+            }
+            // Each link only completes once all of them are running at the same time
+            links.forEach { it.get(1, TimeUnit.MINUTES) }
+        } finally {
+            executor.shutdownNow()
+        }
+        Truth.assertThat(manager.stats().poolSize).isEqualTo(linkCount)
+        manager.shutdown()
+    }
+
+    private class LinkingAapt2Daemon(displayId: Int, private val allLinking: CyclicBarrier) :
+        Aapt2Daemon("Test AAPT Daemon #$displayId", NoErrorsOrWarningsLogger()) {
+
+        override fun startProcess() {
+        }
+
+        override fun doCompile(request: CompileResourceRequest, logger: ILogger) {
+        }
+
+        override fun doLink(request: AaptPackageConfig, logger: ILogger) {
+            allLinking.await(1, TimeUnit.MINUTES)
+        }
+
+        override fun doConvert(request: AaptConvertConfig, logger: ILogger) {
+        }
+
+        override fun stopProcess() {
+        }
+    }
+}
+
+private const val GB = 1024 * 1024 * 1024L
@@ -24,6 +24,7 @@ import com.android.build.gradle.internal.profile.AnalyticsService
 import com.android.builder.files.SerializableChange
 import com.android.builder.files.SerializableInputChanges
 import com.android.builder.merge.DuplicateRelativeFileException
+import com.android.builder.merge.IncrementalFileMergerState
 import com.android.builder.packaging.JarFlinger
 import com.android.builder.utils.agpReferenceDocsVersion
 import com.android.ide.common.resources.FileStatus
@@ -40,6 +41,8 @@ import org.junit.Test
 import org.junit.rules.TemporaryFolder
 import java.io.ByteArrayInputStream
 import java.io.File
+import java.io.FileOutputStream
+import java.io.ObjectOutputStream
 import java.util.zip.Deflater
 import java.util.zip.ZipFile
 import kotlin.test.assertFailsWith
@@ -325,6 +328,75 @@ class MergeJavaResWorkActionTest {
         }
     }
 
+    @Test
+    fun testIncrementalMergeWithUnreadableState() {
+        val jarFile = File(tmpDir.root, "jarFile.jar")
+        ZFile(jarFile).use {
+            it.add("javaRes1", ByteArrayInputStream(ByteArray(0)))
+            it.add("staleRes", ByteArrayInputStream(ByteArray(0)))
+        }
+        val outputFile = File(tmpDir.root, "out.jar")
+        val incrementalStateFile = File(tmpDir.root, "merge-state")
+        mergeJavaRes(jarFile, outputFile, incrementalStateFile, changes = null)
+        assertThat(outputFile) { it.contains("staleRes") }
+
+        FileUtils.delete(jarFile)
+        ZFile(jarFile).use {
+            it.add("javaRes1", ByteArrayInputStream(ByteArray(0)))
+            it.add("javaRes2", ByteArrayInputStream(ByteArray(0)))
+        }
+        incrementalStateFile.writeBytes(byteArrayOf(1, 2, 3, 4, 5))
+
+        // The state cannot be read, so everything is merged again
+        mergeJavaRes(
+            jarFile,
+            outputFile,
+            incrementalStateFile,
+            SerializableInputChanges(
+                roots = listOf(jarFile),
+                changes = listOf(SerializableChange(jarFile, FileStatus.CHANGED, ""))
+            )
+        )
+        assertThat(outputFile) {
+            it.contains("javaRes1")
+            it.contains("javaRes2")
+            it.doesNotContain("staleRes")
+        }
+        // A new state is saved
+        IncrementalFileMergerState.readFrom(incrementalStateFile)
+    }
+
+    @Test
+    fun testIncrementalMergeWithLegacyState() {
+        val jarFile = File(tmpDir.root, "jarFile.jar")
+        ZFile(jarFile).use { it.add("javaRes1", ByteArrayInputStream(ByteArray(0))) }
+        val outputFile = File(tmpDir.root, "out.jar")
+        val incrementalStateFile = File(tmpDir.root, "merge-state")
+        mergeJavaRes(jarFile, outputFile, incrementalStateFile, changes = null)
+
+        // Save the state the way earlier versions did
+        val state = IncrementalFileMergerState.readFrom(incrementalStateFile)
+        ObjectOutputStream(FileOutputStream(incrementalStateFile)).use { it.writeObject(state) }
+        assertThat(MergeJavaResourcesDelegate.loadMergeState(incrementalStateFile)).isNotNull()
+
+        ZipArchive(jarFile.toPath()).use { it.add(BytesSource(ByteArray(0), "javaRes2", 0)) }
+        mergeJavaRes(
+            jarFile,
+            outputFile,
+            incrementalStateFile,
+            SerializableInputChanges(
+                roots = listOf(jarFile),
+                changes = listOf(SerializableChange(jarFile, FileStatus.CHANGED, ""))
+            )
+        )
+        assertThat(outputFile) {
+            it.contains("javaRes1")
+            it.contains("javaRes2")
+        }
+        // The state is saved in the new format
+        IncrementalFileMergerState.readFrom(incrementalStateFile)
+    }
+
     @Test
     fun testErrorWhenDuplicateJavaResInFeature() {
         // Create jar files from base module and feature with duplicate resources
@@ -389,4 +461,53 @@ class MergeJavaResWorkActionTest {
             """.trimIndent()
         )
     }
+
+    /** Merges the java resources of a project jar, incrementally if [changes] is not null. */
+    private fun mergeJavaRes(
+        jarFile: File,
+        outputFile: File,
+        incrementalStateFile: File,
+        changes: SerializableInputChanges?
+    ) {
+        val cacheDir = File(tmpDir.root, "cacheDir")
+        object : MergeJavaResWorkAction() {
+            override fun getParameters(): Params {
+                return object: Params() {
+                    override val projectJavaRes =
+                        FakeObjectFactory.factory.fileCollection().from(jarFile)
+                    override val subProjectJavaRes = FakeObjectFactory.factory.fileCollection()
+                    override val externalLibJavaRes = FakeObjectFactory.factory.fileCollection()
+                    override val featureJavaRes = FakeObjectFactory.factory.fileCollection()
+                    override val outputFile =
+                        FakeObjectFactory.factory.fileProperty().also { it.set(outputFile) }
+                    override val excludes =
+                        FakeObjectFactory.factory.setProperty(String::class.java).also {
+                            it.set(defaultExcludes)
+                        }
+                    override val pickFirsts =
+                        FakeObjectFactory.factory.setProperty(String::class.java)
+                    override val merges =
+                        FakeObjectFactory.factory.setProperty(String::class.java).also {
+                            it.set(defaultMerges)
+                        }
+                    override val incrementalStateFile =
+                        FakeObjectFactory.factory.fileProperty().also {
+                            it.set(incrementalStateFile)
+                        }
+                    override val incremental = FakeGradleProperty(changes != null)
+                    override val cacheDir =
+                        FakeObjectFactory.factory.directoryProperty().also { it.set(cacheDir) }
+                    override val changedInputs =
+                        FakeObjectFactory.factory.property(SerializableInputChanges::class.java)
+                                .also { if (changes != null) it.set(changes) }
+                    override val noCompress =
+                        FakeObjectFactory.factory.listProperty(String::class.java)
+                    override val projectPath = FakeGradleProperty("projectName")
+                    override val taskOwner = FakeGradleProperty("taskOwner")
+                    override val workerKey = FakeGradleProperty("workerKey")
+                    override val analyticsService: Property<AnalyticsService> = FakeGradleProperty(FakeNoOpAnalyticsService())
+                }
+            }
+        }.execute()
+    }
 }
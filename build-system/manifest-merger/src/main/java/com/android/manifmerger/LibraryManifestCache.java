@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.manifmerger;
+
+import com.android.annotations.NonNull;
+import com.android.utils.PositionXmlParser;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.File;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.xml.parsers.ParserConfigurationException;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * Cache of parsed library manifests, which can be shared by the manifest merger invocations of a
+ * build (see {@link ManifestMerger2.Invoker#withLibraryManifestCache(LibraryManifestCache)}), so
+ * that the manifest of a library used by many variants and modules is only parsed once.
+ *
+ * <p>Manifests are looked up by path and by a hash of their contents, so a manifest which changed
+ * is parsed again. The cached documents are never handed out: the merger modifies the documents
+ * it loads, so each lookup returns a copy of the cached document.
+ *
+ * <p>This class is thread safe.
+ */
+public final class LibraryManifestCache {
+
+    @NonNull private final ConcurrentMap<Key, Document> documents = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the document for the manifest at {@code file}, parsing {@code contents} if this
+     * manifest is not in the cache yet.
+     *
+     * @param file the manifest file, used with {@code contents} to look up the document
+     * @param contents the contents of the manifest
+     * @return a new copy of the document, owned by the caller
+     */
+    @NonNull
+    public Document getDocument(@NonNull File file, @NonNull byte[] contents)
+            throws IOException, SAXException, ParserConfigurationException {
+        Key key = new Key(file.getAbsolutePath(), Hashing.murmur3_128().hashBytes(contents));
+        Document document = documents.get(key);
+        if (document != null) {
+            return copy(document);
+        }
+        // The cache keeps a copy of the parsed document, which is returned as is since no other
+        // thread can see it.
+        Document parsed = PositionXmlParser.parse(contents);
+        documents.putIfAbsent(key, PositionXmlParser.copy(parsed));
+        return parsed;
+    }
+
+    /** Returns the number of manifests in the cache. */
+    public int size() {
+        return documents.size();
+    }
+
+    /** Removes all the manifests from the cache. */
+    public void clear() {
+        documents.clear();
+    }
+
+    @NonNull
+    private static Document copy(@NonNull Document document) {
+        // DOM documents are not thread safe, even for reading.
+        synchronized (document) {
+            return PositionXmlParser.copy(document);
+        }
+    }
+
+    private static final class Key {
+        @NonNull private final String path;
+        @NonNull private final HashCode contentHash;
+
+        private Key(@NonNull String path, @NonNull HashCode contentHash) {
+            this.path = path;
+            this.contentHash = contentHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return path.equals(key.path) && contentHash.equals(key.contentHash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, contentHash);
+        }
+    }
+}
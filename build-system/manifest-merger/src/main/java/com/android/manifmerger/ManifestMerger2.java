@@ -35,6 +35,7 @@ import com.android.sdklib.SdkVersionInfo;
 import com.android.utils.FileUtils;
 import com.android.utils.ILogger;
 import com.android.utils.Pair;
+import com.android.utils.PositionXmlParser;
 import com.android.utils.XmlUtils;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
@@ -44,6 +45,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import java.io.BufferedInputStream;
@@ -53,6 +55,7 @@ import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
@@ -61,6 +64,7 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
@@ -108,6 +112,7 @@ public class ManifestMerger2 {
     @NonNull private final String mFeatureName;
     @Nullable private final String mNamespace;
     @NonNull private final FileStreamProvider mFileStreamProvider;
+    @Nullable private final LibraryManifestCache mLibraryManifestCache;
     @NonNull private final ImmutableList<File> mNavigationFiles;
     @NonNull private final ImmutableList<File> mNavigationJsons;
     @NonNull private final DocumentModel<ManifestModel.NodeTypes> mModel;
@@ -128,6 +133,7 @@ public class ManifestMerger2 {
             @NonNull String featureName,
             @Nullable String namespace,
             @NonNull FileStreamProvider fileStreamProvider,
+            @Nullable LibraryManifestCache libraryManifestCache,
             @NonNull ImmutableList<File> navigationFiles,
             @NonNull ImmutableList<File> navigationJsons,
             @NonNull ImmutableList<String> dependencyFeatureNames,
@@ -145,6 +151,7 @@ public class ManifestMerger2 {
         this.mFeatureName = featureName;
         this.mNamespace = namespace;
         this.mFileStreamProvider = fileStreamProvider;
+        this.mLibraryManifestCache = libraryManifestCache;
         this.mNavigationFiles = navigationFiles;
         this.mNavigationJsons = navigationJsons;
         this.mDependencyFeatureNames = dependencyFeatureNames;
@@ -1181,36 +1188,35 @@ public class ManifestMerger2 {
 
         ImmutableList.Builder<LoadedManifestInfo> loadedLibraryDocuments = ImmutableList.builder();
 
+        List<ManifestInfo> libraries = new ArrayList<>();
         for (Pair<String, File> libraryFile : Sets.newLinkedHashSet(mLibraryFiles)) {
-            mLogger.verbose("Loading library manifest " + libraryFile.getSecond().getPath());
-            ManifestInfo manifestInfo =
+            libraries.add(
                     new ManifestInfo(
                             libraryFile.getFirst(),
                             libraryFile.getSecond(),
-                            XmlDocument.Type.LIBRARY);
-            File xmlFile = manifestInfo.mLocation;
-            XmlDocument libraryDocument;
-            try {
-                InputStream inputStream = mFileStreamProvider.getInputStream(xmlFile);
-                libraryDocument =
-                        XmlLoader.load(
-                                selectors,
-                                mSystemPropertyResolver,
-                                manifestInfo.mName,
-                                xmlFile,
-                                inputStream,
-                                XmlDocument.Type.LIBRARY,
-                                null, /* namespace */
-                                mModel,
-                                false);
-            } catch (Exception e) {
-                throw new MergeFailureException(e);
-            }
+                            XmlDocument.Type.LIBRARY));
+        }
+        Document[] domDocuments = parseLibraries(libraries);
+
+        for (int i = 0; i < libraries.size(); i++) {
+            ManifestInfo manifestInfo = libraries.get(i);
+            mLogger.verbose("Loading library manifest " + manifestInfo.mLocation.getPath());
+            XmlDocument libraryDocument =
+                    XmlLoader.load(
+                            selectors,
+                            mSystemPropertyResolver,
+                            manifestInfo.mName,
+                            manifestInfo.mLocation,
+                            domDocuments[i],
+                            XmlDocument.Type.LIBRARY,
+                            null, /* namespace */
+                            mModel,
+                            false);
             // extract the package name...
             String libraryNamespace = libraryDocument.getNamespace();
             // save it in the selector instance.
             if (!Strings.isNullOrEmpty(libraryNamespace)) {
-                selectors.addSelector(libraryNamespace, libraryFile.getFirst());
+                selectors.addSelector(libraryNamespace, manifestInfo.mName);
             }
 
             // perform placeholder substitution, this is useful when the library is using
@@ -1238,6 +1244,48 @@ public class ManifestMerger2 {
         return loadedLibraryDocuments.build();
     }
 
+    /**
+     * Parses the manifests of the libraries, in parallel as there can be hundreds of them. The
+     * manifests are read on the calling thread since {@link FileStreamProvider} implementations
+     * may not support being called from other threads.
+     */
+    @NonNull
+    private Document[] parseLibraries(@NonNull List<ManifestInfo> libraries)
+            throws MergeFailureException {
+        byte[][] contents = new byte[libraries.size()][];
+        for (int i = 0; i < libraries.size(); i++) {
+            try (InputStream inputStream =
+                    mFileStreamProvider.getInputStream(libraries.get(i).mLocation)) {
+                contents[i] = ByteStreams.toByteArray(inputStream);
+            } catch (Exception e) {
+                throw new MergeFailureException(e);
+            }
+        }
+
+        Document[] domDocuments = new Document[libraries.size()];
+        Exception[] failures = new Exception[libraries.size()];
+        IntStream.range(0, libraries.size())
+                .parallel()
+                .forEach(
+                        i -> {
+                            try {
+                                domDocuments[i] =
+                                        mLibraryManifestCache != null
+                                                ? mLibraryManifestCache.getDocument(
+                                                        libraries.get(i).mLocation, contents[i])
+                                                : PositionXmlParser.parse(contents[i]);
+                            } catch (Exception e) {
+                                failures[i] = e;
+                            }
+                        });
+        for (Exception failure : failures) {
+            if (failure != null) {
+                throw new MergeFailureException(failure);
+            }
+        }
+        return domDocuments;
+    }
+
     /**
      * Checks whether all manifests have unique namespaces. If the strict mode is enabled it will
      * result in an error for namespace collisions, otherwise it will result in a warning.
@@ -1547,6 +1595,8 @@ public class ManifestMerger2 {
         @Nullable
         private FileStreamProvider mFileStreamProvider;
 
+        @Nullable private LibraryManifestCache mLibraryManifestCache;
+
         @NonNull private String mFeatureName;
 
         @Nullable private String mNamespace;
@@ -1877,6 +1927,19 @@ public class ManifestMerger2 {
             return this;
         }
 
+        /**
+         * Sets a cache of parsed library manifests, which can be shared with other invocations of
+         * the manifest merger to avoid parsing the same library manifests again.
+         *
+         * @param cache the cache to use, or null to parse all the library manifests
+         * @return itself.
+         */
+        @NonNull
+        public Invoker withLibraryManifestCache(@Nullable LibraryManifestCache cache) {
+            mLibraryManifestCache = cache;
+            return this;
+        }
+
         /** Regular expression defining legal feature split name. */
         private static final Pattern FEATURE_NAME_PATTERN =
                 Pattern.compile("[a-zA-Z0-9][a-zA-Z0-9_]*");
@@ -2023,6 +2086,7 @@ public class ManifestMerger2 {
                             mFeatureName,
                             mNamespace,
                             fileStreamProvider,
+                            mLibraryManifestCache,
                             mNavigationFilesBuilder.build(),
                             mNavigationJsonsBuilder.build(),
                             mDependencyFetureNamesBuilder.build(),
@@ -60,7 +60,40 @@ public final class XmlLoader {
             @NonNull DocumentModel<ManifestModel.NodeTypes> model,
             boolean rewriteNamespaces)
             throws IOException, SAXException, ParserConfigurationException {
-        Document domDocument = PositionXmlParser.parse(inputStream);
+        return load(
+                selectors,
+                systemPropertyResolver,
+                displayName,
+                xmlFile,
+                PositionXmlParser.parse(inputStream),
+                type,
+                namespace,
+                model,
+                rewriteNamespaces);
+    }
+
+    /**
+     * Returns the {@link XmlDocument} of an already parsed xml file.
+     *
+     * @param displayName the xml file display name.
+     * @param xmlFile the xml file.
+     * @param domDocument the document parsed from the xml file, which the returned {@link
+     *     XmlDocument} takes ownership of.
+     * @param namespace the namespace, used to create or shorten fully qualified class names. If
+     *     null, the manifest's package name is used as the namespace instead.
+     * @return the initialized {@link XmlDocument}
+     */
+    @NonNull
+    public static XmlDocument load(
+            @NonNull KeyResolver<String> selectors,
+            @NonNull KeyBasedValueResolver<ManifestSystemProperty> systemPropertyResolver,
+            @NonNull String displayName,
+            @NonNull File xmlFile,
+            @NonNull Document domDocument,
+            @NonNull XmlDocument.Type type,
+            @Nullable String namespace,
+            @NonNull DocumentModel<ManifestModel.NodeTypes> model,
+            boolean rewriteNamespaces) {
         Element rootElement = domDocument.getDocumentElement();
         @Nullable
         final String namespaceOrPackageName =
@@ -1055,6 +1055,54 @@ public class ManifestMerger2SmallTest {
                 .isNull();
     }
 
+    /** Library manifests from a shared cache are not modified by the merges using them. */
+    @Test
+    public void testLibraryManifestCache() throws Exception {
+        String input =
+                ""
+                        + "<manifest\n"
+                        + "    package=\"com.foo.bar\""
+                        + "    xmlns:android=\"http://schemas.android.com/apk/res/android\">\n"
+                        + "    <application/>\n"
+                        + "</manifest>";
+
+        String library =
+                ""
+                        + "<manifest\n"
+                        + "    package=\"com.foo.baz\""
+                        + "    xmlns:android=\"http://schemas.android.com/apk/res/android\">\n"
+                        + "    <application>\n"
+                        + "        <provider\n"
+                        + "            android:name=\"com.foo.baz.Provider\"\n"
+                        + "            android:authorities=\"${applicationId}.baz\" />\n"
+                        + "    </application>\n"
+                        + "</manifest>";
+
+        File inputFile = TestUtils.inputAsFile("testLibraryManifestCacheInput", input);
+        File libraryFile = TestUtils.inputAsFile("testLibraryManifestCacheLibrary", library);
+
+        LibraryManifestCache cache = new LibraryManifestCache();
+        for (String applicationId : new String[] {"com.foo.one", "com.foo.two"}) {
+            MockLog mockLog = new MockLog();
+            MergingReport mergingReport =
+                    ManifestMerger2.newMerger(
+                                    inputFile, mockLog, ManifestMerger2.MergeType.APPLICATION)
+                            .addLibraryManifest(libraryFile)
+                            .setPlaceHolderValues(ImmutableMap.of("applicationId", applicationId))
+                            .withLibraryManifestCache(cache)
+                            .merge();
+
+            assertTrue(mergingReport.getResult().isSuccess());
+            Document xmlDocument =
+                    parse(mergingReport.getMergedDocument(MergedManifestKind.MERGED));
+            Element provider =
+                    (Element) xmlDocument.getElementsByTagName(SdkConstants.TAG_PROVIDER).item(0);
+            assertThat(provider.getAttributeNS(SdkConstants.ANDROID_URI, "authorities"))
+                    .isEqualTo(applicationId + ".baz");
+        }
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
     /** dist:module should be merged from an overlay module. */
     @Test
     public void testThatDistModuleFromOverlayIsMerged() throws Exception {
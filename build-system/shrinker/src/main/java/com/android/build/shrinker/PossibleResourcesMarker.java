@@ -18,6 +18,7 @@ package com.android.build.shrinker;
 
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static java.lang.Character.isDigit;
+import static java.util.stream.Collectors.toList;
 
 import com.android.annotations.NonNull;
 import com.android.ide.common.resources.usage.ResourceStore;
@@ -27,6 +28,10 @@ import com.android.resources.ResourceType;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Streams;
 import com.google.common.primitives.Ints;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
 import java.util.regex.Matcher;
@@ -97,6 +102,7 @@ public class PossibleResourcesMarker {
                         .collect(toImmutableSet());
 
         int shortest = names.stream().mapToInt(String::length).min().orElse(Integer.MAX_VALUE);
+        ResourceNameIndex index = new ResourceNameIndex(resourceStore.getResources());
 
         // Check whether the string looks relevant
         // We consider four types of strings:
@@ -109,41 +115,50 @@ public class PossibleResourcesMarker {
         //      getIdentifier().
         //  (3) Fully qualified resource names of the form package:type/name.
         //  (4) If foundWebContent is true, look for android_res/ URL strings as well
-        strings.stream()
-                .filter(string -> string.length() >= shortest)
-                .flatMap(
-                        string -> {
-                            int n = string.length();
-                            boolean justName = true;
-                            boolean formatting = false;
-                            boolean haveSlash = false;
-                            for (int i = 0; i < n; i++) {
-                                char c = string.charAt(i);
-                                haveSlash |= c == '/';
-                                formatting |= c == '%';
-                                justName =
-                                        justName && !(c == '.' || c == ':' || c == '%' || c == '/');
-                            }
-
-                            Stream<Resource> reachable = Streams.concat(
-                                    foundWebContent
-                                            ? possibleWebResources(names, string)
-                                            : Stream.empty(),
-                                    justName ? possiblePrefixMatch(string) : Stream.empty(),
-                                    formatting && !haveSlash
-                                            ? possibleFormatting(string)
-                                            : Stream.empty(),
-                                    haveSlash
-                                            ? possibleTypedResource(names, string)
-                                            : Stream.empty(),
-                                    possibleIntResource(string));
-
-                            return reachable
-                                    .peek(resource -> debugReporter.debug(() -> "Marking "
-                                    + resource + " used because it matches string pool constant "
-                                    + string));
-                        })
-                .forEach(ResourceUsageModel::markReachable);
+        //
+        // Strings are matched in parallel, as there can be hundreds of thousands of them. The
+        // resources are then marked in the order of the strings, so that the debug report does
+        // not depend on the scheduling of the matching.
+        List<PossibleReference> references =
+                strings.parallelStream()
+                        .filter(string -> string.length() >= shortest)
+                        .flatMap(
+                                string ->
+                                        possibleResources(names, index, string)
+                                                .map(
+                                                        resource ->
+                                                                new PossibleReference(
+                                                                        resource, string)))
+                        .collect(toList());
+
+        for (PossibleReference reference : references) {
+            debugReporter.debug(() -> "Marking "
+                    + reference.resource
+                    + " used because it matches string pool constant "
+                    + reference.string);
+            ResourceUsageModel.markReachable(reference.resource);
+        }
+    }
+
+    private Stream<Resource> possibleResources(
+            Set<String> names, ResourceNameIndex index, String string) {
+        int n = string.length();
+        boolean justName = true;
+        boolean formatting = false;
+        boolean haveSlash = false;
+        for (int i = 0; i < n; i++) {
+            char c = string.charAt(i);
+            haveSlash |= c == '/';
+            formatting |= c == '%';
+            justName = justName && !(c == '.' || c == ':' || c == '%' || c == '/');
+        }
+
+        return Streams.concat(
+                foundWebContent ? possibleWebResources(names, string) : Stream.empty(),
+                justName ? possiblePrefixMatch(index, string) : Stream.empty(),
+                formatting && !haveSlash ? possibleFormatting(index, string) : Stream.empty(),
+                haveSlash ? possibleTypedResource(names, string) : Stream.empty(),
+                possibleIntResource(string));
     }
 
     private Stream<Resource> possibleWebResources(
@@ -166,24 +181,66 @@ public class PossibleResourcesMarker {
         return Stream.empty();
     }
 
-    private Stream<Resource> possiblePrefixMatch(String string) {
+    private Stream<Resource> possiblePrefixMatch(ResourceNameIndex index, String string) {
         // Check for a simple prefix match, e.g. as in
         // getResources().getIdentifier("ic_video_codec_" + codecName, "drawable", ...)
-        return resourceStore.getResources().stream()
-                .filter(resource -> resource.name.startsWith(string));
+        return index.withPrefix(string).stream();
     }
 
-    private Stream<Resource> possibleFormatting(String string) {
+    private Stream<Resource> possibleFormatting(ResourceNameIndex index, String string) {
         // Possibly a formatting string, e.g.
         //   String name = String.format("my_prefix_%1d", index);
         //   int res = getContext().getResources().getIdentifier(name, "drawable", ...)
+        String regexp = convertFormatStringToRegexp(string);
+        if (NO_MATCH.equals(regexp)) {
+            return Stream.empty();
+        }
+        Pattern pattern;
         try {
-            Pattern pattern = Pattern.compile(convertFormatStringToRegexp(string));
-            return resourceStore.getResources().stream()
-                    .filter(resource -> pattern.matcher(resource.name).matches());
+            pattern = Pattern.compile(regexp);
         } catch (PatternSyntaxException ignored) {
             return Stream.empty();
         }
+        // The text outside of the format specifiers must appear as is in the matching names,
+        // which rules out most of them before running the regexp.
+        List<String> literals = getFormatLiterals(string);
+        List<Resource> candidates = index.withPrefix(literals.get(0));
+        List<String> contained = literals.subList(1, literals.size());
+        return candidates.stream()
+                .filter(resource -> containsAll(resource.name, contained))
+                .filter(resource -> pattern.matcher(resource.name).matches());
+    }
+
+    private static boolean containsAll(String name, List<String> literals) {
+        for (String literal : literals) {
+            if (!name.contains(literal)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the text of {@code formatString} around its format specifiers: first the text
+     * before the first specifier (which is empty if the string starts with one), then the other
+     * non-empty pieces of text.
+     */
+    @VisibleForTesting
+    static List<String> getFormatLiterals(String formatString) {
+        List<String> literals = new ArrayList<>();
+        Matcher matcher = FORMAT.matcher(formatString);
+        int from = 0;
+        while (matcher.find(from)) {
+            int start = matcher.start();
+            if (from == 0 || start > from) {
+                literals.add(formatString.substring(from, start));
+            }
+            from = matcher.end();
+        }
+        if (from == 0 || from < formatString.length()) {
+            literals.add(formatString.substring(from));
+        }
+        return literals;
     }
 
     private Stream<Resource> possibleTypedResource(
@@ -369,4 +426,57 @@ public class PossibleResourcesMarker {
 
         return false;
     }
+
+    /** A resource possibly referenced by a string constant. */
+    private static final class PossibleReference {
+        private final Resource resource;
+        private final String string;
+
+        private PossibleReference(Resource resource, String string) {
+            this.resource = resource;
+            this.string = string;
+        }
+    }
+
+    /**
+     * Resources sorted by name, to find the resources whose name starts with a given prefix with
+     * a binary search rather than by checking all of them.
+     */
+    @VisibleForTesting
+    static final class ResourceNameIndex {
+        private final Resource[] resources;
+
+        ResourceNameIndex(Collection<Resource> resources) {
+            this.resources = resources.toArray(new Resource[0]);
+            Arrays.sort(this.resources, Comparator.comparing(resource -> resource.name));
+        }
+
+        /** Returns the resources whose name starts with {@code prefix}, sorted by name. */
+        List<Resource> withPrefix(String prefix) {
+            if (prefix.isEmpty()) {
+                return Arrays.asList(resources);
+            }
+            int from = firstNotBefore(prefix);
+            int to = from;
+            while (to < resources.length && resources[to].name.startsWith(prefix)) {
+                to++;
+            }
+            return Arrays.asList(resources).subList(from, to);
+        }
+
+        /** Returns the index of the first resource whose name is not less than {@code name}. */
+        private int firstNotBefore(String name) {
+            int low = 0;
+            int high = resources.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (resources[mid].name.compareTo(name) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
 }
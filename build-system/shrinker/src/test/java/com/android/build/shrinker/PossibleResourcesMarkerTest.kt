@@ -17,7 +17,9 @@
 package com.android.build.shrinker
 
 import com.android.build.shrinker.PossibleResourcesMarker.NO_MATCH
+import com.android.build.shrinker.PossibleResourcesMarker.ResourceNameIndex
 import com.android.build.shrinker.PossibleResourcesMarker.convertFormatStringToRegexp
+import com.android.build.shrinker.PossibleResourcesMarker.getFormatLiterals
 import com.android.ide.common.resources.usage.ResourceStore
 import com.android.ide.common.resources.usage.ResourceUsageModel.Resource
 import com.android.resources.ResourceType
@@ -97,6 +99,26 @@ class PossibleResourcesMarkerTest {
         assertTrue(s.matches(convertFormatStringToRegexp(p).toRegex()))
     }
 
+    @Test
+    fun testFormatLiterals() {
+        assertEquals(of("foo_"), getFormatLiterals("foo_"))
+        assertEquals(of("my_draw_", "_main"), getFormatLiterals("my_draw_%d_main"))
+        assertEquals(of("", "my_draw_"), getFormatLiterals("%smy_draw_%d"))
+        assertEquals(of("foo", "_", "end"), getFormatLiterals("foo%s_%1\$send"))
+        assertEquals(of("", "abc"), getFormatLiterals("%%abc"))
+    }
+
+    @Test
+    fun testResourceNameIndex() {
+        val index = ResourceNameIndex(createResourceModel().resources)
+        assertEquals(of("my_draw_", "my_draw_1_main", "my_draw_2_main", "my_draw_3_title"),
+            index.withPrefix("my_draw_").map { it.name })
+        assertEquals(of("my_draw_3_title"), index.withPrefix("my_draw_3").map { it.name })
+        assertEquals(of<String>(), index.withPrefix("my_draw_4").map { it.name })
+        assertEquals(of<String>(), index.withPrefix("zzz").map { it.name })
+        assertEquals(6, index.withPrefix("").size)
+    }
+
     private fun createResourceModel(): ResourceStore {
         val model = ResourceStore()
         model.addResource(Resource(ResourceType.LAYOUT, "layout_my", 0x7f010000))
@@ -453,6 +453,41 @@ public class PositionXmlParser {
         return xml;
     }
 
+    /**
+     * Returns a deep copy of a document returned by one of the parse methods, which keeps the
+     * position information of the original. Copying a document is much cheaper than parsing it
+     * again, so a parsed document which is modified by its users can be kept and copied for each
+     * of them.
+     *
+     * <p>Reading a DOM document is not thread safe, callers must make sure that {@code document}
+     * is not accessed by other threads while it is copied.
+     *
+     * @param document the document to copy
+     * @return the copy, which does not share any node with {@code document}
+     */
+    @NonNull
+    public static Document copy(@NonNull Document document) {
+        Document copy = (Document) document.cloneNode(true);
+        copy.setUserData(CONTENT_KEY, document.getUserData(CONTENT_KEY), null);
+        copyPositions(document, copy);
+        return copy;
+    }
+
+    private static void copyPositions(@NonNull Node from, @NonNull Node to) {
+        Object position = from.getUserData(POS_KEY);
+        if (position != null) {
+            // Positions are not modified once the document is parsed, so they can be shared.
+            to.setUserData(POS_KEY, position, null);
+        }
+        Node fromChild = from.getFirstChild();
+        Node toChild = to.getFirstChild();
+        while (fromChild != null && toChild != null) {
+            copyPositions(fromChild, toChild);
+            fromChild = fromChild.getNextSibling();
+            toChild = toChild.getNextSibling();
+        }
+    }
+
     /**
      * Returns the position for the given node. This is the start position. The end position can be
      * obtained via {@link Position#getEnd()}.
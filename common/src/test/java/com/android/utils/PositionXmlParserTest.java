@@ -582,4 +582,41 @@ public class PositionXmlParserTest {
         // Ok (earlier this would throw networking errors attempting to load schemas.android.com)
         PositionXmlParser.parse(new ByteArrayInputStream(xml.getBytes(Charsets.UTF_8)));
     }
+
+    @Test
+    public void testCopy() throws Exception {
+        String xml =
+                "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+                        + "<manifest xmlns:android=\"http://schemas.android.com/apk/res/android\"\n"
+                        + "    package=\"com.example.lib\">\n"
+                        + "    <!-- A comment -->\n"
+                        + "    <application android:label=\"Lib\">\n"
+                        + "        <activity android:name=\".Main\" />\n"
+                        + "    </application>\n"
+                        + "</manifest>\n";
+        Document document = PositionXmlParser.parse(xml);
+        Document copy = PositionXmlParser.copy(document);
+
+        Element activity = (Element) document.getElementsByTagName("activity").item(0);
+        Element copiedActivity = (Element) copy.getElementsByTagName("activity").item(0);
+        assertThat(copiedActivity).isNotSameInstanceAs(activity);
+        assertThat(copiedActivity.getOwnerDocument()).isSameInstanceAs(copy);
+        assertThat(copiedActivity.getAttributeNS(ANDROID_URI, "name")).isEqualTo(".Main");
+        assertEquals(
+                PositionXmlParser.getPosition(activity),
+                PositionXmlParser.getPosition(copiedActivity));
+        assertEquals(
+                PositionXmlParser.getPosition(activity.getAttributeNodeNS(ANDROID_URI, "name")),
+                PositionXmlParser.getPosition(
+                        copiedActivity.getAttributeNodeNS(ANDROID_URI, "name")));
+        assertEquals(xml.indexOf("<activity"),
+                PositionXmlParser.getPosition(copiedActivity).getStartOffset());
+
+        // Changing the copy does not change the original
+        copiedActivity.setAttributeNS(ANDROID_URI, "android:name", ".Other");
+        copiedActivity.getParentNode().removeChild(copiedActivity);
+        assertThat(activity.getAttributeNS(ANDROID_URI, "name")).isEqualTo(".Main");
+        assertEquals(1, document.getElementsByTagName("activity").getLength());
+        assertEquals(0, copy.getElementsByTagName("activity").getLength());
+    }
 }
@@ -35,6 +35,7 @@ import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.Locale;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  * Helper class to handle requests and connections to adb.
@@ -409,69 +410,122 @@ public final class AdbHelper {
     public static RawImage getFrameBuffer(
             InetSocketAddress adbSockAddr, IDevice device, long timeout, TimeUnit unit)
             throws TimeoutException, AdbCommandRejectedException, IOException {
+        SocketChannel adbChan = null;
+        try {
+            adbChan = SocketChannel.open(adbSockAddr);
+            adbChan.configureBlocking(false);
 
-        RawImage imageParams = new RawImage();
-        byte[] request = formAdbRequest("framebuffer:"); //$NON-NLS-1$
-        byte[] nudge = {0};
-        byte[] reply;
+            RawImage imageParams = readFrameBufferHeader(adbChan, device);
+            if (imageParams == null) {
+                return null;
+            }
+
+            byte[] reply = new byte[imageParams.size];
+            read(adbChan, reply, imageParams.size, unit.toMillis(timeout));
+
+            imageParams.data = reply;
+            return imageParams;
+        } finally {
+            if (adbChan != null) {
+                adbChan.close();
+            }
+        }
+    }
 
+    /**
+     * Retrieve the frame buffer from the device with the given timeout, reading the image data
+     * into a buffer provided by the caller instead of a new array. {@link RawImage#data} of the
+     * returned image is not set.
+     *
+     * @param buffers returns the buffer to read the data of the image with the given header into.
+     *     The data is read starting at the position of the buffer, which is left unchanged.
+     * @throws TimeoutException in case of timeout on the connection.
+     * @throws AdbCommandRejectedException if adb rejects the command
+     * @throws IOException in case of I/O error on the connection.
+     */
+    @Slow
+    @Nullable
+    public static RawImage getFrameBuffer(
+            InetSocketAddress adbSockAddr,
+            IDevice device,
+            @NonNull Function<RawImage, ByteBuffer> buffers,
+            long timeout,
+            TimeUnit unit)
+            throws TimeoutException, AdbCommandRejectedException, IOException {
         SocketChannel adbChan = null;
         try {
             adbChan = SocketChannel.open(adbSockAddr);
             adbChan.configureBlocking(false);
 
-            // if the device is not -1, then we first tell adb we're looking to talk
-            // to a specific device
-            setDevice(adbChan, device);
-
-            write(adbChan, request);
+            RawImage imageParams = readFrameBufferHeader(adbChan, device);
+            if (imageParams == null) {
+                return null;
+            }
 
-            AdbResponse resp = readAdbResponse(adbChan, false /* readDiagString */);
-            if (!resp.okay) {
-                throw new AdbCommandRejectedException(resp.message);
+            ByteBuffer data = buffers.apply(imageParams).duplicate();
+            data.limit(data.position() + imageParams.size);
+            read(adbChan, data, unit.toMillis(timeout));
+            return imageParams;
+        } finally {
+            if (adbChan != null) {
+                adbChan.close();
             }
+        }
+    }
 
-            // first the protocol version.
-            reply = new byte[4];
-            read(adbChan, reply);
+    /**
+     * Starts the framebuffer service, and reads the header of the image it sends. Returns null if
+     * the protocol of the device is not supported.
+     */
+    @Nullable
+    private static RawImage readFrameBufferHeader(SocketChannel adbChan, IDevice device)
+            throws TimeoutException, AdbCommandRejectedException, IOException {
+        RawImage imageParams = new RawImage();
+        byte[] request = formAdbRequest("framebuffer:"); //$NON-NLS-1$
+        byte[] nudge = {0};
+        byte[] reply;
 
-            ByteBuffer buf = ByteBuffer.wrap(reply);
-            buf.order(ByteOrder.LITTLE_ENDIAN);
+        // if the device is not -1, then we first tell adb we're looking to talk
+        // to a specific device
+        setDevice(adbChan, device);
 
-            int version = buf.getInt();
+        write(adbChan, request);
 
-            // get the header size (this is a count of int)
-            int headerSize = RawImage.getHeaderSize(version);
+        AdbResponse resp = readAdbResponse(adbChan, false /* readDiagString */);
+        if (!resp.okay) {
+            throw new AdbCommandRejectedException(resp.message);
+        }
 
-            // read the header
-            reply = new byte[headerSize * 4];
-            read(adbChan, reply);
+        // first the protocol version.
+        reply = new byte[4];
+        read(adbChan, reply);
 
-            buf = ByteBuffer.wrap(reply);
-            buf.order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer buf = ByteBuffer.wrap(reply);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
 
-            // fill the RawImage with the header
-            if (!imageParams.readHeader(version, buf)) {
-                Log.e("Screenshot", "Unsupported protocol: " + version);
-                return null;
-            }
+        int version = buf.getInt();
 
-            Log.d("ddms", "image params: bpp=" + imageParams.bpp + ", size="
-                    + imageParams.size + ", width=" + imageParams.width
-                    + ", height=" + imageParams.height);
+        // get the header size (this is a count of int)
+        int headerSize = RawImage.getHeaderSize(version);
 
-            write(adbChan, nudge);
+        // read the header
+        reply = new byte[headerSize * 4];
+        read(adbChan, reply);
 
-            reply = new byte[imageParams.size];
-            read(adbChan, reply, imageParams.size, unit.toMillis(timeout));
+        buf = ByteBuffer.wrap(reply);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
 
-            imageParams.data = reply;
-        } finally {
-            if (adbChan != null) {
-                adbChan.close();
-            }
+        // fill the RawImage with the header
+        if (!imageParams.readHeader(version, buf)) {
+            Log.e("Screenshot", "Unsupported protocol: " + version);
+            return null;
         }
 
+        Log.d("ddms", "image params: bpp=" + imageParams.bpp + ", size="
+                + imageParams.size + ", width=" + imageParams.width
+                + ", height=" + imageParams.height);
+
+        write(adbChan, nudge);
         return imageParams;
     }
 
@@ -1184,7 +1238,17 @@ public final class AdbHelper {
      */
     @Slow
     static void read(SocketChannel chan, byte[] data, int length, long timeout) throws TimeoutException, IOException {
-        ByteBuffer buf = ByteBuffer.wrap(data, 0, length != -1 ? length : data.length);
+        read(chan, ByteBuffer.wrap(data, 0, length != -1 ? length : data.length), timeout);
+    }
+
+    /**
+     * Reads from the socket until the buffer is filled up to its limit, or no more data is coming
+     * (because the socket closed or the timeout expired), see {@link #read(SocketChannel, byte[],
+     * int, long)}.
+     */
+    @Slow
+    static void read(SocketChannel chan, ByteBuffer buf, long timeout)
+            throws TimeoutException, IOException {
         int numWaits = 0;
 
         while (buf.position() != buf.limit()) {
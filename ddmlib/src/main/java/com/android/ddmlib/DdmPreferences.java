@@ -82,6 +82,12 @@ public final class DdmPreferences {
     /** Port used by JdwpProxy feature */
     private static int sDdmCommandPort =
             getPropertyOrDefault("DDMLIB_COMMAND_PORT", 8598, Integer::parseInt);
+    /** Number of selector threads bridging JDWP traffic of clients, see MonitorThread */
+    private static int sMonitorThreadCount =
+            getPropertyOrDefault(
+                    "DDMLIB_MONITOR_THREAD_COUNT",
+                    Math.min(4, Runtime.getRuntime().availableProcessors()),
+                    Integer::parseInt);
 
 
   /**
@@ -269,6 +275,23 @@ public final class DdmPreferences {
         sJdwpMaxPacketSize = size;
     }
 
+    /**
+     * Returns the number of selector threads used to bridge the JDWP traffic of clients. Clients
+     * are spread across these threads, so that a busy client only delays the clients sharing its
+     * thread.
+     */
+    public static int getMonitorThreadCount() {
+        return Math.max(1, sMonitorThreadCount);
+    }
+
+    /**
+     * Sets the number of selector threads used to bridge the JDWP traffic of clients. This only
+     * takes effect when ddmlib is (re)initialized.
+     */
+    public static void setMonitorThreadCount(int count) {
+        sMonitorThreadCount = count;
+    }
+
     /**
      * Non accessible constructor.
      */
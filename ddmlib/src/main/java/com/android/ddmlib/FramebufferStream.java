@@ -0,0 +1,415 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.google.common.annotations.VisibleForTesting;
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Continuous capture of the frame buffer of a device, at a fixed rate.
+ *
+ * <p>Frames are read into a fixed pool of direct buffers, and handed to the consumer through a
+ * bounded queue (see {@link #take()}). The consumer {@link Frame#close() closes} each frame once
+ * done with it, which gives its buffer back to the pool. When all the buffers are in use, capture
+ * pauses until one is given back, so a slow consumer slows capture down instead of making memory
+ * usage grow.
+ *
+ * <p>When tiles are enabled, each frame also lists the tiles of the image that changed since the
+ * previous frame (see {@link Frame#getChangedTiles()}).
+ */
+public final class FramebufferStream implements AutoCloseable {
+
+    /** Default size, in pixels, of the side of the tiles compared between frames */
+    public static final int DEFAULT_TILE_SIZE = 64;
+
+    /** Reads one frame from the device. */
+    interface FrameSource {
+        /**
+         * Reads a frame into the buffer returned by {@code buffers} for its header, and returns the
+         * header. Returns null if the device protocol is not supported.
+         */
+        @Nullable
+        RawImage read(@NonNull Function<RawImage, ByteBuffer> buffers)
+                throws TimeoutException, AdbCommandRejectedException, IOException;
+    }
+
+    /** Marks the end of the stream in the queue of frames */
+    private static final Frame END = new Frame(null, null, null, 0, 0, null);
+
+    @NonNull private final FrameSource mSource;
+
+    private final long mIntervalNanos;
+
+    private final int mTileSize;
+
+    @NonNull private final BlockingQueue<ByteBuffer> mFreeBuffers;
+
+    /** Frames waiting for the consumer, and room for {@link #END} */
+    @NonNull private final BlockingQueue<Frame> mFrames;
+
+    @NonNull private final Thread mThread;
+
+    private volatile boolean mClosed;
+
+    @Nullable private volatile Exception mError;
+
+    // Only accessed from the capture thread
+    private long mSequence;
+    /** Header and copy of the previous frame, to find changed tiles */
+    @Nullable private RawImage mPreviousHeader;
+
+    @Nullable private ByteBuffer mPreviousData;
+
+    /**
+     * Starts capturing frames from {@code device}.
+     *
+     * @param interval time between the start of two captures
+     * @param bufferCount maximum number of frames that are captured but not closed yet
+     * @param tileSize size, in pixels, of the side of the tiles compared between frames, or 0 to
+     *     not compare frames
+     */
+    @NonNull
+    public static FramebufferStream start(
+            @NonNull IDevice device,
+            long interval,
+            @NonNull TimeUnit unit,
+            int bufferCount,
+            int tileSize) {
+        FramebufferStream stream =
+                new FramebufferStream(
+                        buffers ->
+                                AdbHelper.getFrameBuffer(
+                                        AndroidDebugBridge.getSocketAddress(),
+                                        device,
+                                        buffers,
+                                        DdmPreferences.getTimeOut(),
+                                        TimeUnit.MILLISECONDS),
+                        unit.toNanos(interval),
+                        bufferCount,
+                        tileSize);
+        stream.mThread.start();
+        return stream;
+    }
+
+    @VisibleForTesting
+    FramebufferStream(
+            @NonNull FrameSource source, long intervalNanos, int bufferCount, int tileSize) {
+        if (bufferCount < 1) {
+            throw new IllegalArgumentException("bufferCount must be at least 1");
+        }
+        mSource = source;
+        mIntervalNanos = intervalNanos;
+        mTileSize = tileSize;
+        mFreeBuffers = new ArrayBlockingQueue<>(bufferCount);
+        for (int i = 0; i < bufferCount; i++) {
+            // Allocated on first use, once the frame size is known
+            mFreeBuffers.add(ByteBuffer.allocateDirect(0));
+        }
+        mFrames = new ArrayBlockingQueue<>(bufferCount + 1);
+        mThread = new Thread(this::run, "Framebuffer Stream");
+        mThread.setDaemon(true);
+    }
+
+    @VisibleForTesting
+    void startCapture() {
+        mThread.start();
+    }
+
+    /**
+     * Returns the next frame, waiting for it to be captured if needed, or null if the stream was
+     * closed or capture failed (see {@link #getError()}).
+     */
+    @Nullable
+    public Frame take() throws InterruptedException {
+        Frame frame = mFrames.take();
+        if (frame == END) {
+            // Let other calls know as well
+            mFrames.offer(END);
+            return null;
+        }
+        return frame;
+    }
+
+    /**
+     * Returns the next frame, waiting up to {@code timeout} for it to be captured, or null if
+     * there is none yet, the stream was closed or capture failed (see {@link #getError()}).
+     */
+    @Nullable
+    public Frame poll(long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+        Frame frame = mFrames.poll(timeout, unit);
+        if (frame == END) {
+            mFrames.offer(END);
+            return null;
+        }
+        return frame;
+    }
+
+    /** Returns the error that stopped capture, if any. */
+    @Nullable
+    public Exception getError() {
+        return mError;
+    }
+
+    /** Stops capturing, and releases the frames not taken yet. */
+    @Override
+    public void close() {
+        mClosed = true;
+        mThread.interrupt();
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Frame frame;
+        while ((frame = mFrames.poll()) != null) {
+            if (frame != END) {
+                frame.close();
+            }
+        }
+        mFrames.offer(END);
+    }
+
+    private void run() {
+        long nextCapture = System.nanoTime();
+        try {
+            while (!mClosed) {
+                long delay = nextCapture - System.nanoTime();
+                if (delay > 0) {
+                    TimeUnit.NANOSECONDS.sleep(delay);
+                }
+                nextCapture = Math.max(nextCapture + mIntervalNanos, System.nanoTime());
+
+                // Waits for the consumer to give a buffer back
+                ByteBuffer buffer = mFreeBuffers.take();
+                Frame frame;
+                try {
+                    frame = capture(buffer);
+                } catch (Exception e) {
+                    mFreeBuffers.add(buffer);
+                    throw e;
+                }
+                if (frame == null) {
+                    mFreeBuffers.add(buffer);
+                    throw new IOException("Unsupported framebuffer protocol");
+                }
+                mFrames.add(frame);
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        } catch (Exception e) {
+            if (!mClosed) {
+                Log.w("ddms", "Framebuffer capture failed: " + e);
+                mError = e;
+            }
+        } finally {
+            mFrames.offer(END);
+        }
+    }
+
+    @Nullable
+    private Frame capture(@NonNull ByteBuffer buffer)
+            throws TimeoutException, AdbCommandRejectedException, IOException {
+        ByteBuffer[] data = {buffer};
+        long timestamp = System.nanoTime();
+        RawImage header =
+                mSource.read(
+                        image -> {
+                            if (data[0].capacity() < image.size) {
+                                data[0] = ByteBuffer.allocateDirect(image.size);
+                            }
+                            data[0].clear();
+                            return data[0];
+                        });
+        if (header == null) {
+            return null;
+        }
+        ByteBuffer frameData = data[0].duplicate();
+        frameData.position(0);
+        frameData.limit(header.size);
+        List<Rectangle> tiles = mTileSize > 0 ? findChangedTiles(header, frameData) : null;
+        return new Frame(this, header, data[0], mSequence++, timestamp, tiles);
+    }
+
+    @NonNull
+    private List<Rectangle> findChangedTiles(@NonNull RawImage header, @NonNull ByteBuffer data) {
+        RawImage previous = mPreviousHeader;
+        boolean sameFormat =
+                previous != null
+                        && previous.width == header.width
+                        && previous.height == header.height
+                        && previous.bpp == header.bpp
+                        && previous.size == header.size;
+        List<Rectangle> tiles = new ArrayList<>();
+        int bytesPerPixel = header.bpp >> 3;
+        int stride = header.width * bytesPerPixel;
+        for (int y = 0; y < header.height; y += mTileSize) {
+            int height = Math.min(mTileSize, header.height - y);
+            for (int x = 0; x < header.width; x += mTileSize) {
+                int width = Math.min(mTileSize, header.width - x);
+                if (!sameFormat
+                        || tileChanged(
+                                data,
+                                mPreviousData,
+                                y * stride + x * bytesPerPixel,
+                                width * bytesPerPixel,
+                                height,
+                                stride)) {
+                    tiles.add(new Rectangle(x, y, width, height));
+                }
+            }
+        }
+
+        // The frame buffer belongs to the consumer once handed over, so keep a copy
+        if (mPreviousData == null || mPreviousData.capacity() < header.size) {
+            mPreviousData = ByteBuffer.allocateDirect(header.size);
+        }
+        mPreviousData.clear();
+        mPreviousData.put(data.duplicate());
+        mPreviousHeader = header;
+        return tiles;
+    }
+
+    /**
+     * Returns whether the {@code rows} rows of {@code rowBytes} bytes starting at {@code offset},
+     * and {@code stride} bytes apart, differ between {@code current} and {@code previous}.
+     */
+    @VisibleForTesting
+    static boolean tileChanged(
+            @NonNull ByteBuffer current,
+            @NonNull ByteBuffer previous,
+            int offset,
+            int rowBytes,
+            int rows,
+            int stride) {
+        for (int row = 0; row < rows; row++) {
+            int start = offset + row * stride;
+            int end = start + rowBytes;
+            int i = start;
+            for (; i + Long.BYTES <= end; i += Long.BYTES) {
+                if (current.getLong(i) != previous.getLong(i)) {
+                    return true;
+                }
+            }
+            for (; i < end; i++) {
+                if (current.get(i) != previous.get(i)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void release(@NonNull ByteBuffer buffer) {
+        mFreeBuffers.add(buffer);
+    }
+
+    /**
+     * A frame captured by a {@link FramebufferStream}. Its data lives in a buffer of the stream's
+     * pool, so it must be {@link #close() closed} once processed.
+     */
+    public static final class Frame implements AutoCloseable {
+
+        private final FramebufferStream mStream;
+
+        private final RawImage mHeader;
+
+        private final ByteBuffer mBuffer;
+
+        private final long mSequence;
+
+        private final long mTimestampNanos;
+
+        @Nullable private final List<Rectangle> mChangedTiles;
+
+        private final AtomicBoolean mClosed = new AtomicBoolean();
+
+        private Frame(
+                FramebufferStream stream,
+                RawImage header,
+                ByteBuffer buffer,
+                long sequence,
+                long timestampNanos,
+                @Nullable List<Rectangle> changedTiles) {
+            mStream = stream;
+            mHeader = header;
+            mBuffer = buffer;
+            mSequence = sequence;
+            mTimestampNanos = timestampNanos;
+            mChangedTiles = changedTiles == null ? null : Collections.unmodifiableList(changedTiles);
+        }
+
+        /**
+         * Returns the format of the frame. The {@link RawImage#data} of the returned image is not
+         * set, see {@link #getData()}.
+         */
+        @NonNull
+        public RawImage getHeader() {
+            return mHeader;
+        }
+
+        /** Returns a read-only view of the pixels of the frame, only valid until it is closed. */
+        @NonNull
+        public ByteBuffer getData() {
+            if (mClosed.get()) {
+                throw new IllegalStateException("Frame is closed");
+            }
+            ByteBuffer data = mBuffer.asReadOnlyBuffer();
+            data.position(0);
+            data.limit(mHeader.size);
+            return data;
+        }
+
+        /** Returns the index of the frame in the stream. */
+        public long getSequence() {
+            return mSequence;
+        }
+
+        /** Returns the {@link System#nanoTime()} at which capture of the frame started. */
+        public long getTimestampNanos() {
+            return mTimestampNanos;
+        }
+
+        /**
+         * Returns the tiles of the frame that changed since the previous frame, or null if the
+         * stream does not compare frames. All the tiles are returned for the first frame, and
+         * whenever the size or format of the frame buffer changes.
+         */
+        @Nullable
+        public List<Rectangle> getChangedTiles() {
+            return mChangedTiles;
+        }
+
+        /** Gives the buffer of the frame back to the stream. */
+        @Override
+        public void close() {
+            if (mClosed.compareAndSet(false, true)) {
+                mStream.release(mBuffer);
+            }
+        }
+    }
+}
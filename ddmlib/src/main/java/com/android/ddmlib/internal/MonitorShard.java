@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.internal;
+
+import com.android.annotations.NonNull;
+import com.android.ddmlib.Log;
+import com.android.ddmlib.internal.jdwp.chunkhandler.JdwpPacket;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One selector loop of the {@link MonitorThread}, bridging the JDWP traffic of the subset of
+ * clients (and their debuggers) assigned to it.
+ *
+ * <p>Channels are only ever registered with the shard's {@link Selector} from the shard's own
+ * thread: other threads post registrations to a lock-free queue and wake the selector up, and the
+ * queue is drained before each {@link Selector#select()}.
+ */
+final class MonitorShard implements Runnable {
+
+    @NonNull private final MonitorThread mMonitor;
+
+    private final int mIndex;
+
+    /** Registrations posted by other threads, run on the shard thread before selecting */
+    private final Queue<Runnable> mPendingRegistrations = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger mPendingRegistrationCount = new AtomicInteger();
+
+    private final AtomicInteger mClientCount = new AtomicInteger();
+
+    // Metrics, only written from the shard thread, but read from any thread
+    private volatile int mLastReadyKeyCount;
+    private volatile int mMaxReadyKeyCount;
+    private final AtomicLong mProcessedKeyCount = new AtomicLong();
+    private final AtomicLong mTotalProcessingNanos = new AtomicLong();
+    private volatile long mMaxProcessingNanos;
+
+    private volatile Selector mSelector;
+
+    MonitorShard(@NonNull MonitorThread monitor, int index) {
+        mMonitor = monitor;
+        mIndex = index;
+    }
+
+    int getIndex() {
+        return mIndex;
+    }
+
+    void open() throws IOException {
+        mSelector = Selector.open();
+    }
+
+    /** Whether the shard's selector is open, i.e. it has started and has not been closed yet. */
+    boolean isOpen() {
+        Selector selector = mSelector;
+        return selector != null && selector.isOpen();
+    }
+
+    void close() throws IOException {
+        if (mSelector != null) {
+            mSelector.close();
+        }
+    }
+
+    /**
+     * Registers the client's socket channel, and its debugger listener if any, with this shard.
+     * Can be called from any thread, before or after the shard starts running.
+     */
+    void addClient(@NonNull ClientImpl client) {
+        mClientCount.incrementAndGet();
+        post(
+                () -> {
+                    if (!mMonitor.isMonitored(client)) {
+                        // Dropped before we got a chance to register it
+                        return;
+                    }
+                    try {
+                        client.register(mSelector);
+
+                        Debugger dbg = client.getDebugger();
+                        if (dbg != null) {
+                            dbg.registerListener(mSelector);
+                        }
+                    } catch (IOException ioe) {
+                        // not really expecting this to happen
+                        ioe.printStackTrace();
+                    }
+                });
+    }
+
+    void removeClient() {
+        mClientCount.decrementAndGet();
+        // Let the selector process the cancelled keys of the client
+        wakeup();
+    }
+
+    private void post(@NonNull Runnable registration) {
+        mPendingRegistrations.add(registration);
+        mPendingRegistrationCount.incrementAndGet();
+        wakeup();
+    }
+
+    void wakeup() {
+        // If we didn't started running yet, we might not have a selector set.
+        Selector selector = mSelector;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    @NonNull
+    MonitorThread.ShardStats getStats() {
+        return new MonitorThread.ShardStats(
+                mIndex,
+                mClientCount.get(),
+                mPendingRegistrationCount.get(),
+                mLastReadyKeyCount,
+                mMaxReadyKeyCount,
+                mProcessedKeyCount.get(),
+                mTotalProcessingNanos.get(),
+                mMaxProcessingNanos);
+    }
+
+    /** Watch for activity from the clients and debuggers of this shard. */
+    @Override
+    public void run() {
+        Selector selector = mSelector;
+        while (!mMonitor.isQuitting()) {
+            try {
+                runPendingRegistrations();
+
+                int count;
+                try {
+                    count = selector.select();
+                } catch (IOException ioe) {
+                    ioe.printStackTrace();
+                    continue;
+                } catch (CancelledKeyException cke) {
+                    continue;
+                }
+
+                if (count == 0) {
+                    // somebody called wakeup() ?
+                    continue;
+                }
+
+                Set<SelectionKey> keys = selector.selectedKeys();
+                mLastReadyKeyCount = keys.size();
+                mMaxReadyKeyCount = Math.max(mMaxReadyKeyCount, keys.size());
+                Iterator<SelectionKey> iter = keys.iterator();
+
+                while (iter.hasNext()) {
+                    SelectionKey key = iter.next();
+                    iter.remove();
+
+                    long start = System.nanoTime();
+                    try {
+                        if (key.attachment() instanceof ClientImpl) {
+                            processClientActivity(key);
+                        } else if (key.attachment() instanceof Debugger) {
+                            processDebuggerActivity(key);
+                        } else {
+                            Log.e("ddms", "unknown activity key");
+                        }
+                    } catch (Exception e) {
+                        // we don't want to have our thread be killed because of any uncaught
+                        // exception, so we intercept all here.
+                        Log.e("ddms", "Exception during activity from Selector.");
+                        Log.e("ddms", e);
+                    }
+                    recordProcessingTime(System.nanoTime() - start);
+                }
+            } catch (Exception e) {
+                // we don't want to have our thread be killed because of any uncaught
+                // exception, so we intercept all here.
+                Log.e("ddms", "Exception MonitorThread.run()");
+                Log.e("ddms", e);
+            }
+        }
+    }
+
+    private void runPendingRegistrations() {
+        Runnable registration;
+        while ((registration = mPendingRegistrations.poll()) != null) {
+            mPendingRegistrationCount.decrementAndGet();
+            registration.run();
+        }
+    }
+
+    private void recordProcessingTime(long nanos) {
+        mProcessedKeyCount.incrementAndGet();
+        mTotalProcessingNanos.addAndGet(nanos);
+        if (nanos > mMaxProcessingNanos) {
+            mMaxProcessingNanos = nanos;
+        }
+    }
+
+    /*
+     * Something happened. Figure out what.
+     */
+    private void processClientActivity(SelectionKey key) {
+        ClientImpl client = (ClientImpl) key.attachment();
+
+        try {
+            if (!key.isReadable() || !key.isValid()) {
+                Log.d("ddms", "Invalid key from " + client + ". Dropping client.");
+                mMonitor.dropClient(client, true /* notify */);
+                return;
+            }
+
+            client.read();
+
+            /*
+             * See if we have a full packet in the buffer. It's possible we have
+             * more than one packet, so we have to loop.
+             */
+            JdwpPacket packet = client.getJdwpPacket();
+            while (packet != null) {
+                packet.log("Client: received jdwp packet");
+                client.incoming(packet, client.getDebugger());
+
+                packet.consume();
+                // find next
+                packet = client.getJdwpPacket();
+            }
+        } catch (CancelledKeyException e) {
+            // key was canceled probably due to a disconnected client before we could
+            // read stuff coming from the client, so we drop it.
+            mMonitor.dropClient(client, true /* notify */);
+        } catch (IOException ex) {
+            // something closed down, no need to print anything. The client is simply dropped.
+            mMonitor.dropClient(client, true /* notify */);
+        } catch (Exception ex) {
+            Log.e("ddms", ex);
+
+            /* close the client; automatically un-registers from selector */
+            mMonitor.dropClient(client, true /* notify */);
+
+            if (ex instanceof BufferOverflowException) {
+                Log.w("ddms", "Client data packet exceeded maximum buffer size " + client);
+            } else {
+                // don't know what this is, display it
+                Log.e("ddms", ex);
+            }
+        }
+    }
+
+    /*
+     * Process activity from one of the debugger sockets. This could be a new
+     * connection or a data packet.
+     */
+    private void processDebuggerActivity(SelectionKey key) {
+        Debugger dbg = (Debugger) key.attachment();
+
+        try {
+            if (key.isAcceptable()) {
+                try {
+                    acceptNewDebugger(dbg);
+                } catch (IOException ioe) {
+                    Log.w("ddms", "debugger accept() failed");
+                    ioe.printStackTrace();
+                }
+            } else if (key.isReadable()) {
+                // We have incoming data from the debugger. Forward it to the client.
+                dbg.processChannelData();
+            } else {
+                Log.d("ddm-debugger", "key in unknown state");
+            }
+        } catch (CancelledKeyException cke) {
+            // key has been cancelled we can ignore that.
+        }
+    }
+
+    /*
+     * Accept a new connection from a debugger. If successful, register it with
+     * the Selector. This runs on the shard thread, so the registration does not
+     * need to be synchronized with select().
+     */
+    private void acceptNewDebugger(Debugger dbg) throws IOException {
+        SocketChannel chan = dbg.accept();
+
+        if (chan != null) {
+            chan.socket().setTcpNoDelay(true);
+
+            try {
+                chan.register(mSelector, SelectionKey.OP_READ, dbg);
+            } catch (IOException | RuntimeException e) {
+                // failed, drop the connection
+                dbg.closeData();
+                throw e;
+            }
+        } else {
+            Log.w("ddms", "ignoring duplicate debugger");
+            // new connection already closed
+        }
+    }
+}
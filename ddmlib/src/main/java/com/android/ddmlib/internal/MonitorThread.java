@@ -16,31 +16,29 @@
 
 package com.android.ddmlib.internal;
 
+import com.android.annotations.NonNull;
 import com.android.ddmlib.DdmJdwpExtension;
+import com.android.ddmlib.DdmPreferences;
 import com.android.ddmlib.IDevice;
 import com.android.ddmlib.Log;
 import com.android.ddmlib.Log.LogLevel;
 import com.android.ddmlib.internal.jdwp.chunkhandler.ChunkHandler;
-import com.android.ddmlib.internal.jdwp.chunkhandler.JdwpPacket;
 import com.android.ddmlib.jdwp.JdwpExtension;
+import com.google.common.annotations.VisibleForTesting;
 import java.io.IOException;
-import java.nio.BufferOverflowException;
-import java.nio.channels.CancelledKeyException;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
-import java.nio.channels.ServerSocketChannel;
-import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 /* Singleton Thread (which should really be named JDWPThread), bridging JDWP duplex traffic between
  *  a Client (Dalvik/ART VM on device) and a JDWP third party. Multiple bridges are handled via
- *  a [Selector].
- *  The Thread relies on a single [Selector] upon which [SocketChannel] are registered.
+ *  [Selector]s.
+ *  Each shard relies on a single [Selector] upon which [SocketChannel] are registered.
  *
  *  Case 1: A "simple" Client (Android VM) to monitor is added. The connection to the Client is already
  *  established (via jdwp:PID service). The socket is selected for READ.
@@ -78,6 +76,12 @@ import java.util.Set;
  *
  *     3/ When either of the socket pair triggers for READ, the socket buffer is emptied and written
  *        in the matching paired socket.
+ *
+ *  To keep a busy Client (e.g. one sending large HPROF or thread dumps) from starving all the
+ *  others, Clients are spread by hash across {@link DdmPreferences#getMonitorThreadCount()}
+ *  shards, each with its own [Selector] and thread (see {@link MonitorShard}). A Client and its
+ *  Debugger are always serviced by the same shard. This thread runs the first shard itself, and
+ *  starts the other ones.
  */
 public final class MonitorThread extends Thread {
 
@@ -85,12 +89,13 @@ public final class MonitorThread extends Thread {
 
     private volatile boolean mQuit = false;
 
-    // List of clients we're paying attention to
-    // Used for locking so final.
-    private final ArrayList<ClientImpl> mClientList;
+    // Clients we're paying attention to, and the shard each of them is assigned to
+    private final Map<ClientImpl, MonitorShard> mClients = new ConcurrentHashMap<>();
+
+    private final MonitorShard[] mShards;
 
-    // The almighty mux
-    private Selector mSelector;
+    // Threads running mShards[1..], mShards[0] runs on this thread
+    private final List<Thread> mShardThreads = new ArrayList<>();
 
     private final List<JdwpExtension> mJdwpExtensions;
 
@@ -101,11 +106,19 @@ public final class MonitorThread extends Thread {
      * Generic constructor.
      */
     private MonitorThread() {
+        this(DdmPreferences.getMonitorThreadCount());
+    }
+
+    @VisibleForTesting
+    MonitorThread(int shardCount) {
         super("Monitor");
-        mClientList = new ArrayList<>();
         mDdmJdwpExtension = new DdmJdwpExtension();
         mJdwpExtensions = new LinkedList<>();
         mJdwpExtensions.add(mDdmJdwpExtension);
+        mShards = new MonitorShard[shardCount];
+        for (int i = 0; i < mShards.length; i++) {
+            mShards[i] = new MonitorShard(this, i);
+        }
     }
 
     /**
@@ -130,9 +143,30 @@ public final class MonitorThread extends Thread {
 
     /** Get an array of known clients. */
     ClientImpl[] getClients() {
-        synchronized (mClientList) {
-            return mClientList.toArray(new ClientImpl[0]);
+        return mClients.keySet().toArray(new ClientImpl[0]);
+    }
+
+    /** Returns a snapshot of the metrics of each shard, e.g. to find out overloaded ones. */
+    @NonNull
+    public List<ShardStats> getShardStats() {
+        List<ShardStats> stats = new ArrayList<>(mShards.length);
+        for (MonitorShard shard : mShards) {
+            stats.add(shard.getStats());
         }
+        return stats;
+    }
+
+    @VisibleForTesting
+    @NonNull
+    List<MonitorShard> getShards() {
+        return Arrays.asList(mShards);
+    }
+
+    /** Returns the threads started to run the shards other than the first one. */
+    @VisibleForTesting
+    @NonNull
+    List<Thread> getShardThreads() {
+        return mShardThreads;
     }
 
     /** Register "handler" as the handler for type "type". */
@@ -143,6 +177,14 @@ public final class MonitorThread extends Thread {
         mDdmJdwpExtension.registerHandler(type, handler);
     }
 
+    boolean isQuitting() {
+        return mQuit;
+    }
+
+    boolean isMonitored(@NonNull ClientImpl client) {
+        return mClients.containsKey(client);
+    }
+
     /**
      * Watch for activity from clients and debuggers.
      */
@@ -150,124 +192,35 @@ public final class MonitorThread extends Thread {
     public void run() {
         Log.d("ddms", "Monitor is up");
 
-        // create a selector
+        // create a selector per shard
         try {
-            mSelector = Selector.open();
+            for (MonitorShard shard : mShards) {
+                shard.open();
+            }
         } catch (IOException ioe) {
             Log.logAndDisplay(LogLevel.ERROR, "ddms",
                     "Failed to initialize Monitor Thread: " + ioe.getMessage());
+            closeShards();
             return;
         }
 
-        while (!mQuit) {
-
-            try {
-                /*
-                 * sync with new registrations: we wait until addClient is done before going through
-                 * and doing mSelector.select() again.
-                 * @see {@link #addClient(Client)}
-                 */
-                synchronized (mClientList) {
-                }
-
-                int count;
-                try {
-                    count = mSelector.select();
-                } catch (IOException ioe) {
-                    ioe.printStackTrace();
-                    continue;
-                } catch (CancelledKeyException cke) {
-                    continue;
-                }
-
-                if (count == 0) {
-                    // somebody called wakeup() ?
-                    // Log.i("ddms", "selector looping");
-                    continue;
-                }
-
-                Set<SelectionKey> keys = mSelector.selectedKeys();
-                Iterator<SelectionKey> iter = keys.iterator();
-
-                while (iter.hasNext()) {
-                    SelectionKey key = iter.next();
-                    iter.remove();
-
-                    try {
-                        if (key.attachment() instanceof ClientImpl) {
-                            processClientActivity(key);
-                        }
-                        else if (key.attachment() instanceof Debugger) {
-                            processDebuggerActivity(key);
-                        }
-                        else {
-                            Log.e("ddms", "unknown activity key");
-                        }
-                    } catch (Exception e) {
-                        // we don't want to have our thread be killed because of any uncaught
-                        // exception, so we intercept all here.
-                        Log.e("ddms", "Exception during activity from Selector.");
-                        Log.e("ddms", e);
-                    }
-                }
-            } catch (Exception e) {
-                // we don't want to have our thread be killed because of any uncaught
-                // exception, so we intercept all here.
-                Log.e("ddms", "Exception MonitorThread.run()");
-                Log.e("ddms", e);
-            }
+        for (int i = 1; i < mShards.length; i++) {
+            Thread thread = new Thread(mShards[i], getName() + "-" + i);
+            thread.setDaemon(isDaemon());
+            mShardThreads.add(thread);
+            thread.start();
         }
-    }
 
-    /*
-     * Something happened. Figure out what.
-     */
-    private void processClientActivity(SelectionKey key) {
-        ClientImpl client = (ClientImpl) key.attachment();
+        mShards[0].run();
 
-        try {
-            if (!key.isReadable() || !key.isValid()) {
-                Log.d("ddms", "Invalid key from " + client + ". Dropping client.");
-                dropClient(client, true /* notify */);
+        // Make sure joining this thread also waits for all the shards to stop
+        for (Thread thread : mShardThreads) {
+            try {
+                thread.join();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
                 return;
             }
-
-            client.read();
-
-            /*
-             * See if we have a full packet in the buffer. It's possible we have
-             * more than one packet, so we have to loop.
-             */
-            JdwpPacket packet = client.getJdwpPacket();
-            while (packet != null) {
-                packet.log("Client: received jdwp packet");
-                client.incoming(packet, client.getDebugger());
-
-                packet.consume();
-                // find next
-                packet = client.getJdwpPacket();
-            }
-        } catch (CancelledKeyException e) {
-            // key was canceled probably due to a disconnected client before we could
-            // read stuff coming from the client, so we drop it.
-            dropClient(client, true /* notify */);
-        } catch (IOException ex) {
-            // something closed down, no need to print anything. The client is simply dropped.
-            dropClient(client, true /* notify */);
-        } catch (Exception ex) {
-            Log.e("ddms", ex);
-
-            /* close the client; automatically un-registers from selector */
-            dropClient(client, true /* notify */);
-
-            if (ex instanceof BufferOverflowException) {
-                Log.w("ddms",
-                        "Client data packet exceeded maximum buffer size "
-                                + client);
-            } else {
-                // don't know what this is, display it
-                Log.e("ddms", ex);
-            }
         }
     }
 
@@ -285,10 +238,9 @@ public final class MonitorThread extends Thread {
             return;
         }
 
-        synchronized (mClientList) {
-            if (!mClientList.remove(client)) {
-                return;
-            }
+        MonitorShard shard = mClients.remove(client);
+        if (shard == null) {
+            return;
         }
         client.close(notify);
         mDdmJdwpExtension.broadcast(DdmJdwpExtension.Event.CLIENT_DISCONNECTED, client);
@@ -297,7 +249,7 @@ public final class MonitorThread extends Thread {
          * http://forum.java.sun.com/thread.jspa?threadID=726715&start=0
          * http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=5073504
          */
-        wakeup();
+        shard.removeClient();
     }
 
     /**
@@ -310,117 +262,43 @@ public final class MonitorThread extends Thread {
         }
     }
 
-    /*
-     * Process activity from one of the debugger sockets. This could be a new
-     * connection or a data packet.
-     */
-    private void processDebuggerActivity(SelectionKey key) {
-        Debugger dbg = (Debugger)key.attachment();
-
-        try {
-            if (key.isAcceptable()) {
-                try {
-                    acceptNewDebugger(dbg, null);
-                } catch (IOException ioe) {
-                    Log.w("ddms", "debugger accept() failed");
-                    ioe.printStackTrace();
-                }
-            } else if (key.isReadable()) {
-                processDebuggerData(key);
-            } else {
-                Log.d("ddm-debugger", "key in unknown state");
-            }
-        } catch (CancelledKeyException cke) {
-            // key has been cancelled we can ignore that.
-        }
-    }
-
-    /*
-     * Accept a new connection from a debugger. If successful, register it with
-     * the Selector.
-     */
-    private void acceptNewDebugger(Debugger dbg, ServerSocketChannel acceptChan)
-            throws IOException {
-
-        synchronized (mClientList) {
-            SocketChannel chan;
-
-            if (acceptChan == null)
-                chan = dbg.accept();
-            else
-                chan = dbg.accept(acceptChan);
-
-            if (chan != null) {
-                chan.socket().setTcpNoDelay(true);
-                wakeup();
-
-                try {
-                    chan.register(mSelector, SelectionKey.OP_READ, dbg);
-                } catch (IOException ioe) {
-                    // failed, drop the connection
-                    dbg.closeData();
-                    throw ioe;
-                } catch (RuntimeException re) {
-                    // failed, drop the connection
-                    dbg.closeData();
-                    throw re;
-                }
-            } else {
-                Log.w("ddms", "ignoring duplicate debugger");
-                // new connection already closed
-            }
-        }
-    }
-
-    /*
-     * We have incoming data from the debugger. Forward it to the client.
-     */
-    private void processDebuggerData(SelectionKey key) {
-        Debugger dbg = (Debugger)key.attachment();
-
-        dbg.processChannelData();
-    }
-
-    /*
-     * Tell the thread that something has changed.
-     */
-    private void wakeup() {
-        // If we didn't started running yet, we might not have a selector set.
-        if (mSelector != null) {
-            mSelector.wakeup();
-        }
-    }
-
     /**
      * Tell the thread to stop. Called from UI thread.
      */
     public synchronized void quit() {
         mQuit = true;
-        wakeup();
+        for (MonitorShard shard : mShards) {
+            shard.wakeup();
+        }
         Log.d("ddms", "Waiting for Monitor thread");
         try {
             this.join();
             // since we're quitting, lets drop all the client and disconnect
             // the DebugSelectedPort
-            synchronized (mClientList) {
-                for (ClientImpl c : mClientList) {
-                    c.close(false /* notify */);
-                    mDdmJdwpExtension.broadcast(DdmJdwpExtension.Event.CLIENT_DISCONNECTED, c);
-                }
-                mClientList.clear();
+            for (ClientImpl c : mClients.keySet()) {
+                c.close(false /* notify */);
+                mDdmJdwpExtension.broadcast(DdmJdwpExtension.Event.CLIENT_DISCONNECTED, c);
             }
+            mClients.clear();
 
-            if (mSelector != null) {
-                mSelector.close();
-            }
+            closeShards();
         } catch (InterruptedException ie) {
             ie.printStackTrace();
-        } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
         }
 
-        sInstance = null;
+        if (sInstance == this) {
+            sInstance = null;
+        }
+    }
+
+    private void closeShards() {
+        for (MonitorShard shard : mShards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
     }
 
     /**
@@ -435,38 +313,123 @@ public final class MonitorThread extends Thread {
 
         Log.d("ddms", "Adding new client " + client);
 
-        synchronized (mClientList) {
-            mClientList.add(client);
-
-            for (JdwpExtension extension : mJdwpExtensions) {
-                extension.intercept(client);
-            }
+        MonitorShard shard = getShard(client);
+        mClients.put(client, shard);
 
-            /*
-             * Register the Client's socket channel with the selector. We attach
-             * the Client to the SelectionKey. If you try to register a new
-             * channel with the Selector while it is waiting for I/O, you will
-             * block. The solution is to call wakeup() and then hold a lock to
-             * ensure that the registration happens before the Selector goes
-             * back to sleep.
-             */
-            try {
-                wakeup();
+        for (JdwpExtension extension : mJdwpExtensions) {
+            extension.intercept(client);
+        }
 
-                client.register(mSelector);
+        /*
+         * The registration of the Client's socket channel with the selector is queued, and
+         * performed by the shard thread itself before it goes back to select(), so that this
+         * thread never blocks on a selector that is waiting for I/O.
+         */
+        shard.addClient(client);
+    }
 
-                Debugger dbg = client.getDebugger();
-                if (dbg != null) {
-                    dbg.registerListener(mSelector);
-                }
-            } catch (IOException ioe) {
-                // not really expecting this to happen
-                ioe.printStackTrace();
-            }
-        }
+    /**
+     * Returns the shard servicing {@code client}, spreading clients of the same device as well as
+     * clients with the same pid on different devices.
+     */
+    @VisibleForTesting
+    @NonNull
+    MonitorShard getShard(@NonNull ClientImpl client) {
+        int hash =
+                Objects.hash(
+                        client.getDevice().getSerialNumber(), client.getClientData().getPid());
+        // Spread the high bits, since pids and serial numbers often only differ in their last
+        // characters and digits
+        hash ^= (hash >>> 16);
+        return mShards[Math.floorMod(hash, mShards.length)];
     }
 
     public DdmJdwpExtension getDdmExtension() {
         return mDdmJdwpExtension;
     }
+
+    /** Metrics of a single {@link MonitorShard}. */
+    public static final class ShardStats {
+        private final int mIndex;
+        private final int mClientCount;
+        private final int mPendingRegistrationCount;
+        private final int mLastReadyKeyCount;
+        private final int mMaxReadyKeyCount;
+        private final long mProcessedKeyCount;
+        private final long mTotalProcessingNanos;
+        private final long mMaxProcessingNanos;
+
+        ShardStats(
+                int index,
+                int clientCount,
+                int pendingRegistrationCount,
+                int lastReadyKeyCount,
+                int maxReadyKeyCount,
+                long processedKeyCount,
+                long totalProcessingNanos,
+                long maxProcessingNanos) {
+            mIndex = index;
+            mClientCount = clientCount;
+            mPendingRegistrationCount = pendingRegistrationCount;
+            mLastReadyKeyCount = lastReadyKeyCount;
+            mMaxReadyKeyCount = maxReadyKeyCount;
+            mProcessedKeyCount = processedKeyCount;
+            mTotalProcessingNanos = totalProcessingNanos;
+            mMaxProcessingNanos = maxProcessingNanos;
+        }
+
+        public int getIndex() {
+            return mIndex;
+        }
+
+        /** Number of clients assigned to the shard. */
+        public int getClientCount() {
+            return mClientCount;
+        }
+
+        /** Number of channel registrations waiting for the shard thread to pick them up. */
+        public int getPendingRegistrationCount() {
+            return mPendingRegistrationCount;
+        }
+
+        /** Number of ready channels returned by the last select() of the shard. */
+        public int getLastReadyKeyCount() {
+            return mLastReadyKeyCount;
+        }
+
+        /** Largest number of ready channels returned by a single select() of the shard. */
+        public int getMaxReadyKeyCount() {
+            return mMaxReadyKeyCount;
+        }
+
+        /** Number of ready channels processed by the shard so far. */
+        public long getProcessedKeyCount() {
+            return mProcessedKeyCount;
+        }
+
+        /** Total time spent processing ready channels, e.g. running DDM chunk handlers. */
+        public long getTotalProcessingNanos() {
+            return mTotalProcessingNanos;
+        }
+
+        /** Longest time spent processing a single ready channel. */
+        public long getMaxProcessingNanos() {
+            return mMaxProcessingNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "Shard %d: %d clients, %d pending registrations, %d/%d ready keys (last/max),"
+                            + " %d processed keys in %d ms (max %d us)",
+                    mIndex,
+                    mClientCount,
+                    mPendingRegistrationCount,
+                    mLastReadyKeyCount,
+                    mMaxReadyKeyCount,
+                    mProcessedKeyCount,
+                    mTotalProcessingNanos / 1_000_000,
+                    mMaxProcessingNanos / 1_000);
+        }
+    }
 }
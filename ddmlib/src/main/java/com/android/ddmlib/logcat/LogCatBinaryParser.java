@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib.logcat;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.android.annotations.NonNull;
+import com.android.ddmlib.Log.LogLevel;
+import com.android.ddmlib.logcat.LogCatHeaderParser.PidToPackageName;
+import com.google.common.annotations.VisibleForTesting;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class to parse the raw output of {@code adb logcat -B} to {@link LogCatMessage} objects.
+ *
+ * <p>In binary mode, logcat writes the {@code logger_entry} structs of liblog as is, so entries
+ * are decoded directly from the bytes received from the device, without going through text lines
+ * and regular expressions:
+ *
+ * <pre>
+ * struct logger_entry {
+ *     uint16_t len;      // length of the payload
+ *     uint16_t hdr_size; // sizeof(struct logger_entry), 0 for v1 entries (20 bytes)
+ *     int32_t  pid;
+ *     uint32_t tid;
+ *     uint32_t sec;
+ *     uint32_t nsec;
+ *     uint32_t lid;      // v3+, log buffer id (euid in v2)
+ *     uint32_t uid;      // v4+
+ *     char     msg[];    // priority (1 byte), tag (NUL terminated), message (NUL terminated)
+ * };
+ * </pre>
+ *
+ * <p>Like {@link LogCatMessageParser}, a {@link LogCatMessage} is returned for each non empty line
+ * of a log entry. Tags are interned, so that entries with the same tag share the same {@link
+ * String} instance, and decoding them does not allocate once a tag has been seen.
+ */
+public class LogCatBinaryParser {
+
+    /** Size of the v1 {@code logger_entry} header, which has 0 in its {@code hdr_size} field */
+    private static final int V1_HEADER_SIZE = 20;
+
+    /** Size of the fields of a header up to (and excluding) {@code lid} */
+    private static final int LOG_ID_OFFSET = 20;
+
+    /** Maximum length of an entry (LOGGER_ENTRY_MAX_LEN), used to detect corrupted streams */
+    private static final int MAX_ENTRY_LENGTH = 5 * 1024;
+
+    /** Log buffers with binary payloads, see {@code log_id_t} */
+    private static final int LOG_ID_EVENTS = 2;
+
+    private static final int LOG_ID_STATS = 5;
+
+    private static final int LOG_ID_SECURITY = 6;
+
+    /** {@link LogLevel} of each Android log priority, see {@code android_LogPriority} */
+    private static final LogLevel[] LEVELS = {
+        LogLevel.WARN, // UNKNOWN
+        LogLevel.WARN, // DEFAULT
+        LogLevel.VERBOSE,
+        LogLevel.DEBUG,
+        LogLevel.INFO,
+        LogLevel.WARN,
+        LogLevel.ERROR,
+        LogLevel.ASSERT, // FATAL
+    };
+
+    @NonNull private final PidToPackageName mPidToPackageName;
+
+    @NonNull private final TagTable mTags = new TagTable();
+
+    /** Bytes received but not decoded yet, in read mode between calls to {@link #processBytes} */
+    @NonNull private ByteBuffer mBuffer;
+
+    public LogCatBinaryParser(@NonNull PidToPackageName pidToPackageName) {
+        mPidToPackageName = pidToPackageName;
+        mBuffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        mBuffer.flip();
+    }
+
+    /**
+     * Parses the given bytes, and returns the messages of all the log entries they complete. Bytes
+     * of an incomplete trailing entry are kept until the next call.
+     *
+     * @param data raw bytes obtained from logcat -B
+     * @param offset offset of the first byte to parse in {@code data}
+     * @param length number of bytes to parse
+     * @return list of LogMessage objects parsed from the input
+     */
+    @NonNull
+    public List<LogCatMessage> processBytes(@NonNull byte[] data, int offset, int length) {
+        append(data, offset, length);
+
+        List<LogCatMessage> messages = new ArrayList<>();
+        ByteBuffer buffer = mBuffer;
+        while (buffer.remaining() >= V1_HEADER_SIZE) {
+            int start = buffer.position();
+            int payloadLength = buffer.getShort(start) & 0xFFFF;
+            int headerSize = buffer.getShort(start + 2) & 0xFFFF;
+            if (headerSize == 0) {
+                headerSize = V1_HEADER_SIZE;
+            }
+            if (headerSize < V1_HEADER_SIZE || headerSize + payloadLength > MAX_ENTRY_LENGTH) {
+                // Not a valid entry, which means the stream is corrupted (e.g. logcat was not
+                // run in binary mode), and there is no way to find the next entry.
+                throw new IllegalStateException(
+                        String.format(
+                                "Invalid logcat entry (len=%d, hdr_size=%d)",
+                                payloadLength, headerSize));
+            }
+            int entrySize = headerSize + payloadLength;
+            if (buffer.remaining() < entrySize) {
+                break;
+            }
+            if (!isBinaryLog(buffer, start, headerSize)) {
+                decodeEntry(buffer, start, headerSize, payloadLength, messages);
+            }
+            buffer.position(start + entrySize);
+        }
+        return messages;
+    }
+
+    private void decodeEntry(
+            @NonNull ByteBuffer buffer,
+            int start,
+            int headerSize,
+            int payloadLength,
+            @NonNull List<LogCatMessage> messages) {
+        if (payloadLength < 1) {
+            return;
+        }
+        int pid = buffer.getInt(start + 4);
+        int tid = buffer.getInt(start + 8);
+        long sec = buffer.getInt(start + 12) & 0xFFFFFFFFL;
+        long nsec = buffer.getInt(start + 16) & 0xFFFFFFFFL;
+
+        int payloadStart = start + headerSize;
+        int payloadEnd = payloadStart + payloadLength;
+        int priority = buffer.get(payloadStart);
+        LogLevel level =
+                priority >= 0 && priority < LEVELS.length ? LEVELS[priority] : LogLevel.WARN;
+
+        byte[] array = buffer.array();
+        int arrayOffset = buffer.arrayOffset();
+        int tagStart = payloadStart + 1;
+        int tagEnd = indexOf(array, arrayOffset, tagStart, payloadEnd, (byte) 0);
+        String tag = mTags.intern(array, arrayOffset + tagStart, tagEnd - tagStart);
+
+        // The message is NUL terminated, except when it was truncated to fit the payload
+        int messageStart = Math.min(tagEnd + 1, payloadEnd);
+        int messageEnd = indexOf(array, arrayOffset, messageStart, payloadEnd, (byte) 0);
+
+        LogCatHeader header = null;
+        int lineStart = messageStart;
+        while (lineStart < messageEnd) {
+            int lineEnd = indexOf(array, arrayOffset, lineStart, messageEnd, (byte) '\n');
+            if (lineEnd > lineStart) {
+                if (header == null) {
+                    header =
+                            new LogCatHeader(
+                                    level,
+                                    pid,
+                                    tid,
+                                    mPidToPackageName.apply(pid),
+                                    tag,
+                                    Instant.ofEpochSecond(sec, nsec));
+                }
+                String line = new String(array, arrayOffset + lineStart, lineEnd - lineStart, UTF_8);
+                messages.add(new LogCatMessage(header, line));
+            }
+            lineStart = lineEnd + 1;
+        }
+    }
+
+    /** Returns whether the entry at {@code start} comes from a log buffer with binary payloads */
+    private static boolean isBinaryLog(@NonNull ByteBuffer buffer, int start, int headerSize) {
+        if (headerSize < LOG_ID_OFFSET + 4) {
+            return false;
+        }
+        int logId = buffer.getInt(start + LOG_ID_OFFSET);
+        return logId == LOG_ID_EVENTS || logId == LOG_ID_STATS || logId == LOG_ID_SECURITY;
+    }
+
+    /** Returns the position of {@code b} in [from, to[, or {@code to} if there is none */
+    private static int indexOf(byte[] array, int arrayOffset, int from, int to, byte b) {
+        for (int i = from; i < to; i++) {
+            if (array[arrayOffset + i] == b) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /** Appends bytes to {@link #mBuffer}, keeping it in read mode */
+    private void append(@NonNull byte[] data, int offset, int length) {
+        if (mBuffer.capacity() - mBuffer.limit() < length) {
+            mBuffer.compact();
+            if (mBuffer.remaining() < length) {
+                ByteBuffer newBuffer =
+                        ByteBuffer.allocate(
+                                        Math.max(
+                                                mBuffer.capacity() * 2,
+                                                mBuffer.position() + length))
+                                .order(ByteOrder.LITTLE_ENDIAN);
+                mBuffer.flip();
+                newBuffer.put(mBuffer);
+                mBuffer = newBuffer;
+            }
+            mBuffer.flip();
+        }
+        int position = mBuffer.position();
+        int limit = mBuffer.limit();
+        mBuffer.limit(limit + length);
+        mBuffer.position(limit);
+        mBuffer.put(data, offset, length);
+        mBuffer.position(position);
+    }
+
+    /**
+     * Interned tags, looked up directly from the bytes of a log entry so that no {@link String} is
+     * created for tags that have been seen already.
+     */
+    @VisibleForTesting
+    static final class TagTable {
+
+        /** Limits memory use when a device logs with unbounded sets of tags */
+        private static final int MAX_SIZE = 4096;
+
+        private byte[][] mKeys = new byte[256][];
+
+        private String[] mValues = new String[256];
+
+        private int mSize;
+
+        @NonNull
+        String intern(@NonNull byte[] bytes, int offset, int length) {
+            int hash = hash(bytes, offset, length);
+            int mask = mKeys.length - 1;
+            int index = hash & mask;
+            while (mKeys[index] != null) {
+                if (equals(mKeys[index], bytes, offset, length)) {
+                    return mValues[index];
+                }
+                index = (index + 1) & mask;
+            }
+
+            String value = new String(bytes, offset, length, UTF_8);
+            if (mSize >= MAX_SIZE) {
+                return value;
+            }
+            byte[] key = new byte[length];
+            System.arraycopy(bytes, offset, key, 0, length);
+            mKeys[index] = key;
+            mValues[index] = value;
+            mSize++;
+            if (mSize * 2 > mKeys.length) {
+                rehash();
+            }
+            return value;
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        private void rehash() {
+            byte[][] oldKeys = mKeys;
+            String[] oldValues = mValues;
+            mKeys = new byte[oldKeys.length * 2][];
+            mValues = new String[oldValues.length * 2];
+            int mask = mKeys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                byte[] key = oldKeys[i];
+                if (key != null) {
+                    int index = hash(key, 0, key.length) & mask;
+                    while (mKeys[index] != null) {
+                        index = (index + 1) & mask;
+                    }
+                    mKeys[index] = key;
+                    mValues[index] = oldValues[i];
+                }
+            }
+        }
+
+        private static int hash(byte[] bytes, int offset, int length) {
+            int hash = 0;
+            for (int i = offset; i < offset + length; i++) {
+                hash = 31 * hash + bytes[i];
+            }
+            // Spread the low bits, since the table size is a power of 2
+            return hash ^ (hash >>> 16);
+        }
+
+        private static boolean equals(byte[] key, byte[] bytes, int offset, int length) {
+            if (key.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (key[i] != bytes[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -183,7 +183,7 @@ public class LogCatHeaderParser {
         }
     }
 
-    private String getPackageName(IDevice device, int pid) {
+    static String getPackageName(@Nullable IDevice device, int pid) {
         if (device == null) {
             return UNKNOWN_APP_NAME;
         }
@@ -24,6 +24,7 @@ import com.android.annotations.concurrency.GuardedBy;
 import com.android.ddmlib.AdbCommandRejectedException;
 import com.android.ddmlib.IDevice;
 import com.android.ddmlib.IShellOutputReceiver;
+import com.android.ddmlib.Log;
 import com.android.ddmlib.MultiLineReceiver;
 import com.android.ddmlib.ShellCommandUnresponsiveException;
 import com.android.ddmlib.TimeoutException;
@@ -32,12 +33,15 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class LogCatReceiverTask implements Runnable {
 
     private static final String LOGCAT_COMMAND = "logcat -v long"; //$NON-NLS-1$
 
+    private static final String LOGCAT_BINARY_COMMAND = "logcat -B"; //$NON-NLS-1$
+
     private static final int DEVICE_POLL_INTERVAL_MSEC = 1000;
 
     private static final LogCatMessage sDeviceDisconnectedMsg =
@@ -51,9 +55,9 @@ public class LogCatReceiverTask implements Runnable {
 
     private final IDevice mDevice;
 
-    private final LogCatOutputReceiver mReceiver;
+    private final boolean mBinary;
 
-    private final LogCatMessageParser mParser;
+    private final IShellOutputReceiver mReceiver;
 
     private final AtomicBoolean mCancelled;
 
@@ -61,10 +65,21 @@ public class LogCatReceiverTask implements Runnable {
     private final Set<LogCatListener> mListeners = new HashSet<LogCatListener>();
 
     public LogCatReceiverTask(@NonNull IDevice device) {
+        this(device, false);
+    }
+
+    /**
+     * Creates a task that reads the logs of {@code device}.
+     *
+     * @param binary whether to run logcat in binary mode ({@code logcat -B}), which is much
+     *     cheaper to parse than the text output, but requires the device to support the {@code
+     *     exec} service (API 21+) since the output must not go through a terminal.
+     */
+    public LogCatReceiverTask(@NonNull IDevice device, boolean binary) {
         mDevice = device;
+        mBinary = binary;
 
-        mReceiver = new LogCatOutputReceiver();
-        mParser = new LogCatMessageParser();
+        mReceiver = binary ? new LogCatBinaryOutputReceiver() : new LogCatOutputReceiver();
         mCancelled = new AtomicBoolean();
     }
 
@@ -80,7 +95,12 @@ public class LogCatReceiverTask implements Runnable {
         }
 
         try {
-            mDevice.executeShellCommand(LOGCAT_COMMAND, mReceiver, 0);
+            if (mBinary) {
+                mDevice.executeShellCommand(
+                        LOGCAT_BINARY_COMMAND, mReceiver, 0, TimeUnit.MILLISECONDS, null);
+            } else {
+                mDevice.executeShellCommand(LOGCAT_COMMAND, mReceiver, 0);
+            }
         } catch (TimeoutException e) {
             notifyListeners(Collections.singletonList(sConnectionTimeoutMsg));
         } catch (AdbCommandRejectedException ignored) {
@@ -100,6 +120,8 @@ public class LogCatReceiverTask implements Runnable {
 
     private class LogCatOutputReceiver extends MultiLineReceiver {
 
+        private final LogCatMessageParser mParser = new LogCatMessageParser();
+
         public LogCatOutputReceiver() {
             setTrimLine(false);
         }
@@ -125,6 +147,39 @@ public class LogCatReceiverTask implements Runnable {
         }
     }
 
+    private class LogCatBinaryOutputReceiver implements IShellOutputReceiver {
+
+        private final LogCatBinaryParser mParser =
+                new LogCatBinaryParser(pid -> LogCatHeaderParser.getPackageName(mDevice, pid));
+
+        @Override
+        public boolean isCancelled() {
+            return mCancelled.get();
+        }
+
+        @Override
+        public void addOutput(byte[] data, int offset, int length) {
+            if (mCancelled.get()) {
+                return;
+            }
+            List<LogCatMessage> newMessages;
+            try {
+                newMessages = mParser.processBytes(data, offset, length);
+            } catch (IllegalStateException e) {
+                Log.e("LogCatReceiverTask", e);
+                notifyListeners(Collections.singletonList(sConnectionErrorMsg));
+                mCancelled.set(true);
+                return;
+            }
+            if (!newMessages.isEmpty()) {
+                notifyListeners(newMessages);
+            }
+        }
+
+        @Override
+        public void flush() {}
+    }
+
     public synchronized void addLogCatListener(LogCatListener l) {
         mListeners.add(l);
     }
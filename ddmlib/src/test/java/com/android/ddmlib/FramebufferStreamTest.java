@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.junit.Test;
+
+public class FramebufferStreamTest {
+
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 8;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    @Test
+    public void changedTiles() throws Exception {
+        byte[] first = new byte[WIDTH * HEIGHT * BYTES_PER_PIXEL];
+        byte[] second = first.clone();
+        // Changes pixel (5, 6), which is in the bottom right tile
+        second[(6 * WIDTH + 5) * BYTES_PER_PIXEL] = 1;
+        FakeSource source = new FakeSource(first, second, second);
+
+        try (FramebufferStream stream = new FramebufferStream(source, 0, 2, 4)) {
+            stream.startCapture();
+
+            List<List<Rectangle>> tiles = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                try (FramebufferStream.Frame frame = stream.take()) {
+                    assertThat(frame.getSequence()).isEqualTo(i);
+                    assertThat(frame.getHeader().width).isEqualTo(WIDTH);
+                    assertThat(frame.getData().remaining()).isEqualTo(first.length);
+                    tiles.add(frame.getChangedTiles());
+                }
+            }
+
+            assertThat(tiles.get(0)).hasSize(4);
+            assertThat(tiles.get(1)).containsExactly(new Rectangle(4, 4, 4, 4));
+            assertThat(tiles.get(2)).isEmpty();
+        }
+    }
+
+    @Test
+    public void buffersAreReused() throws Exception {
+        byte[] frame = new byte[WIDTH * HEIGHT * BYTES_PER_PIXEL];
+        FakeSource source = new FakeSource(frame, frame, frame, frame, frame);
+
+        try (FramebufferStream stream = new FramebufferStream(source, 0, 2, 0)) {
+            stream.startCapture();
+
+            for (int i = 0; i < 5; i++) {
+                try (FramebufferStream.Frame f = stream.take()) {
+                    assertThat(f.getChangedTiles()).isNull();
+                }
+            }
+            assertThat(source.mBuffers.size()).isAtMost(2);
+        }
+    }
+
+    @Test
+    public void captureWaitsForFramesToBeClosed() throws Exception {
+        byte[] frame = new byte[WIDTH * HEIGHT * BYTES_PER_PIXEL];
+        FakeSource source = new FakeSource(frame, frame, frame, frame);
+
+        try (FramebufferStream stream = new FramebufferStream(source, 0, 2, 0)) {
+            stream.startCapture();
+
+            FramebufferStream.Frame first = stream.take();
+            FramebufferStream.Frame second = stream.take();
+            assertThat(stream.poll(100, TimeUnit.MILLISECONDS)).isNull();
+            assertThat(source.mReads.get()).isEqualTo(2);
+
+            first.close();
+            FramebufferStream.Frame third = stream.take();
+            assertThat(third.getSequence()).isEqualTo(2);
+            second.close();
+            third.close();
+        }
+    }
+
+    @Test
+    public void captureErrorEndsStream() throws Exception {
+        byte[] frame = new byte[WIDTH * HEIGHT * BYTES_PER_PIXEL];
+        FakeSource source = new FakeSource(frame);
+
+        try (FramebufferStream stream = new FramebufferStream(source, 0, 2, 0)) {
+            stream.startCapture();
+
+            stream.take().close();
+            assertThat(stream.take()).isNull();
+            assertThat(stream.getError()).isInstanceOf(IOException.class);
+        }
+    }
+
+    @Test
+    public void tileChanged() {
+        ByteBuffer current = ByteBuffer.allocate(64);
+        ByteBuffer previous = ByteBuffer.allocate(64);
+        current.put(37, (byte) 1);
+
+        // 4 rows of 12 bytes, 16 bytes apart: the change is on the third row, at byte 5
+        assertThat(FramebufferStream.tileChanged(current, previous, 0, 12, 4, 16)).isTrue();
+        // Same rows, without the changed byte
+        assertThat(FramebufferStream.tileChanged(current, previous, 0, 4, 4, 16)).isFalse();
+        assertThat(FramebufferStream.tileChanged(current, previous, 6, 10, 4, 16)).isFalse();
+    }
+
+    private static class FakeSource implements FramebufferStream.FrameSource {
+        private final byte[][] mFrames;
+        private final AtomicInteger mReads = new AtomicInteger();
+        private final Set<ByteBuffer> mBuffers = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        private FakeSource(byte[]... frames) {
+            mFrames = frames;
+        }
+
+        @Override
+        public RawImage read(Function<RawImage, ByteBuffer> buffers)
+                throws IOException {
+            int index = mReads.getAndIncrement();
+            if (index >= mFrames.length) {
+                throw new IOException("No more frames");
+            }
+            RawImage header = new RawImage();
+            header.version = 1;
+            header.bpp = BYTES_PER_PIXEL * 8;
+            header.width = WIDTH;
+            header.height = HEIGHT;
+            header.size = mFrames[index].length;
+            ByteBuffer buffer = buffers.apply(header);
+            mBuffers.add(buffer);
+            buffer.put(mFrames[index]);
+            return header;
+        }
+    }
+}
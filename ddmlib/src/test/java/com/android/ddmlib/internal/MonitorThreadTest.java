@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib.internal;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.annotations.NonNull;
+import com.android.ddmlib.AndroidDebugBridge;
+import com.android.ddmlib.DdmPreferences;
+import com.android.ddmlib.internal.MonitorThread.ShardStats;
+import com.android.fakeadbserver.DeviceState;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class MonitorThreadTest {
+    private static final int SHARD_COUNT = 4;
+
+    private static int sDefaultShardCount;
+
+    public @Rule FakeAdbTestRule myFakeAdb = new FakeAdbTestRule();
+
+    @BeforeClass
+    public static void setShardCount() {
+        // Must be set before the rule initializes ddmlib, which creates the monitor
+        sDefaultShardCount = DdmPreferences.getMonitorThreadCount();
+        DdmPreferences.setMonitorThreadCount(SHARD_COUNT);
+    }
+
+    @AfterClass
+    public static void restoreShardCount() {
+        DdmPreferences.setMonitorThreadCount(sDefaultShardCount);
+    }
+
+    @Test
+    public void clientsAreSpreadAcrossShards() throws Exception {
+        DeviceState state = myFakeAdb.connectAndWaitForDevice();
+        MonitorThread monitor = MonitorThread.getInstance();
+        assertThat(monitor.getShards()).hasSize(SHARD_COUNT);
+
+        List<ClientImpl> clients = new ArrayList<>();
+        for (int i = 0; i < 2 * SHARD_COUNT; i++) {
+            clients.add(
+                    FakeAdbTestRule.launchAndWaitForProcess(
+                            state, 1000 + i, FakeAdbTestRule.CLIENT_PACKAGE_NAME + i, false));
+        }
+
+        int[] clientCounts = new int[SHARD_COUNT];
+        for (ClientImpl client : clients) {
+            MonitorShard shard = monitor.getShard(client);
+            // A client, and its debugger, are always serviced by the same shard
+            assertThat(monitor.getShard(client)).isSameAs(shard);
+            assertThat(monitor.getShards().get(shard.getIndex())).isSameAs(shard);
+            clientCounts[shard.getIndex()]++;
+        }
+
+        // Consecutive pids on the same device do not pile up on the same shard
+        List<ShardStats> stats = monitor.getShardStats();
+        assertThat(stats).hasSize(SHARD_COUNT);
+        for (ShardStats shardStats : stats) {
+            assertThat(shardStats.getClientCount()).isGreaterThan(0);
+            assertThat(shardStats.getClientCount())
+                    .isEqualTo(clientCounts[shardStats.getIndex()]);
+        }
+    }
+
+    @Test
+    public void shardStatsCountClientsAndProcessedKeys() throws Exception {
+        DeviceState state = myFakeAdb.connectAndWaitForDevice();
+        ClientImpl client = FakeAdbTestRule.launchAndWaitForProcess(state, false);
+        MonitorThread monitor = MonitorThread.getInstance();
+        int index = monitor.getShard(client).getIndex();
+
+        // The shard read the name of the client
+        waitFor(() -> monitor.getShardStats().get(index).getProcessedKeyCount() > 0);
+        ShardStats stats = monitor.getShardStats().get(index);
+        assertThat(stats.getClientCount()).isEqualTo(1);
+        assertThat(stats.getPendingRegistrationCount()).isEqualTo(0);
+        assertThat(stats.getMaxReadyKeyCount()).isAtLeast(1);
+        assertThat(stats.getMaxProcessingNanos()).isAtMost(stats.getTotalProcessingNanos());
+        for (ShardStats other : monitor.getShardStats()) {
+            if (other.getIndex() != index) {
+                assertThat(other.getClientCount()).isEqualTo(0);
+                assertThat(other.getProcessedKeyCount()).isEqualTo(0);
+            }
+        }
+
+        client.kill();
+        waitFor(() -> monitor.getShardStats().get(index).getClientCount() == 0);
+    }
+
+    @Test
+    public void registersClientsAndDebuggersBeforeAndAfterShardsStart() throws Exception {
+        myFakeAdb.connectAndWaitForDevice();
+        DeviceImpl device = (DeviceImpl) AndroidDebugBridge.getBridge().getDevices()[0];
+        MonitorThread bridgeMonitor = MonitorThread.getInstance();
+
+        MonitorThread monitor = new MonitorThread(2);
+        monitor.setDaemon(true);
+        try (ServerSocketChannel vm = ServerSocketChannel.open()) {
+            vm.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+            ClientImpl before = createClient(device, vm, 2000);
+            monitor.addClient(before);
+            // The registration waits for the shard to start
+            assertThat(pendingRegistrationCount(monitor)).isEqualTo(1);
+            assertThat(monitor.getShard(before).isOpen()).isFalse();
+
+            monitor.start();
+            waitFor(() -> pendingRegistrationCount(monitor) == 0);
+            assertDebuggerAccepted(before);
+
+            ClientImpl after = createClient(device, vm, 2001);
+            monitor.addClient(after);
+            assertDebuggerAccepted(after);
+
+            int clientCount = 0;
+            for (ShardStats stats : monitor.getShardStats()) {
+                clientCount += stats.getClientCount();
+            }
+            assertThat(clientCount).isEqualTo(2);
+        } finally {
+            monitor.quit();
+        }
+
+        assertStopped(monitor);
+        // Quitting another monitor leaves the one of the bridge alone
+        assertThat(MonitorThread.getInstance()).isSameAs(bridgeMonitor);
+    }
+
+    @Test
+    public void quitStopsAndClosesEveryShard() throws Exception {
+        DeviceState state = myFakeAdb.connectAndWaitForDevice();
+        FakeAdbTestRule.launchAndWaitForProcess(state, false);
+        MonitorThread monitor = MonitorThread.getInstance();
+        assertThat(monitor.getShardThreads()).hasSize(SHARD_COUNT - 1);
+        for (MonitorShard shard : monitor.getShards()) {
+            assertThat(shard.isOpen()).isTrue();
+        }
+
+        monitor.quit();
+
+        assertStopped(monitor);
+        assertThat(monitor.getClients()).isEmpty();
+        assertThat(MonitorThread.getInstance()).isNull();
+    }
+
+    private static void assertStopped(@NonNull MonitorThread monitor) {
+        assertThat(monitor.isAlive()).isFalse();
+        for (Thread thread : monitor.getShardThreads()) {
+            assertThat(thread.isAlive()).isFalse();
+        }
+        for (MonitorShard shard : monitor.getShards()) {
+            assertThat(shard.isOpen()).isFalse();
+        }
+    }
+
+    /** Connects a client with a debugger listener to the given fake VM. */
+    @NonNull
+    private static ClientImpl createClient(
+            @NonNull DeviceImpl device, @NonNull ServerSocketChannel vm, int pid)
+            throws IOException {
+        SocketChannel chan = SocketChannel.open(vm.getLocalAddress());
+        chan.configureBlocking(false);
+        ClientImpl client = new ClientImpl(device, chan, pid);
+        client.listenForDebugger();
+        return client;
+    }
+
+    /** Checks the debugger listener of the client is serviced by its shard. */
+    private static void assertDebuggerAccepted(@NonNull ClientImpl client) throws Exception {
+        Debugger debugger = client.getDebugger();
+        try (SocketChannel ignored =
+                SocketChannel.open(
+                        new InetSocketAddress("localhost", debugger.getListenPort()))) {
+            waitFor(
+                    () ->
+                            debugger.getConnectionState()
+                                    == Debugger.ConnectionState.ST_AWAIT_SHAKE);
+        }
+    }
+
+    private static int pendingRegistrationCount(@NonNull MonitorThread monitor) {
+        int count = 0;
+        for (ShardStats stats : monitor.getShardStats()) {
+            count += stats.getPendingRegistrationCount();
+        }
+        return count;
+    }
+
+    private static void waitFor(@NonNull BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + FakeAdbTestRule.TEST_TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            assertThat(System.currentTimeMillis()).isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+}
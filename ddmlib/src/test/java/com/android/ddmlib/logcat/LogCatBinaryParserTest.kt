@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib.logcat
+
+import com.android.ddmlib.Log.LogLevel.ASSERT
+import com.android.ddmlib.Log.LogLevel.DEBUG
+import com.android.ddmlib.Log.LogLevel.INFO
+import com.google.common.truth.Truth.assertThat
+import org.junit.Assert.assertThrows
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.io.ByteArrayOutputStream
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.time.Instant
+
+private const val LOG_ID_MAIN = 0
+private const val LOG_ID_EVENTS = 2
+
+@RunWith(JUnit4::class)
+class LogCatBinaryParserTest {
+
+    private val parser = LogCatBinaryParser { pid -> "app$pid" }
+
+    @Test
+    fun processBytes_v4Entry() {
+        val bytes = entry(
+            28,
+            pid = 100,
+            tid = 101,
+            sec = 1517266949,
+            nsec = 472_000_000,
+            priority = 3,
+            tag = "Tag",
+            message = "Hello"
+        )
+
+        val messages = parser.processBytes(bytes, 0, bytes.size)
+
+        assertThat(messages).containsExactly(
+            LogCatMessage(
+                LogCatHeader(
+                    DEBUG, 100, 101, "app100", "Tag", Instant.ofEpochSecond(1517266949, 472_000_000)
+                ),
+                "Hello"
+            )
+        )
+    }
+
+    @Test
+    fun processBytes_v1Entry() {
+        val bytes =
+            entry(0, pid = 100, tid = 101, sec = 5, priority = 7, tag = "Tag", message = "Boom")
+
+        val messages = parser.processBytes(bytes, 0, bytes.size)
+
+        assertThat(messages).containsExactly(
+            LogCatMessage(
+                LogCatHeader(ASSERT, 100, 101, "app100", "Tag", Instant.ofEpochSecond(5)),
+                "Boom"
+            )
+        )
+    }
+
+    @Test
+    fun processBytes_multilineMessage() {
+        val bytes = entry(24, priority = 4, tag = "Tag", message = "line1\nline2\n\nline3\n")
+
+        val messages = parser.processBytes(bytes, 0, bytes.size)
+
+        assertThat(messages.map { it.message }).containsExactly("line1", "line2", "line3").inOrder()
+        assertThat(messages.map { it.header }.distinct()).hasSize(1)
+        assertThat(messages[0].header.logLevel).isEqualTo(INFO)
+    }
+
+    @Test
+    fun processBytes_skipsBinaryBuffers() {
+        val bytes = entry(28, logId = LOG_ID_EVENTS, tag = "Tag", message = "Event") +
+                entry(28, logId = LOG_ID_MAIN, tag = "Tag", message = "Text")
+
+        val messages = parser.processBytes(bytes, 0, bytes.size)
+
+        assertThat(messages.map { it.message }).containsExactly("Text")
+    }
+
+    @Test
+    fun processBytes_entriesSplitAcrossCalls() {
+        val bytes = (0 until 1000).fold(ByteArray(0)) { bytes, i ->
+            bytes + entry(28, tag = "Tag${i % 10}", message = "Message $i")
+        }
+
+        val messages = mutableListOf<LogCatMessage>()
+        var offset = 0
+        while (offset < bytes.size) {
+            val length = minOf(bytes.size - offset, 1 + offset % 97)
+            messages.addAll(parser.processBytes(bytes, offset, length))
+            offset += length
+        }
+
+        assertThat(messages.map { it.message }).isEqualTo((0 until 1000).map { "Message $it" })
+        assertThat(messages[3].header.tag).isSameAs(messages[13].header.tag)
+    }
+
+    @Test
+    fun processBytes_invalidEntry() {
+        val bytes = "[ 05-26 14:58:23.972  5755:  601 I/Tag ]\n".toByteArray()
+
+        assertThrows(IllegalStateException::class.java) {
+            parser.processBytes(bytes, 0, bytes.size)
+        }
+    }
+
+    @Test
+    fun tagTable_internsTags() {
+        val table = LogCatBinaryParser.TagTable()
+        val tags = (0 until 1000).map { "Tag$it".toByteArray() }
+
+        val first = tags.map { table.intern(it, 0, it.size) }
+        val second = tags.map { table.intern(it.copyOf(), 0, it.size) }
+
+        assertThat(table.size()).isEqualTo(1000)
+        first.indices.forEach { assertThat(second[it]).isSameAs(first[it]) }
+    }
+
+    private fun entry(
+        headerSize: Int,
+        pid: Int = 1,
+        tid: Int = 2,
+        sec: Int = 0,
+        nsec: Int = 0,
+        logId: Int = LOG_ID_MAIN,
+        priority: Int = 4,
+        tag: String,
+        message: String
+    ): ByteArray {
+        val payload = ByteArrayOutputStream()
+        payload.write(priority)
+        payload.write(tag.toByteArray())
+        payload.write(0)
+        payload.write(message.toByteArray())
+        payload.write(0)
+
+        val size = if (headerSize == 0) 20 else headerSize
+        val buffer = ByteBuffer.allocate(size + payload.size()).order(ByteOrder.LITTLE_ENDIAN)
+        buffer.putShort(payload.size().toShort())
+        buffer.putShort(headerSize.toShort())
+        buffer.putInt(pid)
+        buffer.putInt(tid)
+        buffer.putInt(sec)
+        buffer.putInt(nsec)
+        if (size >= 24) {
+            buffer.putInt(logId)
+        }
+        if (size >= 28) {
+            buffer.putInt(10001) // uid
+        }
+        buffer.put(payload.toByteArray())
+        return buffer.array()
+    }
+}
@@ -64,12 +64,23 @@ public class ApkInstaller {
     private final UIService service;
     private final Installer installer;
     private final ILogger logger;
+    private final InstalledApkCopies apkCopies; // null if no copies are kept
 
     public ApkInstaller(AdbClient adb, UIService service, Installer installer, ILogger logger) {
+        this(adb, service, installer, logger, null);
+    }
+
+    public ApkInstaller(
+            AdbClient adb,
+            UIService service,
+            Installer installer,
+            ILogger logger,
+            InstalledApkCopies apkCopies) {
         this.adb = adb;
         this.service = service;
         this.installer = installer;
         this.logger = logger;
+        this.apkCopies = apkCopies;
     }
 
     /** @return true if if installation happened. False if installation was skipped */
@@ -224,6 +235,9 @@ public class ApkInstaller {
             messageBuilder.append(message);
             throw DeployerException.installFailed(result.status, messageBuilder.toString());
         }
+        if (installed && apkCopies != null) {
+            apkCopies.store(packageName, apks);
+        }
         return installed;
     }
 
@@ -271,6 +285,7 @@ public class ApkInstaller {
                                 installMode == Deployer.InstallMode.DELTA_NO_SKIP
                                         ? PatchSetGenerator.WhenNoChanges.GENERATE_PATCH_ANYWAY
                                         : PatchSetGenerator.WhenNoChanges.GENERATE_EMPTY_PATCH,
+                                apk -> apkCopies == null ? null : apkCopies.find(packageName, apk),
                                 logger)
                         .generateFromApks(localApks, dump.apks);
         switch (patchSet.getStatus()) {
@@ -154,6 +154,17 @@ public class ApkParser {
         return builder.build();
     }
 
+    /** Returns the digest of the apk, i.e. the {@link Apk#checksum} it would be parsed with. */
+    String digest(Path apkPath) throws IOException, DeployerException {
+        try (RandomAccessFile raf = new RandomAccessFile(apkPath.toFile(), "r");
+                FileChannel fileChannel = raf.getChannel()) {
+            ApkArchiveMap map = new ApkArchiveMap();
+            findCDLocation(fileChannel, map);
+            findSignatureLocation(fileChannel, map);
+            return generateDigest(raf, map);
+        }
+    }
+
     public static void findSignatureLocation(FileChannel channel, ApkArchiveMap map) {
         try {
             // Search the Signature Block magic number
@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.deployer;
+
+import com.android.tools.deployer.model.ApkEntry;
+import com.android.tools.deployer.model.DexClass;
+import com.android.tools.tracer.Trace;
+import com.android.zipflinger.Entry;
+import com.android.zipflinger.Location;
+import com.android.zipflinger.ZipRepo;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * A {@link DexSplitter} that reads class checksums directly from the dex file, without compiling
+ * it.
+ *
+ * <p>When asked to, D8 encodes the checksum of each class in the dex string pool, as a {@code
+ * ~~~{"Lcom/example/Foo;":"<hex crc>",...}} string. These are the very checksums {@link
+ * D8DexSplitter} reports for each class, so they can be found with a single linear pass over the
+ * {@code class_defs} section of the dex, looking up descriptors in the {@code type_ids} and {@code
+ * string_ids} sections of a mapped (or inflated) entry.
+ *
+ * <p>The given fallback splitter is used when the dex has no checksum for some classes, or when
+ * the code of some classes needs to be extracted.
+ */
+public class ChecksumDexSplitter implements DexSplitter {
+
+    // Offsets of the header_item fields, see dex-format.html
+    private static final int STRING_IDS_SIZE_OFFSET = 0x38;
+    private static final int TYPE_IDS_OFFSET_OFFSET = 0x44;
+    private static final int CLASS_DEFS_SIZE_OFFSET = 0x60;
+    private static final int HEADER_SIZE = 0x70;
+
+    private static final int CLASS_DEF_ITEM_SIZE = 32;
+
+    /** Prefix of the string D8 uses to encode class checksums, see ClassesChecksum in R8 */
+    private static final String CHECKSUMS_PREFIX = "~~~";
+
+    private final DexSplitter fallback;
+
+    public ChecksumDexSplitter(DexSplitter fallback) {
+        this.fallback = fallback;
+    }
+
+    @Override
+    public Collection<DexClass> split(ApkEntry dex, Predicate<DexClass> keepCode)
+            throws DeployerException {
+        List<DexClass> classes;
+        try (Trace ignored = Trace.begin("index " + dex.getName())) {
+            classes = index(dex, readDex(dex));
+        }
+        if (classes == null) {
+            return fallback.split(dex, keepCode);
+        }
+        if (keepCode != null) {
+            for (DexClass clazz : classes) {
+                if (keepCode.test(clazz)) {
+                    // Code needs to be extracted, which only D8 can do
+                    return fallback.split(dex, keepCode);
+                }
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * Returns the contents of the dex entry. Uncompressed entries, the usual case for dex files in
+     * recent APKs, are mapped rather than read.
+     */
+    protected ByteBuffer readDex(ApkEntry dex) {
+        Path path = Paths.get(dex.getApk().path);
+        try (ZipRepo repo = new ZipRepo(path)) {
+            Entry entry = repo.getEntries().get(dex.getName());
+            if (entry == null || entry.isCompressed()) {
+                return repo.getContent(dex.getName());
+            }
+            Location payload = entry.getPayloadLocation();
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, payload.first, payload.size());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the classes of the dex with their D8 checksum, or null if some classes have no
+     * checksum, or the dex cannot be parsed.
+     */
+    static List<DexClass> index(ApkEntry dex, ByteBuffer buffer) {
+        ByteBuffer data = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (data.limit() < HEADER_SIZE) {
+                return null;
+            }
+            int stringIdsSize = data.getInt(STRING_IDS_SIZE_OFFSET);
+            int stringIdsOffset = data.getInt(STRING_IDS_SIZE_OFFSET + 4);
+            int typeIdsOffset = data.getInt(TYPE_IDS_OFFSET_OFFSET);
+            int classDefsSize = data.getInt(CLASS_DEFS_SIZE_OFFSET);
+            int classDefsOffset = data.getInt(CLASS_DEFS_SIZE_OFFSET + 4);
+
+            Map<String, Long> checksums = readChecksums(data, stringIdsSize, stringIdsOffset);
+            if (checksums == null) {
+                return null;
+            }
+
+            List<DexClass> classes = new ArrayList<>(classDefsSize);
+            for (int i = 0; i < classDefsSize; i++) {
+                int typeIdx = data.getInt(classDefsOffset + i * CLASS_DEF_ITEM_SIZE);
+                int stringIdx = data.getInt(typeIdsOffset + typeIdx * 4);
+                String descriptor = readString(data, stringIdsOffset, stringIdx);
+                Long checksum = checksums.get(descriptor);
+                if (checksum == null) {
+                    return null;
+                }
+                classes.add(
+                        new DexClass(
+                                D8DexSplitter.typeNameToClassName(descriptor),
+                                checksum,
+                                null,
+                                dex));
+            }
+            return classes;
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            // Malformed dex, let D8 report it
+            return null;
+        }
+    }
+
+    /**
+     * Returns the checksums encoded in the string pool, or null if there are none. Strings are
+     * sorted, so the checksum strings are found by walking the pool backwards from the end, until
+     * a string that sorts before the prefix is found.
+     */
+    private static Map<String, Long> readChecksums(
+            ByteBuffer data, int stringIdsSize, int stringIdsOffset) {
+        Map<String, Long> checksums = null;
+        for (int i = stringIdsSize - 1; i >= 0; i--) {
+            int position = stringDataPosition(data, stringIdsOffset, i);
+            int compare = comparePrefix(data, position);
+            if (compare < 0) {
+                break;
+            }
+            if (compare == 0) {
+                String json = readString(data, stringIdsOffset, i);
+                if (checksums == null) {
+                    checksums = new HashMap<>();
+                }
+                if (!parseChecksums(json, CHECKSUMS_PREFIX.length(), checksums)) {
+                    return null;
+                }
+            }
+        }
+        return checksums;
+    }
+
+    /**
+     * Compares the start of the MUTF-8 string at {@code position} with {@link #CHECKSUMS_PREFIX}:
+     * returns 0 if it starts with the prefix, a negative value if it sorts before it.
+     */
+    private static int comparePrefix(ByteBuffer data, int position) {
+        for (int i = 0; i < CHECKSUMS_PREFIX.length(); i++) {
+            int b = data.get(position + i) & 0xFF;
+            if (b == 0) {
+                // Shorter string, which is a prefix of CHECKSUMS_PREFIX
+                return -1;
+            }
+            // Multi-bytes characters all sort after ASCII ones
+            int c = b >= 0x80 ? Character.MAX_VALUE : b;
+            if (c != CHECKSUMS_PREFIX.charAt(i)) {
+                return c - CHECKSUMS_PREFIX.charAt(i);
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the position of the MUTF-8 bytes of a string_data_item, after its utf16_size. */
+    private static int stringDataPosition(ByteBuffer data, int stringIdsOffset, int index) {
+        int position = data.getInt(stringIdsOffset + index * 4);
+        // Skip the uleb128 size
+        while ((data.get(position++) & 0x80) != 0) {}
+        return position;
+    }
+
+    private static String readString(ByteBuffer data, int stringIdsOffset, int index) {
+        int position = stringDataPosition(data, stringIdsOffset, index);
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            int a = data.get(position++) & 0xFF;
+            if (a == 0) {
+                return sb.toString();
+            }
+            if (a < 0x80) {
+                sb.append((char) a);
+            } else if ((a & 0xE0) == 0xC0) {
+                int b = data.get(position++) & 0x3F;
+                sb.append((char) (((a & 0x1F) << 6) | b));
+            } else if ((a & 0xF0) == 0xE0) {
+                int b = data.get(position++) & 0x3F;
+                int c = data.get(position++) & 0x3F;
+                sb.append((char) (((a & 0x0F) << 12) | (b << 6) | c));
+            } else {
+                throw new IllegalArgumentException("Invalid MUTF-8 string");
+            }
+        }
+    }
+
+    /**
+     * Parses the flat JSON object of descriptors to hex checksums that D8 writes, and returns
+     * whether it was well formed.
+     */
+    private static boolean parseChecksums(String json, int start, Map<String, Long> checksums) {
+        int[] position = {start};
+        if (!expect(json, position, '{')) {
+            return false;
+        }
+        if (peek(json, position) == '}') {
+            return true;
+        }
+        do {
+            String descriptor = parseJsonString(json, position);
+            if (descriptor == null || !expect(json, position, ':')) {
+                return false;
+            }
+            String checksum = parseJsonString(json, position);
+            if (checksum == null) {
+                return false;
+            }
+            try {
+                checksums.put(descriptor, Long.parseUnsignedLong(checksum, 16));
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        } while (expect(json, position, ','));
+        return expect(json, position, '}');
+    }
+
+    private static char peek(String json, int[] position) {
+        while (position[0] < json.length() && Character.isWhitespace(json.charAt(position[0]))) {
+            position[0]++;
+        }
+        return position[0] < json.length() ? json.charAt(position[0]) : 0;
+    }
+
+    private static boolean expect(String json, int[] position, char c) {
+        if (peek(json, position) != c) {
+            return false;
+        }
+        position[0]++;
+        return true;
+    }
+
+    private static String parseJsonString(String json, int[] position) {
+        if (!expect(json, position, '"')) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        int i = position[0];
+        while (i < json.length()) {
+            char c = json.charAt(i++);
+            if (c == '"') {
+                position[0] = i;
+                return sb.toString();
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (i >= json.length()) {
+                return null;
+            }
+            char escaped = json.charAt(i++);
+            switch (escaped) {
+                case 'u':
+                    if (i + 4 > json.length()) {
+                        return null;
+                    }
+                    sb.append((char) Integer.parseInt(json.substring(i, i + 4), 16));
+                    i += 4;
+                    break;
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                default:
+                    // '"', '\\' and '/'
+                    sb.append(escaped);
+                    break;
+            }
+        }
+        return null;
+    }
+}
@@ -222,7 +222,7 @@ public class D8DexSplitter implements DexSplitter {
     }
 
     /** VM type names to the more readable class names. */
-    private static String typeNameToClassName(String typeName) {
+    static String typeNameToClassName(String typeName) {
         assert typeName.startsWith("L");
         assert typeName.endsWith(";");
         return typeName.substring(1, typeName.length() - 1).replace('/', '.');
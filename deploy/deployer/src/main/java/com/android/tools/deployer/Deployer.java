@@ -73,6 +73,14 @@ public class Deployer {
         this.options = options;
     }
 
+    private ApkInstaller newApkInstaller() {
+        InstalledApkCopies apkCopies =
+                options.installedApkCopiesDir == null
+                        ? null
+                        : new InstalledApkCopies(options.installedApkCopiesDir, logger);
+        return new ApkInstaller(adb, service, installer, logger, apkCopies);
+    }
+
     enum Tasks {
         CACHE,
         DUMP,
@@ -204,7 +212,8 @@ public class Deployer {
                                 parsedApksTask);
             }
 
-            CachedDexSplitter splitter = new CachedDexSplitter(dexDb, new D8DexSplitter());
+            CachedDexSplitter splitter =
+                    new CachedDexSplitter(dexDb, new ChecksumDexSplitter(new D8DexSplitter()));
             runner.create(Tasks.CACHE, splitter::cache, parsedApksTask);
             ApkChecker checker = new ApkChecker(sessionUID, logger);
             runner.create(Tasks.APK_CHECK, checker::log, parsedApksTask);
@@ -225,7 +234,7 @@ public class Deployer {
             InstallMode installMode)
             throws DeployerException {
         logger.info("Deploy Install Session %s", deploySessionUID);
-        ApkInstaller apkInstaller = new ApkInstaller(adb, service, installer, logger);
+        ApkInstaller apkInstaller = newApkInstaller();
         boolean skippedInstall =
                 !apkInstaller.install(
                         packageName,
@@ -261,7 +270,7 @@ public class Deployer {
 
         boolean skippedInstall = false;
         if (!result.isSuccess() || !installSuccess.get()) {
-            ApkInstaller apkInstaller = new ApkInstaller(adb, service, installer, logger);
+            ApkInstaller apkInstaller = newApkInstaller();
             skippedInstall =
                     !apkInstaller.install(
                             packageName,
@@ -322,7 +331,7 @@ public class Deployer {
         boolean skippedInstall = false;
         if (!installSuccess) {
             logger.info("Optimistic Install Session %s: falling back to PM", deploySessionUID);
-            ApkInstaller apkInstaller = new ApkInstaller(adb, service, installer, logger);
+            ApkInstaller apkInstaller = newApkInstaller();
             skippedInstall =
                     !apkInstaller.install(
                             pkgName,
@@ -400,7 +409,9 @@ public class Deployer {
         Task<List<String>> paths = runner.create(argPaths);
         Task<Boolean> restart = runner.create(argRestart);
         Task<DexSplitter> splitter =
-                runner.create(new CachedDexSplitter(dexDb, new D8DexSplitter()));
+                runner.create(
+                        new CachedDexSplitter(
+                                dexDb, new ChecksumDexSplitter(new D8DexSplitter())));
 
         // Get the list of files from the local apks
         Task<List<Apk>> newFiles =
@@ -485,7 +496,9 @@ public class Deployer {
         Task<List<String>> paths = runner.create(argPaths);
         Task<Boolean> restart = runner.create(argRestart);
         Task<DexSplitter> splitter =
-                runner.create(new CachedDexSplitter(dexDb, new D8DexSplitter()));
+                runner.create(
+                        new CachedDexSplitter(
+                                dexDb, new ChecksumDexSplitter(new D8DexSplitter())));
         Task<String> deviceSerial = runner.create(adb.getSerial());
 
         // Get the list of files from the local apks
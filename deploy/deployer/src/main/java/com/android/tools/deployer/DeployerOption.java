@@ -15,6 +15,7 @@
  */
 package com.android.tools.deployer;
 
+import java.nio.file.Path;
 import java.util.EnumSet;
 
 public class DeployerOption {
@@ -27,6 +28,8 @@ public class DeployerOption {
     public final boolean enableCoroutineDebugger;
     public final boolean skipPostInstallTasks;
     public final boolean useRootPushInstall;
+    // Where to keep copies of the installed apks for finer delta installs, null to keep none.
+    public final Path installedApkCopiesDir;
 
     private DeployerOption(
             boolean useOptimisticSwap,
@@ -37,7 +40,8 @@ public class DeployerOption {
             boolean fastRestartOnSwapFail,
             boolean enableCoroutineDebugger,
             boolean skipPostInstallTasks,
-            boolean useRootPushInstall) {
+            boolean useRootPushInstall,
+            Path installedApkCopiesDir) {
         this.useOptimisticSwap = useOptimisticSwap;
         this.useOptimisticResourceSwap = useOptimisticResourceSwap;
         this.optimisticInstallSupport = optimisticInstallSupport;
@@ -47,6 +51,7 @@ public class DeployerOption {
         this.enableCoroutineDebugger = enableCoroutineDebugger;
         this.skipPostInstallTasks = skipPostInstallTasks;
         this.useRootPushInstall = useRootPushInstall;
+        this.installedApkCopiesDir = installedApkCopiesDir;
     }
 
     public static class Builder {
@@ -59,6 +64,7 @@ public class DeployerOption {
         private boolean enableCoroutineDebugger;
         private boolean skipPostInstallTasks;
         private boolean useRootPushInstall;
+        private Path installedApkCopiesDir;
 
         public Builder setUseOptimisticSwap(boolean useOptimisticSwap) {
             this.useOptimisticSwap = useOptimisticSwap;
@@ -105,6 +111,11 @@ public class DeployerOption {
             return this;
         }
 
+        public Builder setInstalledApkCopiesDir(Path installedApkCopiesDir) {
+            this.installedApkCopiesDir = installedApkCopiesDir;
+            return this;
+        }
+
         public DeployerOption build() {
             return new DeployerOption(
                     useOptimisticSwap,
@@ -115,7 +126,8 @@ public class DeployerOption {
                     fastRestartOnSwapFail,
                     enableCoroutineDebugger,
                     skipPostInstallTasks,
-                    useRootPushInstall);
+                    useRootPushInstall,
+                    installedApkCopiesDir);
         }
     }
 }
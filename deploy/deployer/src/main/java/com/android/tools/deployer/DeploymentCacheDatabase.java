@@ -16,20 +16,27 @@
 package com.android.tools.deployer;
 
 import com.android.tools.deployer.model.Apk;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.collect.Maps;
+import com.android.tools.deployer.model.ApkEntry;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.HashMap;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.CRC32;
 
 /**
  * In memory cache of APK info of a given device.
@@ -42,16 +49,50 @@ import java.util.Map;
  * <p>-Installing APKs outside of studio
  *
  * <p>-Installing APKs in another workstation -Re-opening Studio
+ *
+ * <p>When created with a persist file, every {@link #store} and {@link #invalidate} appends a
+ * single record to the file, rather than rewriting the whole cache. The file is a versioned header
+ * followed by length and CRC prefixed records:
+ *
+ * <pre>
+ * file   = MAGIC:int VERSION:int record*
+ * record = length:int crc32:int payload[length]
+ * payload = STORE:byte key:utf entry | INVALIDATE:byte key:utf
+ * </pre>
+ *
+ * <p>Loading only replays the keys of the records into the in-memory index; entries are decoded
+ * the first time they are looked up. The file is rewritten with only the live entries once it
+ * holds too many overwritten records, or if it is unreadable (e.g. written by an older version).
  */
 public class DeploymentCacheDatabase {
 
     public static final int DEFAULT_SIZE = 25; // max number of cache entries.
 
-    // Key = serial + ":" + appId.
-    private final Cache<String, Entry> db;
+    private static final int MAGIC = 0x44434442; // "DCDB"
+
+    // Bump when the encoding of entries changes. Files with another version are discarded.
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte OP_STORE = 1;
+    private static final byte OP_INVALIDATE = 2;
+
+    // The file is compacted once it holds that many records per cache slot.
+    private static final int COMPACTION_FACTOR = 4;
+
+    private final int maxSize;
+
+    // Key = serial + ":" + appId. In access order, so that the least recently used entry is the
+    // one evicted when the cache is full.
+    private final LinkedHashMap<String, Slot> index;
 
     File persistFile = null;
 
+    // Number of records in persistFile, including overwritten and invalidated ones.
+    private int recordCount = 0;
+
+    // Whether persistFile needs to be rewritten before records can be appended to it.
+    private boolean needsRewrite = true;
+
     public static class Entry implements Serializable {
         private final List<Apk> apks;
         private final OverlayId oid;
@@ -74,6 +115,17 @@ public class DeploymentCacheDatabase {
         }
     }
 
+    /** A cache entry, and/or its encoded form as read from or written to the persist file. */
+    private static class Slot {
+        private Entry entry;
+        private byte[] payload;
+
+        private Slot(Entry entry, byte[] payload) {
+            this.entry = entry;
+            this.payload = payload;
+        }
+    }
+
     public DeploymentCacheDatabase(int size) {
         this(size, null);
     }
@@ -83,62 +135,327 @@ public class DeploymentCacheDatabase {
     }
 
     public DeploymentCacheDatabase(int size, File persistFile) {
-        db = CacheBuilder.newBuilder().maximumSize(size).build();
+        this.maxSize = size;
+        this.index =
+                new LinkedHashMap<String, Slot>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, Slot> eldest) {
+                        return size() > maxSize;
+                    }
+                };
         this.persistFile = persistFile;
 
         if (persistFile == null) {
             return;
         }
 
-        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(persistFile))) {
-            HashMap<String, Entry> entries = (HashMap<String, Entry>) in.readObject();
-            for (Map.Entry<String, Entry> e : entries.entrySet()) {
-                db.put(e.getKey(), e.getValue());
-            }
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(persistFile)))) {
+            load(in, persistFile.length());
         } catch (FileNotFoundException fnf) {
             // ignored.
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    public Entry get(String serial, String appId) {
+    private void load(DataInputStream in, long fileLength) throws IOException {
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return;
+            }
+        } catch (EOFException e) {
+            // Empty file
+            return;
+        }
+        needsRewrite = false;
+
+        CRC32 crc = new CRC32();
+        while (true) {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                return;
+            }
+
+            byte[] payload;
+            try {
+                int checksum = in.readInt();
+                if (length <= 0 || length > fileLength) {
+                    throw new EOFException();
+                }
+                payload = new byte[length];
+                in.readFully(payload);
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    throw new EOFException();
+                }
+            } catch (EOFException e) {
+                // Truncated or corrupted record, e.g. Studio was killed while writing it. Keep the
+                // records read so far, and drop the rest of the file.
+                needsRewrite = true;
+                return;
+            }
+
+            recordCount++;
+            DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+            byte op = record.readByte();
+            String key = record.readUTF();
+            if (op == OP_STORE) {
+                index.put(key, new Slot(null, payload));
+            } else {
+                index.remove(key);
+            }
+        }
+    }
+
+    public synchronized Entry get(String serial, String appId) {
         String key = String.format("%s:%s", serial, appId);
-        return db.getIfPresent(key);
+        Slot slot = index.get(key);
+        if (slot == null) {
+            return null;
+        }
+        if (slot.entry == null) {
+            try {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(slot.payload));
+                in.readByte();
+                in.readUTF();
+                slot.entry = readEntry(in);
+            } catch (IOException | DeployerException e) {
+                e.printStackTrace();
+                index.remove(key);
+                return null;
+            }
+        }
+        return slot.entry;
     }
 
-    public boolean store(
+    public synchronized boolean store(
             String serial, String appId, List<Apk> newInstalledApks, OverlayId overlayId) {
         String key = String.format("%s:%s", serial, appId);
-        db.put(key, new Entry(newInstalledApks, overlayId));
-        writeToFile();
+        Entry entry = new Entry(newInstalledApks, overlayId);
+        byte[] payload = null;
+        if (persistFile != null) {
+            payload = encode(OP_STORE, key, entry);
+        }
+        index.put(key, new Slot(entry, payload));
+        append(payload);
         return true;
     }
 
-    public boolean invalidate(String serial, String appId) {
+    public synchronized boolean invalidate(String serial, String appId) {
         String key = String.format("%s:%s", serial, appId);
-        db.invalidate(key);
-        writeToFile();
+        index.remove(key);
+        if (persistFile != null) {
+            append(encode(OP_INVALIDATE, key, null));
+        }
         return true;
     }
 
-    /** Write to persistent file should the cache database be created with a targeted file. */
-    public boolean writeToFile() {
+    /** Appends a record to the persist file, or rewrites it if it is due for compaction. */
+    private void append(byte[] payload) {
         if (persistFile == null) {
-            return false;
+            return;
+        }
+        if (needsRewrite || recordCount >= COMPACTION_FACTOR * Math.max(maxSize, 1)) {
+            writeToFile();
+            return;
         }
+        try (DataOutputStream out =
+                new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(persistFile, true)))) {
+            writeRecord(out, payload);
+            recordCount++;
+        } catch (IOException e) {
+            e.printStackTrace();
+            needsRewrite = true;
+        }
+    }
 
-        if (persistFile.exists()) {
-            persistFile.delete();
+    /**
+     * Write to persistent file should the cache database be created with a targeted file. The file
+     * is rewritten with only the live entries of the cache.
+     */
+    public synchronized boolean writeToFile() {
+        if (persistFile == null) {
+            return false;
         }
 
-        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(persistFile))) {
-            HashMap<String, Entry> entries = Maps.newHashMap(db.asMap());
-            out.writeObject(entries);
+        File tmpFile = new File(persistFile.getPath() + ".tmp");
+        try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            int count = 0;
+            for (Map.Entry<String, Slot> e : index.entrySet()) {
+                Slot slot = e.getValue();
+                if (slot.payload == null) {
+                    slot.payload = encode(OP_STORE, e.getKey(), slot.entry);
+                }
+                writeRecord(out, slot.payload);
+                count++;
+            }
             out.flush();
+            recordCount = count;
+        } catch (IOException e) {
+            e.printStackTrace();
+            tmpFile.delete();
+            return true;
+        }
+
+        try {
+            Files.move(
+                    tmpFile.toPath(),
+                    persistFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            needsRewrite = false;
         } catch (IOException e) {
             e.printStackTrace();
         }
         return true;
     }
+
+    private static void writeRecord(DataOutputStream out, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        out.writeInt(payload.length);
+        out.writeInt((int) crc.getValue());
+        out.write(payload);
+    }
+
+    private static byte[] encode(byte op, String key, Entry entry) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(op);
+            out.writeUTF(key);
+            if (entry != null) {
+                writeEntry(out, entry);
+            }
+        } catch (IOException e) {
+            // Not expected when writing to memory
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+        writeApks(out, entry.apks);
+        OverlayId oid = entry.oid;
+        writeApks(out, oid.getInstalledApks());
+        out.writeBoolean(oid.isBaseInstall());
+        OverlayId.Contents contents = oid.getOverlayContents();
+        out.writeInt(contents.size());
+        for (String file : contents.allFiles()) {
+            out.writeUTF(file);
+            out.writeLong(contents.getFileChecksum(file));
+        }
+    }
+
+    private static Entry readEntry(DataInputStream in) throws IOException, DeployerException {
+        List<Apk> apks = readApks(in);
+        OverlayId oid = new OverlayId(readApks(in));
+        boolean baseInstall = in.readBoolean();
+        int files = in.readInt();
+        if (!baseInstall) {
+            OverlayId.Builder builder = OverlayId.builder(oid);
+            for (int i = 0; i < files; i++) {
+                builder.addOverlayFile(in.readUTF(), in.readLong());
+            }
+            oid = builder.build();
+        }
+        return new Entry(apks, oid);
+    }
+
+    private static void writeApks(DataOutputStream out, List<Apk> apks) throws IOException {
+        out.writeInt(apks.size());
+        for (Apk apk : apks) {
+            writeString(out, apk.name);
+            writeString(out, apk.checksum);
+            writeString(out, apk.path);
+            writeString(out, apk.packageName);
+            writeStrings(out, apk.libraryAbis);
+            writeStrings(out, apk.targetPackages);
+            writeStrings(out, apk.sdkLibraries);
+            out.writeInt(apk.apkEntries.size());
+            for (ApkEntry apkEntry : apk.apkEntries.values()) {
+                ZipUtils.ZipEntry zipEntry = apkEntry.getZipEntry();
+                out.writeBoolean(zipEntry != null);
+                if (zipEntry == null) {
+                    writeString(out, apkEntry.getName());
+                    out.writeLong(apkEntry.getChecksum());
+                } else {
+                    out.writeLong(zipEntry.crc);
+                    writeString(out, zipEntry.name);
+                    out.writeLong(zipEntry.start);
+                    out.writeLong(zipEntry.approx_end);
+                    out.writeInt(zipEntry.localFileHeader.length);
+                    out.write(zipEntry.localFileHeader);
+                }
+            }
+        }
+    }
+
+    private static List<Apk> readApks(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<Apk> apks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Apk.Builder builder =
+                    Apk.builder()
+                            .setName(readString(in))
+                            .setChecksum(readString(in))
+                            .setPath(readString(in))
+                            .setPackageName(readString(in));
+            readStrings(in).forEach(builder::addLibraryAbi);
+            builder.setTargetPackages(readStrings(in));
+            builder.setSdkLibraries(readStrings(in));
+            int entries = in.readInt();
+            for (int j = 0; j < entries; j++) {
+                if (in.readBoolean()) {
+                    long crc = in.readLong();
+                    String name = readString(in);
+                    long start = in.readLong();
+                    long approxEnd = in.readLong();
+                    byte[] localFileHeader = new byte[in.readInt()];
+                    in.readFully(localFileHeader);
+                    builder.addApkEntry(
+                            new ZipUtils.ZipEntry(crc, name, start, approxEnd, localFileHeader));
+                } else {
+                    builder.addApkEntry(readString(in), in.readLong());
+                }
+            }
+            apks.add(builder.build());
+        }
+        return apks;
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> strings)
+            throws IOException {
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            writeString(out, string);
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> strings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            strings.add(readString(in));
+        }
+        return strings;
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        out.writeBoolean(string != null);
+        if (string != null) {
+            out.writeUTF(string);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.deployer;
+
+import com.android.tools.deployer.model.Apk;
+import com.android.utils.ILogger;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Host copies of the apks of the last install of each package, so that the next delta install can
+ * compare the new apks with the content of the ones on the device (see {@link
+ * PatchGenerator#generateDelta}) rather than only with their Central Directory.
+ *
+ * <p>Copies are stored in a directory per package, named after their digest.
+ */
+public class InstalledApkCopies {
+
+    private final Path directory;
+    private final ILogger logger;
+
+    public InstalledApkCopies(Path directory, ILogger logger) {
+        this.directory = directory;
+        this.logger = logger;
+    }
+
+    /** Returns the copy of an apk installed on the device, or null if there is none. */
+    Path find(String packageName, Apk remoteApk) {
+        Path copy = directory.resolve(packageName).resolve(remoteApk.checksum + ".apk");
+        return Files.isRegularFile(copy) ? copy : null;
+    }
+
+    /** Replaces the copies of the package with the given apks, which were just installed. */
+    void store(String packageName, List<String> apks) {
+        Path packageDirectory = directory.resolve(packageName);
+        try {
+            Files.createDirectories(packageDirectory);
+            Set<Path> copies = new HashSet<>();
+            for (String apk : apks) {
+                Path path = Paths.get(apk);
+                String digest;
+                try {
+                    digest = new ApkParser().digest(path);
+                } catch (DeployerException | IOException e) {
+                    // e.g. an apk inside an .apks archive, the next delta install will be coarser.
+                    logger.info("Not keeping a copy of '%s': %s", apk, e.getMessage());
+                    continue;
+                }
+                Path copy = packageDirectory.resolve(digest + ".apk");
+                if (!Files.exists(copy)) {
+                    Path tmp = Files.createTempFile(packageDirectory, digest, ".tmp");
+                    Files.copy(path, tmp, StandardCopyOption.REPLACE_EXISTING);
+                    Files.move(tmp, copy, StandardCopyOption.ATOMIC_MOVE);
+                }
+                copies.add(copy);
+            }
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(packageDirectory)) {
+                for (Path file : files) {
+                    if (!copies.contains(file)) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.warning("Unable to keep copies of the installed apks: %s", e.getMessage());
+        }
+    }
+}
@@ -19,13 +19,16 @@ import com.android.tools.deployer.model.Apk;
 import com.android.tools.deployer.model.ApkEntry;
 import com.android.tools.tracer.Trace;
 import com.android.utils.ILogger;
+import com.google.common.annotations.VisibleForTesting;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -61,6 +64,10 @@ public class PatchGenerator {
         }
     }
 
+    // Size of the blocks dirty areas are compared in, the cost of an instruction (8 bytes) being
+    // negligible compared to the size of the data of a block.
+    @VisibleForTesting static final int BLOCK_SIZE = 4 * 1024;
+
     private ILogger logger;
 
     public PatchGenerator(ILogger logger) {
@@ -78,11 +85,77 @@ public class PatchGenerator {
      * @return A Patch to apply to a file in order to turn the remoteApk into the localApk.
      */
     public Patch generate(Apk remoteApk, Apk localApk) throws IOException {
-        String sourcePath = remoteApk.path;
-        long destinationSize = Files.size(Paths.get(localApk.path));
-
         // Generate maps from each apk, based on the content directory.
         List<ApkMap.Area> dirtyAreas = generateDirtyMap(remoteApk, localApk);
+        return buildPatch(remoteApk, localApk, dirtyAreas);
+    }
+
+    /**
+     * Generate a patch like {@link #generate(Apk, Apk)}, but with sub-entry granularity: the dirty
+     * areas found by comparing Central Directories are split in fixed-size blocks, and the blocks
+     * that are identical at the same offset of the remote apk are left out of the patch.
+     *
+     * <p>This requires a copy of the remote apk on the host (e.g. the apk of the last install),
+     * since only its Central Directory is known otherwise. Blocks are compared in place because
+     * the patch applier only takes clean data from the same offset of the source apk.
+     *
+     * @param remoteContent a file with the same content as the remoteApk on the device. If its
+     *     digest does not match the remoteApk, the patch is generated from the Central Directories
+     *     only.
+     * @return A Patch to apply to a file in order to turn the remoteApk into the localApk.
+     */
+    public Patch generateDelta(Apk remoteApk, Apk localApk, Path remoteContent)
+            throws IOException {
+        if (!isCopyOf(remoteContent, remoteApk)) {
+            logger.info("Stale copy of %s, ignoring it", remoteApk.name);
+            return generate(remoteApk, localApk);
+        }
+        List<ApkMap.Area> dirtyAreas = generateDirtyMap(remoteApk, localApk);
+
+        Trace.begin("diffing dirty areas");
+        List<ApkMap.Area> dirtyBlocks = new ArrayList<>();
+        try (FileChannel localChannel =
+                        FileChannel.open(Paths.get(localApk.path), StandardOpenOption.READ);
+                FileChannel remoteChannel =
+                        FileChannel.open(remoteContent, StandardOpenOption.READ)) {
+            long remoteSize = remoteChannel.size();
+            for (ApkMap.Area dirtyArea : dirtyAreas) {
+                if (dirtyArea.size() > Integer.MAX_VALUE || dirtyArea.start >= remoteSize) {
+                    // Too large to be mapped, or added at the end of the apk.
+                    addDirtyArea(dirtyBlocks, dirtyArea.start, dirtyArea.end);
+                    continue;
+                }
+                ByteBuffer local =
+                        localChannel.map(
+                                FileChannel.MapMode.READ_ONLY, dirtyArea.start, dirtyArea.size());
+                ByteBuffer remote =
+                        remoteChannel.map(
+                                FileChannel.MapMode.READ_ONLY,
+                                dirtyArea.start,
+                                Math.min(dirtyArea.size(), remoteSize - dirtyArea.start));
+                diffBlocks(local, remote, dirtyArea.start, dirtyBlocks);
+            }
+        }
+        Trace.end();
+        logger.info(
+                "Num dirty blocks %d (from %d dirty areas)", dirtyBlocks.size(), dirtyAreas.size());
+        return buildPatch(remoteApk, localApk, dirtyBlocks);
+    }
+
+    // Whether the file has the same digest as the apk, so its content can be trusted to be the one
+    // on the device.
+    private static boolean isCopyOf(Path file, Apk apk) throws IOException {
+        try {
+            return apk.checksum.equals(new ApkParser().digest(file));
+        } catch (DeployerException e) {
+            return false;
+        }
+    }
+
+    private Patch buildPatch(Apk remoteApk, Apk localApk, List<ApkMap.Area> dirtyAreas)
+            throws IOException {
+        String sourcePath = remoteApk.path;
+        long destinationSize = Files.size(Paths.get(localApk.path));
 
         // Use the map of what is dirty and what is clean in the archive to build the patching
         // instruction.
@@ -150,4 +223,41 @@ public class PatchGenerator {
         logger.info("Num dirty areas %d", dirtyMap.getDirtyAreas().size());
         return dirtyMap.getDirtyAreas();
     }
+
+    /**
+     * Splits {@code local} in blocks of {@link #BLOCK_SIZE}, and adds the blocks which differ from
+     * the bytes at the same offset in {@code remote} to {@code dirtyBlocks}.
+     */
+    @VisibleForTesting
+    static void diffBlocks(
+            ByteBuffer local, ByteBuffer remote, long offset, List<ApkMap.Area> dirtyBlocks) {
+        int size = local.remaining();
+        for (int blockStart = 0; blockStart < size; blockStart += BLOCK_SIZE) {
+            int blockEnd = Math.min(blockStart + BLOCK_SIZE, size);
+            if (blockEnd > remote.limit() || !sameBytes(local, remote, blockStart, blockEnd)) {
+                addDirtyArea(dirtyBlocks, offset + blockStart, offset + blockEnd - 1);
+            }
+        }
+    }
+
+    private static boolean sameBytes(ByteBuffer local, ByteBuffer remote, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (local.get(i) != remote.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Areas are added in ascending order, adjacent ones are merged to save instructions.
+    private static void addDirtyArea(List<ApkMap.Area> areas, long start, long end) {
+        if (!areas.isEmpty()) {
+            ApkMap.Area last = areas.get(areas.size() - 1);
+            if (last.end + 1 == start) {
+                areas.set(areas.size() - 1, new ApkMap.Area(last.start, end));
+                return;
+            }
+        }
+        areas.add(new ApkMap.Area(start, end));
+    }
 }
@@ -22,10 +22,12 @@ import com.android.utils.ILogger;
 import com.android.utils.Pair;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 
 public class PatchSetGenerator {
 
@@ -38,14 +40,27 @@ public class PatchSetGenerator {
     private ILogger logger;
     private final WhenNoChanges whenNoChanges;
 
+    // Returns the host copy of a remote apk, or null if there is none.
+    private final Function<Apk, Path> remoteApkCopies;
+
     public enum WhenNoChanges {
         GENERATE_PATCH_ANYWAY, // This results in an apk patch containing the CD/EOCD.
         GENERATE_EMPTY_PATCH,
     }
 
     public PatchSetGenerator(WhenNoChanges whenNoChanges, ILogger logger) {
+        this(whenNoChanges, apk -> null, logger);
+    }
+
+    /**
+     * @param remoteApkCopies returns a host copy of a remote apk, used to generate a finer patch
+     *     with {@link PatchGenerator#generateDelta}, or null if there is none.
+     */
+    public PatchSetGenerator(
+            WhenNoChanges whenNoChanges, Function<Apk, Path> remoteApkCopies, ILogger logger) {
         this.logger = logger;
         this.whenNoChanges = whenNoChanges;
+        this.remoteApkCopies = remoteApkCopies;
     }
 
     public PatchSet generateFromApks(List<Apk> localApks, List<Apk> remoteApks) {
@@ -115,8 +130,12 @@ public class PatchSetGenerator {
                 // to skip feeding the APK altogether on the device by using install-create -p.
                 instruction = generateCleanPatch(remoteApk, localApk);
             } else {
+                PatchGenerator patchGenerator = new PatchGenerator(logger);
+                Path remoteApkCopy = remoteApkCopies.apply(remoteApk);
                 PatchGenerator.Patch patch =
-                        new PatchGenerator(logger).generate(remoteApk, localApk);
+                        remoteApkCopy == null
+                                ? patchGenerator.generate(remoteApk, localApk)
+                                : patchGenerator.generateDelta(remoteApk, localApk, remoteApkCopy);
                 switch (patch.status) {
                     case SizeThresholdExceeded:
                         return PatchSet.SIZE_THRESHOLD_EXCEEDED;
@@ -28,6 +28,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -37,7 +38,6 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 public class SqlApkFileDatabase {
     // The SQLite use this property to determine where to temporary extract the .so / .dll during init.
@@ -233,25 +233,25 @@ public class SqlApkFileDatabase {
     public List<DexClass> getClasses(ApkEntry dex) throws DeployerException {
         initializeIfNeeded();
         try (Trace ignored = Trace.begin("SqlApkFileDatabase.getClasses");
-                Statement s = connection.createStatement();
-                ResultSet result =
-                        s.executeQuery(
+                PreparedStatement s =
+                        connection.prepareStatement(
                                 "SELECT classes.name as name, classes.checksum as checksum"
                                         + "  FROM dexfiles"
                                         + "  INNER JOIN archives on archives.dexfileId = dexfiles.id"
                                         + "  INNER JOIN classes on classes.dexfileId = dexfiles.id"
-                                        + "  WHERE dexfiles.name = \""
-                                        + dex.getName()
-                                        + "\" AND dexfiles.checksum = "
-                                        + dex.getChecksum()
+                                        + "  WHERE dexfiles.name = ? AND dexfiles.checksum = ?"
                                         + " ORDER BY id DESC")) {
-            List<DexClass> classes = new ArrayList<>();
-            while (result.next()) {
-                String name = result.getString("name");
-                long checksum = result.getLong("checksum");
-                classes.add(new DexClass(name, checksum, null, dex));
+            s.setString(1, dex.getName());
+            s.setLong(2, dex.getChecksum());
+            try (ResultSet result = s.executeQuery()) {
+                List<DexClass> classes = new ArrayList<>();
+                while (result.next()) {
+                    String name = result.getString("name");
+                    long checksum = result.getLong("checksum");
+                    classes.add(new DexClass(name, checksum, null, dex));
+                }
+                return classes;
             }
-            return classes;
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
@@ -260,7 +260,7 @@ public class SqlApkFileDatabase {
     public void addClasses(Collection<DexClass> allClasses) throws DeployerException {
         initializeIfNeeded();
         int numDex = 0;
-        try {
+        try (Trace ignored = Trace.begin("SqlApkFileDatabase.addClasses")) {
             Map<Apk, Multimap<ApkEntry, DexClass>> map = new HashMap<>();
             for (DexClass clazz : allClasses) {
                 Multimap<ApkEntry, DexClass> multimap = map.get(clazz.dex.getApk());
@@ -270,65 +270,60 @@ public class SqlApkFileDatabase {
                 }
                 multimap.put(clazz.dex, clazz);
             }
-            for (Map.Entry<Apk, Multimap<ApkEntry, DexClass>> entry : map.entrySet()) {
-                Multimap<ApkEntry, DexClass> classes = entry.getValue();
-                List<Integer> ids = new ArrayList<>();
-                for (ApkEntry dex : classes.keySet()) {
-                    numDex++;
-                    int id = addDexFile(dex.getChecksum(), dex.getName());
-                    ids.add(id);
-                    // TODO: Verify if writing all the classses in one go would help
-                    addClasses(id, classes.get(dex));
+
+            // Write all the classes of all the dex files in a single transaction, with batched
+            // prepared statements, rather than one auto-committed statement per dex file.
+            connection.setAutoCommit(false);
+            try (PreparedStatement dexInsert =
+                            connection.prepareStatement(
+                                    "INSERT INTO dexfiles(name, checksum) VALUES (?, ?);");
+                    PreparedStatement classInsert =
+                            connection.prepareStatement(
+                                    "INSERT INTO classes (dexfileId, name, checksum) VALUES (?, ?, ?);");
+                    PreparedStatement archiveInsert =
+                            connection.prepareStatement(
+                                    "INSERT INTO archives (dexfileId, checksum) VALUES (?, ?);")) {
+                for (Map.Entry<Apk, Multimap<ApkEntry, DexClass>> entry : map.entrySet()) {
+                    Multimap<ApkEntry, DexClass> classes = entry.getValue();
+                    for (ApkEntry dex : classes.keySet()) {
+                        numDex++;
+                        int id = addDexFile(dexInsert, dex.getChecksum(), dex.getName());
+                        for (DexClass clazz : classes.get(dex)) {
+                            classInsert.setInt(1, id);
+                            classInsert.setString(2, clazz.name);
+                            classInsert.setLong(3, clazz.checksum);
+                            classInsert.addBatch();
+                        }
+                        archiveInsert.setInt(1, id);
+                        archiveInsert.setString(2, entry.getKey().checksum);
+                        archiveInsert.addBatch();
+                    }
                 }
-                addDexFiles(entry.getKey().checksum, ids);
+                classInsert.executeBatch();
+                archiveInsert.executeBatch();
+                flushOldCache(numDex);
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
             }
-            flushOldCache(numDex);
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private int addDexFile(long checksum, String name) throws SQLException {
-        String insert =
-                String.format(
-                        "INSERT INTO dexfiles(name, checksum) VALUES (\"%s\", %d);",
-                        name, checksum);
-        try (Statement s = connection.createStatement()) {
-            int updated = s.executeUpdate(insert);
-            assert updated == 1;
-            try (ResultSet set = s.executeQuery("SELECT LAST_INSERT_ROWID();")) {
-                return set.getInt(1);
-            }
-        }
-    }
-
-    private void addClasses(int dexId, Collection<DexClass> classes) throws SQLException {
-        if (classes.isEmpty()) {
-            return;
-        }
-        String values =
-                classes.stream()
-                        .map(e -> String.format("(%d, \"%s\", %d)", dexId, e.name, e.checksum))
-                        .collect(Collectors.joining(","));
-        String insert =
-                String.format("INSERT INTO classes (dexfileId, name, checksum) VALUES %s;", values);
-        int updated = executeUpdate(insert);
-        assert updated == classes.size();
-    }
-
-    private void addDexFiles(String archiveChecksum, List<Integer> files) throws SQLException {
-        if (files.isEmpty()) {
-            return;
+    private int addDexFile(PreparedStatement insert, long checksum, String name)
+            throws SQLException {
+        insert.setString(1, name);
+        insert.setLong(2, checksum);
+        int updated = insert.executeUpdate();
+        assert updated == 1;
+        try (Statement s = connection.createStatement();
+                ResultSet set = s.executeQuery("SELECT LAST_INSERT_ROWID();")) {
+            return set.getInt(1);
         }
-
-        String values =
-                files.stream()
-                        .map(e -> String.format("(%d, \"%s\")", e, archiveChecksum))
-                        .collect(Collectors.joining(","));
-        String insert =
-                String.format("INSERT INTO archives (dexfileId, checksum) VALUES %s;", values);
-        int updated = executeUpdate(insert);
-        assert updated == files.size();
     }
 
     @VisibleForTesting
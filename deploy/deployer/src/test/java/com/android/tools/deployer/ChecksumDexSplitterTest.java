@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.deployer;
+
+import com.android.tools.deployer.model.ApkEntry;
+import com.android.tools.deployer.model.DexClass;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ChecksumDexSplitterTest {
+
+    /** The checksums read from the dex must be the ones D8 reports. */
+    @Test
+    public void testSameChecksumsAsD8() throws Exception {
+        byte[] dex = D8DexSplitterTest.buildDex(true, SimpleJavaClass.class, this.getClass());
+        ApkEntry entry = new ApkEntry("classes.dex", 0, null);
+
+        RecordingSplitter fallback = new RecordingSplitter(dex);
+        Collection<DexClass> indexed =
+                new InMemoryChecksumDexSplitter(dex, fallback).split(entry, null);
+        Assert.assertEquals(0, fallback.calls);
+
+        Collection<DexClass> split = new InMemoryD8DexSplitter(dex).split(entry, d -> false);
+        Assert.assertEquals(checksums(split), checksums(indexed));
+        Assert.assertEquals(2, indexed.size());
+        for (DexClass clazz : indexed) {
+            Assert.assertNull(clazz.code);
+            Assert.assertSame(entry, clazz.dex);
+        }
+    }
+
+    /** Classes whose code is not kept do not need D8. */
+    @Test
+    public void testNoCodeKept() throws Exception {
+        byte[] dex = D8DexSplitterTest.buildDex(true, SimpleJavaClass.class);
+        ApkEntry entry = new ApkEntry("classes.dex", 0, null);
+
+        RecordingSplitter fallback = new RecordingSplitter(dex);
+        Collection<DexClass> result =
+                new InMemoryChecksumDexSplitter(dex, fallback).split(entry, d -> false);
+        Assert.assertEquals(0, fallback.calls);
+        Assert.assertEquals(SimpleJavaClass.class.getName(), result.iterator().next().name);
+    }
+
+    /** Extracting code is delegated to D8. */
+    @Test
+    public void testCodeKeptFallsBackToD8() throws Exception {
+        byte[] dex = D8DexSplitterTest.buildDex(true, SimpleJavaClass.class);
+        ApkEntry entry = new ApkEntry("classes.dex", 0, null);
+
+        RecordingSplitter fallback = new RecordingSplitter(dex);
+        Collection<DexClass> result =
+                new InMemoryChecksumDexSplitter(dex, fallback).split(entry, d -> true);
+        Assert.assertEquals(1, fallback.calls);
+        Assert.assertNotNull(result.iterator().next().code);
+    }
+
+    /** Without encoded checksums, only D8 can compute them. */
+    @Test
+    public void testNoEncodedChecksumFallsBackToD8() throws Exception {
+        byte[] dex = D8DexSplitterTest.buildDex(false, SimpleJavaClass.class);
+        ApkEntry entry = new ApkEntry("classes.dex", 0, null);
+
+        RecordingSplitter fallback = new RecordingSplitter(dex);
+        Collection<DexClass> result =
+                new InMemoryChecksumDexSplitter(dex, fallback).split(entry, null);
+        Assert.assertEquals(1, fallback.calls);
+        Assert.assertEquals(SimpleJavaClass.class.getName(), result.iterator().next().name);
+    }
+
+    @Test
+    public void testMalformedDex() {
+        ApkEntry entry = new ApkEntry("classes.dex", 0, null);
+        Assert.assertNull(ChecksumDexSplitter.index(entry, ByteBuffer.wrap(new byte[16])));
+        Assert.assertNull(ChecksumDexSplitter.index(entry, ByteBuffer.wrap(new byte[0x200])));
+    }
+
+    private static Map<String, Long> checksums(Collection<DexClass> classes) {
+        return classes.stream().collect(Collectors.toMap(c -> c.name, c -> c.checksum));
+    }
+
+    private static class InMemoryChecksumDexSplitter extends ChecksumDexSplitter {
+        private final byte[] dex;
+
+        private InMemoryChecksumDexSplitter(byte[] dex, DexSplitter fallback) {
+            super(fallback);
+            this.dex = dex;
+        }
+
+        @Override
+        protected ByteBuffer readDex(ApkEntry entry) {
+            return ByteBuffer.wrap(dex);
+        }
+    }
+
+    private static class InMemoryD8DexSplitter extends D8DexSplitter {
+        private final byte[] dex;
+
+        private InMemoryD8DexSplitter(byte[] dex) {
+            this.dex = dex;
+        }
+
+        @Override
+        protected byte[] readDex(ApkEntry entry) {
+            return dex;
+        }
+    }
+
+    private static class RecordingSplitter implements DexSplitter {
+        private final DexSplitter d8;
+        private int calls;
+
+        private RecordingSplitter(byte[] dex) {
+            this.d8 = new InMemoryD8DexSplitter(dex);
+        }
+
+        @Override
+        public Collection<DexClass> split(ApkEntry dex, Predicate<DexClass> keepCode)
+                throws DeployerException {
+            calls++;
+            return d8.split(dex, keepCode);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.deployer;
+
+import static java.util.Collections.singletonList;
+
+import com.android.testutils.TestUtils;
+import com.android.tools.deployer.model.Apk;
+import com.android.utils.NullLogger;
+import com.android.utils.PathUtils;
+import com.android.zipflinger.BytesSource;
+import com.android.zipflinger.ZipArchive;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class InstalledApkCopiesTest {
+    private static final String BASE = "tools/base/deploy/deployer/src/test/resource/";
+
+    private static final String PACKAGE = "com.example.simpleapp";
+
+    private Path tempDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDirectory = Files.createTempDirectory("");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (tempDirectory != null) {
+            PathUtils.deleteRecursivelyIfExists(tempDirectory);
+            tempDirectory = null;
+        }
+    }
+
+    private Apk createApk(String name, String content) throws IOException, DeployerException {
+        Path file = tempDirectory.resolve(name);
+        Path manifestFile = TestUtils.resolveWorkspacePath(BASE + "AndroidManifest.xml");
+        try (ZipArchive archive = new ZipArchive(file)) {
+            archive.add(new BytesSource(content.getBytes(), "f", Deflater.NO_COMPRESSION));
+            archive.add(
+                    new BytesSource(
+                            manifestFile, "AndroidManifest.xml", Deflater.NO_COMPRESSION));
+        }
+        return new ApkParser().parsePaths(singletonList(file.toAbsolutePath().toString())).get(0);
+    }
+
+    @Test
+    public void testStoreAndFind() throws IOException, DeployerException {
+        InstalledApkCopies copies =
+                new InstalledApkCopies(tempDirectory.resolve("copies"), new NullLogger());
+        Apk first = createApk("first.apk", "first");
+        Assert.assertNull(copies.find(PACKAGE, first));
+
+        copies.store(PACKAGE, singletonList(first.path));
+        Path copy = copies.find(PACKAGE, first);
+        Assert.assertNotNull(copy);
+        Assert.assertArrayEquals(
+                Files.readAllBytes(Paths.get(first.path)), Files.readAllBytes(copy));
+        Assert.assertNull(copies.find("com.example.other", first));
+    }
+
+    @Test
+    public void testStoreReplacesPreviousCopies() throws IOException, DeployerException {
+        InstalledApkCopies copies =
+                new InstalledApkCopies(tempDirectory.resolve("copies"), new NullLogger());
+        Apk first = createApk("first.apk", "first");
+        Apk second = createApk("second.apk", "second");
+
+        copies.store(PACKAGE, singletonList(first.path));
+        copies.store(PACKAGE, singletonList(second.path));
+        Assert.assertNull(copies.find(PACKAGE, first));
+        Assert.assertNotNull(copies.find(PACKAGE, second));
+        try (Stream<Path> files =
+                Files.list(tempDirectory.resolve("copies").resolve(PACKAGE))) {
+            Assert.assertEquals(1, files.count());
+        }
+    }
+}
@@ -24,11 +24,15 @@ import com.android.utils.NullLogger;
 import com.android.utils.PathUtils;
 import com.android.zipflinger.BytesSource;
 import com.android.zipflinger.ZipArchive;
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 import java.util.zip.Deflater;
 import org.junit.After;
 import org.junit.Assert;
@@ -167,4 +171,128 @@ public class PatchTest {
                 PatchGenerator.Patch.Status.SizeThresholdExceeded,
                 patch.status);
     }
+
+    @Test
+    public void testDeltaPatchOnlyContainsChangedBlocks() throws IOException, DeployerException {
+        byte[] bytes = new byte[1 << 20]; // 1 MiB
+        new Random(0).nextBytes(bytes);
+        Path remote = tempDirectory.resolve("remote.apk");
+        createSimpleZip(remote, bytes, "f");
+
+        bytes[bytes.length / 2] ^= 1;
+        Path local = tempDirectory.resolve("local.apk");
+        createSimpleZip(local, bytes, "f");
+
+        ApkParser apkParser = new ApkParser();
+        Apk remoteApk =
+                apkParser.parsePaths(singletonList(remote.toAbsolutePath().toString())).get(0);
+        Apk localApk =
+                apkParser.parsePaths(singletonList(local.toAbsolutePath().toString())).get(0);
+
+        PatchGenerator patchGenerator = new PatchGenerator(new NullLogger());
+        PatchGenerator.Patch entryPatch = patchGenerator.generate(remoteApk, localApk);
+        PatchGenerator.Patch deltaPatch =
+                patchGenerator.generateDelta(remoteApk, localApk, remote);
+        Assert.assertEquals(PatchGenerator.Patch.Status.Ok, deltaPatch.status);
+        Assert.assertTrue(entryPatch.data.remaining() > bytes.length);
+        // The changed block, the local file header and the central directory with the new crc
+        Assert.assertTrue(deltaPatch.data.remaining() < 8 * PatchGenerator.BLOCK_SIZE);
+
+        File patched = tempDirectory.resolve("patched.apk").toFile();
+        new Patcher().apply(deltaPatch, patched);
+        Assert.assertArrayEquals(Files.readAllBytes(local), Files.readAllBytes(patched.toPath()));
+    }
+
+    @Test
+    public void testDeltaPatchIgnoresStaleCopy() throws IOException, DeployerException {
+        byte[] bytes = new byte[1 << 20]; // 1 MiB
+        new Random(0).nextBytes(bytes);
+        Path stale = tempDirectory.resolve("stale.apk");
+        createSimpleZip(stale, bytes, "f");
+
+        bytes[0] ^= 1;
+        Path remote = tempDirectory.resolve("remote.apk");
+        createSimpleZip(remote, bytes, "f");
+
+        bytes[bytes.length / 2] ^= 1;
+        Path local = tempDirectory.resolve("local.apk");
+        createSimpleZip(local, bytes, "f");
+
+        ApkParser apkParser = new ApkParser();
+        Apk remoteApk =
+                apkParser.parsePaths(singletonList(remote.toAbsolutePath().toString())).get(0);
+        Apk localApk =
+                apkParser.parsePaths(singletonList(local.toAbsolutePath().toString())).get(0);
+
+        // Diffing against the stale copy would leave the first byte of the entry unpatched.
+        PatchGenerator patchGenerator = new PatchGenerator(new NullLogger());
+        PatchGenerator.Patch entryPatch = patchGenerator.generate(remoteApk, localApk);
+        PatchGenerator.Patch deltaPatch = patchGenerator.generateDelta(remoteApk, localApk, stale);
+        Assert.assertEquals(PatchGenerator.Patch.Status.Ok, deltaPatch.status);
+        Assert.assertEquals(entryPatch.data.remaining(), deltaPatch.data.remaining());
+
+        File patched = tempDirectory.resolve("patched.apk").toFile();
+        new Patcher().apply(deltaPatch, patched);
+        Assert.assertArrayEquals(Files.readAllBytes(local), Files.readAllBytes(patched.toPath()));
+    }
+
+    @Test
+    public void testDiffBlocks() {
+        int blockSize = PatchGenerator.BLOCK_SIZE;
+        byte[] remote = new byte[10 * blockSize];
+        new Random(0).nextBytes(remote);
+        byte[] local = Arrays.copyOf(remote, remote.length + 100);
+        local[3 * blockSize + 1] ^= 1;
+        local[6 * blockSize - 1] ^= 1;
+        local[6 * blockSize] ^= 1;
+
+        List<ApkMap.Area> dirtyBlocks = new ArrayList<>();
+        PatchGenerator.diffBlocks(
+                ByteBuffer.wrap(local), ByteBuffer.wrap(remote), 1000, dirtyBlocks);
+
+        // Adjacent dirty blocks are merged, and the bytes past the end of the remote are dirty.
+        Assert.assertEquals(3, dirtyBlocks.size());
+        assertArea(1000 + 3 * blockSize, 1000 + 4 * blockSize - 1, dirtyBlocks.get(0));
+        assertArea(1000 + 5 * blockSize, 1000 + 7 * blockSize - 1, dirtyBlocks.get(1));
+        assertArea(1000 + 10 * blockSize, 1000 + local.length - 1, dirtyBlocks.get(2));
+    }
+
+    @Test
+    public void testPatchSetUsesRemoteApkCopies() throws IOException, DeployerException {
+        byte[] bytes = new byte[1 << 20]; // 1 MiB
+        new Random(0).nextBytes(bytes);
+        Path remote = tempDirectory.resolve("remote.apk");
+        createSimpleZip(remote, bytes, "f");
+
+        bytes[bytes.length / 2] ^= 1;
+        Path local = tempDirectory.resolve("local.apk");
+        createSimpleZip(local, bytes, "f");
+
+        ApkParser apkParser = new ApkParser();
+        List<Apk> remoteApks =
+                apkParser.parsePaths(singletonList(remote.toAbsolutePath().toString()));
+        List<Apk> localApks =
+                apkParser.parsePaths(singletonList(local.toAbsolutePath().toString()));
+
+        PatchSet patchSet =
+                new PatchSetGenerator(
+                                PatchSetGenerator.WhenNoChanges.GENERATE_EMPTY_PATCH,
+                                new NullLogger())
+                        .generateFromApks(localApks, remoteApks);
+        PatchSet deltaPatchSet =
+                new PatchSetGenerator(
+                                PatchSetGenerator.WhenNoChanges.GENERATE_EMPTY_PATCH,
+                                apk -> remote,
+                                new NullLogger())
+                        .generateFromApks(localApks, remoteApks);
+        Assert.assertTrue(patchSet.getPatches().get(0).getPatches().size() > bytes.length);
+        Assert.assertTrue(
+                deltaPatchSet.getPatches().get(0).getPatches().size()
+                        < 8 * PatchGenerator.BLOCK_SIZE);
+    }
+
+    private static void assertArea(long start, long end, ApkMap.Area area) {
+        Assert.assertEquals(start, area.start);
+        Assert.assertEquals(end, area.end);
+    }
 }
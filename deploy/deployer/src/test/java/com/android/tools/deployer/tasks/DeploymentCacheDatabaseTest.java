@@ -22,6 +22,8 @@ import com.android.tools.deployer.model.Apk;
 import com.google.common.collect.Lists;
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import org.junit.Assert;
 import org.junit.Rule;
@@ -204,6 +206,110 @@ public class DeploymentCacheDatabaseTest {
         Assert.assertEquals("mychecksum", entry.getApks().get(0).checksum);
     }
 
+    @Test
+    public void testPersistInvalidate() throws DeployerException, IOException {
+        File persistFile = tmpDir.newFile("dex.db");
+        DeploymentCacheDatabase db = new DeploymentCacheDatabase(10, persistFile);
+        db.store("serial0", "com.example.0", Lists.newArrayList(makeApk("c0")), mockOverLayId());
+        db.store("serial0", "com.example.1", Lists.newArrayList(makeApk("c1")), mockOverLayId());
+        db.invalidate("serial0", "com.example.0");
+
+        db = new DeploymentCacheDatabase(10, persistFile);
+        Assert.assertNull(db.get("serial0", "com.example.0"));
+        Assert.assertEquals("c1", db.get("serial0", "com.example.1").getApks().get(0).checksum);
+    }
+
+    @Test
+    public void testPersistOverlayAndEntries() throws DeployerException, IOException {
+        File persistFile = tmpDir.newFile("dex.db");
+        Apk apk =
+                Apk.builder()
+                        .setName("base.apk")
+                        .setChecksum("mychecksum")
+                        .setPath("/path/to/base.apk")
+                        .addLibraryAbi("x86")
+                        .addApkEntry("classes.dex", 42)
+                        .build();
+        OverlayId overlayId =
+                OverlayId.builder(new OverlayId(Lists.newArrayList(apk)))
+                        .addOverlayFile("apk/classes.dex", 1234)
+                        .build();
+        DeploymentCacheDatabase db = new DeploymentCacheDatabase(10, persistFile);
+        db.store("serialXYZ", "com.example.xyz", Lists.newArrayList(apk), overlayId);
+
+        db = new DeploymentCacheDatabase(10, persistFile);
+        DeploymentCacheDatabase.Entry entry = db.get("serialXYZ", "com.example.xyz");
+        Apk persisted = entry.getApks().get(0);
+        Assert.assertEquals("/path/to/base.apk", persisted.path);
+        Assert.assertEquals(Lists.newArrayList("x86"), persisted.libraryAbis);
+        Assert.assertEquals(42, persisted.apkEntries.get("classes.dex").getChecksum());
+        Assert.assertSame(persisted, persisted.apkEntries.get("classes.dex").getApk());
+        Assert.assertFalse(entry.getOverlayId().isBaseInstall());
+        Assert.assertEquals(
+                1234L, (long) entry.getOverlayContents().getFileChecksum("apk/classes.dex"));
+        Assert.assertEquals(overlayId.getSha(), entry.getOverlayId().getSha());
+    }
+
+    @Test
+    public void testPersistManyStores() throws DeployerException, IOException {
+        File persistFile = tmpDir.newFile("dex.db");
+        DeploymentCacheDatabase db = new DeploymentCacheDatabase(3, persistFile);
+        for (int i = 0; i < 100; i++) {
+            db.store(
+                    "serialXYZ",
+                    "com.example." + (i % 5),
+                    Lists.newArrayList(makeApk("mychecksum" + i)),
+                    mockOverLayId());
+        }
+        long length = persistFile.length();
+
+        db = new DeploymentCacheDatabase(3, persistFile);
+        Assert.assertNull(db.get("serialXYZ", "com.example.1"));
+        Assert.assertEquals(
+                "mychecksum99", db.get("serialXYZ", "com.example.4").getApks().get(0).checksum);
+
+        // Overwritten records are compacted away
+        db.writeToFile();
+        Assert.assertTrue(persistFile.length() < length);
+        db = new DeploymentCacheDatabase(3, persistFile);
+        Assert.assertEquals(
+                "mychecksum98", db.get("serialXYZ", "com.example.3").getApks().get(0).checksum);
+    }
+
+    @Test
+    public void testPersistTruncated() throws DeployerException, IOException {
+        File persistFile = tmpDir.newFile("dex.db");
+        DeploymentCacheDatabase db = new DeploymentCacheDatabase(10, persistFile);
+        db.store("serial0", "com.example.0", Lists.newArrayList(makeApk("c0")), mockOverLayId());
+        db.store("serial0", "com.example.1", Lists.newArrayList(makeApk("c1")), mockOverLayId());
+        try (RandomAccessFile file = new RandomAccessFile(persistFile, "rw")) {
+            file.setLength(file.length() - 1);
+        }
+
+        db = new DeploymentCacheDatabase(10, persistFile);
+        Assert.assertEquals("c0", db.get("serial0", "com.example.0").getApks().get(0).checksum);
+        Assert.assertNull(db.get("serial0", "com.example.1"));
+
+        // The file is rewritten, and can be appended to again
+        db.store("serial0", "com.example.2", Lists.newArrayList(makeApk("c2")), mockOverLayId());
+        db = new DeploymentCacheDatabase(10, persistFile);
+        Assert.assertEquals("c0", db.get("serial0", "com.example.0").getApks().get(0).checksum);
+        Assert.assertEquals("c2", db.get("serial0", "com.example.2").getApks().get(0).checksum);
+    }
+
+    @Test
+    public void testPersistUnknownFormat() throws DeployerException, IOException {
+        File persistFile = tmpDir.newFile("dex.db");
+        Files.write(persistFile.toPath(), new byte[] {(byte) 0xAC, (byte) 0xED, 0, 5, 1, 2, 3});
+
+        DeploymentCacheDatabase db = new DeploymentCacheDatabase(10, persistFile);
+        Assert.assertNull(db.get("serialXYZ", "com.example.xyz"));
+        db.store("serialXYZ", "com.example.xyz", Lists.newArrayList(makeApk("c")), mockOverLayId());
+
+        db = new DeploymentCacheDatabase(10, persistFile);
+        Assert.assertEquals("c", db.get("serialXYZ", "com.example.xyz").getApks().get(0).checksum);
+    }
+
     private static Apk makeApk(String checksum) {
         return Apk.builder().setName("base.apk").setChecksum(checksum).build();
     }
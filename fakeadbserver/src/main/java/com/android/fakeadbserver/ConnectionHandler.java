@@ -70,6 +70,10 @@ final class ConnectionHandler implements Runnable {
                     handleDeviceService(request);
                 }
             }
+            if (mServer.isTrackedByEventLoop(mSmartSocket.getChannel())) {
+                // The connection outlives this handler, and is closed by the event loop.
+                mSmartSocket.detach();
+            }
         } catch (Exception e) {
             PrintWriter pw = new PrintWriter(new StringWriter());
             pw.print("Unable to process '" + request.original() + "'\n");
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.fakeadbserver;
+
+import com.android.annotations.NonNull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Scripted device activity on a {@link FakeAdbServer}, to load test adb clients with the number
+ * of devices and processes they are used with. For example:
+ *
+ * <pre>
+ *     FakeAdbServer server =
+ *             new FakeAdbServer.Builder()
+ *                     .installDefaultCommandHandlers()
+ *                     .enableTrackingEventLoop()
+ *                     .build();
+ *     server.start();
+ *     DeviceLoadGenerator load = new DeviceLoadGenerator(server, 42);
+ *     load.connectDevices(1000).startClients(5);
+ *     // Start the adb clients under test, then
+ *     load.churn(10000);
+ *     load.disconnectDevices();
+ * </pre>
+ *
+ * Each step waits for the server to process it. Random choices are made with the given seed, so
+ * that a script always produces the same sequence of events.
+ */
+public final class DeviceLoadGenerator {
+
+    @NonNull private final FakeAdbServer mServer;
+
+    @NonNull private final Random mRandom;
+
+    @NonNull private final List<DeviceState> mDevices = new ArrayList<>();
+
+    @NonNull private final Map<String, List<Integer>> mClientPids = new HashMap<>();
+
+    private int mNextDeviceIndex = 0;
+
+    private int mNextPid = 1000;
+
+    public DeviceLoadGenerator(@NonNull FakeAdbServer server, long seed) {
+        mServer = server;
+        mRandom = new Random(seed);
+    }
+
+    /** Connects {@code count} new online devices. */
+    @NonNull
+    public DeviceLoadGenerator connectDevices(int count)
+            throws ExecutionException, InterruptedException {
+        for (int i = 0; i < count; i++) {
+            String serial = String.format(Locale.US, "load-device-%04d", mNextDeviceIndex++);
+            mDevices.add(connectDevice(serial));
+        }
+        return this;
+    }
+
+    /** Starts {@code count} new processes on each connected device. */
+    @NonNull
+    public DeviceLoadGenerator startClients(int count) {
+        for (DeviceState device : mDevices) {
+            for (int i = 0; i < count; i++) {
+                startClient(device);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Runs {@code steps} random events: devices going offline and back online, processes starting
+     * and stopping, and devices disconnecting and reconnecting.
+     */
+    @NonNull
+    public DeviceLoadGenerator churn(int steps) throws ExecutionException, InterruptedException {
+        if (mDevices.isEmpty()) {
+            return this;
+        }
+        for (int step = 0; step < steps; step++) {
+            int index = mRandom.nextInt(mDevices.size());
+            DeviceState device = mDevices.get(index);
+            switch (mRandom.nextInt(4)) {
+                case 0:
+                    device.setDeviceStatus(
+                            device.getDeviceStatus() == DeviceState.DeviceStatus.ONLINE
+                                    ? DeviceState.DeviceStatus.OFFLINE
+                                    : DeviceState.DeviceStatus.ONLINE);
+                    break;
+                case 1:
+                    startClient(device);
+                    break;
+                case 2:
+                    List<Integer> pids = getClientPids(device);
+                    if (!pids.isEmpty()) {
+                        device.stopClient(pids.remove(mRandom.nextInt(pids.size())));
+                    }
+                    break;
+                default:
+                    String serial = device.getDeviceId();
+                    mServer.disconnectDevice(serial).get();
+                    mClientPids.remove(serial);
+                    mDevices.set(index, connectDevice(serial));
+                    break;
+            }
+        }
+        return this;
+    }
+
+    /** Disconnects all the devices connected by this generator. */
+    public void disconnectDevices() throws ExecutionException, InterruptedException {
+        for (DeviceState device : mDevices) {
+            mServer.disconnectDevice(device.getDeviceId()).get();
+        }
+        mDevices.clear();
+        mClientPids.clear();
+    }
+
+    /** Returns the devices currently connected by this generator. */
+    @NonNull
+    public List<DeviceState> getDevices() {
+        return Collections.unmodifiableList(mDevices);
+    }
+
+    @NonNull
+    private DeviceState connectDevice(@NonNull String serial)
+            throws ExecutionException, InterruptedException {
+        DeviceState device =
+                mServer.connectDevice(
+                                serial,
+                                "Google",
+                                "Load Test Device",
+                                "13",
+                                "33",
+                                DeviceState.HostConnectionType.USB)
+                        .get();
+        device.setDeviceStatus(DeviceState.DeviceStatus.ONLINE);
+        return device;
+    }
+
+    private void startClient(@NonNull DeviceState device) {
+        int pid = mNextPid++;
+        device.startClient(pid, 10000 + pid % 1000, "com.example.load" + pid, false);
+        getClientPids(device).add(pid);
+    }
+
+    @NonNull
+    private List<Integer> getClientPids(@NonNull DeviceState device) {
+        return mClientPids.computeIfAbsent(device.getDeviceId(), serial -> new ArrayList<>());
+    }
+}
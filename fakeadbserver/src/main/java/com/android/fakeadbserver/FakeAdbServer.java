@@ -107,6 +107,10 @@ public final class FakeAdbServer implements AutoCloseable {
 
     private final Map<String, DeviceState> mDevices = new HashMap<>();
 
+    // Immutable copy of mDevices.values(), replaced on the main thread each time mDevices changes,
+    // which can be read from any thread without going through the main thread.
+    private volatile List<DeviceState> mDeviceListSnapshot = Collections.emptyList();
+
     // Device ip address to DeviceState. Device may or may not currently be connected to adb.
     private final Map<String, DeviceState> mNetworkDevices = new HashMap<>();
 
@@ -133,6 +137,9 @@ public final class FakeAdbServer implements AutoCloseable {
 
     private volatile boolean mServerKeepAccepting = false;
 
+    // Serves tracking connections without a thread per connection, when enabled.
+    @Nullable private TrackingEventLoop mTrackingEventLoop = null;
+
     private Set<String> mFeatures;
     private static final Set<String> DEFAULT_FEATURES =
             Collections.unmodifiableSet(
@@ -164,6 +171,9 @@ public final class FakeAdbServer implements AutoCloseable {
         mServerSocket.setOption(StandardSocketOptions.SO_REUSEADDR, true);
         mServerSocketLocalAddress = (InetSocketAddress) mServerSocket.getLocalAddress();
         mServerKeepAccepting = true;
+        if (mTrackingEventLoop != null) {
+            mTrackingEventLoop.start();
+        }
 
         mConnectionHandlerTask =
                 mThreadPoolExecutor.submit(
@@ -221,6 +231,9 @@ public final class FakeAdbServer implements AutoCloseable {
 
                     mDeviceChangeHub.stop();
                     mDevices.forEach((id, device) -> device.stop());
+                    if (mTrackingEventLoop != null) {
+                        mTrackingEventLoop.close();
+                    }
 
                     mConnectionHandlerTask.cancel(true);
                     try {
@@ -305,12 +318,14 @@ public final class FakeAdbServer implements AutoCloseable {
         if (mConnectionHandlerTask == null) {
             assert !mDevices.containsKey(deviceId);
             mDevices.put(deviceId, device);
+            updateDeviceListSnapshot();
             return Futures.immediateFuture(device);
         } else {
             return mMainServerThreadExecutor.submit(
                     () -> {
                         assert !mDevices.containsKey(deviceId);
                         mDevices.put(deviceId, device);
+                        updateDeviceListSnapshot();
                         mDeviceChangeHub.deviceListChanged(mDevices.values());
                         return device;
                     });
@@ -338,6 +353,7 @@ public final class FakeAdbServer implements AutoCloseable {
     void addDevice(DeviceStateConfig deviceConfig) {
         DeviceState device = new DeviceState(this, this.newTransportId(), deviceConfig);
         this.mDevices.put(device.getDeviceId(), device);
+        updateDeviceListSnapshot();
     }
 
     public void registerNetworkDevice(
@@ -437,6 +453,7 @@ public final class FakeAdbServer implements AutoCloseable {
                     if (removedDevice != null) {
                         removedDevice.stop();
                     }
+                    updateDeviceListSnapshot();
                     mDeviceChangeHub.deviceListChanged(mDevices.values());
                 });
     }
@@ -449,6 +466,33 @@ public final class FakeAdbServer implements AutoCloseable {
         return mMainServerThreadExecutor.submit(() -> new ArrayList<>(mDevices.values()));
     }
 
+    /**
+     * Gets the device list as of the last device connection or disconnection processed by the
+     * main thread. Unlike {@link #getDeviceListCopy()}, this does not wait for the main thread, so
+     * it is suitable for the {@link TrackingEventLoop} thread.
+     */
+    @NonNull
+    public List<DeviceState> getDeviceListSnapshot() {
+        return mDeviceListSnapshot;
+    }
+
+    private void updateDeviceListSnapshot() {
+        mDeviceListSnapshot = Collections.unmodifiableList(new ArrayList<>(mDevices.values()));
+    }
+
+    /**
+     * Returns the event loop serving tracking connections, or null if they are served by a thread
+     * each (the default).
+     */
+    @Nullable
+    public TrackingEventLoop getTrackingEventLoop() {
+        return mTrackingEventLoop;
+    }
+
+    boolean isTrackedByEventLoop(@NonNull SocketChannel channel) {
+        return mTrackingEventLoop != null && mTrackingEventLoop.isTracking(channel);
+    }
+
     public HostCommandHandler getHostCommandHandler(String command) {
         Supplier<HostCommandHandler> supplier = mHostCommandHandlers.get(command);
         if (supplier != null) {
@@ -518,6 +562,19 @@ public final class FakeAdbServer implements AutoCloseable {
             return this;
         }
 
+        /**
+         * Serves tracking connections ({@code host:track-devices}, {@code track-jdwp}) from a
+         * single event loop thread rather than a thread per connection, so that hundreds of them
+         * can be opened on a server with thousands of devices, e.g. to load test adb clients.
+         */
+        @NonNull
+        public Builder enableTrackingEventLoop() throws IOException {
+            if (mServer.mTrackingEventLoop == null) {
+                mServer.mTrackingEventLoop = new TrackingEventLoop();
+            }
+            return this;
+        }
+
         /**
          * Installs the default set of host command handlers. The user may override any command
          * handler.
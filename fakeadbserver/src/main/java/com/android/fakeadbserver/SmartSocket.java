@@ -29,6 +29,8 @@ public class SmartSocket implements AutoCloseable {
 
     @NonNull private SocketChannel mSocket;
 
+    private boolean mDetached = false;
+
     SmartSocket(@NonNull SocketChannel socket) {
         this.mSocket = socket;
         // TODO: Should we declare a setSoTimeout of 10s on the socket?
@@ -40,6 +42,16 @@ public class SmartSocket implements AutoCloseable {
         return mSocket.socket();
     }
 
+    @NonNull
+    SocketChannel getChannel() {
+        return mSocket;
+    }
+
+    /** Leaves the socket open when this is closed, since another owner took it over. */
+    void detach() {
+        mDetached = true;
+    }
+
     @NonNull
     ServiceRequest readServiceRequest() throws IOException {
         byte[] lengthString = new byte[4];
@@ -82,6 +94,9 @@ public class SmartSocket implements AutoCloseable {
 
     @Override
     public void close() throws Exception {
+        if (mDetached) {
+            return;
+        }
         mSocket.close();
     }
 }
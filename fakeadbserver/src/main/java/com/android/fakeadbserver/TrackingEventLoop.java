@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.fakeadbserver;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.fakeadbserver.statechangehubs.StateChangeHandlerFactory.HandlerResult;
+import com.android.fakeadbserver.statechangehubs.StateChangeQueue;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Serves the long-lived tracking connections of a {@link FakeAdbServer} (such as {@code
+ * host:track-devices} and {@code track-jdwp}) from a single selector thread, instead of keeping a
+ * thread blocked on each of them. This allows simulating hundreds of tracking clients of
+ * thousands of devices.
+ *
+ * <p>Tracking handlers subscribe to a state change hub as usual, send OKAY, and hand the
+ * connection over with {@link #track}. Events added to the queue of a connection only mark it as
+ * dirty: the tracking message is built once per loop iteration however many events arrived, and
+ * is shared by all the connections with the same message key.
+ */
+public final class TrackingEventLoop implements AutoCloseable {
+
+    /**
+     * Handler to add to the queue of a tracked connection for events which change its tracking
+     * message. Other handlers are run on the event loop thread, without sending a new message,
+     * and the connection is closed if they return false.
+     */
+    @NonNull public static final Callable<HandlerResult> CHANGED = () -> new HandlerResult(true);
+
+    @NonNull private final Selector mSelector;
+
+    @NonNull private final Thread mThread;
+
+    /** Connections handed over by other threads, registered on the event loop thread */
+    @NonNull private final Queue<TrackedConnection> mNewConnections = new ConcurrentLinkedQueue<>();
+
+    @NonNull
+    private final Queue<TrackedConnection> mDirtyConnections = new ConcurrentLinkedQueue<>();
+
+    @NonNull private final Set<SocketChannel> mChannels = ConcurrentHashMap.newKeySet();
+
+    @NonNull private final ByteBuffer mReadBuffer = ByteBuffer.allocate(1024);
+
+    private volatile boolean mRunning = true;
+
+    TrackingEventLoop() throws IOException {
+        mSelector = Selector.open();
+        mThread = new Thread(this::run, "fake-adb-server-event-loop");
+        mThread.setDaemon(true);
+    }
+
+    void start() {
+        mThread.start();
+    }
+
+    /**
+     * Serves the connection of {@code channel} from the event loop: {@code message} is sent right
+     * away (as a hex4 length prefixed string), and again each time {@link #CHANGED} is added to
+     * {@code queue}, until the connection is closed by the client, by a handler of the queue
+     * returning false, or by the server stopping.
+     *
+     * @param messageKey connections with equal keys are sent the same message, which is only
+     *     built once for all of them
+     * @param onClose called on the event loop thread when the connection is closed, typically to
+     *     unsubscribe {@code queue}
+     */
+    public void track(
+            @NonNull SocketChannel channel,
+            @NonNull StateChangeQueue queue,
+            @NonNull Object messageKey,
+            @NonNull Supplier<String> message,
+            @NonNull Runnable onClose) {
+        TrackedConnection connection =
+                new TrackedConnection(channel, queue, messageKey, message, onClose);
+        if (!mRunning) {
+            closeConnection(connection);
+            return;
+        }
+        mChannels.add(channel);
+        mNewConnections.add(connection);
+        mSelector.wakeup();
+    }
+
+    /** Returns whether the connection of {@code channel} was handed over to the event loop. */
+    boolean isTracking(@NonNull SocketChannel channel) {
+        return mChannels.contains(channel);
+    }
+
+    /** Returns the number of connections currently served by the event loop. */
+    public int getConnectionCount() {
+        return mChannels.size();
+    }
+
+    @Override
+    public void close() {
+        mRunning = false;
+        mSelector.wakeup();
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (SelectionKey key : new ArrayList<>(mSelector.keys())) {
+            closeConnection((TrackedConnection) key.attachment());
+        }
+        TrackedConnection connection;
+        while ((connection = mNewConnections.poll()) != null) {
+            closeConnection(connection);
+        }
+        try {
+            mSelector.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void run() {
+        while (mRunning) {
+            registerNewConnections();
+            try {
+                mSelector.select();
+            } catch (IOException e) {
+                // Nothing we can do about it, keep serving.
+                continue;
+            }
+            try {
+                processSelectedKeys();
+                sendDirtyConnections();
+            } catch (RuntimeException e) {
+                // We don't want the thread to be killed by a faulty message supplier or handler,
+                // since it serves all the tracking connections.
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void registerNewConnections() {
+        TrackedConnection connection;
+        while ((connection = mNewConnections.poll()) != null) {
+            try {
+                connection.mChannel.configureBlocking(false);
+                connection.mKey =
+                        connection.mChannel.register(mSelector, SelectionKey.OP_READ, connection);
+            } catch (IOException e) {
+                closeConnection(connection);
+                continue;
+            }
+            connection.mQueue.setListener(connection::markDirty);
+            // Sends the initial message, and handles events added before the listener was set.
+            connection.markDirty();
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> iterator = mSelector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+
+            TrackedConnection connection = (TrackedConnection) key.attachment();
+            if (!key.isValid()) {
+                closeConnection(connection);
+                continue;
+            }
+            if (key.isReadable()) {
+                // Clients do not send anything on tracking connections, this is only to find out
+                // when they close it.
+                mReadBuffer.clear();
+                int read;
+                try {
+                    read = connection.mChannel.read(mReadBuffer);
+                } catch (IOException e) {
+                    read = -1;
+                }
+                if (read < 0) {
+                    closeConnection(connection);
+                    continue;
+                }
+            }
+            if (key.isValid() && key.isWritable()) {
+                flush(connection);
+            }
+        }
+    }
+
+    private void sendDirtyConnections() {
+        // Only the connections dirty at this point are handled, the ones marked dirty meanwhile
+        // have woken up the selector and are handled in the next iteration.
+        List<TrackedConnection> changedConnections = new ArrayList<>();
+        for (int count = mDirtyConnections.size(); count > 0; count--) {
+            TrackedConnection connection = mDirtyConnections.poll();
+            if (connection == null) {
+                break;
+            }
+            if (connection.mOpen && connection.mDirty.get() && drain(connection)) {
+                changedConnections.add(connection);
+            }
+        }
+
+        // Messages are built after all the queues have been drained, so that they include the
+        // changes of all the drained events.
+        Map<Object, ByteBuffer> messages = new HashMap<>();
+        for (TrackedConnection connection : changedConnections) {
+            send(connection, messages);
+        }
+    }
+
+    /**
+     * Runs the handlers queued for {@code connection}, and returns whether it needs a new
+     * message.
+     */
+    private boolean drain(@NonNull TrackedConnection connection) {
+        connection.mDirty.set(false);
+        Callable<HandlerResult> handler;
+        while ((handler = connection.mQueue.poll()) != null) {
+            if (handler == CHANGED) {
+                connection.mChanged = true;
+                continue;
+            }
+            boolean shouldContinue;
+            try {
+                shouldContinue = handler.call().mShouldContinue;
+            } catch (Exception e) {
+                shouldContinue = false;
+            }
+            if (!shouldContinue) {
+                closeConnection(connection);
+                return false;
+            }
+        }
+        return connection.mChanged;
+    }
+
+    private void send(
+            @NonNull TrackedConnection connection, @NonNull Map<Object, ByteBuffer> messages) {
+        if (!connection.mOpen || !connection.mChanged || connection.mPending != null) {
+            // A connection still writing a message is sent a new one once it is written.
+            return;
+        }
+        connection.mChanged = false;
+        ByteBuffer message =
+                messages.computeIfAbsent(
+                        connection.mMessageKey, key -> encode(connection.mMessage.get()));
+        connection.mPending = message.duplicate();
+        flush(connection);
+    }
+
+    private void flush(@NonNull TrackedConnection connection) {
+        try {
+            connection.mChannel.write(connection.mPending);
+        } catch (IOException e) {
+            closeConnection(connection);
+            return;
+        }
+        if (connection.mPending.hasRemaining()) {
+            connection.mKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            return;
+        }
+        connection.mPending = null;
+        connection.mKey.interestOps(SelectionKey.OP_READ);
+        // Changes drained while the previous message was written
+        send(connection, new HashMap<>());
+    }
+
+    private void closeConnection(@NonNull TrackedConnection connection) {
+        if (!connection.mOpen) {
+            return;
+        }
+        connection.mOpen = false;
+        connection.mQueue.setListener(null);
+        if (connection.mKey != null) {
+            connection.mKey.cancel();
+        }
+        try {
+            connection.mChannel.close();
+        } catch (IOException ignored) {
+        }
+        mChannels.remove(connection.mChannel);
+        connection.mOnClose.run();
+    }
+
+    @NonNull
+    private static ByteBuffer encode(@NonNull String message) {
+        byte[] bytes = message.getBytes(UTF_8);
+        byte[] length = String.format("%04x", bytes.length).getBytes(US_ASCII);
+        ByteBuffer buffer = ByteBuffer.allocate(length.length + bytes.length);
+        buffer.put(length);
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer;
+    }
+
+    private final class TrackedConnection {
+
+        @NonNull private final SocketChannel mChannel;
+
+        @NonNull private final StateChangeQueue mQueue;
+
+        @NonNull private final Object mMessageKey;
+
+        @NonNull private final Supplier<String> mMessage;
+
+        @NonNull private final Runnable mOnClose;
+
+        /** Whether events were added to the queue since it was last drained */
+        @NonNull private final AtomicBoolean mDirty = new AtomicBoolean();
+
+        // Only accessed from the event loop thread (or once it has stopped)
+        @Nullable private SelectionKey mKey;
+        /** Message being written, when the channel could not take all of it at once */
+        @Nullable private ByteBuffer mPending;
+        /** Whether the tracking message changed since it was last sent */
+        private boolean mChanged = true;
+        private boolean mOpen = true;
+
+        private TrackedConnection(
+                @NonNull SocketChannel channel,
+                @NonNull StateChangeQueue queue,
+                @NonNull Object messageKey,
+                @NonNull Supplier<String> message,
+                @NonNull Runnable onClose) {
+            mChannel = channel;
+            mQueue = queue;
+            mMessageKey = messageKey;
+            mMessage = message;
+            mOnClose = onClose;
+        }
+
+        /** Can be called from any thread. */
+        private void markDirty() {
+            if (mDirty.compareAndSet(false, true)) {
+                mDirtyConnections.add(this);
+                mSelector.wakeup();
+            }
+        }
+    }
+}
@@ -19,7 +19,9 @@ package com.android.fakeadbserver.devicecommandhandlers;
 import com.android.annotations.NonNull;
 import com.android.fakeadbserver.DeviceState;
 import com.android.fakeadbserver.FakeAdbServer;
+import com.android.fakeadbserver.TrackingEventLoop;
 import com.android.fakeadbserver.statechangehubs.ClientStateChangeHandlerFactory;
+import com.android.fakeadbserver.statechangehubs.ClientStateChangeHub;
 import com.android.fakeadbserver.statechangehubs.StateChangeHandlerFactory;
 import com.android.fakeadbserver.statechangehubs.StateChangeQueue;
 import java.io.IOException;
@@ -50,6 +52,12 @@ public class TrackJdwpCommandHandler extends DeviceCommandHandler {
             return;
         }
 
+        TrackingEventLoop eventLoop = server.getTrackingEventLoop();
+        if (eventLoop != null) {
+            invokeWithEventLoop(eventLoop, socket, device, stream);
+            return;
+        }
+
         StateChangeQueue queue =
                 device.getClientChangeHub()
                         .subscribe(
@@ -101,6 +109,50 @@ public class TrackJdwpCommandHandler extends DeviceCommandHandler {
         return;
     }
 
+    private static void invokeWithEventLoop(
+            @NonNull TrackingEventLoop eventLoop,
+            @NonNull Socket socket,
+            @NonNull DeviceState device,
+            @NonNull OutputStream stream) {
+        ClientStateChangeHub hub = device.getClientChangeHub();
+        StateChangeQueue queue =
+                hub.subscribe(
+                        new ClientStateChangeHandlerFactory() {
+                            @NonNull
+                            @Override
+                            public Callable<HandlerResult> createClientListChangedHandler() {
+                                return TrackingEventLoop.CHANGED;
+                            }
+
+                            @NonNull
+                            @Override
+                            public Callable<HandlerResult> createLogcatMessageAdditionHandler(
+                                    @NonNull String message) {
+                                return () -> new HandlerResult(true);
+                            }
+                        });
+
+        if (queue == null) {
+            return; // Server has shutdown before we are able to start listening to the queue.
+        }
+
+        try {
+            writeOkay(stream); // Send ok first.
+        } catch (IOException e) {
+            hub.unsubscribe(queue);
+            return;
+        }
+
+        // The event loop sends the client list, then again after each change, until the
+        // connection is closed.
+        eventLoop.track(
+                socket.getChannel(),
+                queue,
+                device,
+                device::getClientListString,
+                () -> hub.unsubscribe(queue));
+    }
+
     private static void sendClientList(@NonNull DeviceState device, @NonNull OutputStream stream)
             throws IOException {
         String clientListString = device.getClientListString();
@@ -23,7 +23,9 @@ import com.android.annotations.Nullable;
 import com.android.fakeadbserver.DeviceState;
 import com.android.fakeadbserver.DeviceState.DeviceStatus;
 import com.android.fakeadbserver.FakeAdbServer;
+import com.android.fakeadbserver.TrackingEventLoop;
 import com.android.fakeadbserver.statechangehubs.DeviceStateChangeHandlerFactory;
+import com.android.fakeadbserver.statechangehubs.DeviceStateChangeHub;
 import com.android.fakeadbserver.statechangehubs.StateChangeHandlerFactory.HandlerResult;
 import com.android.fakeadbserver.statechangehubs.StateChangeQueue;
 import java.io.IOException;
@@ -76,6 +78,11 @@ public class TrackDevicesCommandHandler extends HostCommandHandler {
     @Override
     public boolean invoke(@NonNull FakeAdbServer fakeAdbServer, @NonNull Socket responseSocket,
             @Nullable DeviceState device, @NonNull String args) {
+        TrackingEventLoop eventLoop = fakeAdbServer.getTrackingEventLoop();
+        if (eventLoop != null) {
+            return invokeWithEventLoop(fakeAdbServer, eventLoop, responseSocket);
+        }
+
         StateChangeQueue queue =
                 fakeAdbServer
                         .getDeviceChangeHub()
@@ -128,4 +135,51 @@ public class TrackDevicesCommandHandler extends HostCommandHandler {
 
         return false; // The only we can get here is if the connection/server was terminated.
     }
+
+    private boolean invokeWithEventLoop(
+            @NonNull FakeAdbServer fakeAdbServer,
+            @NonNull TrackingEventLoop eventLoop,
+            @NonNull Socket responseSocket) {
+        DeviceStateChangeHub hub = fakeAdbServer.getDeviceChangeHub();
+        StateChangeQueue queue =
+                hub.subscribe(
+                        new DeviceStateChangeHandlerFactory() {
+                            @NonNull
+                            @Override
+                            public Callable<HandlerResult> createDeviceListChangedHandler(
+                                    @NonNull Collection<DeviceState> deviceList) {
+                                return TrackingEventLoop.CHANGED;
+                            }
+
+                            @NonNull
+                            @Override
+                            public Callable<HandlerResult> createDeviceStateChangedHandler(
+                                    @NonNull DeviceState device, @NonNull DeviceStatus status) {
+                                return TrackingEventLoop.CHANGED;
+                            }
+                        });
+
+        if (queue == null) {
+            return false; // Server has shutdown before we are able to start listening to the queue.
+        }
+
+        try {
+            writeOkay(responseSocket.getOutputStream()); // Send ok first.
+        } catch (IOException e) {
+            hub.unsubscribe(queue);
+            return false;
+        }
+
+        // The event loop sends the list of devices, then again after each change, until the
+        // connection is closed.
+        eventLoop.track(
+                responseSocket.getChannel(),
+                queue,
+                longFormat ? LONG_COMMAND : COMMAND,
+                () ->
+                        ListDevicesCommandHandler.formatDeviceList(
+                                fakeAdbServer.getDeviceListSnapshot(), longFormat),
+                () -> hub.unsubscribe(queue));
+        return false; // This thread is done with the connection.
+    }
 }
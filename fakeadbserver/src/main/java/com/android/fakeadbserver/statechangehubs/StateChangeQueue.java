@@ -17,6 +17,7 @@
 package com.android.fakeadbserver.statechangehubs;
 
 import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
 import com.android.fakeadbserver.statechangehubs.StateChangeHandlerFactory.HandlerResult;
 import java.util.concurrent.Callable;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -24,16 +25,36 @@ import java.util.concurrent.LinkedBlockingQueue;
 /**
  * This queue is the primary message pump for listening threads to know when events have
  * arrived, as well as what to do for such an event.
+ *
+ * <p>Instead of blocking a thread in {@link #take()}, a listener can be set to be notified when
+ * events arrive, and the queue drained with {@link #poll()} (see {@link
+ * com.android.fakeadbserver.TrackingEventLoop}).
  */
 public final class StateChangeQueue {
 
     private LinkedBlockingQueue<Callable<HandlerResult>> mQueue = new LinkedBlockingQueue<>();
 
+    @Nullable private volatile Runnable mListener;
+
     public Callable<HandlerResult> take() throws InterruptedException {
         return mQueue.take();
     }
 
+    @Nullable
+    public Callable<HandlerResult> poll() {
+        return mQueue.poll();
+    }
+
     public void add(@NonNull Callable<HandlerResult> handler) {
         mQueue.add(handler);
+        Runnable listener = mListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /** Sets the listener to run (on the thread adding the event) after each added event. */
+    public void setListener(@Nullable Runnable listener) {
+        mListener = listener;
     }
 }
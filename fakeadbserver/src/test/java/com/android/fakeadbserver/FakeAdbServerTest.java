@@ -15,6 +15,16 @@
  */
 package com.android.fakeadbserver;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
 import org.junit.Ignore;
 import org.junit.Test;
 
@@ -50,4 +60,76 @@ public class FakeAdbServerTest {
             server.awaitServerTermination();
         }
     }
+
+    @Test
+    public void testTrackDevicesWithEventLoop() throws Exception {
+        FakeAdbServer.Builder builder = new FakeAdbServer.Builder();
+        builder.installDefaultCommandHandlers().enableTrackingEventLoop();
+        try (FakeAdbServer server = builder.build()) {
+            server.start();
+
+            List<Socket> trackers = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                Socket socket = new Socket(server.getInetAddress(), server.getPort());
+                socket.setSoTimeout(30_000);
+                sendRequest(socket, "host:track-devices");
+                Assert.assertEquals("OKAY", readString(socket.getInputStream(), 4));
+                trackers.add(socket);
+            }
+
+            DeviceLoadGenerator load = new DeviceLoadGenerator(server, 42);
+            load.connectDevices(200).startClients(2).churn(500);
+            int onlineDevices = 0;
+            for (DeviceState device : load.getDevices()) {
+                if (device.getDeviceStatus() == DeviceState.DeviceStatus.ONLINE) {
+                    onlineDevices++;
+                }
+            }
+
+            // Each tracker eventually receives the latest device list, whatever the number of
+            // events sent before it.
+            for (Socket socket : trackers) {
+                while (countOnline(readTrackingMessage(socket.getInputStream())) != onlineDevices) {
+                    // Read the next message
+                }
+            }
+            Assert.assertEquals(50, server.getTrackingEventLoop().getConnectionCount());
+
+            trackers.get(0).close();
+            load.disconnectDevices();
+            for (Socket socket : trackers.subList(1, trackers.size())) {
+                while (!readTrackingMessage(socket.getInputStream()).isEmpty()) {
+                    // Read the next message
+                }
+                socket.close();
+            }
+        }
+    }
+
+    private static void sendRequest(Socket socket, String request) throws IOException {
+        OutputStream stream = socket.getOutputStream();
+        stream.write(String.format("%04x%s", request.length(), request).getBytes(UTF_8));
+        stream.flush();
+    }
+
+    private static String readTrackingMessage(InputStream stream) throws IOException {
+        int length = Integer.parseInt(readString(stream, 4), 16);
+        return readString(stream, length);
+    }
+
+    private static String readString(InputStream stream, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        new DataInputStream(stream).readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static int countOnline(String deviceList) {
+        int count = 0;
+        for (String line : deviceList.split("\n")) {
+            if (line.endsWith("\tdevice")) {
+                count++;
+            }
+        }
+        return count;
+    }
 }
@@ -116,6 +116,10 @@ abstract class Instance internal constructor(
 
     fun getRetainedSize(heapIndex: Int): Long = retainedSizes!![heapIndex]
 
+    internal fun setRetainedSize(heapIndex: Int, size: Long) {
+        retainedSizes!![heapIndex] = size
+    }
+
     val totalRetainedSize: Long get() = retainedSizes?.sum() ?: 0
 
     /**
@@ -18,7 +18,10 @@ package com.android.tools.perflib.heap
 import com.android.annotations.VisibleForTesting
 import com.android.tools.perflib.analyzer.Capture
 import com.android.tools.perflib.captures.DataBuffer
+import com.android.tools.perflib.heap.analysis.ComputationProgress
 import com.android.tools.perflib.heap.analysis.LinkEvalDominators
+import com.android.tools.perflib.heap.analysis.ParallelDominators
+import com.android.tools.perflib.heap.analysis.ReferenceGraph
 import com.android.tools.perflib.heap.analysis.ShortestDistanceVisitor
 import com.android.tools.perflib.heap.ext.NativeRegistryPostProcessor
 import com.android.tools.perflib.heap.ext.SnapshotPostProcessor
@@ -26,6 +29,7 @@ import com.android.tools.proguard.ProguardMap
 import gnu.trove.THashSet
 import gnu.trove.TIntObjectHashMap
 import gnu.trove.TLongObjectHashMap
+import java.util.concurrent.ForkJoinPool
 import kotlin.streams.asStream
 
 /*
@@ -222,12 +226,51 @@ class Snapshot @VisibleForTesting constructor(val buffer: DataBuffer) : Capture(
         }
     }
 
+    /**
+     * Same as [computeRetainedSizes], but the distances to GC roots, the dominators and the
+     * retained sizes are computed by [ParallelDominators] on [pool], over a compact copy of the
+     * reference graph. [progress], if any, is updated as the computation goes.
+     */
+    fun computeRetainedSizes(pool: ForkJoinPool, progress: ComputationProgress?) {
+        if (areRetainedSizesComputed) {
+            return
+        }
+        resolveReferences()
+        compactMemory()
+        resetRetainedSizes()
+
+        val graph = ReferenceGraph.build(
+            gcRoots.mapNotNullTo(mutableSetOf(), RootObj::referredInstance)
+        ) { it.hardForwardReferences.asIterable() }
+        val dominators = ParallelDominators(graph, pool, progress)
+        val depths = dominators.computeDepths()
+        val immediateDominators = dominators.computeImmediateDominators()
+        val heapIndices = IntArray(graph.nodeCount) { heapList.indexOf(graph.getNode(it).heap) }
+        val shallowSizes = LongArray(graph.nodeCount) {
+            graph.getNode(it).let { instance -> instance.size + instance.nativeSize }
+        }
+        val retainedSizes = dominators.computeRetainedSizes(
+            immediateDominators, heapIndices, shallowSizes, heapList.size)
+
+        for (i in 0 until graph.nodeCount) {
+            val instance = graph.getNode(i)
+            instance.distanceToGcRoot = depths[i]
+            for (heapIndex in heapList.indices) {
+                instance.setRetainedSize(heapIndex, retainedSizes[heapIndex][i])
+            }
+        }
+        areRetainedSizesComputed = true
+    }
+
     private fun prepareComputeRetainedSizes() {
         resolveReferences()
         compactMemory()
         ShortestDistanceVisitor().doVisit(gcRoots)
+        resetRetainedSizes()
+    }
 
-        // Initialize retained sizes for all classes and objects, including unreachable ones.
+    // Initialize retained sizes for all classes and objects, including unreachable ones.
+    private fun resetRetainedSizes() {
         for (heap in heaps) {
             heap.classes.forEach(Instance::resetRetainedSize)
             heap.forEachInstance {
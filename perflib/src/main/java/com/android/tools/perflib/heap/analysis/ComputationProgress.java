@@ -18,11 +18,12 @@ package com.android.tools.perflib.heap.analysis;
 import com.android.annotations.NonNull;
 
 public class ComputationProgress {
+    // Volatile, as the computation and the UI reading the progress run on different threads.
     @NonNull
-    private String mMessage;
+    private volatile String mMessage;
 
     // Progress is a number in [0,1], where 0 represents just started, and 1 is done.
-    private double mProgress;
+    private volatile double mProgress;
 
     public ComputationProgress(@NonNull String message, double progress) {
         mMessage = message;
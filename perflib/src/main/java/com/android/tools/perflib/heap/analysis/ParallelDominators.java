@@ -0,0 +1,441 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.perflib.heap.analysis;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import gnu.trove.TIntArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntConsumer;
+
+/**
+ * Computes the distances to the roots, the dominator tree and the retained sizes of a {@link
+ * ReferenceGraph}, spreading the work over a {@link ForkJoinPool}.
+ *
+ * <ul>
+ *   <li>Depths are computed with a level-synchronous breadth-first search: the nodes of each level
+ *       are scanned in parallel, and claim their successors with a compare-and-set.
+ *   <li>Immediate dominators are computed with the same Lengauer-Tarjan link-eval algorithm as
+ *       {@link LinkEvalDominators}, on primitive arrays. The predecessor lists it needs are built
+ *       in parallel; the algorithm itself is sequential.
+ *   <li>Retained sizes are accumulated bottom-up over the dominator tree, one tree level at a
+ *       time, the nodes of a level being processed in parallel.
+ * </ul>
+ *
+ * <p>If a {@link ComputationProgress} is given, its message is set at the start of each phase and
+ * its progress goes from 0 to 1 during the phase. It is only updated from the calling thread.
+ */
+public final class ParallelDominators {
+
+    /** The depth of nodes that are not reachable from the roots. */
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    /** The immediate dominator of the roots, which are dominated by the auxiliary root. */
+    public static final int NO_DOMINATOR = -1;
+
+    // Minimum number of nodes processed by a single task.
+    private static final int NODES_PER_TASK = 1024;
+
+    // How often the progress is updated by sequential loops.
+    private static final int PROGRESS_INTERVAL = 1 << 16;
+
+    @NonNull private final ReferenceGraph<?> mGraph;
+    @NonNull private final ForkJoinPool mPool;
+    @Nullable private final ComputationProgress mProgress;
+
+    public ParallelDominators(
+            @NonNull ReferenceGraph<?> graph,
+            @NonNull ForkJoinPool pool,
+            @Nullable ComputationProgress progress) {
+        mGraph = graph;
+        mPool = pool;
+        mProgress = progress;
+    }
+
+    /** Returns the number of edges on the shortest path from a root to each node. */
+    @NonNull
+    public int[] computeDepths() {
+        startPhase("Computing distances to GC roots");
+        int nodeCount = mGraph.getNodeCount();
+        AtomicIntegerArray depths = new AtomicIntegerArray(nodeCount);
+        for (int i = 0; i < nodeCount; i++) {
+            depths.set(i, UNREACHABLE);
+        }
+        int[] frontier = new int[mGraph.getRootCount()];
+        for (int i = 0; i < frontier.length; i++) {
+            frontier[i] = i;
+            depths.set(i, 0);
+        }
+        int visited = frontier.length;
+        for (int depth = 0; frontier.length > 0; depth++) {
+            frontier = mPool.invoke(new FrontierTask(depths, frontier, 0, frontier.length, depth))
+                    .toNativeArray();
+            visited += frontier.length;
+            setProgress((double) visited / nodeCount);
+        }
+
+        int[] result = new int[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            result[i] = depths.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the immediate dominator of each node, {@link #NO_DOMINATOR} for nodes only dominated
+     * by the auxiliary root which links all roots.
+     */
+    @NonNull
+    public int[] computeImmediateDominators() {
+        startPhase("Computing dominators");
+        int nodeCount = mGraph.getNodeCount();
+        int[] predOffsets = new int[nodeCount + 1];
+        int[] preds = computePredecessors(predOffsets);
+
+        // Step 1: number the nodes in DFS order, 0 being the auxiliary root, and record the parent
+        // of each one in the DFS tree.
+        int[] numbers = new int[nodeCount];
+        Arrays.fill(numbers, -1);
+        int[] vertices = new int[nodeCount + 1];
+        int[] parents = new int[nodeCount + 1];
+        int[] pushedBy = new int[nodeCount];
+        int[] targets = mGraph.getTargets();
+        TIntArrayList stack = new TIntArrayList();
+        for (int root = mGraph.getRootCount() - 1; root >= 0; root--) {
+            stack.add(root);
+        }
+        int count = 0;
+        while (!stack.isEmpty()) {
+            int node = stack.remove(stack.size() - 1);
+            if (numbers[node] >= 0) {
+                continue;
+            }
+            numbers[node] = ++count;
+            vertices[count] = node;
+            parents[count] = pushedBy[node];
+            for (int e = mGraph.getFirstEdge(node); e < mGraph.getEndEdge(node); e++) {
+                int successor = targets[e];
+                if (numbers[successor] < 0) {
+                    pushedBy[successor] = count;
+                    stack.add(successor);
+                }
+            }
+        }
+
+        int[] semis = new int[count + 1];
+        int[] labels = new int[count + 1];
+        int[] ancestors = new int[count + 1];
+        int[] doms = new int[count + 1];
+        // Buckets are linked lists threaded through bucketNext.
+        int[] bucketHeads = new int[count + 1];
+        int[] bucketNext = new int[count + 1];
+        for (int i = 0; i <= count; i++) {
+            semis[i] = i;
+            labels[i] = i;
+            ancestors[i] = -1;
+            bucketHeads[i] = -1;
+        }
+        TIntArrayList compressStack = new TIntArrayList();
+
+        for (int w = count; w >= 1; w--) {
+            // Step 2: compute the semi-dominator of each node.
+            int node = vertices[w];
+            if (node < mGraph.getRootCount()) {
+                // The auxiliary root is a predecessor of the roots.
+                semis[w] = 0;
+            }
+            for (int p = predOffsets[node]; p < predOffsets[node + 1]; p++) {
+                int v = numbers[preds[p]];
+                if (v < 0) {
+                    continue;
+                }
+                int u = eval(ancestors, labels, semis, v, compressStack);
+                if (semis[u] < semis[w]) {
+                    semis[w] = semis[u];
+                }
+            }
+            bucketNext[w] = bucketHeads[semis[w]];
+            bucketHeads[semis[w]] = w;
+            int parent = parents[w];
+            ancestors[w] = parent;
+
+            // Step 3: implicitly define the immediate dominators.
+            for (int v = bucketHeads[parent]; v >= 0; v = bucketNext[v]) {
+                int u = eval(ancestors, labels, semis, v, compressStack);
+                doms[v] = semis[u] < semis[v] ? u : parent;
+            }
+            bucketHeads[parent] = -1;
+
+            if (w % PROGRESS_INTERVAL == 0) {
+                setProgress(0.9 * (count - w) / count);
+            }
+        }
+
+        // Step 4: explicitly define the immediate dominators.
+        int[] result = new int[nodeCount];
+        Arrays.fill(result, NO_DOMINATOR);
+        for (int w = 1; w <= count; w++) {
+            if (doms[w] != semis[w]) {
+                doms[w] = doms[doms[w]];
+            }
+            result[vertices[w]] = doms[w] == 0 ? NO_DOMINATOR : vertices[doms[w]];
+        }
+        setProgress(1);
+        return result;
+    }
+
+    /**
+     * Returns the retained size of each node, per heap: {@code result[heap][node]}.
+     *
+     * @param immediateDominators the result of {@link #computeImmediateDominators()}
+     * @param heapIndices the heap of each node, in {@code [0, heapCount)}
+     * @param shallowSizes the size of each node
+     */
+    @NonNull
+    public long[][] computeRetainedSizes(
+            @NonNull int[] immediateDominators,
+            @NonNull int[] heapIndices,
+            @NonNull long[] shallowSizes,
+            int heapCount) {
+        startPhase("Computing retained sizes");
+        int nodeCount = mGraph.getNodeCount();
+
+        // Depth of each node in the dominator tree.
+        int[] treeDepths = new int[nodeCount];
+        Arrays.fill(treeDepths, -1);
+        TIntArrayList path = new TIntArrayList();
+        int maxDepth = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            int node = i;
+            while (node != NO_DOMINATOR && treeDepths[node] < 0) {
+                path.add(node);
+                node = immediateDominators[node];
+            }
+            int depth = node == NO_DOMINATOR ? -1 : treeDepths[node];
+            for (int j = path.size() - 1; j >= 0; j--) {
+                treeDepths[path.get(j)] = ++depth;
+            }
+            maxDepth = Math.max(maxDepth, depth);
+            path.resetQuick();
+        }
+
+        // Nodes grouped by tree depth, and children grouped by dominator, by counting sort.
+        int[] levelOffsets = new int[maxDepth + 2];
+        int[] childOffsets = new int[nodeCount + 1];
+        for (int i = 0; i < nodeCount; i++) {
+            levelOffsets[treeDepths[i] + 1]++;
+            if (immediateDominators[i] != NO_DOMINATOR) {
+                childOffsets[immediateDominators[i] + 1]++;
+            }
+        }
+        for (int i = 1; i < levelOffsets.length; i++) {
+            levelOffsets[i] += levelOffsets[i - 1];
+        }
+        for (int i = 1; i < childOffsets.length; i++) {
+            childOffsets[i] += childOffsets[i - 1];
+        }
+        int[] levels = new int[nodeCount];
+        int[] children = new int[childOffsets[nodeCount]];
+        int[] levelCursors = Arrays.copyOf(levelOffsets, levelOffsets.length);
+        int[] childCursors = Arrays.copyOf(childOffsets, childOffsets.length);
+        for (int i = 0; i < nodeCount; i++) {
+            levels[levelCursors[treeDepths[i]]++] = i;
+            if (immediateDominators[i] != NO_DOMINATOR) {
+                children[childCursors[immediateDominators[i]]++] = i;
+            }
+        }
+
+        // The children of the nodes of a level are all in the next level, so once the deeper
+        // levels are done the nodes of a level can be summed up independently.
+        long[][] retained = new long[heapCount][nodeCount];
+        for (int depth = maxDepth; depth >= 0; depth--) {
+            forEach(
+                    levels,
+                    levelOffsets[depth],
+                    levelOffsets[depth + 1],
+                    node -> {
+                        for (int heap = 0; heap < heapCount; heap++) {
+                            long size = heapIndices[node] == heap ? shallowSizes[node] : 0;
+                            for (int c = childOffsets[node]; c < childOffsets[node + 1]; c++) {
+                                size += retained[heap][children[c]];
+                            }
+                            retained[heap][node] = size;
+                        }
+                    });
+            setProgress((double) (nodeCount - levelOffsets[depth]) / nodeCount);
+        }
+        return retained;
+    }
+
+    /** Builds the reverse of the graph, in the same compressed form. */
+    @NonNull
+    private int[] computePredecessors(@NonNull int[] predOffsets) {
+        int nodeCount = mGraph.getNodeCount();
+        int[] targets = mGraph.getTargets();
+        AtomicIntegerArray inDegrees = new AtomicIntegerArray(nodeCount);
+        forEachNode(
+                node -> {
+                    for (int e = mGraph.getFirstEdge(node); e < mGraph.getEndEdge(node); e++) {
+                        inDegrees.incrementAndGet(targets[e]);
+                    }
+                });
+        for (int i = 0; i < nodeCount; i++) {
+            predOffsets[i + 1] = predOffsets[i] + inDegrees.get(i);
+        }
+        // Reuse the degrees as insertion cursors.
+        AtomicIntegerArray cursors = inDegrees;
+        for (int i = 0; i < nodeCount; i++) {
+            cursors.set(i, predOffsets[i]);
+        }
+        int[] preds = new int[targets.length];
+        forEachNode(
+                node -> {
+                    for (int e = mGraph.getFirstEdge(node); e < mGraph.getEndEdge(node); e++) {
+                        preds[cursors.getAndIncrement(targets[e])] = node;
+                    }
+                });
+        return preds;
+    }
+
+    private static int eval(
+            @NonNull int[] ancestors,
+            @NonNull int[] labels,
+            @NonNull int[] semis,
+            int node,
+            @NonNull TIntArrayList compressStack) {
+        if (ancestors[node] < 0) {
+            return node;
+        }
+        // Path compression.
+        int n = node;
+        while (ancestors[ancestors[n]] >= 0) {
+            compressStack.add(n);
+            n = ancestors[n];
+        }
+        for (int i = compressStack.size() - 1; i >= 0; i--) {
+            int toCompress = compressStack.get(i);
+            int ancestor = ancestors[toCompress];
+            if (semis[labels[ancestor]] < semis[labels[toCompress]]) {
+                labels[toCompress] = labels[ancestor];
+            }
+            ancestors[toCompress] = ancestors[ancestor];
+        }
+        compressStack.resetQuick();
+        return labels[node];
+    }
+
+    private void forEachNode(@NonNull IntConsumer action) {
+        mPool.invoke(new RangeTask(null, 0, mGraph.getNodeCount(), action));
+    }
+
+    private void forEach(@NonNull int[] nodes, int start, int end, @NonNull IntConsumer action) {
+        mPool.invoke(new RangeTask(nodes, start, end, action));
+    }
+
+    private void startPhase(@NonNull String message) {
+        if (mProgress != null) {
+            mProgress.setMessage(message);
+            mProgress.setProgress(0);
+        }
+    }
+
+    private void setProgress(double progress) {
+        if (mProgress != null) {
+            mProgress.setProgress(progress);
+        }
+    }
+
+    /** Applies an action to {@code nodes[start, end)}, or to {@code [start, end)} if null. */
+    private static final class RangeTask extends RecursiveAction {
+        @Nullable private final int[] mNodes;
+        private final int mStart;
+        private final int mEnd;
+        @NonNull private final IntConsumer mAction;
+
+        RangeTask(@Nullable int[] nodes, int start, int end, @NonNull IntConsumer action) {
+            mNodes = nodes;
+            mStart = start;
+            mEnd = end;
+            mAction = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (mEnd - mStart > NODES_PER_TASK) {
+                int mid = (mStart + mEnd) >>> 1;
+                invokeAll(
+                        new RangeTask(mNodes, mStart, mid, mAction),
+                        new RangeTask(mNodes, mid, mEnd, mAction));
+                return;
+            }
+            for (int i = mStart; i < mEnd; i++) {
+                mAction.accept(mNodes == null ? i : mNodes[i]);
+            }
+        }
+    }
+
+    /** Visits the successors of a slice of a BFS frontier, returning the newly reached nodes. */
+    private final class FrontierTask extends RecursiveTask<TIntArrayList> {
+        @NonNull private final AtomicIntegerArray mDepths;
+        @NonNull private final int[] mFrontier;
+        private final int mStart;
+        private final int mEnd;
+        private final int mDepth;
+
+        FrontierTask(
+                @NonNull AtomicIntegerArray depths,
+                @NonNull int[] frontier,
+                int start,
+                int end,
+                int depth) {
+            mDepths = depths;
+            mFrontier = frontier;
+            mStart = start;
+            mEnd = end;
+            mDepth = depth;
+        }
+
+        @Override
+        protected TIntArrayList compute() {
+            if (mEnd - mStart > NODES_PER_TASK) {
+                int mid = (mStart + mEnd) >>> 1;
+                FrontierTask right = new FrontierTask(mDepths, mFrontier, mid, mEnd, mDepth);
+                right.fork();
+                TIntArrayList next =
+                        new FrontierTask(mDepths, mFrontier, mStart, mid, mDepth).compute();
+                next.add(right.join().toNativeArray());
+                return next;
+            }
+            int[] targets = mGraph.getTargets();
+            TIntArrayList next = new TIntArrayList();
+            for (int i = mStart; i < mEnd; i++) {
+                int node = mFrontier[i];
+                for (int e = mGraph.getFirstEdge(node); e < mGraph.getEndEdge(node); e++) {
+                    int successor = targets[e];
+                    if (mDepths.get(successor) == UNREACHABLE
+                            && mDepths.compareAndSet(successor, UNREACHABLE, mDepth + 1)) {
+                        next.add(successor);
+                    }
+                }
+            }
+            return next;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.perflib.heap.analysis;
+
+import com.android.annotations.NonNull;
+import gnu.trove.TIntArrayList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * The part of an object graph reachable from a set of roots, in compressed sparse row form: the
+ * successors of node {@code i} are {@code targets[offsets[i]]} to {@code targets[offsets[i + 1] -
+ * 1]}. Nodes are numbered in the order they are discovered, so the roots are the first nodes.
+ *
+ * <p>Once built, the graph only holds primitive arrays besides the node list, which makes it cheap
+ * to traverse from several threads.
+ */
+public final class ReferenceGraph<T> {
+
+    @NonNull private final List<T> mNodes;
+    private final int mRootCount;
+    @NonNull private final int[] mOffsets;
+    @NonNull private final int[] mTargets;
+
+    private ReferenceGraph(
+            @NonNull List<T> nodes, int rootCount, @NonNull int[] offsets, @NonNull int[] targets) {
+        mNodes = nodes;
+        mRootCount = rootCount;
+        mOffsets = offsets;
+        mTargets = targets;
+    }
+
+    /**
+     * Builds the graph of the nodes reachable from {@code roots} through {@code next}. Nodes are
+     * compared by identity.
+     */
+    @NonNull
+    public static <T> ReferenceGraph<T> build(
+            @NonNull Collection<? extends T> roots,
+            @NonNull Function<? super T, ? extends Iterable<? extends T>> next) {
+        List<T> nodes = new ArrayList<>();
+        Map<T, Integer> indices = new IdentityHashMap<>();
+        for (T root : roots) {
+            if (!indices.containsKey(root)) {
+                indices.put(root, nodes.size());
+                nodes.add(root);
+            }
+        }
+        int rootCount = nodes.size();
+
+        TIntArrayList offsets = new TIntArrayList();
+        TIntArrayList targets = new TIntArrayList();
+        // Nodes are appended while iterating, which numbers them in breadth-first order.
+        for (int i = 0; i < nodes.size(); i++) {
+            offsets.add(targets.size());
+            for (T successor : next.apply(nodes.get(i))) {
+                Integer index = indices.get(successor);
+                if (index == null) {
+                    index = nodes.size();
+                    indices.put(successor, index);
+                    nodes.add(successor);
+                }
+                targets.add(index);
+            }
+        }
+        offsets.add(targets.size());
+        return new ReferenceGraph<>(
+                nodes, rootCount, offsets.toNativeArray(), targets.toNativeArray());
+    }
+
+    public int getNodeCount() {
+        return mNodes.size();
+    }
+
+    /** Returns the number of roots, which are nodes {@code 0} to {@code getRootCount() - 1}. */
+    public int getRootCount() {
+        return mRootCount;
+    }
+
+    @NonNull
+    public T getNode(int index) {
+        return mNodes.get(index);
+    }
+
+    public int getEdgeCount() {
+        return mTargets.length;
+    }
+
+    /** Index in {@link #getTargets()} of the first successor of {@code node}. */
+    public int getFirstEdge(int node) {
+        return mOffsets[node];
+    }
+
+    /** Index in {@link #getTargets()} after the last successor of {@code node}. */
+    public int getEndEdge(int node) {
+        return mOffsets[node + 1];
+    }
+
+    /** The successors of all nodes. Must not be modified. */
+    @NonNull
+    public int[] getTargets() {
+        return mTargets;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.perflib.heap.compact;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.tools.perflib.heap.Field;
+
+/**
+ * A class of a {@link CompactSnapshot}.
+ *
+ * <p>Classes are few compared to instances, so unlike instances they are fully decoded while
+ * indexing and kept on the Java heap.
+ */
+public final class CompactClass {
+
+    private final long mId;
+    @NonNull private final String mName;
+    private final long mSuperClassId;
+    private final long mClassLoaderId;
+    private final int mInstanceSize;
+    @NonNull private final Field[] mFields;
+    @NonNull private final Field[] mStaticFields;
+    private final long mStaticValuesOffset;
+    private final int mHeapId;
+
+    CompactClass(
+            long id,
+            @NonNull String name,
+            long superClassId,
+            long classLoaderId,
+            int instanceSize,
+            @NonNull Field[] fields,
+            @NonNull Field[] staticFields,
+            long staticValuesOffset,
+            int heapId) {
+        mId = id;
+        mName = name;
+        mSuperClassId = superClassId;
+        mClassLoaderId = classLoaderId;
+        mInstanceSize = instanceSize;
+        mFields = fields;
+        mStaticFields = staticFields;
+        mStaticValuesOffset = staticValuesOffset;
+        mHeapId = heapId;
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    @NonNull
+    public String getClassName() {
+        return mName;
+    }
+
+    /** Returns the id of the super class, or 0 for java.lang.Object. */
+    public long getSuperClassId() {
+        return mSuperClassId;
+    }
+
+    public long getClassLoaderId() {
+        return mClassLoaderId;
+    }
+
+    /** The shallow size of instances of this class, as reported by the VM. */
+    public int getInstanceSize() {
+        return mInstanceSize;
+    }
+
+    /** Instance fields declared by this class, in HPROF order. */
+    @NonNull
+    public Field[] getFields() {
+        return mFields;
+    }
+
+    @NonNull
+    public Field[] getStaticFields() {
+        return mStaticFields;
+    }
+
+    int getHeapId() {
+        return mHeapId;
+    }
+
+    // Offset of the static fields in the class dump record, the values are decoded on demand.
+    long getStaticValuesOffset() {
+        return mStaticValuesOffset;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+        return o instanceof CompactClass && ((CompactClass) o).mId == mId;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(mId);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (0x%x)", mName, mId);
+    }
+}
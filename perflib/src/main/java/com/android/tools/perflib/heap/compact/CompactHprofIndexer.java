@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.perflib.heap.compact;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.tools.perflib.captures.DataBuffer;
+import com.android.tools.perflib.heap.Field;
+import com.android.tools.perflib.heap.RootType;
+import com.android.tools.perflib.heap.Type;
+import com.android.tools.proguard.ProguardMap;
+import com.google.common.primitives.UnsignedBytes;
+import com.google.common.primitives.UnsignedInts;
+import gnu.trove.TIntLongHashMap;
+import gnu.trove.TLongLongHashMap;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Indexes an HPROF file in a single pass without decoding objects.
+ *
+ * <p>Same record handling as HprofParser, except that instances and arrays are only recorded as
+ * an (id, offset) pair and strings as an (id, offset) pair pointing to their UTF-8 bytes. Stack
+ * traces and threads are not indexed.
+ */
+final class CompactHprofIndexer {
+
+    private static final int STRING_IN_UTF8 = 0x01;
+    private static final int LOAD_CLASS = 0x02;
+    private static final int HEAP_DUMP = 0x0c;
+    private static final int HEAP_DUMP_SEGMENT = 0x1c;
+
+    private static final int ROOT_UNKNOWN = 0xff;
+    private static final int ROOT_JNI_GLOBAL = 0x01;
+    private static final int ROOT_JNI_LOCAL = 0x02;
+    private static final int ROOT_JAVA_FRAME = 0x03;
+    private static final int ROOT_NATIVE_STACK = 0x04;
+    private static final int ROOT_STICKY_CLASS = 0x05;
+    private static final int ROOT_THREAD_BLOCK = 0x06;
+    private static final int ROOT_MONITOR_USED = 0x07;
+    private static final int ROOT_THREAD_OBJECT = 0x08;
+    static final int CLASS_DUMP = 0x20;
+    static final int INSTANCE_DUMP = 0x21;
+    static final int OBJECT_ARRAY_DUMP = 0x22;
+    static final int PRIMITIVE_ARRAY_DUMP = 0x23;
+    private static final int HEAP_DUMP_INFO = 0xfe;
+    private static final int ROOT_INTERNED_STRING = 0x89;
+    private static final int ROOT_FINALIZING = 0x8a;
+    private static final int ROOT_DEBUGGER = 0x8b;
+    private static final int ROOT_REFERENCE_CLEANUP = 0x8c;
+    private static final int ROOT_VM_INTERNAL = 0x8d;
+    private static final int ROOT_JNI_MONITOR = 0x8e;
+    private static final int ROOT_UNREACHABLE = 0x90;
+
+    static final int DEFAULT_HEAP_ID = 0;
+
+    @NonNull private final DataBuffer mInput;
+    @NonNull private final ProguardMap mProguardMap;
+    private int mIdSize;
+
+    // (string id, offset of the UTF-8 bytes).
+    @NonNull private final LongPairArray mStrings = new LongPairArray();
+    // (object id, offset of the record tag).
+    @NonNull private final LongPairArray mObjects = new LongPairArray();
+    // (object id, RootType ordinal).
+    @NonNull private final LongPairArray mRoots = new LongPairArray();
+
+    // Class id to class name string id.
+    @NonNull private final TLongLongHashMap mClassNameIds = new TLongLongHashMap();
+    // Heap id to heap name string id.
+    @NonNull private final TIntLongHashMap mHeapNameIds = new TIntLongHashMap();
+    @NonNull private final List<PendingClass> mClasses = new ArrayList<>();
+    @NonNull private final CompactSnapshot.HeapSegments mHeapSegments =
+            new CompactSnapshot.HeapSegments();
+    private int mCurrentHeapId = DEFAULT_HEAP_ID;
+
+    // A class dump whose names are resolved once all strings are indexed.
+    private static final class PendingClass {
+        long id;
+        long superClassId;
+        long classLoaderId;
+        int instanceSize;
+        long[] staticFieldNameIds;
+        Type[] staticFieldTypes;
+        long staticValuesOffset;
+        long[] fieldNameIds;
+        Type[] fieldTypes;
+        int heapId;
+    }
+
+    private CompactHprofIndexer(@NonNull DataBuffer input, @NonNull ProguardMap proguardMap) {
+        mInput = input;
+        mProguardMap = proguardMap;
+    }
+
+    @NonNull
+    static CompactSnapshot index(@NonNull DataBuffer input, @NonNull ProguardMap proguardMap) {
+        CompactHprofIndexer indexer = new CompactHprofIndexer(input, proguardMap);
+        try {
+            return indexer.index();
+        } catch (RuntimeException e) {
+            indexer.mObjects.dispose();
+            indexer.mRoots.dispose();
+            throw e;
+        } finally {
+            // Only needed to resolve names.
+            indexer.mStrings.dispose();
+        }
+    }
+
+    @NonNull
+    private CompactSnapshot index() {
+        mInput.setPosition(0);
+        while (mInput.readByte() != 0) {
+            // Version, ignored.
+        }
+        mIdSize = mInput.readInt();
+        mInput.readLong(); // Timestamp, ignored.
+
+        mHeapSegments.add(mInput.position(), DEFAULT_HEAP_ID);
+        // A truncated record ends the indexing, as with HprofParser.
+        while (mInput.remaining() >= 9) {
+            int tag = readUnsignedByte();
+            mInput.readInt(); // Ignored: timestamp
+            long length = readUnsignedInt();
+            long end = mInput.position() + length;
+            if (end > mInput.position() + mInput.remaining()) {
+                break;
+            }
+
+            switch (tag) {
+                case STRING_IN_UTF8:
+                    mStrings.add(readId(), mInput.position());
+                    break;
+                case LOAD_CLASS:
+                    mInput.readInt(); // Ignored: class serial number.
+                    long classId = readId();
+                    mInput.readInt(); // Ignored: stack trace serial number.
+                    mClassNameIds.put(classId, readId());
+                    break;
+                case HEAP_DUMP:
+                case HEAP_DUMP_SEGMENT:
+                    indexHeapDump(end);
+                    setHeap(DEFAULT_HEAP_ID, mInput.position());
+                    break;
+                default:
+                    break;
+            }
+            mInput.setPosition(end);
+        }
+
+        mStrings.sortByKey();
+        mObjects.sortByKey();
+
+        CompactSnapshot snapshot =
+                new CompactSnapshot(mInput, mIdSize, mObjects, mRoots, mHeapSegments);
+        for (PendingClass pending : mClasses) {
+            snapshot.addClass(resolve(pending));
+        }
+        mHeapNameIds.forEachEntry(
+                (heapId, nameId) -> {
+                    snapshot.addHeapName(heapId, readString(nameId));
+                    return true;
+                });
+        return snapshot;
+    }
+
+    private void setHeap(int heapId, long position) {
+        if (heapId != mCurrentHeapId) {
+            mCurrentHeapId = heapId;
+            mHeapSegments.add(position, heapId);
+        }
+    }
+
+    private void indexHeapDump(long end) {
+        while (mInput.position() < end) {
+            long tagPosition = mInput.position();
+            int tag = readUnsignedByte();
+            switch (tag) {
+                case ROOT_UNKNOWN:
+                    addRoot(RootType.UNKNOWN);
+                    break;
+                case ROOT_JNI_GLOBAL:
+                    addRoot(RootType.NATIVE_STATIC);
+                    skip(mIdSize);
+                    break;
+                case ROOT_JNI_LOCAL:
+                    addRoot(RootType.NATIVE_LOCAL);
+                    skip(8);
+                    break;
+                case ROOT_JAVA_FRAME:
+                    addRoot(RootType.JAVA_LOCAL);
+                    skip(8);
+                    break;
+                case ROOT_NATIVE_STACK:
+                    addRoot(RootType.NATIVE_STACK);
+                    skip(4);
+                    break;
+                case ROOT_STICKY_CLASS:
+                    addRoot(RootType.SYSTEM_CLASS);
+                    break;
+                case ROOT_THREAD_BLOCK:
+                    addRoot(RootType.THREAD_BLOCK);
+                    skip(4);
+                    break;
+                case ROOT_MONITOR_USED:
+                    addRoot(RootType.BUSY_MONITOR);
+                    break;
+                case ROOT_THREAD_OBJECT:
+                    addRoot(RootType.THREAD_OBJECT);
+                    skip(8);
+                    break;
+                case ROOT_INTERNED_STRING:
+                    addRoot(RootType.INTERNED_STRING);
+                    break;
+                case ROOT_FINALIZING:
+                    addRoot(RootType.FINALIZING);
+                    break;
+                case ROOT_DEBUGGER:
+                    addRoot(RootType.DEBUGGER);
+                    break;
+                case ROOT_REFERENCE_CLEANUP:
+                    addRoot(RootType.REFERENCE_CLEANUP);
+                    break;
+                case ROOT_VM_INTERNAL:
+                    addRoot(RootType.VM_INTERNAL);
+                    break;
+                case ROOT_JNI_MONITOR:
+                    addRoot(RootType.NATIVE_MONITOR);
+                    skip(8);
+                    break;
+                case ROOT_UNREACHABLE:
+                    addRoot(RootType.UNREACHABLE);
+                    break;
+                case HEAP_DUMP_INFO:
+                    int heapId = mInput.readInt();
+                    mHeapNameIds.put(heapId, readId());
+                    setHeap(heapId, mInput.position());
+                    break;
+                case CLASS_DUMP:
+                    indexClassDump();
+                    break;
+                case INSTANCE_DUMP:
+                    mObjects.add(readId(), tagPosition);
+                    skip(4 + mIdSize);
+                    skip(readUnsignedInt());
+                    break;
+                case OBJECT_ARRAY_DUMP:
+                    mObjects.add(readId(), tagPosition);
+                    skip(4);
+                    long numElements = readUnsignedInt();
+                    skip(mIdSize + numElements * mIdSize);
+                    break;
+                case PRIMITIVE_ARRAY_DUMP:
+                    mObjects.add(readId(), tagPosition);
+                    skip(4);
+                    long length = readUnsignedInt();
+                    skip(length * getTypeSize(Type.getType(readUnsignedByte())));
+                    break;
+                default:
+                    throw new IllegalArgumentException(
+                            "indexHeapDump loop with unknown tag "
+                                    + tag
+                                    + " at "
+                                    + tagPosition);
+            }
+        }
+    }
+
+    private void addRoot(@NonNull RootType type) {
+        mRoots.add(readId(), type.ordinal());
+    }
+
+    private void indexClassDump() {
+        PendingClass pending = new PendingClass();
+        pending.id = readId();
+        mInput.readInt(); // Ignored: stack trace serial number.
+        pending.superClassId = readId();
+        pending.classLoaderId = readId();
+        skip(4L * mIdSize); // Ignored: signers, protection domain, and two reserved ids.
+        pending.instanceSize = mInput.readInt();
+        pending.heapId = mCurrentHeapId;
+
+        // Skip over the constant pool.
+        int numEntries = readUnsignedShort();
+        for (int i = 0; i < numEntries; i++) {
+            readUnsignedShort();
+            skip(getTypeSize(Type.getType(readUnsignedByte())));
+        }
+
+        numEntries = readUnsignedShort();
+        pending.staticValuesOffset = mInput.position();
+        pending.staticFieldNameIds = new long[numEntries];
+        pending.staticFieldTypes = new Type[numEntries];
+        for (int i = 0; i < numEntries; i++) {
+            pending.staticFieldNameIds[i] = readId();
+            pending.staticFieldTypes[i] = Type.getType(readUnsignedByte());
+            skip(getTypeSize(pending.staticFieldTypes[i]));
+        }
+
+        numEntries = readUnsignedShort();
+        pending.fieldNameIds = new long[numEntries];
+        pending.fieldTypes = new Type[numEntries];
+        for (int i = 0; i < numEntries; i++) {
+            pending.fieldNameIds[i] = readId();
+            pending.fieldTypes[i] = Type.getType(readUnsignedByte());
+        }
+        mClasses.add(pending);
+    }
+
+    @NonNull
+    private CompactClass resolve(@NonNull PendingClass pending) {
+        String className = mProguardMap.getClassName(readString(mClassNameIds.get(pending.id)));
+        return new CompactClass(
+                pending.id,
+                className,
+                pending.superClassId,
+                pending.classLoaderId,
+                pending.instanceSize,
+                resolveFields(className, pending.fieldNameIds, pending.fieldTypes),
+                resolveFields(className, pending.staticFieldNameIds, pending.staticFieldTypes),
+                pending.staticValuesOffset,
+                pending.heapId);
+    }
+
+    @NonNull
+    private Field[] resolveFields(
+            @NonNull String className, @NonNull long[] nameIds, @NonNull Type[] types) {
+        Field[] fields = new Field[nameIds.length];
+        for (int i = 0; i < fields.length; i++) {
+            String name = mProguardMap.getFieldName(className, readString(nameIds[i]));
+            fields[i] = new Field(types[i], name);
+        }
+        return fields;
+    }
+
+    @NonNull
+    private String readString(long id) {
+        int index = mStrings.indexOfKey(id);
+        if (index < 0) {
+            return String.format("unknown_0x%x", id);
+        }
+        long offset = mStrings.getValue(index);
+        // The record length precedes the string id.
+        mInput.setPosition(offset - mIdSize - 4);
+        int length = (int) (readUnsignedInt() - mIdSize);
+        byte[] bytes = new byte[length];
+        mInput.setPosition(offset);
+        mInput.read(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int getTypeSize(@Nullable Type type) {
+        if (type == null) {
+            throw new IllegalArgumentException("Unknown type at " + mInput.position());
+        }
+        return type == Type.OBJECT ? mIdSize : type.getSize();
+    }
+
+    private long readId() {
+        return CompactSnapshot.readId(mInput, mIdSize);
+    }
+
+    private int readUnsignedByte() {
+        return UnsignedBytes.toInt(mInput.readByte());
+    }
+
+    private int readUnsignedShort() {
+        return mInput.readShort() & 0xffff;
+    }
+
+    private long readUnsignedInt() {
+        return UnsignedInts.toLong(mInput.readInt());
+    }
+
+    private void skip(long numBytes) {
+        mInput.setPosition(mInput.position() + numBytes);
+    }
+}
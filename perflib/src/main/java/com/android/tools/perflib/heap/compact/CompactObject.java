@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.perflib.heap.compact;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.tools.perflib.captures.DataBuffer;
+import com.android.tools.perflib.heap.ClassInstance;
+import com.android.tools.perflib.heap.Field;
+import com.android.tools.perflib.heap.Type;
+import com.google.common.primitives.UnsignedBytes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A view of an instance or array of a {@link CompactSnapshot}. The record header is decoded when
+ * the view is created, values are decoded from the buffer each time they are requested.
+ *
+ * <p>Views are not cached: two lookups of the same id return equal but distinct objects.
+ */
+public final class CompactObject {
+
+    public enum Kind {
+        CLASS_INSTANCE,
+        OBJECT_ARRAY,
+        PRIMITIVE_ARRAY
+    }
+
+    @NonNull private final CompactSnapshot mSnapshot;
+    private final long mId;
+    private final long mOffset;
+    @NonNull private final Kind mKind;
+    private final long mClassId;
+    @Nullable private final Type mArrayType;
+    private final int mLength;
+    private final long mValuesOffset;
+
+    CompactObject(@NonNull CompactSnapshot snapshot, long id, long offset) {
+        mSnapshot = snapshot;
+        mId = id;
+        mOffset = offset;
+
+        DataBuffer buffer = snapshot.getBuffer();
+        buffer.setPosition(offset);
+        int tag = UnsignedBytes.toInt(buffer.readByte());
+        snapshot.readId(); // Object id.
+        buffer.readInt(); // Ignored: stack trace serial number.
+        switch (tag) {
+            case CompactHprofIndexer.INSTANCE_DUMP:
+                mKind = Kind.CLASS_INSTANCE;
+                mClassId = snapshot.readId();
+                buffer.readInt(); // Ignored: number of bytes of values.
+                mArrayType = null;
+                mLength = 0;
+                break;
+            case CompactHprofIndexer.OBJECT_ARRAY_DUMP:
+                mKind = Kind.OBJECT_ARRAY;
+                mLength = buffer.readInt();
+                mClassId = snapshot.readId();
+                mArrayType = Type.OBJECT;
+                break;
+            case CompactHprofIndexer.PRIMITIVE_ARRAY_DUMP:
+                mKind = Kind.PRIMITIVE_ARRAY;
+                mLength = buffer.readInt();
+                mArrayType = Type.getType(UnsignedBytes.toInt(buffer.readByte()));
+                mClassId = 0;
+                break;
+            default:
+                throw new IllegalStateException(
+                        String.format(Locale.US, "Unexpected tag 0x%x at %d", tag, offset));
+        }
+        mValuesOffset = buffer.position();
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    @NonNull
+    public Kind getKind() {
+        return mKind;
+    }
+
+    /** Returns the class id, or 0 for primitive arrays which have no class dump. */
+    public long getClassId() {
+        return mClassId;
+    }
+
+    @Nullable
+    public CompactClass getClassObj() {
+        return mSnapshot.findClass(mClassId);
+    }
+
+    @NonNull
+    public String getClassName() {
+        if (mKind == Kind.PRIMITIVE_ARRAY) {
+            return mArrayType.getClassNameOfPrimitiveArray(false);
+        }
+        CompactClass classObj = getClassObj();
+        return classObj == null ? "unknown" : classObj.getClassName();
+    }
+
+    /** Returns the type of the elements of arrays, or null for class instances. */
+    @Nullable
+    public Type getArrayType() {
+        return mArrayType;
+    }
+
+    /** Returns the number of elements of arrays, or 0 for class instances. */
+    public int getLength() {
+        return mLength;
+    }
+
+    /** Returns the shallow size of the object. */
+    public int getSize() {
+        if (mKind == Kind.CLASS_INSTANCE) {
+            CompactClass classObj = getClassObj();
+            return classObj == null ? 0 : classObj.getInstanceSize();
+        }
+        return mLength * mSnapshot.getTypeSize(mArrayType);
+    }
+
+    @NonNull
+    public String getHeapName() {
+        return mSnapshot.getHeapName(mSnapshot.getHeapIdAt(mOffset));
+    }
+
+    /**
+     * Decodes the field values of a class instance, from the class to its super classes (like
+     * {@link ClassInstance#getValues()}). References are returned as Long ids.
+     */
+    @NonNull
+    public List<ClassInstance.FieldValue> getFieldValues() {
+        List<ClassInstance.FieldValue> values = new ArrayList<>();
+        if (mKind != Kind.CLASS_INSTANCE) {
+            return values;
+        }
+        mSnapshot.getBuffer().setPosition(mValuesOffset);
+        for (CompactClass c = getClassObj(); c != null; c = mSnapshot.getSuperClass(c)) {
+            for (Field field : c.getFields()) {
+                values.add(new ClassInstance.FieldValue(field, mSnapshot.readValue(field.getType())));
+            }
+        }
+        return values;
+    }
+
+    /** Decodes the elements of an array. References are returned as Long ids. */
+    @NonNull
+    public Object[] getArrayValues() {
+        if (mKind == Kind.CLASS_INSTANCE) {
+            return new Object[0];
+        }
+        Object[] values = new Object[mLength];
+        mSnapshot.getBuffer().setPosition(mValuesOffset);
+        for (int i = 0; i < mLength; i++) {
+            values[i] = mSnapshot.readValue(mArrayType);
+        }
+        return values;
+    }
+
+    /** Returns the ids of all non-null objects this object references. */
+    @NonNull
+    public long[] getReferences() {
+        long[] references = new long[8];
+        int count = 0;
+        DataBuffer buffer = mSnapshot.getBuffer();
+        buffer.setPosition(mValuesOffset);
+        if (mKind == Kind.OBJECT_ARRAY) {
+            references = new long[mLength];
+            for (int i = 0; i < mLength; i++) {
+                long id = mSnapshot.readId();
+                if (id != 0) {
+                    references[count++] = id;
+                }
+            }
+        } else if (mKind == Kind.CLASS_INSTANCE) {
+            for (CompactClass c = getClassObj(); c != null; c = mSnapshot.getSuperClass(c)) {
+                for (Field field : c.getFields()) {
+                    if (field.getType() != Type.OBJECT) {
+                        buffer.setPosition(
+                                buffer.position() + mSnapshot.getTypeSize(field.getType()));
+                        continue;
+                    }
+                    long id = mSnapshot.readId();
+                    if (id != 0) {
+                        if (count == references.length) {
+                            references = Arrays.copyOf(references, count * 2);
+                        }
+                        references[count++] = id;
+                    }
+                }
+            }
+        }
+        return count == references.length ? references : Arrays.copyOf(references, count);
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+        return o instanceof CompactObject
+                && ((CompactObject) o).mId == mId
+                && ((CompactObject) o).mSnapshot == mSnapshot;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(mId);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s@%d (0x%x)", getClassName(), mId, mId);
+    }
+}
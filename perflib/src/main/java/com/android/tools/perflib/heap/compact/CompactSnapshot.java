@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.perflib.heap.compact;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.tools.perflib.captures.DataBuffer;
+import com.android.tools.perflib.heap.ClassInstance;
+import com.android.tools.perflib.heap.Field;
+import com.android.tools.perflib.heap.RootType;
+import com.android.tools.perflib.heap.Type;
+import com.android.tools.proguard.ProguardMap;
+import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TLongObjectHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A heap snapshot which, unlike {@link com.android.tools.perflib.heap.Snapshot}, does not
+ * materialize instances on the Java heap.
+ *
+ * <p>Instances and arrays are only indexed by an (id, file offset) pair kept off-heap, sorted by
+ * id. {@link CompactObject}s are lightweight views created on demand, and their fields are decoded
+ * from the (usually memory mapped) buffer each time they are requested. This keeps the Java heap
+ * usage proportional to the number of classes rather than to the number of objects, so multi-GB
+ * dumps can be opened with a small heap.
+ *
+ * <p>Stack traces, threads, and reverse references are not kept. Reading objects moves the
+ * position of the underlying buffer, so a snapshot must not be used from several threads.
+ */
+public final class CompactSnapshot {
+
+    @NonNull private final DataBuffer mBuffer;
+    private final int mIdSize;
+    @NonNull private final LongPairArray mObjects;
+    @NonNull private final LongPairArray mRoots;
+    @NonNull private final HeapSegments mHeapSegments;
+
+    @NonNull private final TLongObjectHashMap<CompactClass> mClassesById =
+            new TLongObjectHashMap<>();
+    @NonNull private final Map<String, CompactClass> mClassesByName = new HashMap<>();
+    @NonNull private final List<CompactClass> mClasses = new ArrayList<>();
+    @NonNull private final TIntObjectHashMap<String> mHeapNames = new TIntObjectHashMap<>();
+
+    /** The heap each region of the file belongs to, as set by HEAP_DUMP_INFO records. */
+    static final class HeapSegments {
+        private long[] mStarts = new long[8];
+        private int[] mHeapIds = new int[8];
+        private int mSize;
+
+        void add(long start, int heapId) {
+            if (mSize == mStarts.length) {
+                mStarts = Arrays.copyOf(mStarts, mSize * 2);
+                mHeapIds = Arrays.copyOf(mHeapIds, mSize * 2);
+            }
+            mStarts[mSize] = start;
+            mHeapIds[mSize] = heapId;
+            mSize++;
+        }
+
+        int getHeapId(long position) {
+            int index = Arrays.binarySearch(mStarts, 0, mSize, position);
+            if (index < 0) {
+                index = -index - 2;
+            }
+            return index < 0 ? CompactHprofIndexer.DEFAULT_HEAP_ID : mHeapIds[index];
+        }
+    }
+
+    CompactSnapshot(
+            @NonNull DataBuffer buffer,
+            int idSize,
+            @NonNull LongPairArray objects,
+            @NonNull LongPairArray roots,
+            @NonNull HeapSegments heapSegments) {
+        mBuffer = buffer;
+        mIdSize = idSize;
+        mObjects = objects;
+        mRoots = roots;
+        mHeapSegments = heapSegments;
+        mHeapNames.put(CompactHprofIndexer.DEFAULT_HEAP_ID, "default");
+    }
+
+    @NonNull
+    public static CompactSnapshot createSnapshot(@NonNull DataBuffer buffer) {
+        return createSnapshot(buffer, new ProguardMap());
+    }
+
+    @NonNull
+    public static CompactSnapshot createSnapshot(
+            @NonNull DataBuffer buffer, @NonNull ProguardMap map) {
+        try {
+            return CompactHprofIndexer.index(buffer, map);
+        } catch (RuntimeException e) {
+            buffer.dispose();
+            throw e;
+        }
+    }
+
+    /** Releases the off-heap index and the buffer. */
+    public void dispose() {
+        mObjects.dispose();
+        mRoots.dispose();
+        mBuffer.dispose();
+    }
+
+    void addClass(@NonNull CompactClass compactClass) {
+        mClasses.add(compactClass);
+        mClassesById.put(compactClass.getId(), compactClass);
+        mClassesByName.putIfAbsent(compactClass.getClassName(), compactClass);
+    }
+
+    void addHeapName(int heapId, @NonNull String name) {
+        mHeapNames.put(heapId, name);
+    }
+
+    public int getIdSize() {
+        return mIdSize;
+    }
+
+    /** Returns the number of instances and arrays (classes excluded). */
+    public int getObjectCount() {
+        return mObjects.size();
+    }
+
+    /** Returns the object at the given index, objects being ordered by id. */
+    @NonNull
+    public CompactObject getObject(int index) {
+        return new CompactObject(this, mObjects.getKey(index), mObjects.getValue(index));
+    }
+
+    @Nullable
+    public CompactObject findObject(long id) {
+        int index = mObjects.indexOfKey(id);
+        return index < 0 ? null : getObject(index);
+    }
+
+    @Nullable
+    public CompactClass findClass(long id) {
+        return mClassesById.get(id);
+    }
+
+    /** Finds the first class with the given name. */
+    @Nullable
+    public CompactClass findClass(@NonNull String name) {
+        return mClassesByName.get(name);
+    }
+
+    @NonNull
+    public Collection<CompactClass> getClasses() {
+        return Collections.unmodifiableList(mClasses);
+    }
+
+    @Nullable
+    public CompactClass getSuperClass(@NonNull CompactClass compactClass) {
+        return findClass(compactClass.getSuperClassId());
+    }
+
+    @NonNull
+    public String getHeapName(@NonNull CompactClass compactClass) {
+        return getHeapName(compactClass.getHeapId());
+    }
+
+    @NonNull
+    String getHeapName(int heapId) {
+        String name = mHeapNames.get(heapId);
+        return name == null ? "unknown" : name;
+    }
+
+    int getHeapIdAt(long offset) {
+        return mHeapSegments.getHeapId(offset);
+    }
+
+    public int getGcRootCount() {
+        return mRoots.size();
+    }
+
+    public long getGcRootId(int index) {
+        return mRoots.getKey(index);
+    }
+
+    @NonNull
+    public RootType getGcRootType(int index) {
+        return RootType.values()[(int) mRoots.getValue(index)];
+    }
+
+    /** Decodes the static field values of a class. References are returned as Long ids. */
+    @NonNull
+    public List<ClassInstance.FieldValue> getStaticValues(@NonNull CompactClass compactClass) {
+        Field[] fields = compactClass.getStaticFields();
+        List<ClassInstance.FieldValue> values = new ArrayList<>(fields.length);
+        mBuffer.setPosition(compactClass.getStaticValuesOffset());
+        for (Field field : fields) {
+            readId(); // Name, already decoded.
+            mBuffer.readByte(); // Type, already decoded.
+            values.add(new ClassInstance.FieldValue(field, readValue(field.getType())));
+        }
+        return values;
+    }
+
+    @NonNull
+    DataBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    int getTypeSize(@NonNull Type type) {
+        return type == Type.OBJECT ? mIdSize : type.getSize();
+    }
+
+    long readId() {
+        return readId(mBuffer, mIdSize);
+    }
+
+    static long readId(@NonNull DataBuffer buffer, int idSize) {
+        // As long as we don't interpret IDs, reading signed values here is fine.
+        switch (idSize) {
+            case 1:
+                return buffer.readByte();
+            case 2:
+                return buffer.readShort();
+            case 4:
+                return buffer.readInt();
+            case 8:
+                return buffer.readLong();
+            default:
+                throw new IllegalArgumentException("ID Length must be 1, 2, 4, or 8");
+        }
+    }
+
+    /** Reads a value at the current position. Null references are null, others are Long ids. */
+    @Nullable
+    Object readValue(@NonNull Type type) {
+        switch (type) {
+            case OBJECT:
+                long id = readId();
+                return id == 0 ? null : id;
+            case BOOLEAN:
+                return mBuffer.readByte() != 0;
+            case CHAR:
+                return mBuffer.readChar();
+            case FLOAT:
+                return mBuffer.readFloat();
+            case DOUBLE:
+                return mBuffer.readDouble();
+            case BYTE:
+                return mBuffer.readByte();
+            case SHORT:
+                return mBuffer.readShort();
+            case INT:
+                return mBuffer.readInt();
+            case LONG:
+                return mBuffer.readLong();
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.perflib.heap.compact;
+
+import com.android.annotations.NonNull;
+import com.android.ddmlib.ByteBufferUtil;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A growable array of (key, value) long pairs stored outside of the Java heap, in fixed size
+ * direct buffer chunks. Once sorted by key, it serves as a primitive long to long map with
+ * O(log n) lookups and 16 bytes per entry, without any per-entry object.
+ *
+ * <p>Not thread-safe.
+ */
+final class LongPairArray {
+
+    // 1M pairs (16MiB) per chunk.
+    private static final int CHUNK_SHIFT = 20;
+    private static final int CHUNK_PAIRS = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_PAIRS - 1;
+
+    // Below this size, ranges are sorted with an insertion sort.
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    @NonNull private final List<ByteBuffer> mBuffers = new ArrayList<>();
+    @NonNull private final List<LongBuffer> mChunks = new ArrayList<>();
+
+    private int mSize;
+
+    int size() {
+        return mSize;
+    }
+
+    void add(long key, long value) {
+        int chunk = mSize >>> CHUNK_SHIFT;
+        if (chunk == mChunks.size()) {
+            ByteBuffer buffer =
+                    ByteBuffer.allocateDirect(CHUNK_PAIRS * 2 * Long.BYTES)
+                            .order(ByteOrder.nativeOrder());
+            mBuffers.add(buffer);
+            mChunks.add(buffer.asLongBuffer());
+        }
+        set(mSize++, key, value);
+    }
+
+    long getKey(int index) {
+        return mChunks.get(index >>> CHUNK_SHIFT).get((index & CHUNK_MASK) << 1);
+    }
+
+    long getValue(int index) {
+        return mChunks.get(index >>> CHUNK_SHIFT).get(((index & CHUNK_MASK) << 1) + 1);
+    }
+
+    private void set(int index, long key, long value) {
+        LongBuffer chunk = mChunks.get(index >>> CHUNK_SHIFT);
+        int position = (index & CHUNK_MASK) << 1;
+        chunk.put(position, key);
+        chunk.put(position + 1, value);
+    }
+
+    private void swap(int i, int j) {
+        long key = getKey(i);
+        long value = getValue(i);
+        set(i, getKey(j), getValue(j));
+        set(j, key, value);
+    }
+
+    /**
+     * Returns the index of the pair with the given key, or -1. The array must have been sorted
+     * with {@link #sortByKey()}.
+     */
+    int indexOfKey(long key) {
+        int low = 0;
+        int high = mSize - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midKey = getKey(mid);
+            if (midKey < key) {
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Sorts the pairs by key. Pairs with equal keys end up in an unspecified order. */
+    void sortByKey() {
+        if (isSorted()) {
+            // Heap dumps are usually written in increasing address order.
+            return;
+        }
+        // Iterative quicksort. The smaller partition is always processed first so the stack of
+        // pending (larger) ranges stays logarithmic.
+        int[] stack = new int[128];
+        int top = 0;
+        int low = 0;
+        int high = mSize - 1;
+        while (true) {
+            while (high - low > INSERTION_SORT_THRESHOLD) {
+                int pivot = partition(low, high);
+                if (pivot - low < high - pivot) {
+                    stack[top++] = pivot + 1;
+                    stack[top++] = high;
+                    high = pivot - 1;
+                } else {
+                    stack[top++] = low;
+                    stack[top++] = pivot - 1;
+                    low = pivot + 1;
+                }
+            }
+            insertionSort(low, high);
+            if (top == 0) {
+                return;
+            }
+            high = stack[--top];
+            low = stack[--top];
+        }
+    }
+
+    private boolean isSorted() {
+        for (int i = 1; i < mSize; i++) {
+            if (getKey(i - 1) > getKey(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int partition(int low, int high) {
+        // Median of three, moved to high.
+        int mid = (low + high) >>> 1;
+        if (getKey(mid) < getKey(low)) {
+            swap(mid, low);
+        }
+        if (getKey(high) < getKey(low)) {
+            swap(high, low);
+        }
+        if (getKey(mid) < getKey(high)) {
+            swap(mid, high);
+        }
+        long pivot = getKey(high);
+        int store = low;
+        for (int i = low; i < high; i++) {
+            if (getKey(i) < pivot) {
+                swap(i, store++);
+            }
+        }
+        swap(store, high);
+        return store;
+    }
+
+    private void insertionSort(int low, int high) {
+        for (int i = low + 1; i <= high; i++) {
+            long key = getKey(i);
+            long value = getValue(i);
+            int j = i - 1;
+            while (j >= low && getKey(j) > key) {
+                set(j + 1, getKey(j), getValue(j));
+                j--;
+            }
+            set(j + 1, key, value);
+        }
+    }
+
+    /** Releases the off-heap memory. The array must not be used afterwards. */
+    void dispose() {
+        for (ByteBuffer buffer : mBuffers) {
+            ByteBufferUtil.cleanBuffer(buffer);
+        }
+        mBuffers.clear();
+        mChunks.clear();
+        mSize = 0;
+    }
+}
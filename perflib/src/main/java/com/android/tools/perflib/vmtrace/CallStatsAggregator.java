@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.perflib.vmtrace;
+
+import com.android.annotations.NonNull;
+import com.android.utils.SparseArray;
+import com.google.common.primitives.UnsignedInts;
+import gnu.trove.TLongArrayList;
+import gnu.trove.TLongIntHashMap;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Stack;
+
+/**
+ * Computes the same per method statistics as {@link CallStackReconstructor} followed by a walk of
+ * the {@link Call} trees, but keeping only the current call stack of each thread: each call is
+ * accounted for in {@link MethodProfileData.Builder}s when it exits.
+ *
+ * <p>{@link CallStackReconstructor} re-parents the calls seen so far when a thread exits a method
+ * entered before tracing started. Since calls are not kept here, such methods are found by a first
+ * pass over the method actions ({@link #prescanAction}), and their calls are put on the stack
+ * before the second pass ({@link #addAction}) starts.
+ */
+class CallStatsAggregator {
+
+    /** Per thread state. */
+    private static final class ThreadState {
+        // Pre-scan: methods entered before tracing started, innermost first, and their entry
+        // times as guessed by CallStackReconstructor.
+        int prescanDepth;
+        boolean prescanSawAction;
+        int firstEntryThreadTime;
+        int firstEntryGlobalTime;
+        final TLongArrayList preEnteredMethods = new TLongArrayList();
+        int[] preEnteredThreadTimes = new int[4];
+        int[] preEnteredGlobalTimes = new int[4];
+
+        // Current call stack.
+        boolean started;
+        int size;
+        long[] methods = new long[16];
+        int[] entryThreadTimes = new int[16];
+        int[] entryGlobalTimes = new int[16];
+        long[] calleeThreadTimes = new long[16];
+        long[] calleeGlobalTimes = new long[16];
+        int[] lastCalleeExitThreadTimes = new int[16];
+        int[] lastCalleeExitGlobalTimes = new int[16];
+        boolean[] hasCallees = new boolean[16];
+        boolean[] recursive = new boolean[16];
+        final TLongIntHashMap methodsOnStack = new TLongIntHashMap();
+
+        // The calls at the top level, which are the callees of the thread's top level call.
+        boolean hasTopLevelCalls;
+        int firstTopLevelEntryThreadTime;
+        int firstTopLevelEntryGlobalTime;
+        int lastTopLevelExitThreadTime;
+        int lastTopLevelExitGlobalTime;
+        long topLevelThreadTime;
+        long topLevelGlobalTime;
+
+        void grow() {
+            int capacity = methods.length * 2;
+            methods = Arrays.copyOf(methods, capacity);
+            entryThreadTimes = Arrays.copyOf(entryThreadTimes, capacity);
+            entryGlobalTimes = Arrays.copyOf(entryGlobalTimes, capacity);
+            calleeThreadTimes = Arrays.copyOf(calleeThreadTimes, capacity);
+            calleeGlobalTimes = Arrays.copyOf(calleeGlobalTimes, capacity);
+            lastCalleeExitThreadTimes = Arrays.copyOf(lastCalleeExitThreadTimes, capacity);
+            lastCalleeExitGlobalTimes = Arrays.copyOf(lastCalleeExitGlobalTimes, capacity);
+            hasCallees = Arrays.copyOf(hasCallees, capacity);
+            recursive = Arrays.copyOf(recursive, capacity);
+        }
+    }
+
+    private final SparseArray<ThreadState> mThreads = new SparseArray<ThreadState>(10);
+
+    /** Maps method ids to their corresponding method data builders */
+    private final Map<Long, MethodProfileData.Builder> mBuilders =
+            new HashMap<Long, MethodProfileData.Builder>();
+
+    /** Records the methods that a thread exits without having entered them. */
+    void prescanAction(int threadId, long methodId, TraceAction action, int threadTime,
+            int globalTime) {
+        ThreadState thread = getThread(threadId);
+        if (action == TraceAction.METHOD_ENTER) {
+            if (!thread.prescanSawAction) {
+                thread.firstEntryThreadTime = threadTime;
+                thread.firstEntryGlobalTime = globalTime;
+            }
+            thread.prescanDepth++;
+        } else if (thread.prescanDepth > 0) {
+            thread.prescanDepth--;
+        } else {
+            // Same guesses as CallStackReconstructor: just before the first callee if any, else
+            // just before the exit.
+            int entryThreadTime;
+            int entryGlobalTime;
+            int count = thread.preEnteredMethods.size();
+            if (count > 0) {
+                entryThreadTime = Math.max(thread.preEnteredThreadTimes[count - 1] - 1, 0);
+                entryGlobalTime = Math.max(thread.preEnteredGlobalTimes[count - 1] - 1, 0);
+            } else if (thread.prescanSawAction) {
+                entryThreadTime = Math.max(thread.firstEntryThreadTime - 1, 0);
+                entryGlobalTime = Math.max(thread.firstEntryGlobalTime - 1, 0);
+            } else {
+                entryThreadTime = threadTime - 1;
+                entryGlobalTime = globalTime - 1;
+            }
+            if (count == thread.preEnteredThreadTimes.length) {
+                thread.preEnteredThreadTimes = Arrays.copyOf(thread.preEnteredThreadTimes, count * 2);
+                thread.preEnteredGlobalTimes = Arrays.copyOf(thread.preEnteredGlobalTimes, count * 2);
+            }
+            thread.preEnteredMethods.add(methodId);
+            thread.preEnteredThreadTimes[count] = entryThreadTime;
+            thread.preEnteredGlobalTimes[count] = entryGlobalTime;
+        }
+        thread.prescanSawAction = true;
+    }
+
+    void addAction(int threadId, long topLevelMethodId, long methodId, TraceAction action,
+            int threadTime, int globalTime) {
+        ThreadState thread = getThread(threadId);
+        if (!thread.started) {
+            thread.started = true;
+            for (int i = thread.preEnteredMethods.size() - 1; i >= 0; i--) {
+                push(thread, thread.preEnteredMethods.get(i), thread.preEnteredThreadTimes[i],
+                        thread.preEnteredGlobalTimes[i]);
+            }
+        }
+
+        if (action == TraceAction.METHOD_ENTER) {
+            push(thread, methodId, threadTime, globalTime);
+            return;
+        }
+        if (thread.size == 0) {
+            throw new IllegalStateException(String.format(
+                    "Exit from method 0x%1$x which was not found while pre-scanning", methodId));
+        }
+        long current = thread.methods[thread.size - 1];
+        if (current != methodId) {
+            String msg = String.format(
+                    "Error during call stack reconstruction. Attempt to exit from method 0x%1$x while in method 0x%2$x",
+                    current, methodId);
+            throw new RuntimeException(msg);
+        }
+        pop(threadId, thread, topLevelMethodId, threadTime, globalTime);
+    }
+
+    /**
+     * Exits the calls still on the stack of each thread, accounts for the top level calls, and
+     * returns the top level call of each thread. These calls have no callees.
+     */
+    @NonNull
+    SparseArray<Call> finish(@NonNull SparseArray<Long> topLevelMethodIds) {
+        SparseArray<Call> topLevelCalls = new SparseArray<Call>(mThreads.size());
+        for (int i = 0; i < mThreads.size(); i++) {
+            int threadId = mThreads.keyAt(i);
+            ThreadState thread = mThreads.valueAt(i);
+            Long topLevelMethodId = topLevelMethodIds.get(threadId);
+            if (topLevelMethodId == null) {
+                continue;
+            }
+
+            // The trace doesn't have exit actions for these calls: like CallStackReconstructor,
+            // assume each one ran until 1 unit of time after its last callee exited.
+            while (thread.size > 0) {
+                int top = thread.size - 1;
+                int exitThreadTime;
+                int exitGlobalTime;
+                if (thread.hasCallees[top]) {
+                    exitThreadTime = thread.lastCalleeExitThreadTimes[top] + 1;
+                    exitGlobalTime = thread.lastCalleeExitGlobalTimes[top] + 1;
+                } else {
+                    exitThreadTime = thread.entryThreadTimes[top] + 1;
+                    exitGlobalTime = thread.entryGlobalTimes[top] + 1;
+                }
+                pop(threadId, thread, topLevelMethodId, exitThreadTime, exitGlobalTime);
+            }
+
+            int entryThreadTime = 0;
+            int entryGlobalTime = 0;
+            int exitThreadTime = 1;
+            int exitGlobalTime = 1;
+            if (thread.hasTopLevelCalls) {
+                entryThreadTime = Math.max(thread.firstTopLevelEntryThreadTime - 1, 0);
+                entryGlobalTime = Math.max(thread.firstTopLevelEntryGlobalTime - 1, 0);
+                exitThreadTime = thread.lastTopLevelExitThreadTime + 1;
+                exitGlobalTime = thread.lastTopLevelExitGlobalTime + 1;
+            }
+            long inclusiveThreadTime = UnsignedInts.toLong(exitThreadTime - entryThreadTime);
+            long inclusiveGlobalTime = UnsignedInts.toLong(exitGlobalTime - entryGlobalTime);
+            getBuilder(topLevelMethodId).addCall(threadId, null, false,
+                    inclusiveThreadTime, inclusiveGlobalTime,
+                    inclusiveThreadTime - thread.topLevelThreadTime,
+                    inclusiveGlobalTime - thread.topLevelGlobalTime);
+
+            Call.Builder builder = new Call.Builder(topLevelMethodId);
+            builder.setMethodEntryTime(entryThreadTime, entryGlobalTime);
+            builder.setMethodExitTime(exitThreadTime, exitGlobalTime);
+            topLevelCalls.put(threadId, builder.build(new Stack<Long>()));
+        }
+        return topLevelCalls;
+    }
+
+    @NonNull
+    Map<Long, MethodProfileData.Builder> getBuilders() {
+        return mBuilders;
+    }
+
+    private static void push(@NonNull ThreadState thread, long methodId, int threadTime,
+            int globalTime) {
+        if (thread.size == thread.methods.length) {
+            thread.grow();
+        }
+        int index = thread.size++;
+        int onStack = thread.methodsOnStack.get(methodId);
+        thread.methodsOnStack.put(methodId, onStack + 1);
+        thread.methods[index] = methodId;
+        thread.entryThreadTimes[index] = threadTime;
+        thread.entryGlobalTimes[index] = globalTime;
+        thread.calleeThreadTimes[index] = 0;
+        thread.calleeGlobalTimes[index] = 0;
+        thread.hasCallees[index] = false;
+        thread.recursive[index] = onStack > 0;
+    }
+
+    private void pop(int threadId, @NonNull ThreadState thread, long topLevelMethodId,
+            int exitThreadTime, int exitGlobalTime) {
+        int index = --thread.size;
+        long methodId = thread.methods[index];
+        int onStack = thread.methodsOnStack.get(methodId);
+        if (onStack > 1) {
+            thread.methodsOnStack.put(methodId, onStack - 1);
+        } else {
+            thread.methodsOnStack.remove(methodId);
+        }
+
+        long inclusiveThreadTime =
+                UnsignedInts.toLong(exitThreadTime - thread.entryThreadTimes[index]);
+        long inclusiveGlobalTime =
+                UnsignedInts.toLong(exitGlobalTime - thread.entryGlobalTimes[index]);
+        boolean recursive = thread.recursive[index];
+        long callerId = index > 0 ? thread.methods[index - 1] : topLevelMethodId;
+        boolean callerRecursive = index > 0 && thread.recursive[index - 1];
+
+        getBuilder(methodId).addCall(threadId, callerId, recursive,
+                inclusiveThreadTime, inclusiveGlobalTime,
+                inclusiveThreadTime - thread.calleeThreadTimes[index],
+                inclusiveGlobalTime - thread.calleeGlobalTimes[index]);
+        getBuilder(callerId).addCallee(threadId, methodId, callerRecursive,
+                inclusiveThreadTime, inclusiveGlobalTime);
+
+        if (index > 0) {
+            int caller = index - 1;
+            thread.calleeThreadTimes[caller] += inclusiveThreadTime;
+            thread.calleeGlobalTimes[caller] += inclusiveGlobalTime;
+            thread.hasCallees[caller] = true;
+            thread.lastCalleeExitThreadTimes[caller] = exitThreadTime;
+            thread.lastCalleeExitGlobalTimes[caller] = exitGlobalTime;
+        } else {
+            if (!thread.hasTopLevelCalls) {
+                thread.hasTopLevelCalls = true;
+                thread.firstTopLevelEntryThreadTime = thread.entryThreadTimes[index];
+                thread.firstTopLevelEntryGlobalTime = thread.entryGlobalTimes[index];
+            }
+            thread.lastTopLevelExitThreadTime = exitThreadTime;
+            thread.lastTopLevelExitGlobalTime = exitGlobalTime;
+            thread.topLevelThreadTime += inclusiveThreadTime;
+            thread.topLevelGlobalTime += inclusiveGlobalTime;
+        }
+    }
+
+    @NonNull
+    private ThreadState getThread(int threadId) {
+        ThreadState thread = mThreads.get(threadId);
+        if (thread == null) {
+            thread = new ThreadState();
+            mThreads.put(threadId, thread);
+        }
+        return thread;
+    }
+
+    @NonNull
+    private MethodProfileData.Builder getBuilder(long methodId) {
+        MethodProfileData.Builder builder = mBuilders.get(methodId);
+        if (builder == null) {
+            builder = new MethodProfileData.Builder();
+            mBuilders.put(methodId, builder);
+        }
+        return builder;
+    }
+}
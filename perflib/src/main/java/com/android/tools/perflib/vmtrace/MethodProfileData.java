@@ -190,6 +190,82 @@ public class MethodProfileData {
             }
         }
 
+        /**
+         * Adds a call of this method given its times rather than its {@link Call}, for handlers
+         * which do not build call trees. Times are in {@link VmTraceData#getDefaultTimeUnits()}.
+         *
+         * @param callerId method id of the caller, or null for the top level call of a thread
+         * @param recursive whether the method is already on the call stack of the call
+         */
+        void addCall(
+                int threadId,
+                @Nullable Long callerId,
+                boolean recursive,
+                long inclusiveThreadTime,
+                long inclusiveGlobalTime,
+                long exclusiveThreadTime,
+                long exclusiveGlobalTime) {
+            addCall(
+                    getPerThreadStats(threadId),
+                    recursive,
+                    inclusiveThreadTime,
+                    inclusiveGlobalTime,
+                    exclusiveThreadTime,
+                    exclusiveGlobalTime);
+            if (callerId != null) {
+                addCall(
+                        getMethodStatsFromTable(threadId, callerId, mPerThreadStatsByCaller),
+                        recursive,
+                        inclusiveThreadTime,
+                        inclusiveGlobalTime,
+                        exclusiveThreadTime,
+                        exclusiveGlobalTime);
+            }
+            if (recursive) {
+                setRecursive();
+            }
+        }
+
+        private static void addCall(
+                MethodStats stats,
+                boolean recursive,
+                long inclusiveThreadTime,
+                long inclusiveGlobalTime,
+                long exclusiveThreadTime,
+                long exclusiveGlobalTime) {
+            stats.mInvocationCount++;
+            stats.mExclusiveThreadTime += toDataTimeUnits(exclusiveThreadTime);
+            stats.mExclusiveGlobalTime += toDataTimeUnits(exclusiveGlobalTime);
+            if (!recursive) {
+                stats.mInclusiveThreadTime += toDataTimeUnits(inclusiveThreadTime);
+                stats.mInclusiveGlobalTime += toDataTimeUnits(inclusiveGlobalTime);
+            }
+        }
+
+        /**
+         * Adds a call made by a call of this method, see {@link #addCall}.
+         *
+         * @param recursive whether the call of this method (the caller) was recursive
+         */
+        void addCallee(
+                int threadId,
+                long calleeId,
+                boolean recursive,
+                long inclusiveThreadTime,
+                long inclusiveGlobalTime) {
+            MethodStats stats =
+                    getMethodStatsFromTable(threadId, calleeId, mPerThreadStatsByCallee);
+            stats.mInvocationCount++;
+            if (!recursive) {
+                stats.mInclusiveThreadTime += toDataTimeUnits(inclusiveThreadTime);
+                stats.mInclusiveGlobalTime += toDataTimeUnits(inclusiveGlobalTime);
+            }
+        }
+
+        private static long toDataTimeUnits(long time) {
+            return DATA_TIME_UNITS.convert(time, VmTraceData.getDefaultTimeUnits());
+        }
+
         private void addInclusiveTime(MethodStats stats, long time, ClockType type) {
             if (type == ClockType.THREAD) {
                 stats.mInclusiveThreadTime += time;
@@ -207,10 +283,14 @@ public class MethodProfileData {
         }
 
         private MethodStats getPerThreadStats(ThreadInfo thread) {
-            MethodStats stats = mPerThreadCumulativeStats.get(thread.getId());
+            return getPerThreadStats(thread.getId());
+        }
+
+        private MethodStats getPerThreadStats(int threadId) {
+            MethodStats stats = mPerThreadCumulativeStats.get(threadId);
             if (stats == null) {
                 stats = new MethodStats();
-                mPerThreadCumulativeStats.put(thread.getId(), stats);
+                mPerThreadCumulativeStats.put(threadId, stats);
             }
             return stats;
         }
@@ -281,17 +281,7 @@ public class VmTraceData {
                 TraceAction methodAction,
                 int threadTime,
                 int globalTime) {
-            // create thread info if it doesn't exist
-            if (mThreads.get(threadId) == null) {
-                mThreads.put(threadId, String.format("Thread id: %1$d", threadId));
-            }
-
-            // create method info if it doesn't exist
-            if (mMethods.get(methodId) == null) {
-                MethodInfo info = new MethodInfo(methodId, "unknown", "unknown", "unknown",
-                        "unknown", -1);
-                mMethods.put(methodId, info);
-            }
+            addThreadAndMethodInfo(threadId, methodId);
 
             if (DEBUG) {
                 MethodInfo methodInfo = mMethods.get(methodId);
@@ -309,7 +299,21 @@ public class VmTraceData {
             reconstructor.addTraceAction(methodId, methodAction, threadTime, globalTime);
         }
 
-        private long createUniqueMethodIdForThread(int threadId) {
+        void addThreadAndMethodInfo(int threadId, long methodId) {
+            // create thread info if it doesn't exist
+            if (mThreads.get(threadId) == null) {
+                mThreads.put(threadId, String.format("Thread id: %1$d", threadId));
+            }
+
+            // create method info if it doesn't exist
+            if (mMethods.get(methodId) == null) {
+                MethodInfo info = new MethodInfo(methodId, "unknown", "unknown", "unknown",
+                        "unknown", -1);
+                mMethods.put(methodId, info);
+            }
+        }
+
+        long createUniqueMethodIdForThread(int threadId) {
             long id = Long.MAX_VALUE - threadId;
             assert mMethods.get(id) == null :
                     "Unexpected error while attempting to create a unique key - key already exists";
@@ -330,6 +334,10 @@ public class VmTraceData {
             return data;
         }
 
+        void setTopLevelCall(int threadId, Call call) {
+            mTopLevelCalls.put(threadId, call);
+        }
+
         @Override
         public void setStartTimeUs(long startTimeUs) {
             mStartTimeUs =  startTimeUs;
@@ -353,6 +361,64 @@ public class VmTraceData {
         }
     }
 
+    /**
+     * Builds a {@link VmTraceData} without keeping the {@link Call} trees: the statistics of each
+     * method are accumulated as calls exit, so memory usage depends on the number of methods and
+     * the depth of the call stacks rather than on the length of the trace.
+     *
+     * <p>The top level call of each thread has no callees, and {@link VmTraceData#searchFor} only finds
+     * methods. Call trees for parts of the trace can be obtained with {@link
+     * VmTraceParser#parseCallTree}.
+     */
+    public static class StreamingBuilder extends Builder implements TwoPassVmTraceHandler {
+        private final CallStatsAggregator mAggregator = new CallStatsAggregator();
+
+        /** Map from thread id to the method id of the top level call for that thread. */
+        private final SparseArray<Long> mTopLevelMethodIds = new SparseArray<Long>(10);
+
+        private boolean mSecondPass;
+
+        @Override
+        public void addMethodAction(
+                int threadId,
+                long methodId,
+                TraceAction methodAction,
+                int threadTime,
+                int globalTime) {
+            if (mSecondPass) {
+                mAggregator.addAction(threadId, mTopLevelMethodIds.get(threadId), methodId,
+                        methodAction, threadTime, globalTime);
+                return;
+            }
+
+            addThreadAndMethodInfo(threadId, methodId);
+            if (mTopLevelMethodIds.get(threadId) == null) {
+                mTopLevelMethodIds.put(threadId, createUniqueMethodIdForThread(threadId));
+            }
+            mAggregator.prescanAction(threadId, methodId, methodAction, threadTime, globalTime);
+        }
+
+        @Override
+        public void startSecondPass() {
+            mSecondPass = true;
+        }
+
+        @Override
+        public VmTraceData build() {
+            SparseArray<Call> topLevelCalls = mAggregator.finish(mTopLevelMethodIds);
+            for (int i = 0; i < topLevelCalls.size(); i++) {
+                setTopLevelCall(topLevelCalls.keyAt(i), topLevelCalls.valueAt(i));
+            }
+
+            VmTraceData data = new VmTraceData(this);
+            for (Map.Entry<Long, MethodProfileData.Builder> entry :
+                    mAggregator.getBuilders().entrySet()) {
+                data.getMethod(entry.getKey()).setProfileData(entry.getValue().build());
+            }
+            return data;
+        }
+    }
+
     private static class ProfileDataBuilder {
         /** Maps method ids to their corresponding method data builders */
         private final Map<Long, MethodProfileData.Builder> mBuilderMap = Maps.newHashMap();
@@ -17,6 +17,7 @@
 package com.android.tools.perflib.vmtrace;
 
 import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
 import com.android.annotations.VisibleForTesting;
 import com.android.ddmlib.ByteBufferUtil;
 import com.google.common.base.Charsets;
@@ -25,6 +26,7 @@ import com.google.common.primitives.UnsignedInts;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
 
 public class VmTraceParser {
     private static final int TRACE_MAGIC = 0x574f4c53; // 'SLOW'
@@ -65,6 +67,68 @@ public class VmTraceParser {
         parseData(buffer);
     }
 
+    /**
+     * Parses the calls of a thread between two points in time, e.g. to show the call tree of a
+     * selection of a trace loaded with a {@link VmTraceData.StreamingBuilder}. Calls which start
+     * before or end after the range are truncated to it.
+     *
+     * @return the top level call of the thread for the range, or null if the thread has no method
+     *     actions in the range
+     */
+    @Nullable
+    public static Call parseCallTree(
+            @NonNull File traceFile,
+            int threadId,
+            @NonNull ClockType clockType,
+            long startTime,
+            long endTime,
+            @NonNull TimeUnit unit)
+            throws IOException {
+        long start = VmTraceData.getDefaultTimeUnits().convert(startTime, unit);
+        long end = VmTraceData.getDefaultTimeUnits().convert(endTime, unit);
+        // Same id as the top level call created by VmTraceData.Builder.
+        CallStackReconstructor reconstructor = new CallStackReconstructor(Long.MAX_VALUE - threadId);
+        boolean[] found = new boolean[1];
+        VmTraceHandler handler =
+                new VmTraceHandler() {
+                    @Override
+                    public void setVersion(int version) {}
+
+                    @Override
+                    public void setProperty(String key, String value) {}
+
+                    @Override
+                    public void addThread(int id, String name) {}
+
+                    @Override
+                    public void addMethod(long id, MethodInfo info) {}
+
+                    @Override
+                    public void addMethodAction(
+                            int actionThreadId,
+                            long methodId,
+                            TraceAction methodAction,
+                            int threadTime,
+                            int globalTime) {
+                        if (actionThreadId != threadId) {
+                            return;
+                        }
+                        long time = UnsignedInts.toLong(
+                                clockType == ClockType.THREAD ? threadTime : globalTime);
+                        if (time >= start && time <= end) {
+                            reconstructor.addTraceAction(
+                                    methodId, methodAction, threadTime, globalTime);
+                            found[0] = true;
+                        }
+                    }
+
+                    @Override
+                    public void setStartTimeUs(long startTimeUs) {}
+                };
+        new VmTraceParser(traceFile, handler).parse();
+        return found[0] ? reconstructor.getTopLevel() : null;
+    }
+
     private static boolean isStreamingTrace(File file) throws IOException {
         BufferedReader in =
                 new BufferedReader(
@@ -245,6 +309,12 @@ public class VmTraceParser {
      */
     private void parseData(ByteBuffer buffer) {
         int recordSize = readDataFileHeader(buffer);
+        if (mTraceDataHandler instanceof TwoPassVmTraceHandler) {
+            int dataStart = buffer.position();
+            parseMethodTraceData(buffer, recordSize);
+            ((TwoPassVmTraceHandler) mTraceDataHandler).startSecondPass();
+            buffer.position(dataStart);
+        }
         parseMethodTraceData(buffer, recordSize);
     }
 
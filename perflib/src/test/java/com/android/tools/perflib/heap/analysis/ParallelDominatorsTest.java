@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.perflib.heap.analysis;
+
+import com.android.testutils.TestResources;
+import com.android.tools.perflib.captures.MemoryMappedFileBuffer;
+import com.android.tools.perflib.heap.ClassObj;
+import com.android.tools.perflib.heap.Snapshot;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import junit.framework.TestCase;
+
+public class ParallelDominatorsTest extends TestCase {
+
+    private ForkJoinPool mPool;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPool = new ForkJoinPool(4);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPool.shutdown();
+        super.tearDown();
+    }
+
+    public void testSimpleGraph() {
+        // 0 -> 1, 2; 1 -> 3, 5; 2 -> 3, 4; 3 -> 5
+        ReferenceGraph<Integer> graph =
+                graph(new int[][] {{1, 2}, {3, 5}, {3, 4}, {5}, {}, {}}, 0);
+        ComputationProgress progress = new ComputationProgress("", 0);
+        ParallelDominators dominators = new ParallelDominators(graph, mPool, progress);
+
+        int[] depths = dominators.computeDepths();
+        assertEquals(0, depths[index(graph, 0)]);
+        assertEquals(1, depths[index(graph, 1)]);
+        assertEquals(2, depths[index(graph, 3)]);
+        assertEquals(2, depths[index(graph, 5)]);
+        assertEquals(1.0, progress.getProgress());
+
+        int[] idoms = dominators.computeImmediateDominators();
+        assertEquals(ParallelDominators.NO_DOMINATOR, idoms[index(graph, 0)]);
+        assertEquals(index(graph, 0), idoms[index(graph, 3)]);
+        assertEquals(index(graph, 2), idoms[index(graph, 4)]);
+        assertEquals(index(graph, 0), idoms[index(graph, 5)]);
+        assertEquals("Computing dominators", progress.getMessage());
+
+        long[] sizes = new long[graph.getNodeCount()];
+        int[] heaps = new int[graph.getNodeCount()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = 1L << graph.getNode(i);
+            heaps[i] = graph.getNode(i) % 2;
+        }
+        long[][] retained = dominators.computeRetainedSizes(idoms, heaps, sizes, 2);
+        // Node 2 retains itself and node 4, node 0 retains everything.
+        assertEquals(4 + 16, retained[0][index(graph, 2)]);
+        assertEquals(0, retained[1][index(graph, 2)]);
+        assertEquals(1 + 4 + 16, retained[0][index(graph, 0)]);
+        assertEquals(2 + 8 + 32, retained[1][index(graph, 0)]);
+    }
+
+    public void testMultipleRootsAndCycles() {
+        // 0 -> 2; 1 -> 2; 2 -> 3; 3 -> 2, 4
+        ReferenceGraph<Integer> graph = graph(new int[][] {{2}, {2}, {3}, {2, 4}, {}}, 0, 1);
+        ParallelDominators dominators = new ParallelDominators(graph, mPool, null);
+
+        int[] idoms = dominators.computeImmediateDominators();
+        assertEquals(ParallelDominators.NO_DOMINATOR, idoms[index(graph, 0)]);
+        assertEquals(ParallelDominators.NO_DOMINATOR, idoms[index(graph, 1)]);
+        assertEquals(ParallelDominators.NO_DOMINATOR, idoms[index(graph, 2)]);
+        assertEquals(index(graph, 2), idoms[index(graph, 3)]);
+        assertEquals(index(graph, 3), idoms[index(graph, 4)]);
+    }
+
+    public void testMatchesLinkEvalDominators() {
+        Random random = new Random(42);
+        int nodeCount = 5000;
+        int[][] successors = new int[nodeCount][];
+        for (int i = 0; i < nodeCount; i++) {
+            successors[i] = new int[random.nextInt(4)];
+            for (int j = 0; j < successors[i].length; j++) {
+                successors[i][j] = random.nextInt(nodeCount);
+            }
+        }
+        ReferenceGraph<Integer> graph = graph(successors, 0, 1, 2, 3);
+        int[] idoms = new ParallelDominators(graph, mPool, null).computeImmediateDominators();
+
+        // Both implementations compare nodes by identity.
+        Integer[] nodes = nodes(nodeCount);
+        LinkEvalDominators.Result<Integer> expected =
+                LinkEvalDominators.INSTANCE.computeDominators(
+                        new LinkedHashSet<>(Arrays.asList(nodes[0], nodes[1], nodes[2], nodes[3])),
+                        node -> Arrays.stream(successors[node]).mapToObj(i -> nodes[i]));
+        assertEquals(graph.getNodeCount(), expected.getTopoOrder().size() - 1);
+        for (int i = 1; i < expected.getTopoOrder().size(); i++) {
+            Integer node = expected.getTopoOrder().get(i);
+            Integer dominator = expected.getImmediateDominator().get(i);
+            int actual = idoms[index(graph, node)];
+            if (dominator == null) {
+                assertEquals(ParallelDominators.NO_DOMINATOR, actual);
+            } else {
+                assertEquals(dominator, graph.getNode(actual));
+            }
+        }
+    }
+
+    public void testSampleHprof() throws Exception {
+        File file = TestResources.getFile(getClass(), "/dialer.android-hprof");
+        Snapshot snapshot = Snapshot.createSnapshot(new MemoryMappedFileBuffer(file));
+        ComputationProgress progress = new ComputationProgress("", 0);
+        snapshot.computeRetainedSizes(mPool, progress);
+        assertEquals("Computing retained sizes", progress.getMessage());
+        assertEquals(1.0, progress.getProgress());
+
+        assertEquals(42868, snapshot.getReachableInstances().size());
+
+        int appIndex = snapshot.getHeapIndex(snapshot.getHeap("app"));
+        int zygoteIndex = snapshot.getHeapIndex(snapshot.getHeap("zygote"));
+
+        ClassObj htmlParser = snapshot.findClass("android.text.Html$HtmlParser");
+        assertEquals(116492, htmlParser.getRetainedSize(zygoteIndex));
+        assertEquals(0, htmlParser.getRetainedSize(appIndex));
+
+        ClassObj activityThread = snapshot.findClass("android.app.ActivityThread");
+        assertEquals(853, activityThread.getRetainedSize(zygoteIndex));
+        assertEquals(576, activityThread.getRetainedSize(appIndex));
+
+        snapshot.dispose();
+    }
+
+    private static ReferenceGraph<Integer> graph(int[][] successors, int... roots) {
+        Integer[] nodes = nodes(successors.length);
+        List<Integer> rootNodes = new ArrayList<>();
+        for (int root : roots) {
+            rootNodes.add(nodes[root]);
+        }
+        return ReferenceGraph.build(
+                rootNodes,
+                node -> {
+                    List<Integer> next = new ArrayList<>();
+                    for (int successor : successors[node]) {
+                        next.add(nodes[successor]);
+                    }
+                    return next;
+                });
+    }
+
+    private static Integer[] nodes(int count) {
+        Integer[] nodes = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            nodes[i] = Integer.valueOf(i);
+        }
+        return nodes;
+    }
+
+    private static int index(ReferenceGraph<Integer> graph, int node) {
+        for (int i = 0; i < graph.getNodeCount(); i++) {
+            if (graph.getNode(i) == node) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.perflib.heap.compact;
+
+import com.android.testutils.TestResources;
+import com.android.tools.perflib.captures.MemoryMappedFileBuffer;
+import com.android.tools.perflib.heap.ArrayInstance;
+import com.android.tools.perflib.heap.ClassInstance;
+import com.android.tools.perflib.heap.ClassObj;
+import com.android.tools.perflib.heap.RootType;
+import com.android.tools.perflib.heap.Snapshot;
+import com.android.tools.perflib.heap.Type;
+import com.android.tools.perflib.heap.hprof.Hprof;
+import com.android.tools.perflib.heap.hprof.HprofClassDump;
+import com.android.tools.perflib.heap.hprof.HprofConstant;
+import com.android.tools.perflib.heap.hprof.HprofDumpRecord;
+import com.android.tools.perflib.heap.hprof.HprofHeapDump;
+import com.android.tools.perflib.heap.hprof.HprofHeapDumpInfo;
+import com.android.tools.perflib.heap.hprof.HprofInstanceDump;
+import com.android.tools.perflib.heap.hprof.HprofInstanceField;
+import com.android.tools.perflib.heap.hprof.HprofLoadClass;
+import com.android.tools.perflib.heap.hprof.HprofObjectArrayDump;
+import com.android.tools.perflib.heap.hprof.HprofPrimitiveArrayDump;
+import com.android.tools.perflib.heap.hprof.HprofRecord;
+import com.android.tools.perflib.heap.hprof.HprofRootUnknown;
+import com.android.tools.perflib.heap.hprof.HprofStaticField;
+import com.android.tools.perflib.heap.hprof.HprofStringBuilder;
+import com.android.tools.perflib.heap.hprof.HprofType;
+import com.android.tools.perflib.heap.io.InMemoryBuffer;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import junit.framework.TestCase;
+
+public class CompactSnapshotTest extends TestCase {
+
+    public void testSmallDump() throws IOException {
+        HprofStringBuilder strings = new HprofStringBuilder(0);
+        List<HprofRecord> records = new ArrayList<HprofRecord>();
+        List<HprofDumpRecord> dump = new ArrayList<HprofDumpRecord>();
+
+        records.add(new HprofLoadClass(0, 1, 0x10, 0, strings.get("Base")));
+        records.add(new HprofLoadClass(0, 2, 0x20, 0, strings.get("Derived")));
+        records.add(new HprofLoadClass(0, 3, 0x30, 0, strings.get("Derived[]")));
+
+        dump.add(new HprofHeapDumpInfo(0xA, strings.get("app")));
+        dump.add(
+                new HprofClassDump(
+                        0x10, 0, 0, 0, 0, 0, 0, 0, 4,
+                        new HprofConstant[0],
+                        new HprofStaticField[] {
+                            new HprofStaticField(strings.get("sCount"), HprofType.TYPE_INT, 7)
+                        },
+                        new HprofInstanceField[] {
+                            new HprofInstanceField(strings.get("base"), HprofType.TYPE_INT)
+                        }));
+        dump.add(
+                new HprofClassDump(
+                        0x20, 0, 0x10, 0, 0, 0, 0, 0, 10,
+                        new HprofConstant[0],
+                        new HprofStaticField[0],
+                        new HprofInstanceField[] {
+                            new HprofInstanceField(strings.get("next"), HprofType.TYPE_OBJECT),
+                            new HprofInstanceField(strings.get("flag"), HprofType.TYPE_SHORT)
+                        }));
+        dump.add(new HprofClassDump(0x30, 0, 0, 0, 0, 0, 0, 0, 0,
+                new HprofConstant[0], new HprofStaticField[0], new HprofInstanceField[0]));
+
+        // Written out of id order, to exercise sorting.
+        ByteArrayDataOutput values = ByteStreams.newDataOutput();
+        values.writeInt(0xB2); // Derived.next
+        values.writeShort(3); // Derived.flag
+        values.writeInt(42); // Base.base
+        dump.add(new HprofInstanceDump(0xB1, 0, 0x20, values.toByteArray()));
+        values = ByteStreams.newDataOutput();
+        values.writeInt(0);
+        values.writeShort(4);
+        values.writeInt(43);
+        dump.add(new HprofInstanceDump(0xB0, 0, 0x20, values.toByteArray()));
+        dump.add(new HprofObjectArrayDump(0xB3, 0, 0x30, new long[] {0xB0, 0, 0xB1}));
+        dump.add(new HprofPrimitiveArrayDump(0xB2, 0, HprofType.TYPE_CHAR,
+                new long[] {'a', 'b', 'c'}));
+        dump.add(new HprofRootUnknown(0xB3));
+        records.add(new HprofHeapDump(0, dump.toArray(new HprofDumpRecord[0])));
+
+        List<HprofRecord> actualRecords = new ArrayList<HprofRecord>();
+        actualRecords.addAll(strings.getStringRecords());
+        actualRecords.addAll(records);
+
+        Hprof hprof = new Hprof("JAVA PROFILE 1.0.3", 4, new Date(), actualRecords);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        hprof.write(os);
+        CompactSnapshot snapshot =
+                CompactSnapshot.createSnapshot(new InMemoryBuffer(os.toByteArray()));
+        try {
+            assertEquals(4, snapshot.getIdSize());
+            assertEquals(4, snapshot.getObjectCount());
+            assertEquals(0xB0, snapshot.getObject(0).getId());
+            assertEquals(0xB3, snapshot.getObject(3).getId());
+            assertNull(snapshot.findObject(0xB4));
+
+            CompactClass base = snapshot.findClass("Base");
+            CompactClass derived = snapshot.findClass(0x20);
+            assertNotNull(derived);
+            assertEquals("Derived", derived.getClassName());
+            assertEquals(base, snapshot.getSuperClass(derived));
+            assertEquals("app", snapshot.getHeapName(derived));
+
+            List<ClassInstance.FieldValue> statics = snapshot.getStaticValues(base);
+            assertEquals(1, statics.size());
+            assertEquals("sCount", statics.get(0).getField().getName());
+            assertEquals(7, statics.get(0).getValue());
+
+            CompactObject instance = snapshot.findObject(0xB1);
+            assertEquals(CompactObject.Kind.CLASS_INSTANCE, instance.getKind());
+            assertEquals(derived, instance.getClassObj());
+            assertEquals(10, instance.getSize());
+            assertEquals("app", instance.getHeapName());
+            List<ClassInstance.FieldValue> fields = instance.getFieldValues();
+            assertEquals(3, fields.size());
+            assertEquals("next", fields.get(0).getField().getName());
+            assertEquals(0xB2L, fields.get(0).getValue());
+            assertEquals((short) 3, fields.get(1).getValue());
+            assertEquals("base", fields.get(2).getField().getName());
+            assertEquals(42, fields.get(2).getValue());
+            assertEquals(1, instance.getReferences().length);
+            assertEquals(0xB2, instance.getReferences()[0]);
+
+            CompactObject nullNext = snapshot.findObject(0xB0);
+            assertNull(nullNext.getFieldValues().get(0).getValue());
+            assertEquals(0, nullNext.getReferences().length);
+
+            CompactObject array = snapshot.findObject(0xB3);
+            assertEquals(CompactObject.Kind.OBJECT_ARRAY, array.getKind());
+            assertEquals("Derived[]", array.getClassName());
+            assertEquals(3, array.getLength());
+            assertEquals(12, array.getSize());
+            assertEquals(0xB0L, array.getArrayValues()[0]);
+            assertNull(array.getArrayValues()[1]);
+            assertEquals(2, array.getReferences().length);
+
+            CompactObject chars = snapshot.findObject(0xB2);
+            assertEquals(CompactObject.Kind.PRIMITIVE_ARRAY, chars.getKind());
+            assertEquals(Type.CHAR, chars.getArrayType());
+            assertEquals("char[]", chars.getClassName());
+            assertEquals(6, chars.getSize());
+            assertEquals('b', chars.getArrayValues()[1]);
+
+            assertEquals(1, snapshot.getGcRootCount());
+            assertEquals(0xB3, snapshot.getGcRootId(0));
+            assertEquals(RootType.UNKNOWN, snapshot.getGcRootType(0));
+        } finally {
+            snapshot.dispose();
+        }
+    }
+
+    public void testMatchesSnapshot() throws IOException {
+        File file = TestResources.getFile(getClass(), "/dialer.android-hprof");
+        Snapshot snapshot = Snapshot.createSnapshot(new MemoryMappedFileBuffer(file));
+        CompactSnapshot compact = CompactSnapshot.createSnapshot(new MemoryMappedFileBuffer(file));
+        try {
+            CompactClass application = compact.findClass("android.app.Application");
+            assertNotNull(application);
+            CompactClass contextWrapper = compact.getSuperClass(application);
+            assertEquals("android.content.ContextWrapper", contextWrapper.getClassName());
+            CompactClass context = compact.getSuperClass(contextWrapper);
+            assertEquals("android.content.Context", context.getClassName());
+            CompactClass object = compact.getSuperClass(context);
+            assertEquals("java.lang.Object", object.getClassName());
+            assertNull(compact.getSuperClass(object));
+
+            CompactObject byteArray = compact.findObject(0xB0D60401);
+            ArrayInstance expectedByteArray = (ArrayInstance) snapshot.findInstance(0xB0D60401);
+            assertEquals(43224, byteArray.getSize());
+            assertEquals(expectedByteArray.getSize(), byteArray.getSize());
+            assertEquals(expectedByteArray.getHeap().getName(), byteArray.getHeapName());
+
+            CompactObject intArrayArray = compact.findObject(0xB0F69F58);
+            assertEquals("int[][]", intArrayArray.getClassName());
+            assertEquals(40, intArrayArray.getSize());
+
+            CompactClass threadState = compact.findClass("java.lang.Thread$State");
+            ClassObj expectedThreadState = snapshot.findClass("java.lang.Thread$State");
+            assertEquals(expectedThreadState.getId(), threadState.getId());
+            Object values = null;
+            for (ClassInstance.FieldValue value : compact.getStaticValues(threadState)) {
+                if (value.getField().getName().equals("$VALUES")) {
+                    values = value.getValue();
+                }
+            }
+            assertNotNull(values);
+            CompactObject valuesArray = compact.findObject((Long) values);
+            assertEquals(6, valuesArray.getLength());
+            for (Object value : valuesArray.getArrayValues()) {
+                assertEquals(threadState, compact.findObject((Long) value).getClassObj());
+            }
+        } finally {
+            compact.dispose();
+            snapshot.dispose();
+        }
+    }
+}
@@ -391,6 +391,88 @@ public class VmTraceParserTest extends TestCase {
         doTestMethodProfilingData(traceData, okHttp);
     }
 
+    public void testStreamingBuilder() throws IOException {
+        validateStreamingBuilder("/basic.trace");
+        validateStreamingBuilder("/mismatched.trace");
+        validateStreamingBuilder("/exception.trace");
+        validateStreamingBuilder("/streaming.trace");
+    }
+
+    private void validateStreamingBuilder(String traceName) throws IOException {
+        VmTraceData expected = getVmTraceData(traceName);
+        VmTraceData.StreamingBuilder dataBuilder = new VmTraceData.StreamingBuilder();
+        new VmTraceParser(getFile(traceName), dataBuilder).parse();
+        VmTraceData actual = dataBuilder.build();
+
+        assertEquals(expected.getMethods().keySet(), actual.getMethods().keySet());
+        for (ThreadInfo expectedThread : expected.getThreads()) {
+            ThreadInfo actualThread = actual.getThread(expectedThread.getName());
+            assertNotNull(actualThread);
+            Call expectedTop = expectedThread.getTopLevelCall();
+            Call actualTop = actualThread.getTopLevelCall();
+            if (expectedTop == null) {
+                assertNull(actualTop);
+                continue;
+            }
+            assertEquals(expectedTop.getMethodId(), actualTop.getMethodId());
+            assertEquals(expectedTop.getInclusiveTime(ClockType.GLOBAL, TimeUnit.NANOSECONDS),
+                    actualTop.getInclusiveTime(ClockType.GLOBAL, TimeUnit.NANOSECONDS));
+
+            for (Long methodId : expected.getMethods().keySet()) {
+                MethodProfileData e = expected.getMethod(methodId).getProfileData();
+                MethodProfileData a = actual.getMethod(methodId).getProfileData();
+                if (e == null) {
+                    assertNull(a);
+                    continue;
+                }
+                String msg = traceName + ": " + expected.getMethod(methodId).getFullName();
+                assertEquals(msg, e.isRecursive(), a.isRecursive());
+                assertEquals(msg, e.getInvocationCount(expectedThread),
+                        a.getInvocationCount(actualThread));
+                assertEquals(msg, e.getCallers(expectedThread), a.getCallers(actualThread));
+                assertEquals(msg, e.getCallees(expectedThread), a.getCallees(actualThread));
+                for (ClockType type : ClockType.values()) {
+                    assertEquals(msg,
+                            e.getInclusiveTime(expectedThread, type, TimeUnit.NANOSECONDS),
+                            a.getInclusiveTime(actualThread, type, TimeUnit.NANOSECONDS));
+                    assertEquals(msg,
+                            e.getExclusiveTime(expectedThread, type, TimeUnit.NANOSECONDS),
+                            a.getExclusiveTime(actualThread, type, TimeUnit.NANOSECONDS));
+                    for (Long caller : e.getCallers(expectedThread)) {
+                        assertEquals(msg,
+                                e.getInclusiveTimeByCaller(expectedThread, caller, type,
+                                        TimeUnit.NANOSECONDS),
+                                a.getInclusiveTimeByCaller(actualThread, caller, type,
+                                        TimeUnit.NANOSECONDS));
+                    }
+                    for (Long callee : e.getCallees(expectedThread)) {
+                        assertEquals(msg,
+                                e.getInclusiveTimeByCallee(expectedThread, callee, type,
+                                        TimeUnit.NANOSECONDS),
+                                a.getInclusiveTimeByCallee(actualThread, callee, type,
+                                        TimeUnit.NANOSECONDS));
+                    }
+                }
+            }
+        }
+    }
+
+    public void testParseCallTree() throws IOException {
+        VmTraceData traceData = getVmTraceData("/basic.trace");
+        ThreadInfo thread = traceData.getThread("AsyncTask #1");
+        Call top = thread.getTopLevelCall();
+
+        Call all = VmTraceParser.parseCallTree(getFile("/basic.trace"), thread.getId(),
+                ClockType.GLOBAL, 0, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        assertNotNull(all);
+        CallFormatter formatter = new CallFormatter(traceData.getMethods());
+        assertEquals(top.format(formatter), all.format(formatter));
+
+        // No such thread.
+        assertNull(VmTraceParser.parseCallTree(getFile("/basic.trace"), -1,
+                ClockType.GLOBAL, 0, Long.MAX_VALUE, TimeUnit.NANOSECONDS));
+    }
+
     private VmTraceData getVmTraceData(String traceFilePath) throws IOException {
         VmTraceData.Builder dataBuilder = new VmTraceData.Builder();
         VmTraceParser parser = new VmTraceParser(getFile(traceFilePath), dataBuilder);
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.signflinger;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Sidecar file storing what is needed to incrementally v2/v3 sign an APK produced by a previous
+ * SignedApk session: the chunk digests of its entries section and the signing block apksig
+ * generated for it.
+ *
+ * <p>The cache is only used if the APK on disk is exactly the one produced when the cache was
+ * written (same size and same signing block, CD, and EOCD) and the signer configuration did not
+ * change. Otherwise it is ignored and the APK is fully signed.
+ */
+class ChunkDigestCache {
+
+    private static final int MAGIC = 0x53464344; // SFCD
+    private static final int VERSION = 1;
+
+    private static final int MAX_FIELD_SIZE = 16 * 1024 * 1024;
+
+    private static final String FINGERPRINT_ALGORITHM = "SHA-256";
+
+    @NonNull final byte[] signingBlock;
+    @NonNull final Map<String, ChunkDigests> digests;
+
+    private ChunkDigestCache(
+            @NonNull byte[] signingBlock, @NonNull Map<String, ChunkDigests> digests) {
+        this.signingBlock = signingBlock;
+        this.digests = digests;
+    }
+
+    /**
+     * Loads the cache for an APK about to be opened. Returns null if there is no usable cache.
+     *
+     * @param signerFingerprint See {@link #signerFingerprint(SignedApkOptions)}.
+     */
+    @Nullable
+    static ChunkDigestCache load(
+            @NonNull File cacheFile, @NonNull File apk, @NonNull byte[] signerFingerprint) {
+        if (!cacheFile.isFile() || !apk.isFile()) {
+            return null;
+        }
+        try (DataInputStream in =
+                new DataInputStream(
+                        new BufferedInputStream(Files.newInputStream(cacheFile.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            if (!Arrays.equals(signerFingerprint, readBytes(in))) {
+                return null;
+            }
+            long apkSize = in.readLong();
+            long payloadSize = in.readLong();
+            byte[] tailDigest = readBytes(in);
+            if (apk.length() != apkSize
+                    || !Arrays.equals(tailDigest, digestTail(apk, payloadSize))) {
+                return null;
+            }
+
+            byte[] signingBlock = readBytes(in);
+            Map<String, ChunkDigests> digests = new TreeMap<>();
+            int numAlgorithms = in.readInt();
+            for (int i = 0; i < numAlgorithms; i++) {
+                ChunkDigests chunkDigests = ChunkDigests.read(in);
+                if (chunkDigests.getPayloadSize() != payloadSize) {
+                    return null;
+                }
+                digests.put(chunkDigests.getJcaAlgorithm(), chunkDigests);
+            }
+            return new ChunkDigestCache(signingBlock, digests);
+        } catch (IOException | RuntimeException e) {
+            // A corrupted cache is not an error, we just do a full signing.
+            return null;
+        }
+    }
+
+    /**
+     * Stores the state of a freshly signed APK.
+     *
+     * @param signingBlock The signing block generated by apksig (without the SDK dependencies
+     *     block, which is added at the end of each signing).
+     */
+    static void store(
+            @NonNull File cacheFile,
+            @NonNull File apk,
+            @NonNull byte[] signerFingerprint,
+            @NonNull byte[] signingBlock,
+            @NonNull Collection<ChunkDigests> digests)
+            throws IOException {
+        long payloadSize = digests.iterator().next().getPayloadSize();
+        try (DataOutputStream out =
+                new DataOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(cacheFile.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeBytes(out, signerFingerprint);
+            out.writeLong(apk.length());
+            out.writeLong(payloadSize);
+            writeBytes(out, digestTail(apk, payloadSize));
+            writeBytes(out, signingBlock);
+            out.writeInt(digests.size());
+            for (ChunkDigests chunkDigests : digests) {
+                chunkDigests.write(out);
+            }
+        }
+    }
+
+    /** Identifies everything in the options which ends up in the v2/v3 signing blocks. */
+    @NonNull
+    static byte[] signerFingerprint(@NonNull SignedApkOptions options) {
+        MessageDigest md = newMessageDigest();
+        try {
+            for (X509Certificate certificate : options.certificates) {
+                md.update(certificate.getEncoded());
+            }
+        } catch (CertificateEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        md.update(options.privateKey.getAlgorithm().getBytes());
+        ByteBuffer flags = ByteBuffer.allocate(6);
+        flags.put((byte) (options.v2Enabled ? 1 : 0));
+        flags.put((byte) (options.v3Enabled ? 1 : 0));
+        flags.putInt(options.minSdkVersion);
+        md.update(flags.array());
+        return md.digest();
+    }
+
+    // Digest of the signing block, CD, and EOCD.
+    @NonNull
+    private static byte[] digestTail(@NonNull File apk, long payloadSize) throws IOException {
+        MessageDigest md = newMessageDigest();
+        try (FileChannel channel = FileChannel.open(apk.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            long position = payloadSize;
+            int read;
+            while ((read = channel.read(buffer, position)) != -1) {
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
+                position += read;
+            }
+        }
+        return md.digest();
+    }
+
+    @NonNull
+    private static MessageDigest newMessageDigest() {
+        try {
+            return MessageDigest.getInstance(FINGERPRINT_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @NonNull
+    private static byte[] readBytes(@NonNull DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if (size < 0 || size > MAX_FIELD_SIZE) {
+            throw new IOException("Invalid field size " + size);
+        }
+        byte[] bytes = new byte[size];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeBytes(@NonNull DataOutputStream out, @NonNull byte[] bytes)
+            throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.signflinger;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.apksig.util.RunnablesExecutor;
+import com.android.zipflinger.Location;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The per-chunk digests of the "entries" section of an APK, as used by APK Signature Scheme v2 and
+ * v3 (CHUNKED_SHA256 and CHUNKED_SHA512 content digest algorithms).
+ *
+ * <p>The signed content is split in three sections (entries, central directory, and end of central
+ * directory) and each section is split in 1MiB chunks. The digest of a chunk is H(0xa5 || uint32le
+ * chunk size || chunk) and the content digest is H(0x5a || uint32le number of chunks || chunk
+ * digests...).
+ *
+ * <p>Keeping the chunk digests of the entries section around allows to only re-hash chunks which
+ * overlap regions written since they were computed. The CD and EOCD are small and always hashed.
+ */
+class ChunkDigests {
+
+    static final int CHUNK_SIZE = 1024 * 1024;
+
+    private static final byte CHUNK_PREFIX = (byte) 0xa5;
+    private static final byte TOP_LEVEL_PREFIX = (byte) 0x5a;
+
+    @NonNull private final String jcaAlgorithm;
+    private final int digestSize;
+
+    private long payloadSize;
+
+    // Digests of all chunks of the payload, concatenated.
+    @NonNull private byte[] digests;
+
+    private ChunkDigests(@NonNull String jcaAlgorithm, long payloadSize, @NonNull byte[] digests) {
+        this.jcaAlgorithm = jcaAlgorithm;
+        this.digestSize = newMessageDigest(jcaAlgorithm).getDigestLength();
+        this.payloadSize = payloadSize;
+        this.digests = digests;
+    }
+
+    /** Creates an empty set of digests (every chunk will be hashed on the first update). */
+    @NonNull
+    static ChunkDigests create(@NonNull String jcaAlgorithm) {
+        return new ChunkDigests(jcaAlgorithm, 0, new byte[0]);
+    }
+
+    @NonNull
+    String getJcaAlgorithm() {
+        return jcaAlgorithm;
+    }
+
+    long getPayloadSize() {
+        return payloadSize;
+    }
+
+    static int numChunks(long size) {
+        return Math.toIntExact((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    }
+
+    /**
+     * Bring the chunk digests up to date with the payload (the "entries" section of the APK, which
+     * starts at offset 0).
+     *
+     * @param writes The regions of the file written since the digests were last updated. Chunks
+     *     not overlapping any of them, and which had the same boundaries, are not re-hashed.
+     * @return the number of chunks hashed.
+     */
+    int update(
+            @NonNull FileChannel channel,
+            long newPayloadSize,
+            @NonNull List<Location> writes,
+            @Nullable RunnablesExecutor executor)
+            throws IOException {
+        int numChunks = numChunks(newPayloadSize);
+        BitSet dirty = new BitSet(numChunks);
+        for (int i = 0; i < numChunks; i++) {
+            if (!hasSameBoundaries(i, payloadSize, newPayloadSize)) {
+                dirty.set(i);
+            }
+        }
+        for (Location write : writes) {
+            if (write.first >= newPayloadSize) {
+                continue;
+            }
+            int first = Math.toIntExact(write.first / CHUNK_SIZE);
+            int last = Math.toIntExact(Math.min(write.last, newPayloadSize - 1) / CHUNK_SIZE);
+            dirty.set(first, last + 1);
+        }
+
+        byte[] newDigests = new byte[numChunks * digestSize];
+        int numCleanChunks = Math.min(numChunks, numChunks(payloadSize));
+        System.arraycopy(digests, 0, newDigests, 0, numCleanChunks * digestSize);
+
+        int[] toHash = dirty.stream().toArray();
+        hashChunks(channel, newPayloadSize, toHash, newDigests, executor);
+
+        digests = newDigests;
+        payloadSize = newPayloadSize;
+        return toHash.length;
+    }
+
+    private static boolean hasSameBoundaries(int chunk, long oldSize, long newSize) {
+        long start = (long) chunk * CHUNK_SIZE;
+        if (start >= oldSize) {
+            return false;
+        }
+        long oldEnd = Math.min(start + CHUNK_SIZE, oldSize);
+        long newEnd = Math.min(start + CHUNK_SIZE, newSize);
+        return oldEnd == newEnd;
+    }
+
+    private void hashChunks(
+            @NonNull FileChannel channel,
+            long size,
+            @NonNull int[] chunks,
+            @NonNull byte[] output,
+            @Nullable RunnablesExecutor executor)
+            throws IOException {
+        AtomicInteger next = new AtomicInteger(0);
+        IOException[] failure = new IOException[1];
+        Runnable worker =
+                () -> {
+                    MessageDigest md = newMessageDigest(jcaAlgorithm);
+                    ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+                    int i;
+                    while ((i = next.getAndIncrement()) < chunks.length) {
+                        int chunk = chunks[i];
+                        long start = (long) chunk * CHUNK_SIZE;
+                        int chunkSize = Math.toIntExact(Math.min(CHUNK_SIZE, size - start));
+                        try {
+                            readFully(channel, buffer, start, chunkSize);
+                        } catch (IOException e) {
+                            synchronized (failure) {
+                                failure[0] = e;
+                            }
+                            return;
+                        }
+                        byte[] digest = digestChunk(md, buffer);
+                        System.arraycopy(digest, 0, output, chunk * digestSize, digestSize);
+                    }
+                };
+
+        if (executor == null || chunks.length < 2) {
+            worker.run();
+        } else {
+            executor.execute(() -> worker);
+        }
+
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        }
+    }
+
+    /**
+     * Computes the content digest of the APK given its CD and EOCD. The EOCD must point to the CD
+     * as if there was no signing block (offset to CD == payload size).
+     */
+    @NonNull
+    byte[] computeContentDigest(
+            @NonNull FileChannel channel, @NonNull Location cd, @NonNull Location eocd)
+            throws IOException {
+        MessageDigest md = newMessageDigest(jcaAlgorithm);
+        byte[] cdDigests = digestSection(channel, md, cd);
+        byte[] eocdDigests = digestSection(channel, md, eocd);
+
+        int numChunks = numChunks(payloadSize) + numChunks(cd.size()) + numChunks(eocd.size());
+        md.update(TOP_LEVEL_PREFIX);
+        md.update(uint32(numChunks));
+        md.update(digests);
+        md.update(cdDigests);
+        md.update(eocdDigests);
+        return md.digest();
+    }
+
+    @NonNull
+    private byte[] digestSection(
+            @NonNull FileChannel channel, @NonNull MessageDigest md, @NonNull Location section)
+            throws IOException {
+        int numChunks = numChunks(section.size());
+        byte[] sectionDigests = new byte[numChunks * digestSize];
+        ByteBuffer buffer = ByteBuffer.allocate(Math.min(CHUNK_SIZE, (int) section.size()));
+        for (int i = 0; i < numChunks; i++) {
+            long start = (long) i * CHUNK_SIZE;
+            int chunkSize = Math.toIntExact(Math.min(CHUNK_SIZE, section.size() - start));
+            readFully(channel, buffer, section.first + start, chunkSize);
+            byte[] digest = digestChunk(md, buffer);
+            System.arraycopy(digest, 0, sectionDigests, i * digestSize, digestSize);
+        }
+        return sectionDigests;
+    }
+
+    @NonNull
+    private static byte[] digestChunk(@NonNull MessageDigest md, @NonNull ByteBuffer chunk) {
+        md.update(CHUNK_PREFIX);
+        md.update(uint32(chunk.remaining()));
+        md.update(chunk);
+        return md.digest();
+    }
+
+    private static void readFully(
+            @NonNull FileChannel channel, @NonNull ByteBuffer buffer, long position, int size)
+            throws IOException {
+        buffer.clear();
+        buffer.limit(size);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read == -1) {
+                throw new IOException("Unexpected end of file at " + position);
+            }
+        }
+        buffer.flip();
+    }
+
+    @NonNull
+    private static byte[] uint32(int value) {
+        return ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(value).array();
+    }
+
+    @NonNull
+    private static MessageDigest newMessageDigest(@NonNull String jcaAlgorithm) {
+        try {
+            return MessageDigest.getInstance(jcaAlgorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void write(@NonNull DataOutputStream out) throws IOException {
+        out.writeUTF(jcaAlgorithm);
+        out.writeLong(payloadSize);
+        out.writeInt(digests.length);
+        out.write(digests);
+    }
+
+    @NonNull
+    static ChunkDigests read(@NonNull DataInputStream in) throws IOException {
+        String jcaAlgorithm = in.readUTF();
+        long payloadSize = in.readLong();
+        byte[] digests = new byte[in.readInt()];
+        in.readFully(digests);
+        ChunkDigests chunkDigests = new ChunkDigests(jcaAlgorithm, payloadSize, digests);
+        if (digests.length != numChunks(payloadSize) * chunkDigests.digestSize) {
+            throw new IOException("Corrupted chunk digests for " + jcaAlgorithm);
+        }
+        return chunkDigests;
+    }
+}
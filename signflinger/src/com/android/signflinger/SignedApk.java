@@ -38,14 +38,21 @@ import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
 import java.security.SignatureException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
@@ -59,6 +66,16 @@ public class SignedApk implements Archive {
     private final ZipArchive archive;
     private final ApkSignerEngine signer;
     private final SignedApkOptions options;
+
+    // Only set if incremental signing is enabled.
+    @Nullable private final byte[] signerFingerprint;
+    // Only set if incremental signing is enabled and the previous session state is usable.
+    @Nullable private final ChunkDigestCache digestCache;
+
+    // How the v2/v3 signing block was produced by the last call to close(), for tests.
+    private boolean signedIncrementally;
+    private int numHashedChunks;
+
     static final String MANIFEST_ENTRY_NAME = "META-INF/MANIFEST.MF";
     static final String MANIFEST_CREATED_BY = "Created-By";
     static final String MANIFEST_BUILT_BY = "Built-By";
@@ -77,6 +94,15 @@ public class SignedApk implements Archive {
             @NonNull Zip64.Policy zip64Policy)
             throws InvalidKeyException, IOException {
         this.options = options;
+        // The cache must be validated before the archive is modified.
+        if (isIncrementalSigningEnabled(options)) {
+            signerFingerprint = ChunkDigestCache.signerFingerprint(options);
+            digestCache =
+                    ChunkDigestCache.load(options.chunkDigestCache, file, signerFingerprint);
+        } else {
+            signerFingerprint = null;
+            digestCache = null;
+        }
         this.archive = new ZipArchive(file.toPath(), zip64Policy);
         DefaultApkSignerEngine.SignerConfig signerConfig =
                 new DefaultApkSignerEngine.SignerConfig.Builder(
@@ -100,6 +126,12 @@ public class SignedApk implements Archive {
         initWithV1();
     }
 
+    private static boolean isIncrementalSigningEnabled(@NonNull SignedApkOptions options) {
+        return options.chunkDigestCache != null
+                && (options.v2Enabled || options.v3Enabled)
+                && options.v3SigningCertificateLineage == null;
+    }
+
     private void initWithV1() throws IOException {
         if (!options.v1Enabled) {
             return;
@@ -216,20 +248,123 @@ public class SignedApk implements Archive {
         }
 
         ZipInfo zipInfo = archive.closeWithInfo();
+        byte[] sigBlock;
+        Collection<ChunkDigests> chunkDigests = null;
         try (RandomAccessFile raf = new RandomAccessFile(archive.getPath().toFile(), "rw")) {
-            byte[] sigBlock = v2andV3Sign(raf, zipInfo);
-            sigBlock =
+            FileChannel channel = raf.getChannel();
+            sigBlock = v2andV3SignIncrementally(channel, zipInfo);
+            signedIncrementally = sigBlock != null;
+            if (signedIncrementally) {
+                chunkDigests = digestCache.digests.values();
+            } else {
+                sigBlock = v2andV3Sign(raf, zipInfo);
+                if (signerFingerprint != null) {
+                    chunkDigests = computeChunkDigests(channel, zipInfo, sigBlock);
+                }
+            }
+            byte[] apkSigningBlock =
                     SigningBlockUtils.addToSigningBlock(
                             sigBlock, options.sdkDependencies, DEPENDENCY_INFO_BLOCK_ID);
-            ApkSigningBlock.addToArchive(raf, sigBlock, zipInfo);
-        } catch (IOException
-                | NoSuchAlgorithmException
-                | InvalidKeyException
-                | SignatureException
-                | ApkFormatException e) {
+            ApkSigningBlock.addToArchive(raf, apkSigningBlock, zipInfo);
+        } catch (IOException | GeneralSecurityException | ApkFormatException e) {
             throw new IllegalStateException(e);
         }
 
+        storeDigestCache(sigBlock, chunkDigests);
+    }
+
+    /**
+     * Re-signs the signing block of the previous session with the digests of the modified APK.
+     * Only the chunks of the entries section which were written during this session are hashed.
+     * Returns null if the full signing must be done instead.
+     */
+    @Nullable
+    private byte[] v2andV3SignIncrementally(@NonNull FileChannel channel, @NonNull ZipInfo zipInfo)
+            throws IOException, GeneralSecurityException {
+        if (digestCache == null
+                || zipInfo.payload.first != 0
+                || zipInfo.payload.size() != zipInfo.cd.first) {
+            return null;
+        }
+        Set<String> algorithms =
+                SigningBlockResigner.getRequiredDigestAlgorithms(digestCache.signingBlock);
+        if (algorithms == null || !digestCache.digests.keySet().containsAll(algorithms)) {
+            return null;
+        }
+        digestCache.digests.keySet().retainAll(algorithms);
+
+        Map<String, byte[]> contentDigests = new HashMap<>();
+        for (String algorithm : algorithms) {
+            ChunkDigests chunkDigests = digestCache.digests.get(algorithm);
+            numHashedChunks =
+                    chunkDigests.update(
+                            channel,
+                            zipInfo.payload.size(),
+                            archive.getWrittenLocations(),
+                            options.executor);
+            byte[] digest = chunkDigests.computeContentDigest(channel, zipInfo.cd, zipInfo.eocd);
+            contentDigests.put(algorithm, digest);
+        }
+
+        PublicKey publicKey = options.certificates.get(0).getPublicKey();
+        SigningBlockResigner resigner =
+                new SigningBlockResigner(options.privateKey, publicKey, contentDigests);
+        return resigner.resign(digestCache.signingBlock);
+    }
+
+    @Nullable
+    private Collection<ChunkDigests> computeChunkDigests(
+            @NonNull FileChannel channel, @NonNull ZipInfo zipInfo, @NonNull byte[] sigBlock)
+            throws IOException {
+        Set<String> algorithms = SigningBlockResigner.getRequiredDigestAlgorithms(sigBlock);
+        if (algorithms == null || algorithms.isEmpty()) {
+            return null;
+        }
+        List<ChunkDigests> chunkDigests = new ArrayList<>();
+        for (String algorithm : algorithms) {
+            ChunkDigests digests = ChunkDigests.create(algorithm);
+            numHashedChunks =
+                    digests.update(
+                            channel,
+                            zipInfo.payload.size(),
+                            Collections.emptyList(),
+                            options.executor);
+            chunkDigests.add(digests);
+        }
+        return chunkDigests;
+    }
+
+    /** Whether the last signing patched the cached signing block instead of using apksig. */
+    boolean isSignedIncrementally() {
+        return signedIncrementally;
+    }
+
+    /**
+     * The number of chunks of the entries section hashed (per digest algorithm) for the chunk
+     * digest cache during the last signing.
+     */
+    int getNumHashedChunks() {
+        return numHashedChunks;
+    }
+
+    private void storeDigestCache(
+            @NonNull byte[] sigBlock, @Nullable Collection<ChunkDigests> chunkDigests) {
+        if (signerFingerprint == null) {
+            return;
+        }
+        File cacheFile = options.chunkDigestCache;
+        File apk = archive.getPath().toFile();
+        try {
+            if (chunkDigests == null) {
+                Files.deleteIfExists(cacheFile.toPath());
+                return;
+            }
+            ChunkDigestCache.store(cacheFile, apk, signerFingerprint, sigBlock, chunkDigests);
+        } catch (IOException e) {
+            // The cache is an optimization, a failure to store it only means a full signing
+            // next time.
+            cacheFile.delete();
+        }
     }
 
     private void processRequest(@Nullable ApkSignerEngine.InspectJarEntryRequest req)
@@ -72,6 +72,8 @@ public class SignedApkOptions {
     final int minSdkVersion;
     final byte[] sdkDependencies;
 
+    final File chunkDigestCache;
+
     private SignedApkOptions(
             String name,
             PrivateKey privateKey,
@@ -87,7 +89,8 @@ public class SignedApkOptions {
             String v1CreatedBy,
             String v1BuiltBy,
             boolean v1TrustManifest,
-            int minSdkVersion) {
+            int minSdkVersion,
+            File chunkDigestCache) {
         this.name = name;
         this.privateKey = privateKey;
         this.certificates = certificates;
@@ -103,6 +106,7 @@ public class SignedApkOptions {
         this.v1BuiltBy = v1BuiltBy;
         this.v1TrustManifest = v1TrustManifest;
         this.minSdkVersion = minSdkVersion;
+        this.chunkDigestCache = chunkDigestCache;
     }
 
     public static PrivateKey bytesToPrivateKey(String keyAlgorithm, byte[] bytes)
@@ -156,6 +160,7 @@ public class SignedApkOptions {
         String v1BuiltBy = "Signflinger";
         boolean v1TrustManifest;
         int minSdkVersion;
+        File chunkDigestCache = null;
 
         public Builder setName(@NonNull String name) {
             this.name = name;
@@ -233,6 +238,20 @@ public class SignedApkOptions {
             return this;
         }
 
+        /**
+         * Enable incremental v2/v3 signing. The per-chunk digests of the APK and its signing block
+         * are stored in the given sidecar file when the SignedApk is closed. The next SignedApk
+         * opened on the same (unmodified) APK only re-hashes the 1MiB chunks overlapping entries
+         * which were added or deleted, instead of the whole file.
+         *
+         * <p>The sidecar is ignored if the APK or the signer configuration changed. Incremental
+         * signing is not available with a signing certificate lineage.
+         */
+        public Builder setChunkDigestCache(File chunkDigestCache) {
+            this.chunkDigestCache = chunkDigestCache;
+            return this;
+        }
+
         @NonNull
         public SignedApkOptions build() {
             return new SignedApkOptions(
@@ -250,7 +269,8 @@ public class SignedApkOptions {
                     v1CreatedBy,
                     v1BuiltBy,
                     v1TrustManifest,
-                    minSdkVersion);
+                    minSdkVersion,
+                    chunkDigestCache);
         }
     }
 }
@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.signflinger;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.apksig.internal.apk.ApkSigningBlockUtils;
+import com.android.apksig.internal.util.Pair;
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.PSSParameterSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Re-signs an APK Signing Block previously generated by apksig for new content digests.
+ *
+ * <p>The only part of a v2/v3 signer block which depends on the APK content is the list of content
+ * digests in the signed data (and therefore the signatures over it). Everything else (certificates,
+ * additional attributes, SDK ranges, public key) is kept verbatim, so the resulting block is what
+ * apksig would have produced for the same signer configuration.
+ *
+ * <p>Blocks which cannot be handled this way (unknown signature algorithms such as verity, unknown
+ * blocks, a signer whose key differs from the provided one) yield null and the caller must fall
+ * back to a full signing.
+ */
+class SigningBlockResigner {
+
+    static final int V2_BLOCK_ID = 0x7109871a;
+    static final int V3_BLOCK_ID = 0xf05368c0;
+    static final int V31_BLOCK_ID = 0x1b93ad61;
+
+    static final String SHA256 = "SHA-256";
+    static final String SHA512 = "SHA-512";
+
+    private static final int MAGIC_NUM_BYTES = 16;
+
+    private final PrivateKey privateKey;
+    private final PublicKey publicKey;
+
+    // Content digests indexed by JCA digest algorithm name.
+    private final Map<String, byte[]> contentDigests;
+
+    SigningBlockResigner(
+            @NonNull PrivateKey privateKey,
+            @NonNull PublicKey publicKey,
+            @NonNull Map<String, byte[]> contentDigests) {
+        this.privateKey = privateKey;
+        this.publicKey = publicKey;
+        this.contentDigests = contentDigests;
+    }
+
+    /** Returns the JCA digest algorithm of the chunked content digest used by a signature. */
+    @Nullable
+    static String getDigestAlgorithm(int signatureAlgorithmId) {
+        switch (signatureAlgorithmId) {
+            case 0x0101: // RSA_PSS_WITH_SHA256
+            case 0x0103: // RSA_PKCS1_V1_5_WITH_SHA256
+            case 0x0201: // ECDSA_WITH_SHA256
+            case 0x0301: // DSA_WITH_SHA256
+                return SHA256;
+            case 0x0102: // RSA_PSS_WITH_SHA512
+            case 0x0104: // RSA_PKCS1_V1_5_WITH_SHA512
+            case 0x0202: // ECDSA_WITH_SHA512
+                return SHA512;
+            default:
+                // Verity based algorithms are not chunked digests.
+                return null;
+        }
+    }
+
+    @NonNull
+    private static Signature newSignature(int signatureAlgorithmId)
+            throws GeneralSecurityException {
+        Signature signature;
+        switch (signatureAlgorithmId) {
+            case 0x0101:
+                signature = Signature.getInstance("SHA256withRSA/PSS");
+                signature.setParameter(
+                        new PSSParameterSpec("SHA-256", "MGF1", MGF1ParameterSpec.SHA256, 32, 1));
+                return signature;
+            case 0x0102:
+                signature = Signature.getInstance("SHA512withRSA/PSS");
+                signature.setParameter(
+                        new PSSParameterSpec("SHA-512", "MGF1", MGF1ParameterSpec.SHA512, 64, 1));
+                return signature;
+            case 0x0103:
+                return Signature.getInstance("SHA256withRSA");
+            case 0x0104:
+                return Signature.getInstance("SHA512withRSA");
+            case 0x0201:
+                return Signature.getInstance("SHA256withECDSA");
+            case 0x0202:
+                return Signature.getInstance("SHA512withECDSA");
+            case 0x0301:
+                return Signature.getInstance("SHA256withDSA");
+            default:
+                throw new IllegalStateException(
+                        "Unsupported signature algorithm " + signatureAlgorithmId);
+        }
+    }
+
+    /**
+     * Returns the JCA digest algorithms needed to re-sign the given signing block, or null if the
+     * block cannot be re-signed.
+     */
+    @Nullable
+    static Set<String> getRequiredDigestAlgorithms(@NonNull byte[] signingBlock) {
+        List<Pair<byte[], Integer>> blocks = parseSigningBlock(signingBlock);
+        if (blocks == null) {
+            return null;
+        }
+        Set<String> algorithms = new HashSet<>();
+        try {
+            for (Pair<byte[], Integer> block : blocks) {
+                if (!isSignatureSchemeBlock(block.getSecond())) {
+                    continue;
+                }
+                ByteBuffer signers = lengthPrefixed(ByteBuffer.wrap(block.getFirst()));
+                while (signers.hasRemaining()) {
+                    ByteBuffer signer = lengthPrefixed(signers);
+                    ByteBuffer digests = lengthPrefixed(lengthPrefixed(signer));
+                    while (digests.hasRemaining()) {
+                        String algorithm = getDigestAlgorithm(lengthPrefixed(digests).getInt());
+                        if (algorithm == null) {
+                            return null;
+                        }
+                        algorithms.add(algorithm);
+                    }
+                }
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        }
+        return algorithms;
+    }
+
+    /** Returns a new signing block with updated digests and signatures, or null on failure. */
+    @Nullable
+    byte[] resign(@NonNull byte[] signingBlock) throws GeneralSecurityException {
+        List<Pair<byte[], Integer>> blocks = parseSigningBlock(signingBlock);
+        if (blocks == null) {
+            return null;
+        }
+        List<Pair<byte[], Integer>> newBlocks = new ArrayList<>();
+        try {
+            for (Pair<byte[], Integer> block : blocks) {
+                int id = block.getSecond();
+                if (!isSignatureSchemeBlock(id)) {
+                    newBlocks.add(block);
+                    continue;
+                }
+                byte[] newBlock = resignSchemeBlock(block.getFirst(), id != V2_BLOCK_ID);
+                if (newBlock == null) {
+                    return null;
+                }
+                newBlocks.add(Pair.of(newBlock, id));
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        }
+        return ApkSigningBlockUtils.generateApkSigningBlock(newBlocks);
+    }
+
+    private static boolean isSignatureSchemeBlock(int id) {
+        return id == V2_BLOCK_ID || id == V3_BLOCK_ID || id == V31_BLOCK_ID;
+    }
+
+    // Scheme block: length-prefixed sequence of length-prefixed signers.
+    @Nullable
+    private byte[] resignSchemeBlock(@NonNull byte[] block, boolean hasSdkRange)
+            throws GeneralSecurityException {
+        ByteBuffer signers = lengthPrefixed(ByteBuffer.wrap(block));
+        List<byte[]> newSigners = new ArrayList<>();
+        while (signers.hasRemaining()) {
+            byte[] newSigner = resignSigner(lengthPrefixed(signers), hasSdkRange);
+            if (newSigner == null) {
+                return null;
+            }
+            newSigners.add(encodeLengthPrefixed(newSigner));
+        }
+        return encodeLengthPrefixed(encodeSequence(newSigners));
+    }
+
+    // v2 signer: signed data, signatures, public key.
+    // v3 signer: signed data, min sdk, max sdk, signatures, public key.
+    @Nullable
+    private byte[] resignSigner(@NonNull ByteBuffer signer, boolean hasSdkRange)
+            throws GeneralSecurityException {
+        ByteBuffer signedData = lengthPrefixed(signer);
+        byte[] sdkRange = new byte[hasSdkRange ? 8 : 0];
+        signer.get(sdkRange);
+        ByteBuffer signatures = lengthPrefixed(signer);
+        ByteBuffer publicKeyBytes = lengthPrefixed(signer);
+
+        if (!Arrays.equals(toArray(publicKeyBytes), publicKey.getEncoded())) {
+            return null;
+        }
+
+        // Signed data: digests followed by fields independent of the content.
+        ByteBuffer digests = lengthPrefixed(signedData);
+        List<byte[]> newDigests = new ArrayList<>();
+        while (digests.hasRemaining()) {
+            int algorithmId = lengthPrefixed(digests).getInt();
+            String digestAlgorithm = getDigestAlgorithm(algorithmId);
+            byte[] digest = digestAlgorithm == null ? null : contentDigests.get(digestAlgorithm);
+            if (digest == null) {
+                return null;
+            }
+            newDigests.add(encodeIdAndValue(algorithmId, digest));
+        }
+        byte[] newSignedData =
+                concat(encodeLengthPrefixed(encodeSequence(newDigests)), toArray(signedData));
+
+        List<byte[]> newSignatures = new ArrayList<>();
+        while (signatures.hasRemaining()) {
+            int algorithmId = lengthPrefixed(signatures).getInt();
+            if (getDigestAlgorithm(algorithmId) == null) {
+                return null;
+            }
+            Signature signature = newSignature(algorithmId);
+            signature.initSign(privateKey);
+            signature.update(newSignedData);
+            newSignatures.add(encodeIdAndValue(algorithmId, signature.sign()));
+        }
+
+        return concat(
+                encodeLengthPrefixed(newSignedData),
+                sdkRange,
+                encodeLengthPrefixed(encodeSequence(newSignatures)),
+                encodeLengthPrefixed(publicKey.getEncoded()));
+    }
+
+    // The APK Signing Block is: uint64 size, pairs (uint64 length, uint32 id, value),
+    // uint64 size, 16 bytes magic.
+    @Nullable
+    private static List<Pair<byte[], Integer>> parseSigningBlock(@NonNull byte[] signingBlock) {
+        List<Pair<byte[], Integer>> blocks = new ArrayList<>();
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(signingBlock).order(LITTLE_ENDIAN);
+            buffer.position(SigningBlockUtils.SIZE_OF_BLOCK_NUM_BYTES);
+            buffer.limit(
+                    signingBlock.length
+                            - SigningBlockUtils.SIZE_OF_BLOCK_NUM_BYTES
+                            - MAGIC_NUM_BYTES);
+            while (buffer.hasRemaining()) {
+                int length = Math.toIntExact(buffer.getLong());
+                int id = buffer.getInt();
+                byte[] value = new byte[length - SigningBlockUtils.BLOCK_ID_NUM_BYTES];
+                buffer.get(value);
+                if (id == SigningBlockUtils.VERITY_PADDING_BLOCK_ID) {
+                    continue;
+                }
+                if (!isSignatureSchemeBlock(id) && id != SignedApk.DEPENDENCY_INFO_BLOCK_ID) {
+                    // E.g: A source stamp signs the digests, we cannot update it.
+                    return null;
+                }
+                blocks.add(Pair.of(value, id));
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException | ArithmeticException e) {
+            return null;
+        }
+        return blocks;
+    }
+
+    @NonNull
+    private static ByteBuffer lengthPrefixed(@NonNull ByteBuffer buffer) {
+        buffer.order(LITTLE_ENDIAN);
+        int size = buffer.getInt();
+        if (size < 0 || size > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid length prefix " + size);
+        }
+        ByteBuffer result = buffer.slice().order(LITTLE_ENDIAN);
+        result.limit(size);
+        buffer.position(buffer.position() + size);
+        return result;
+    }
+
+    @NonNull
+    private static byte[] toArray(@NonNull ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @NonNull
+    private static byte[] encodeIdAndValue(int id, @NonNull byte[] value) {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + value.length).order(LITTLE_ENDIAN);
+        buffer.putInt(id);
+        buffer.putInt(value.length);
+        buffer.put(value);
+        return encodeLengthPrefixed(buffer.array());
+    }
+
+    @NonNull
+    private static byte[] encodeSequence(@NonNull List<byte[]> elements) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] element : elements) {
+            out.write(element, 0, element.length);
+        }
+        return out.toByteArray();
+    }
+
+    @NonNull
+    private static byte[] encodeLengthPrefixed(@NonNull byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + bytes.length).order(LITTLE_ENDIAN);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+        return buffer.array();
+    }
+
+    @NonNull
+    private static byte[] concat(@NonNull byte[]... arrays) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] array : arrays) {
+            out.write(array, 0, array.length);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.signflinger;
+
+import com.android.zipflinger.BytesSource;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class IncrementalSigningTest {
+
+    @Rule public final Workspace workspace = new Workspace();
+
+    private SignedApkOptions createOptions(SignerConfig signerConfig, File cache) {
+        return new SignedApkOptions.Builder()
+                .setV3Enabled(true)
+                .setV2Enabled(true)
+                .setV1Enabled(false)
+                .setPrivateKey(signerConfig.getPrivateKey())
+                .setCertificates(signerConfig.getCertificates())
+                .setExecutor(Utils.createExecutor())
+                .setChunkDigestCache(cache)
+                .build();
+    }
+
+    @Test
+    public void incrementalSigningMatchesFullSigning() throws Exception {
+        File manifest = workspace.getDummyAndroidManifest();
+        File incremental = workspace.createZip(20, 500_000, "incremental.apk", manifest);
+        File full = workspace.getTestOutputFile("full.apk");
+        File cache = workspace.getTestOutputFile("incremental.apk.digests");
+
+        // RSA PKCS#1 v1.5 signatures are deterministic so both APKs must be identical.
+        SignerConfig signerConfig = Signers.getDefaultRSASigner(workspace);
+        SignedApkOptions options = createOptions(signerConfig, cache);
+        SignedApk cold = new SignedApk(incremental, options);
+        cold.close();
+        Assert.assertFalse("Cold run signed incrementally", cold.isSignedIncrementally());
+        int numChunks = cold.getNumHashedChunks();
+        Assert.assertTrue("Cache created", cache.exists());
+        Utils.verifyApk(incremental);
+        Files.copy(incremental.toPath(), full.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        byte[] bytes = Files.readAllBytes(workspace.getResourcePath("test1.txt"));
+        SignedApk signedApk = new SignedApk(incremental, options);
+        try {
+            signedApk.delete("file000003");
+            signedApk.add(new BytesSource(bytes, "test1", 1));
+        } finally {
+            signedApk.close();
+        }
+        Assert.assertTrue("Signed incrementally", signedApk.isSignedIncrementally());
+        Assert.assertTrue(
+                "Only modified chunks re-hashed", signedApk.getNumHashedChunks() < numChunks);
+        Utils.verifyApk(incremental);
+
+        try (SignedApk fullApk = new SignedApk(full, createOptions(signerConfig, null))) {
+            fullApk.delete("file000003");
+            fullApk.add(new BytesSource(bytes, "test1", 1));
+        }
+        Utils.verifyApk(full);
+
+        Assert.assertArrayEquals(
+                "Incremental and full signing are identical",
+                Files.readAllBytes(full.toPath()),
+                Files.readAllBytes(incremental.toPath()));
+    }
+
+    @Test
+    public void incrementalSigningAllSigners() throws Exception {
+        File manifest = workspace.getDummyAndroidManifest();
+        File src = workspace.createZip(5, 700_000, "src.apk", manifest);
+        File file = workspace.getTestOutputFile("signed.apk");
+        File cache = workspace.getTestOutputFile("signed.apk.digests");
+
+        for (SignerConfig signerConfig : Signers.getAll(workspace)) {
+            Files.copy(src.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            SignedApkOptions options = createOptions(signerConfig, cache);
+
+            // Cold run
+            try (SignedApk signedApk = new SignedApk(file, options)) {}
+            Utils.verifyApk(file);
+
+            // Incremental runs
+            for (int i = 0; i < 3; i++) {
+                SignedApk signedApk = new SignedApk(file, options);
+                try {
+                    signedApk.add(new BytesSource(new byte[100_000 * i], "entry" + i, 0));
+                } finally {
+                    signedApk.close();
+                }
+                Assert.assertTrue("Signed incrementally", signedApk.isSignedIncrementally());
+                Utils.verifyApk(file);
+            }
+        }
+    }
+
+    @Test
+    public void oneEntryChangeOnlyHashesAffectedChunks() throws Exception {
+        File manifest = workspace.getDummyAndroidManifest();
+        File file = workspace.createZip(20, 500_000, "oneEntry.apk", manifest);
+        File cache = workspace.getTestOutputFile("oneEntry.apk.digests");
+
+        SignerConfig signerConfig = Signers.getDefaultRSASigner(workspace);
+        SignedApkOptions options = createOptions(signerConfig, cache);
+        SignedApk cold = new SignedApk(file, options);
+        cold.close();
+        // About 10MiB of incompressible entries.
+        Assert.assertTrue("Chunks hashed on cold run", cold.getNumHashedChunks() >= 9);
+
+        // A small entry is written over the old Central Directory, at the end of the entries
+        // section: only the last chunk, and the next one if the entry crosses a chunk boundary,
+        // must be hashed.
+        SignedApk signedApk = new SignedApk(file, options);
+        try {
+            signedApk.add(new BytesSource(new byte[1024], "small", 0));
+        } finally {
+            signedApk.close();
+        }
+        Assert.assertTrue("Signed incrementally", signedApk.isSignedIncrementally());
+        Assert.assertTrue("Chunks hashed", signedApk.getNumHashedChunks() <= 2);
+        Utils.verifyApk(file);
+    }
+
+    @Test
+    public void cacheIgnoredWhenApkModifiedElsewhere() throws Exception {
+        File manifest = workspace.getDummyAndroidManifest();
+        File file = workspace.createZip(5, 100_000, "modified.apk", manifest);
+        File cache = workspace.getTestOutputFile("modified.apk.digests");
+
+        SignerConfig signerConfig = Signers.getDefaultRSASigner(workspace);
+        try (SignedApk signedApk = new SignedApk(file, createOptions(signerConfig, cache))) {}
+
+        // Modify the APK without updating the cache.
+        try (SignedApk signedApk = new SignedApk(file, createOptions(signerConfig, null))) {
+            signedApk.add(new BytesSource(new byte[1024], "other", 0));
+        }
+
+        SignedApk signedApk = new SignedApk(file, createOptions(signerConfig, cache));
+        try {
+            signedApk.add(new BytesSource(new byte[1024], "test1", 0));
+        } finally {
+            signedApk.close();
+        }
+        Assert.assertFalse("Signed incrementally", signedApk.isSignedIncrementally());
+        Utils.verifyApk(file);
+    }
+}
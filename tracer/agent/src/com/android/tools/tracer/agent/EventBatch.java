@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.tracer.agent;
+
+import java.util.Arrays;
+
+/** The events drained from all the {@link EventBuffer}s, to be saved by the writer thread. */
+class EventBatch {
+    private int size;
+    private boolean[] begin = new boolean[EventBuffer.CAPACITY];
+    private long[] pid = new long[EventBuffer.CAPACITY];
+    private long[] tid = new long[EventBuffer.CAPACITY];
+    private long[] timestampNs = new long[EventBuffer.CAPACITY];
+    private String[] text = new String[EventBuffer.CAPACITY];
+
+    void add(boolean isBegin, long pid, long tid, long ns, String text) {
+        if (size == begin.length) {
+            int capacity = size * 2;
+            this.begin = Arrays.copyOf(this.begin, capacity);
+            this.pid = Arrays.copyOf(this.pid, capacity);
+            this.tid = Arrays.copyOf(this.tid, capacity);
+            this.timestampNs = Arrays.copyOf(this.timestampNs, capacity);
+            this.text = Arrays.copyOf(this.text, capacity);
+        }
+        this.begin[size] = isBegin;
+        this.pid[size] = pid;
+        this.tid[size] = tid;
+        this.timestampNs[size] = ns;
+        this.text[size] = text;
+        size++;
+    }
+
+    void clear() {
+        Arrays.fill(text, 0, size, null);
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isBegin(int i) {
+        return begin[i];
+    }
+
+    long getPid(int i) {
+        return pid[i];
+    }
+
+    long getTid(int i) {
+        return tid[i];
+    }
+
+    long getTimestampNs(int i) {
+        return timestampNs[i];
+    }
+
+    String getText(int i) {
+        return text[i];
+    }
+}
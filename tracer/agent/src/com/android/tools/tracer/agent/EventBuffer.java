@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.tracer.agent;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A ring buffer of the events recorded by one thread, drained by the writer thread. Events are
+ * stored in primitive arrays, so recording one neither allocates nor takes a lock: the owner
+ * thread publishes what it wrote with an ordered store and the writer thread does the same for
+ * what it read.
+ */
+class EventBuffer {
+    static final int CAPACITY = 1 << 13;
+
+    private static final int MASK = CAPACITY - 1;
+
+    private final WeakReference<Thread> owner;
+
+    private final boolean[] begin = new boolean[CAPACITY];
+    private final long[] pid = new long[CAPACITY];
+    private final long[] tid = new long[CAPACITY];
+    private final long[] timestampNs = new long[CAPACITY];
+    private final String[] text = new String[CAPACITY];
+
+    /** Index of the next event to write, only accessed by the owner thread. */
+    private long writeIndex;
+
+    /** Last known value of {@link #read}, only accessed by the owner thread. */
+    private long cachedReadIndex;
+
+    /** Number of events written, published by the owner thread. */
+    private final AtomicLong written = new AtomicLong();
+
+    /** Number of events read, published by the writer thread. */
+    private final AtomicLong read = new AtomicLong();
+
+    EventBuffer(Thread owner) {
+        this.owner = new WeakReference<>(owner);
+    }
+
+    /**
+     * Adds an event. Must only be called by the owner thread.
+     *
+     * @return the number of events waiting to be drained, including this one, or -1 if the buffer
+     *     is full and the event was not added. Below {@code CAPACITY / 2} this may overestimate
+     *     the events that were already drained, from there on it is exact.
+     */
+    int add(boolean isBegin, long pid, long tid, long ns, String text) {
+        if (writeIndex - cachedReadIndex == CAPACITY) {
+            cachedReadIndex = read.get();
+            if (writeIndex - cachedReadIndex == CAPACITY) {
+                return -1;
+            }
+        }
+        int i = (int) writeIndex & MASK;
+        this.begin[i] = isBegin;
+        this.pid[i] = pid;
+        this.tid[i] = tid;
+        this.timestampNs[i] = ns;
+        this.text[i] = text;
+        writeIndex++;
+        written.lazySet(writeIndex);
+        long pending = writeIndex - cachedReadIndex;
+        if (pending >= CAPACITY / 2) {
+            // Only look at what the writer thread has read once the buffer seems half full, so the
+            // common case does not touch the shared counter.
+            cachedReadIndex = read.get();
+            pending = writeIndex - cachedReadIndex;
+        }
+        return (int) pending;
+    }
+
+    /** Moves the published events to the given batch. Must only be called by the writer thread. */
+    void drainTo(EventBatch batch) {
+        long start = read.get();
+        long end = written.get();
+        for (long index = start; index < end; index++) {
+            int i = (int) index & MASK;
+            batch.add(begin[i], pid[i], tid[i], timestampNs[i], text[i]);
+            text[i] = null;
+        }
+        read.lazySet(end);
+    }
+
+    /** Whether no more events can be added, because the owner thread is gone, and none remain. */
+    boolean isDone() {
+        Thread thread = owner.get();
+        return (thread == null || !thread.isAlive()) && read.get() == written.get();
+    }
+}
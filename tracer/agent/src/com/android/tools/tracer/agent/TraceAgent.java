@@ -29,7 +29,8 @@ public class TraceAgent {
 
     private static void traceVMLifetime() {
         Tracer.begin(Tracer.pid, 0, System.nanoTime(), "TraceAgent");
-        Runtime.getRuntime()
-                .addShutdownHook(new Thread(() -> Tracer.end(Tracer.pid, 0, System.nanoTime())));
+        // The matching end is recorded by the tracer's own shutdown hook, so that it is saved
+        // together with the last events.
+        Tracer.traceVmLifetime = true;
     }
 }
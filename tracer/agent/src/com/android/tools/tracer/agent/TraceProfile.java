@@ -27,6 +27,7 @@ import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
@@ -37,6 +38,7 @@ class TraceProfile {
     private final MethodSet trace;
     private final MethodSet flush;
     private String outputFile;
+    private TraceWriter.Format outputFormat;
     private final Set<String> annotations;
     private String jvmArgs;
     private boolean traceAgent;
@@ -51,6 +53,7 @@ class TraceProfile {
         trace = new MethodSet();
         flush = new MethodSet();
         outputFile = getDefaultOutputPath();
+        outputFormat = TraceWriter.Format.JSON;
         jvmArgs = initJvmArgs(configFile);
         annotations = new HashSet<>();
         annotations.add("Lcom/android/annotations/Trace;");
@@ -80,6 +83,8 @@ class TraceProfile {
                     start.add(value);
                 } else if (key.equals("Output")) {
                     outputFile = value;
+                } else if (key.equals("Format")) {
+                    outputFormat = TraceWriter.Format.valueOf(value.toUpperCase(Locale.US));
                 } else if (key.equals("OutputEnvVar")) {
                     String outputDir = System.getenv(value);
                     if (outputDir == null || outputDir.isEmpty()) {
@@ -166,6 +171,10 @@ class TraceProfile {
         return outputFile;
     }
 
+    public TraceWriter.Format getOutputFormat() {
+        return outputFormat;
+    }
+
     public String getJvmArgs() {
         return jvmArgs;
     }
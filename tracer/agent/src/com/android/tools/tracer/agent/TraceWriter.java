@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.tracer.agent;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encodes {@link EventBatch}es to a report file, in one of two formats:
+ *
+ * <ul>
+ *   <li>{@link Format#JSON}: the chrome://tracing format, one event per line.
+ *   <li>{@link Format#BINARY}: the magic {@code "ATRC"} and a version int, followed by one block
+ *       per batch. A block is a string table (an int count, then for each string an int length
+ *       and its UTF-8 bytes) followed by the events (an int count, then for each event a byte 'B'
+ *       or 'E', the long pid, tid and timestamp in nanoseconds, and the int index of its text in
+ *       the string table). Blocks are self-contained so that several processes can append to the
+ *       same file.
+ * </ul>
+ *
+ * A binary report can be converted to JSON with:
+ *
+ * <pre>java -cp trace_agent.jar com.android.tools.tracer.agent.TraceWriter report.bin report.json
+ * </pre>
+ */
+class TraceWriter {
+    private static final int SAVE_BATCH_SIZE = 40;
+
+    private static final byte[] MAGIC = {'A', 'T', 'R', 'C'};
+
+    private static final int VERSION = 1;
+
+    enum Format {
+        JSON,
+        BINARY,
+    }
+
+    /**
+     * Appends the events to the given file, which must be locked by the caller.
+     *
+     * @param isEmpty whether the file is empty, and needs a header.
+     */
+    static void write(Format format, FileChannel fd, boolean isEmpty, EventBatch events)
+            throws IOException {
+        if (format == Format.BINARY) {
+            writeBinary(fd, isEmpty, events);
+        } else {
+            writeJson(fd, isEmpty, events);
+        }
+    }
+
+    private static void writeJson(FileChannel fd, boolean isEmpty, EventBatch events)
+            throws IOException {
+        if (isEmpty) {
+            fd.write(ByteBuffer.wrap(new byte[] {'[', '\n'}));
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < events.size(); i++) {
+            builder.append("{\"ts\" : \"")
+                    .append(events.getTimestampNs(i) / 1000)
+                    .append("\", \"ph\" : \"")
+                    .append(events.isBegin(i) ? 'B' : 'E')
+                    .append("\" , \"pid\" : \"")
+                    .append(events.getPid(i))
+                    .append("\" , \"tid\" : \"")
+                    .append(events.getTid(i))
+                    .append("\", \"name\" : \"")
+                    .append(events.getText(i))
+                    .append("\"},\n");
+            if ((i + 1) % SAVE_BATCH_SIZE == 0 || i == events.size() - 1) {
+                fd.write(ByteBuffer.wrap(builder.toString().getBytes(UTF_8)));
+                builder.setLength(0);
+            }
+        }
+    }
+
+    private static void writeBinary(FileChannel fd, boolean isEmpty, EventBatch events)
+            throws IOException {
+        Map<String, Integer> ids = new HashMap<>();
+        int[] textIds = new int[events.size()];
+        int stringsSize = 4;
+        byte[][] strings = new byte[events.size()][];
+        for (int i = 0; i < events.size(); i++) {
+            String text = events.getText(i);
+            Integer id = ids.get(text);
+            if (id == null) {
+                id = ids.size();
+                ids.put(text, id);
+                strings[id] = text.getBytes(UTF_8);
+                stringsSize += 4 + strings[id].length;
+            }
+            textIds[i] = id;
+        }
+
+        ByteBuffer buffer =
+                ByteBuffer.allocate(
+                        (isEmpty ? MAGIC.length + 4 : 0)
+                                + stringsSize
+                                + 4
+                                + events.size() * (1 + 8 + 8 + 8 + 4));
+        if (isEmpty) {
+            buffer.put(MAGIC).putInt(VERSION);
+        }
+        buffer.putInt(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            buffer.putInt(strings[i].length).put(strings[i]);
+        }
+        buffer.putInt(events.size());
+        for (int i = 0; i < events.size(); i++) {
+            buffer.put((byte) (events.isBegin(i) ? 'B' : 'E'))
+                    .putLong(events.getPid(i))
+                    .putLong(events.getTid(i))
+                    .putLong(events.getTimestampNs(i))
+                    .putInt(textIds[i]);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            fd.write(buffer);
+        }
+    }
+
+    /** Reads all the events of a binary report. */
+    static EventBatch readBinary(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        byte[] magic = new byte[MAGIC.length];
+        data.readFully(magic);
+        int version = data.readInt();
+        if (!Arrays.equals(magic, MAGIC) || version != VERSION) {
+            throw new IOException("Not a binary trace report");
+        }
+        EventBatch events = new EventBatch();
+        while (true) {
+            int stringCount;
+            try {
+                stringCount = data.readInt();
+            } catch (EOFException e) {
+                return events;
+            }
+            String[] strings = new String[stringCount];
+            for (int i = 0; i < stringCount; i++) {
+                byte[] bytes = new byte[data.readInt()];
+                data.readFully(bytes);
+                strings[i] = new String(bytes, UTF_8);
+            }
+            int eventCount = data.readInt();
+            for (int i = 0; i < eventCount; i++) {
+                boolean isBegin = data.readByte() == 'B';
+                long pid = data.readLong();
+                long tid = data.readLong();
+                long ns = data.readLong();
+                events.add(isBegin, pid, tid, ns, strings[data.readInt()]);
+            }
+        }
+    }
+
+    /** Converts a binary report to JSON. */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: TraceWriter <binary report> <json report>");
+            System.exit(1);
+        }
+        EventBatch events;
+        try (InputStream in = Files.newInputStream(Paths.get(args[0]))) {
+            events = readBinary(in);
+        }
+        try (FileChannel fd =
+                FileChannel.open(
+                        Paths.get(args[1]),
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeJson(fd, true, events);
+        }
+    }
+}
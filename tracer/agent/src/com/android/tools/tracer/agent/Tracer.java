@@ -16,54 +16,69 @@
 
 package com.android.tools.tracer.agent;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
-
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
-import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 public class Tracer {
-    private static final int SAVE_BATCH_SIZE = 40;
+    /** How often the writer thread saves the events recorded since it last did. */
+    private static final long DRAIN_PERIOD_MS = 500;
 
     public static TraceProfile profile;
 
+    /** Whether to record the end of the VM lifetime before the last events are saved at exit. */
+    static volatile boolean traceVmLifetime;
+
     enum Type {
         BEGIN,
         END,
     }
 
-    static class Event {
-        public Type type;
-        public long pid;
-        public long tid;
-        public long timestamp_ns;
-        public String text;
-    }
+    /**
+     * The buffers of all the threads which have recorded events. Only the writer thread removes
+     * buffers, once their thread is gone and they have been drained.
+     */
+    private static final List<EventBuffer> buffers = new CopyOnWriteArrayList<>();
 
-    private static ArrayList<Event> events;
-    private static final ExecutorService writer;
+    private static final ThreadLocal<EventBuffer> buffer =
+            ThreadLocal.withInitial(
+                    () -> {
+                        EventBuffer buffer = new EventBuffer(Thread.currentThread());
+                        buffers.add(buffer);
+                        return buffer;
+                    });
+
+    /** Only accessed by the writer thread. */
+    private static final EventBatch batch = new EventBatch();
+
+    private static final ScheduledExecutorService writer;
     public static final int pid;
 
     static {
-        events = new ArrayList<>();
         // When the VM terminates we do not want to block it waiting for our thread to terminate, so
         // we mark it as a daemon thread. If the events need to be flushed, then a flush marker should
         // be used instead.
         writer =
-                Executors.newSingleThreadExecutor(
+                Executors.newSingleThreadScheduledExecutor(
                         runnable -> {
                             Thread thread = new Thread(runnable);
                             thread.setDaemon(true);
                             return thread;
                         });
+        writer.scheduleWithFixedDelay(
+                Tracer::drain, DRAIN_PERIOD_MS, DRAIN_PERIOD_MS, TimeUnit.MILLISECONDS);
+        // The events recorded since the last drain would be lost when the VM exits, so save them
+        // from a shutdown hook. The writer thread keeps running while the shutdown hooks do.
+        Runtime.getRuntime().addShutdownHook(new Thread(Tracer::onExit));
         String name = ManagementFactory.getRuntimeMXBean().getName();
         int ix = name.indexOf('@');
         int candidatePid = 0;
@@ -76,44 +91,67 @@ public class Tracer {
         pid = candidatePid;
     }
 
-    private static synchronized void add(Event event) {
-        events.add(event);
-        // If this was the first event make sure the exector thread will try to write
-        if (events.size() == 1) {
-            writer.submit(Tracer::drain);
-        }
-    }
-
-    private static synchronized ArrayList<Event> consumeEvents() {
-        ArrayList<Event> old = events;
-        events = new ArrayList<>(events.size());
-        return old;
-    }
-
     public static void add(Type type, String text) {
         add(type, pid, Thread.currentThread().getId(), System.nanoTime(), text);
     }
 
     public static void add(Type type, long pid, long tid, long ns, String text) {
-        Event event = new Event();
-        event.pid = pid;
-        event.tid = tid;
-        event.text = text;
-        event.timestamp_ns = ns;
-        event.type = type;
-        add(event);
+        EventBuffer events = buffer.get();
+        int pending = events.add(type == Type.BEGIN, pid, tid, ns, text);
+        if (pending == EventBuffer.CAPACITY / 2) {
+            // Save the events before the buffer fills up, without waiting for the next drain.
+            writer.execute(Tracer::drain);
+        } else if (pending == -1) {
+            // The writer is behind: wait for it rather than dropping the event.
+            writer.execute(Tracer::drain);
+            while (events.add(type == Type.BEGIN, pid, tid, ns, text) == -1) {
+                LockSupport.parkNanos(100_000);
+            }
+        }
+    }
+
+    /** Records the end of the VM lifetime if needed and saves all the remaining events. */
+    private static void onExit() {
+        if (traceVmLifetime) {
+            end(pid, 0, System.nanoTime());
+        }
+        flush();
     }
 
+    /** Saves the events recorded so far. Must only be called by the writer thread. */
     private static void drain() {
-        ArrayList<Event> events = consumeEvents();
-        writer.submit(() -> save(events));
+        for (EventBuffer events : buffers) {
+            if (events.isDone()) {
+                buffers.remove(events);
+            } else {
+                events.drainTo(batch);
+            }
+        }
+        if (batch.size() > 0) {
+            save(batch);
+            batch.clear();
+        }
+    }
+
+    /** Runs the given task on the writer thread and waits for it to complete. */
+    private static void runOnWriter(Runnable task) {
+        CountDownLatch latch = new CountDownLatch(1);
+        writer.execute(
+                () -> {
+                    task.run();
+                    latch.countDown();
+                });
+        try {
+            latch.await();
+        } catch (InterruptedException ignored) {
+        }
     }
 
     /**
-     * Saves all the events in the list to the output json file. This method will lock the file
-     * while performing this operation.
+     * Saves all the events in the batch to the output file. This method will lock the file while
+     * performing this operation.
      */
-    private static void save(ArrayList<Event> events) {
+    private static void save(EventBatch events) {
         try (FileChannel fd =
                 FileChannel.open(
                         Paths.get(profile.getOutputFile()),
@@ -121,29 +159,7 @@ public class Tracer {
                         StandardOpenOption.APPEND,
                         StandardOpenOption.CREATE)) {
             fd.lock();
-            long size = fd.size();
-            if (size == 0) {
-                fd.write(ByteBuffer.wrap(new byte[] {'[', '\n'}));
-            }
-            StringBuilder builder = new StringBuilder();
-            for (int i = 0; i < events.size(); i++) {
-                Event event = events.get(i);
-
-                String s =
-                        String.format(
-                                "{\"ts\" : \"%d\", \"ph\" : \"%s\" , \"pid\" : \"%s\" , \"tid\" : \"%d\", \"name\" : \"%s\"},\n",
-                                event.timestamp_ns / 1000,
-                                event.type == Type.BEGIN ? "B" : "E",
-                                event.pid,
-                                event.tid,
-                                event.text);
-                builder.append(s);
-                if ((i + 1) % SAVE_BATCH_SIZE == 0 || i == events.size() - 1) {
-                    byte[] bytes = builder.toString().getBytes(UTF_8);
-                    fd.write(ByteBuffer.wrap(bytes));
-                    builder = new StringBuilder();
-                }
-            }
+            TraceWriter.write(profile.getOutputFormat(), fd, fd.size() == 0, events);
             fd.force(false);
         } catch (IOException e) {
             e.printStackTrace();
@@ -178,13 +194,7 @@ public class Tracer {
 
     @SuppressWarnings("unused") // Added via instrumentation
     public static void flush() {
-        CountDownLatch latch = new CountDownLatch(1);
-        drain();
-        writer.submit(latch::countDown);
-        try {
-            latch.await();
-        } catch (InterruptedException ignored) {
-        }
+        runOnWriter(Tracer::drain);
     }
 
     @SuppressWarnings("unused") // Added via instrumentation
@@ -199,8 +209,13 @@ public class Tracer {
 
     @SuppressWarnings("unused") // Added via instrumentation
     public static void start() {
-        drain();
-        writer.submit(Tracer::truncate);
+        // Wait for the file to be truncated, so that the events recorded next are not dropped with
+        // the previous ones.
+        runOnWriter(
+                () -> {
+                    drain();
+                    truncate();
+                });
     }
 
     @SuppressWarnings("unused") // Added via instrumentation
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.tracer.agent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class EventBufferTest {
+
+    private final EventBuffer buffer = new EventBuffer(Thread.currentThread());
+    private final EventBatch batch = new EventBatch();
+
+    private int add(int i) {
+        return buffer.add(i % 2 == 0, 1, 2, i, "event" + i);
+    }
+
+    private void assertDrained(int from, int count) {
+        batch.clear();
+        buffer.drainTo(batch);
+        assertEquals(count, batch.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals((from + i) % 2 == 0, batch.isBegin(i));
+            assertEquals(1, batch.getPid(i));
+            assertEquals(2, batch.getTid(i));
+            assertEquals(from + i, batch.getTimestampNs(i));
+            assertEquals("event" + (from + i), batch.getText(i));
+        }
+    }
+
+    @Test
+    public void testAddAndDrain() {
+        assertEquals(1, add(0));
+        assertEquals(2, add(1));
+        assertEquals(3, add(2));
+        assertDrained(0, 3);
+        assertDrained(3, 0);
+    }
+
+    @Test
+    public void testWraparound() {
+        int count = EventBuffer.CAPACITY * 3 / 4;
+        int next = 0;
+        for (int round = 0; round < 4; round++) {
+            for (int i = 0; i < count; i++) {
+                assertTrue(add(next + i) > 0);
+            }
+            assertDrained(next, count);
+            next += count;
+        }
+    }
+
+    @Test
+    public void testFullBuffer() {
+        for (int i = 0; i < EventBuffer.CAPACITY; i++) {
+            assertTrue(add(i) > 0);
+        }
+        assertEquals(-1, add(EventBuffer.CAPACITY));
+        assertEquals(-1, add(EventBuffer.CAPACITY));
+
+        // The events which were not added are not drained.
+        assertDrained(0, EventBuffer.CAPACITY);
+        assertEquals(1, add(EventBuffer.CAPACITY));
+        assertDrained(EventBuffer.CAPACITY, 1);
+    }
+
+    @Test
+    public void testPendingCount() {
+        int half = EventBuffer.CAPACITY / 2;
+        for (int i = 0; i < half; i++) {
+            assertEquals(i + 1, add(i));
+        }
+        // Once half full, the count accounts for the events drained by the writer thread.
+        assertDrained(0, half);
+        assertEquals(1, add(half));
+        for (int i = 1; i < half; i++) {
+            assertEquals(i + 1, add(half + i));
+        }
+        assertDrained(half, half);
+    }
+
+    @Test
+    public void testIsDone() throws InterruptedException {
+        Thread owner = new Thread(() -> {});
+        EventBuffer buffer = new EventBuffer(owner);
+        owner.start();
+        owner.join();
+        assertTrue(buffer.isDone());
+
+        buffer.add(true, 1, 2, 3, "event");
+        assertFalse(buffer.isDone());
+        buffer.drainTo(batch);
+        assertTrue(buffer.isDone());
+
+        assertFalse(this.buffer.isDone());
+    }
+}
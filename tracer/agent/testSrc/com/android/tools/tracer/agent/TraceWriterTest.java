@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.tracer.agent;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TraceWriterTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static EventBatch events(int from, int count) {
+        EventBatch events = new EventBatch();
+        for (int i = from; i < from + count; i++) {
+            // Repeat the names, as the binary format only saves each one once per block.
+            events.add(i % 2 == 0, 1, i % 3, 1000L * i, i % 2 == 0 ? "name" + i % 5 : "");
+        }
+        return events;
+    }
+
+    private static void save(TraceWriter.Format format, Path file, EventBatch... batches)
+            throws IOException {
+        try (FileChannel fd =
+                FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            for (EventBatch events : batches) {
+                TraceWriter.write(format, fd, fd.size() == 0, events);
+            }
+        }
+    }
+
+    @Test
+    public void testBinaryRoundTrip() throws IOException {
+        Path report = tmp.getRoot().toPath().resolve("report.bin");
+        save(TraceWriter.Format.BINARY, report, events(0, 10), events(10, 50));
+
+        EventBatch expected = events(0, 60);
+        EventBatch actual;
+        try (InputStream in = Files.newInputStream(report)) {
+            actual = TraceWriter.readBinary(in);
+        }
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.isBegin(i), actual.isBegin(i));
+            assertEquals(expected.getPid(i), actual.getPid(i));
+            assertEquals(expected.getTid(i), actual.getTid(i));
+            assertEquals(expected.getTimestampNs(i), actual.getTimestampNs(i));
+            assertEquals(expected.getText(i), actual.getText(i));
+        }
+    }
+
+    @Test
+    public void testConvertToJson() throws IOException {
+        Path binary = tmp.getRoot().toPath().resolve("report.bin");
+        Path json = tmp.getRoot().toPath().resolve("report.json");
+        Path converted = tmp.getRoot().toPath().resolve("converted.json");
+        save(TraceWriter.Format.BINARY, binary, events(0, 10), events(10, 50));
+        save(TraceWriter.Format.JSON, json, events(0, 10), events(10, 50));
+
+        TraceWriter.main(new String[] {binary.toString(), converted.toString()});
+
+        assertArrayEquals(Files.readAllBytes(json), Files.readAllBytes(converted));
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadNotBinary() throws IOException {
+        Path json = tmp.getRoot().toPath().resolve("report.json");
+        save(TraceWriter.Format.JSON, json, events(0, 10));
+        try (InputStream in = Files.newInputStream(json)) {
+            TraceWriter.readBinary(in);
+        }
+    }
+}
@@ -94,6 +94,27 @@ if [ "$OUT" != "$EXPECTED" ]; then
   fail "Expected output with agent does not match"
 fi
 
+# Now run saving a binary report, which must convert to the same JSON
+if [ -f report.bin ]; then
+  fail "Binary report should not exist before execution"
+fi
+OUT=$(tools/base/tracer/trace_test --jvm_flag=-javaagent:tools/base/tracer/trace_agent.jar=tools/base/tracer/agent/testSrc/com/android/tools/tracer/test_binary.profile)
+if [ ! -f report.bin ]; then
+  fail "Binary report with profile should exist"
+fi
+
+if [ "$OUT" != "$EXPECTED" ]; then
+  fail "Expected output with agent and binary report does not match"
+fi
+
+tools/base/tracer/trace_convert report.bin converted.json || fail "Binary report could not be converted"
+JSON=$(cat converted.json | sed "s/.*\"name\" : //")
+
+if [ "$EXPECTED_JSON" != "$JSON" ]; then
+  echo $JSON
+  fail "Converted binary report does not match"
+fi
+
 # Now run with no profile
 OUT=$(tools/base/tracer/trace_test --jvm_flag=-javaagent:tools/base/tracer/trace_agent.jar)
 
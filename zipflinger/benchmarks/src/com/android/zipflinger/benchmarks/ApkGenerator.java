@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.zipflinger.benchmarks;
+
+import com.android.zipflinger.BytesSource;
+import com.android.zipflinger.ZipArchive;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+/**
+ * Generates the APKs the benchmarks run against. An APK is described by a profile name such as
+ * {@code "100MB_10k"}: its total uncompressed size and its number of entries.
+ *
+ * <p>Generated APKs are kept in the temporary directory, so that they are only generated once for
+ * all the benchmarks and forks of a run.
+ */
+public class ApkGenerator {
+
+    // The profiles used by the benchmarks, as values of a JMH @Param.
+    public static final String PROFILE_10MB = "10MB_1k";
+    public static final String PROFILE_100MB = "100MB_10k";
+    public static final String PROFILE_1GB = "1GB_100k";
+
+    /** Size of the content pool entries are sliced from. */
+    private static final int POOL_SIZE = 1 << 22;
+
+    private static final Path DIR =
+            Paths.get(System.getProperty("java.io.tmpdir"), "zipflinger-benchmarks");
+
+    /** Returns the APK for the given profile, generating it if needed. */
+    public static Path get(String profile) throws IOException {
+        Path apk = DIR.resolve(profile + ".apk");
+        if (Files.exists(apk)) {
+            return apk;
+        }
+
+        Files.createDirectories(DIR);
+        Path tmp = Files.createTempFile(DIR, profile, ".tmp");
+        Files.delete(tmp);
+        long size = getSize(profile);
+        int count = getEntryCount(profile);
+        int entrySize = (int) (size / count);
+        byte[] pool = contentPool(POOL_SIZE);
+        Random random = new Random(0);
+        try (ZipArchive archive = new ZipArchive(tmp)) {
+            archive.add(
+                    new BytesSource(
+                            slice(pool, random, 4096), "AndroidManifest.xml", Deflater.BEST_SPEED));
+            for (int i = 0; i < count; i++) {
+                byte[] bytes = slice(pool, random, Math.min(entrySize, POOL_SIZE));
+                // Like in a real APK, most entries are stored and only some are compressed.
+                int level = i % 10 == 0 ? Deflater.BEST_SPEED : Deflater.NO_COMPRESSION;
+                archive.add(new BytesSource(bytes, String.format("res/raw/%06d", i), level));
+            }
+        }
+        Files.move(tmp, apk, StandardCopyOption.ATOMIC_MOVE);
+        return apk;
+    }
+
+    /** Copies the APK for the given profile to a new file, for benchmarks which modify it. */
+    public static Path copy(String profile, Path dst) throws IOException {
+        Files.copy(get(profile), dst, StandardCopyOption.REPLACE_EXISTING);
+        return dst;
+    }
+
+    /** Returns the name of an entry of the APK for the given profile. */
+    public static String entryName(String profile, int index) {
+        return String.format("res/raw/%06d", index % getEntryCount(profile));
+    }
+
+    public static int getEntryCount(String profile) {
+        String count = profile.substring(profile.indexOf('_') + 1);
+        return Integer.parseInt(count.substring(0, count.length() - 1)) * 1000;
+    }
+
+    public static long getSize(String profile) {
+        String size = profile.substring(0, profile.indexOf('_'));
+        long megabytes = Long.parseLong(size.substring(0, size.length() - 2));
+        return (size.endsWith("GB") ? megabytes * 1024 : megabytes) * 1024 * 1024;
+    }
+
+    /**
+     * Returns bytes which compress about as well as the content of an APK: runs of repeated
+     * tokens mixed with random bytes.
+     */
+    public static byte[] contentPool(int size) {
+        Random random = new Random(1);
+        byte[] pool = new byte[size];
+        byte[][] tokens = new byte[256][];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = new byte[4 + random.nextInt(28)];
+            random.nextBytes(tokens[i]);
+        }
+        int i = 0;
+        while (i < size) {
+            if (random.nextInt(4) == 0) {
+                pool[i++] = (byte) random.nextInt();
+            } else {
+                byte[] token = tokens[random.nextInt(tokens.length)];
+                int length = Math.min(token.length, size - i);
+                System.arraycopy(token, 0, pool, i, length);
+                i += length;
+            }
+        }
+        return pool;
+    }
+
+    private static byte[] slice(byte[] pool, Random random, int size) {
+        byte[] bytes = new byte[size];
+        System.arraycopy(pool, random.nextInt(pool.length - size + 1), bytes, 0, size);
+        return bytes;
+    }
+}
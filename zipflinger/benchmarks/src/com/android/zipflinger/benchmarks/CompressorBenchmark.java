@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.zipflinger.benchmarks;
+
+import com.android.zipflinger.Compressor;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@link Compressor#deflate} and {@link Compressor#pipe} on entries of the sizes found in the
+ * generated APKs: 10 KiB resources for the largest ones and 10 MiB native libraries or dex files.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CompressorBenchmark {
+
+    @Param({"10240", "1048576", "10485760"})
+    public int size;
+
+    @Param({"1", "6"})
+    public int level;
+
+    private byte[] bytes;
+
+    private byte[] deflated;
+
+    @Setup
+    public void setUp() throws IOException {
+        bytes = ApkGenerator.contentPool(size);
+        ByteBuffer buffer = Compressor.deflate(bytes, level);
+        deflated = Arrays.copyOf(buffer.array(), buffer.limit());
+    }
+
+    @Benchmark
+    public ByteBuffer deflate() throws IOException {
+        return Compressor.deflate(bytes, level);
+    }
+
+    /** Re-compresses a deflated entry, as when copying an entry with a different level. */
+    @Benchmark
+    public void pipe(Blackhole blackhole) throws IOException {
+        Compressor.pipe(
+                new ByteArrayInputStream(deflated),
+                new BlackholeOutputStream(blackhole),
+                true,
+                level == Deflater.BEST_SPEED ? Deflater.DEFAULT_COMPRESSION : Deflater.BEST_SPEED);
+    }
+
+    private static class BlackholeOutputStream extends OutputStream {
+        private final Blackhole blackhole;
+
+        BlackholeOutputStream(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(int b) {
+            blackhole.consume(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            blackhole.consume(b);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.zipflinger.benchmarks;
+
+import com.android.tools.perflogger.Benchmark;
+import com.android.tools.perflogger.PerfData;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.TreeSet;
+import org.junit.Test;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks of this package and logs their scores to Perfgate, one metric per
+ * benchmark and set of parameters, e.g. {@code ZipArchiveBenchmark.add_profile=100MB_10k} in the
+ * "Zipflinger Benchmarks" dashboard.
+ *
+ * <p>The benchmarks to run can be restricted with a regular expression in the {@code
+ * zipflinger.benchmarks} system property.
+ */
+public class PerfgateBenchmarks {
+
+    private static final Benchmark BENCHMARK =
+            new Benchmark.Builder("Zipflinger Benchmarks")
+                    .setDescription(
+                            "JMH benchmarks of zipflinger, signflinger and apkparser, see"
+                                    + " tools/base/zipflinger/benchmarks")
+                    .build();
+
+    @Test
+    public void run() throws Exception {
+        Options options =
+                new OptionsBuilder()
+                        .include(
+                                System.getProperty(
+                                        "zipflinger.benchmarks",
+                                        PerfgateBenchmarks.class.getPackage().getName()
+                                                + ".*Benchmark\\."))
+                        .build();
+        Collection<RunResult> results = new Runner(options).run();
+
+        PerfData perfData = new PerfData();
+        perfData.addBenchmark(BENCHMARK);
+        for (RunResult result : results) {
+            BENCHMARK.log(
+                    getMetricName(result.getParams()),
+                    Math.round(result.getPrimaryResult().getScore()));
+        }
+        perfData.commit();
+    }
+
+    private static String getMetricName(BenchmarkParams params) {
+        String benchmark = params.getBenchmark();
+        String className = benchmark.substring(0, benchmark.lastIndexOf('.'));
+        StringBuilder name =
+                new StringBuilder(benchmark.substring(className.lastIndexOf('.') + 1));
+        for (String key : new TreeSet<>(params.getParamsKeys())) {
+            name.append('_').append(key).append('=').append(params.getParam(key));
+        }
+        name.append('_').append(params.getTimeUnit().name().toLowerCase(Locale.US));
+        return name.toString();
+    }
+}
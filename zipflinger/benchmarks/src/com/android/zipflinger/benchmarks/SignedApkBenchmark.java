@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.zipflinger.benchmarks;
+
+import com.android.apksig.util.RunnablesExecutor;
+import com.android.apksig.util.RunnablesProvider;
+import com.android.signflinger.SignedApk;
+import com.android.signflinger.SignedApkOptions;
+import com.android.zipflinger.BytesSource;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Signing of an APK with {@link SignedApk} after adding an entry to it, with each signature
+ * scheme. Each run starts from a fresh, unsigned copy of the APK made outside of the measured time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SignedApkBenchmark {
+
+    private static final String KEYS = "tools/base/signflinger/test/resources/";
+
+    @Param({ApkGenerator.PROFILE_10MB, ApkGenerator.PROFILE_100MB, ApkGenerator.PROFILE_1GB})
+    public String profile;
+
+    @Param({"v1", "v2", "v3"})
+    public String scheme;
+
+    private SignedApkOptions options;
+
+    private Path work;
+
+    private byte[] payload;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws Exception {
+        ApkGenerator.get(profile);
+        work = Files.createTempFile("signedApkBenchmark", ".apk");
+        payload = ApkGenerator.contentPool(1 << 16);
+
+        PrivateKey privateKey =
+                SignedApkOptions.bytesToPrivateKey(
+                        "rsa", Files.readAllBytes(Paths.get(KEYS + "rsa-2048.pk8")));
+        List<X509Certificate> certificates =
+                SignedApkOptions.bytesToCertificateChain(
+                        Files.readAllBytes(Paths.get(KEYS + "rsa-2048.x509.pem")));
+        options =
+                new SignedApkOptions.Builder()
+                        .setV1Enabled(scheme.equals("v1"))
+                        .setV1TrustManifest(true)
+                        .setV2Enabled(scheme.equals("v2"))
+                        .setV3Enabled(scheme.equals("v3"))
+                        .setMinSdkVersion(scheme.equals("v3") ? 28 : 21)
+                        .setPrivateKey(privateKey)
+                        .setCertificates(certificates)
+                        .setExecutor(createExecutor())
+                        .build();
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() throws IOException {
+        ApkGenerator.copy(profile, work);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws IOException {
+        Files.deleteIfExists(work);
+    }
+
+    @Benchmark
+    public void addAndSign() throws IOException {
+        try (SignedApk apk = new SignedApk(work.toFile(), options)) {
+            apk.add(new BytesSource(payload, "assets/added", Deflater.BEST_SPEED));
+        }
+    }
+
+    private static RunnablesExecutor createExecutor() {
+        return (RunnablesProvider provider) -> {
+            ForkJoinPool forkJoinPool = ForkJoinPool.commonPool();
+            int jobCount = forkJoinPool.getParallelism();
+            List<Future<?>> jobs = new ArrayList<>(jobCount);
+
+            for (int i = 0; i < jobCount; i++) {
+                jobs.add(forkJoinPool.submit(provider.createRunnable()));
+            }
+
+            try {
+                for (Future<?> future : jobs) {
+                    future.get();
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        };
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.zipflinger.benchmarks;
+
+import com.google.devrel.gmscore.tools.apk.arsc.BinaryResourceString;
+import com.google.devrel.gmscore.tools.apk.arsc.Chunk;
+import com.google.devrel.gmscore.tools.apk.arsc.StringPoolChunk;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding of a resource table string pool with {@link StringPoolChunk}, for pools with as many
+ * strings as the generated APKs have entries.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class StringPoolBenchmark {
+
+    private static final int HEADER_SIZE = 28;
+    private static final int UTF8_FLAG = 1 << 8;
+
+    @Param({"1000", "10000", "100000"})
+    public int stringCount;
+
+    @Param({"UTF8", "UTF16"})
+    public BinaryResourceString.Type type;
+
+    private byte[] pool;
+
+    @Setup
+    public void setUp() {
+        pool = createPool(stringCount, type);
+    }
+
+    @Benchmark
+    public StringPoolChunk decode() {
+        ByteBuffer buffer = ByteBuffer.wrap(pool).order(ByteOrder.LITTLE_ENDIAN);
+        return (StringPoolChunk) Chunk.newInstance(buffer);
+    }
+
+    /** Returns a string pool chunk with strings like the file names of a resource table. */
+    private static byte[] createPool(int count, BinaryResourceString.Type type) {
+        Random random = new Random(0);
+        ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        int[] offsets = new int[count];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = strings.size();
+            String name =
+                    String.format(
+                            "res/drawable-xxhdpi-v4/ic_%s_%06d.png",
+                            Long.toString(random.nextLong() & Long.MAX_VALUE, 36),
+                            i);
+            byte[] encoded = BinaryResourceString.encodeString(name, type);
+            strings.write(encoded, 0, encoded.length);
+        }
+        while (strings.size() % 4 != 0) {
+            strings.write(0);
+        }
+
+        int stringsStart = HEADER_SIZE + 4 * count;
+        int chunkSize = stringsStart + strings.size();
+        ByteBuffer buffer = ByteBuffer.allocate(chunkSize).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putShort(Chunk.Type.STRING_POOL.code());
+        buffer.putShort((short) HEADER_SIZE);
+        buffer.putInt(chunkSize);
+        buffer.putInt(count);
+        buffer.putInt(0); // styleCount
+        buffer.putInt(type == BinaryResourceString.Type.UTF8 ? UTF8_FLAG : 0);
+        buffer.putInt(stringsStart);
+        buffer.putInt(0); // stylesStart
+        for (int offset : offsets) {
+            buffer.putInt(offset);
+        }
+        buffer.put(strings.toByteArray());
+        return buffer.array();
+    }
+}
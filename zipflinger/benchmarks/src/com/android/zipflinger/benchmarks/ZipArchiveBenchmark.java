@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.zipflinger.benchmarks;
+
+import com.android.zipflinger.BytesSource;
+import com.android.zipflinger.ZipArchive;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Incremental edits of an existing APK with {@link ZipArchive}. Each edit starts from a fresh copy
+ * of the APK, made outside of the measured time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ZipArchiveBenchmark {
+
+    @Param({ApkGenerator.PROFILE_10MB, ApkGenerator.PROFILE_100MB, ApkGenerator.PROFILE_1GB})
+    public String profile;
+
+    private Path work;
+
+    private byte[] payload;
+
+    private int iteration;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws IOException {
+        ApkGenerator.get(profile);
+        work = Files.createTempFile("zipArchiveBenchmark", ".apk");
+        payload = ApkGenerator.contentPool(1 << 16);
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() throws IOException {
+        ApkGenerator.copy(profile, work);
+        iteration++;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws IOException {
+        Files.deleteIfExists(work);
+    }
+
+    @Benchmark
+    public void add() throws IOException {
+        try (ZipArchive archive = new ZipArchive(work)) {
+            archive.add(new BytesSource(payload, "assets/added", Deflater.BEST_SPEED));
+        }
+    }
+
+    @Benchmark
+    public void delete() throws IOException {
+        try (ZipArchive archive = new ZipArchive(work)) {
+            archive.delete(ApkGenerator.entryName(profile, iteration * 7919));
+        }
+    }
+
+    @Benchmark
+    public void replace() throws IOException {
+        String name = ApkGenerator.entryName(profile, iteration * 7919);
+        try (ZipArchive archive = new ZipArchive(work)) {
+            archive.delete(name);
+            archive.add(new BytesSource(payload, name, Deflater.NO_COMPRESSION));
+        }
+    }
+
+    @Benchmark
+    public void openAndClose() throws IOException {
+        new ZipArchive(work).close();
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.zipflinger;
+
+import com.android.annotations.NonNull;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/*
+ * An InputStream draining a ByteBuffer (typically a view of a MappedZipReader).
+ * Contrary to PayloadInputStream, reading does not issue a syscall.
+ *
+ * Does not need to be closed.
+ */
+class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(@NonNull ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        int toRead = Math.min(len, buffer.remaining());
+        buffer.get(b, off, toRead);
+        return toRead;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+}
@@ -34,11 +34,15 @@ public class Compressor {
             @NonNull byte[] bytes, int offset, int size, int compressionLevel) throws IOException {
         NoCopyByteArrayOutputStream out = new NoCopyByteArrayOutputStream(size);
 
-        Deflater deflater = new Deflater(compressionLevel, true);
-
+        // Deflaters are pooled since compressing many small entries is dominated by the cost of
+        // allocating a native zlib stream. A DeflaterOutputStream does not end() a deflater it did
+        // not create so it can be safely returned to the pool once the stream is closed.
+        Deflater deflater = DeflaterPool.obtain(compressionLevel);
         try (DeflaterOutputStream dout = new DeflaterOutputStream(out, deflater)) {
             dout.write(bytes, offset, size);
             dout.flush();
+        } finally {
+            DeflaterPool.release(compressionLevel, deflater);
         }
 
         return out.getByteBuffer();
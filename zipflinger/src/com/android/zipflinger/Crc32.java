@@ -31,5 +31,69 @@ class Crc32 {
         return Ints.longToUint(crc.getValue());
     }
 
+    // Returns the crc32 of the concatenation of two byte sequences A and B, given crc(A), crc(B),
+    // and the length of B. This is zlib's crc32_combine which applies len2 zero bytes to crc1
+    // via GF(2) matrix exponentiation (log(len2) matrix squarings).
+    public static int combine(int crc1, int crc2, long len2) {
+        if (len2 <= 0) {
+            return crc1;
+        }
+
+        long[] even = new long[32]; // even-power-of-two zeros operator
+        long[] odd = new long[32]; // odd-power-of-two zeros operator
+
+        // Put operator for one zero bit in odd.
+        odd[0] = 0xEDB88320L; // CRC-32 polynomial
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+
+        gf2MatrixSquare(even, odd); // Put operator for two zero bits in even
+        gf2MatrixSquare(odd, even); // Put operator for four zero bits in odd
+
+        // Apply len2 zeros to crc1 (first square will put the operator for one zero byte, eight
+        // zero bits, in even).
+        long c1 = crc1 & 0xFFFFFFFFL;
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((len2 & 1) != 0) {
+                c1 = gf2MatrixTimes(even, c1);
+            }
+            len2 >>= 1;
+            if (len2 == 0) {
+                break;
+            }
+
+            gf2MatrixSquare(odd, even);
+            if ((len2 & 1) != 0) {
+                c1 = gf2MatrixTimes(odd, c1);
+            }
+            len2 >>= 1;
+        } while (len2 != 0);
+
+        return Ints.longToUint(c1 ^ (crc2 & 0xFFFFFFFFL));
+    }
+
+    private static long gf2MatrixTimes(@NonNull long[] mat, long vec) {
+        long sum = 0;
+        int i = 0;
+        while (vec != 0) {
+            if ((vec & 1) != 0) {
+                sum ^= mat[i];
+            }
+            vec >>>= 1;
+            i++;
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(@NonNull long[] square, @NonNull long[] mat) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2MatrixTimes(mat, mat[n]);
+        }
+    }
+
     private Crc32() {}
 }
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.zipflinger;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.Deflater;
+
+/**
+ * A source holding its payload in memory (like {@link BytesSource}) which does not read nor
+ * compress its content until {@link #prepare()} is called.
+ *
+ * <p>Contrary to {@link BytesSource} and {@link FullFileSource} which do all the work in their
+ * constructor (on the caller thread), this source lets {@link ZipArchive#add(java.util.List)}
+ * read and deflate a batch of entries concurrently when the archive was opened with {@link
+ * ZipArchiveOptions} enabling parallel compression.
+ *
+ * <p>Sizes and crc are only known once {@link #prepare()} has returned.
+ */
+public class DeferredBytesSource extends Source {
+
+    @Nullable private Path file;
+    @Nullable private byte[] bytes;
+    private final int compressionLevel;
+    private boolean prepared = false;
+
+    // Bytes to be written in the zip, after the Local File Header.
+    private ByteBuffer zipEntryPayload;
+
+    public DeferredBytesSource(@NonNull Path file, @NonNull String name, int compressionLevel) {
+        super(name);
+        this.file = file;
+        this.compressionLevel = compressionLevel;
+        if (Files.isExecutable(file)) {
+            externalAttributes |= PERMISSION_EXEC;
+        }
+    }
+
+    public DeferredBytesSource(@NonNull byte[] bytes, @NonNull String name, int compressionLevel) {
+        super(name);
+        this.bytes = bytes;
+        this.compressionLevel = compressionLevel;
+    }
+
+    // Can be called several times (and from any thread), only the first call does the work.
+    @Override
+    public synchronized void prepare() throws IOException {
+        if (prepared) {
+            return;
+        }
+        byte[] content = bytes != null ? bytes : Files.readAllBytes(file);
+        crc = Crc32.crc32(content);
+        uncompressedSize = content.length;
+        if (compressionLevel == Deflater.NO_COMPRESSION) {
+            zipEntryPayload = ByteBuffer.wrap(content);
+            compressedSize = uncompressedSize;
+            compressionFlag = LocalFileHeader.COMPRESSION_NONE;
+        } else {
+            zipEntryPayload = Compressor.deflate(content, compressionLevel);
+            compressedSize = zipEntryPayload.limit();
+            compressionFlag = LocalFileHeader.COMPRESSION_DEFLATE;
+        }
+
+        // The payload now holds what is needed. Drop references to the input.
+        file = null;
+        bytes = null;
+        prepared = true;
+    }
+
+    @Override
+    public long writeTo(@NonNull ZipWriter writer) throws IOException {
+        return writer.write(zipEntryPayload);
+    }
+}
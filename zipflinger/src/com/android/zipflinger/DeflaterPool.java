@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.zipflinger;
+
+import com.android.annotations.NonNull;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+// A process-wide pool of raw (nowrap) Deflaters, one bucket per compression level. Creating a
+// Deflater allocates a zlib stream in native memory which is expensive when thousands of small
+// entries are compressed. Instances are reset before being returned to the pool. A bucket never
+// keeps more than MAX_POOLED_PER_LEVEL idle instances, extra ones are released immediately.
+final class DeflaterPool {
+
+    private static final int MAX_POOLED_PER_LEVEL = Runtime.getRuntime().availableProcessors();
+
+    // Levels go from Deflater.DEFAULT_COMPRESSION (-1) to Deflater.BEST_COMPRESSION (9).
+    private static final int NUM_LEVELS = Deflater.BEST_COMPRESSION + 2;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final ConcurrentLinkedQueue<Deflater>[] pools =
+            new ConcurrentLinkedQueue[NUM_LEVELS];
+
+    private static final AtomicInteger[] idleCounts = new AtomicInteger[NUM_LEVELS];
+
+    static {
+        for (int i = 0; i < NUM_LEVELS; i++) {
+            pools[i] = new ConcurrentLinkedQueue<>();
+            idleCounts[i] = new AtomicInteger();
+        }
+    }
+
+    @NonNull
+    static Deflater obtain(int compressionLevel) {
+        int index = indexOf(compressionLevel);
+        Deflater deflater = pools[index].poll();
+        if (deflater == null) {
+            return new Deflater(compressionLevel, true);
+        }
+        idleCounts[index].decrementAndGet();
+        return deflater;
+    }
+
+    // The caller must not use the deflater after releasing it.
+    static void release(int compressionLevel, @NonNull Deflater deflater) {
+        int index = indexOf(compressionLevel);
+        if (idleCounts[index].incrementAndGet() > MAX_POOLED_PER_LEVEL) {
+            idleCounts[index].decrementAndGet();
+            deflater.end();
+            return;
+        }
+        deflater.reset();
+        pools[index].offer(deflater);
+    }
+
+    private static int indexOf(int compressionLevel) {
+        if (compressionLevel < Deflater.DEFAULT_COMPRESSION
+                || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+        }
+        return compressionLevel + 1;
+    }
+
+    private DeflaterPool() {}
+}
@@ -17,8 +17,10 @@ package com.android.zipflinger;
 
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -46,6 +48,18 @@ public class LargeFileSource extends Source {
             @NonNull String name,
             int compressionLevel)
             throws IOException {
+        this(src, tmpStorage, name, compressionLevel, null);
+    }
+
+    // Same as above but if a ParallelDeflater is provided, the file is split in blocks deflated
+    // concurrently. The resulting payload is a regular deflate stream.
+    public LargeFileSource(
+            @NonNull Path src,
+            @Nullable Path tmpStorage,
+            @NonNull String name,
+            int compressionLevel,
+            @Nullable ParallelDeflater parallelDeflater)
+            throws IOException {
         super(name);
         this.compressionLevel = compressionLevel;
 
@@ -54,6 +68,14 @@ public class LargeFileSource extends Source {
             throw new IllegalStateException(msg);
         }
 
+        if (compressionLevel != Deflater.NO_COMPRESSION && parallelDeflater != null) {
+            try (InputStream in = Files.newInputStream(src)) {
+                buildCompressedInParallel(in, compressionLevel, tmpStorage, parallelDeflater);
+                transferSrc = tmpStorage;
+            }
+            return;
+        }
+
         try (CheckedInputStream in =
                 new CheckedInputStream(Files.newInputStream(src), new CRC32())) {
             if (compressionLevel == Deflater.NO_COMPRESSION) {
@@ -131,6 +153,31 @@ public class LargeFileSource extends Source {
         compressionFlag = LocalFileHeader.COMPRESSION_DEFLATE;
     }
 
+    private void buildCompressedInParallel(
+            @NonNull InputStream in,
+            int compressionLevel,
+            @NonNull Path tmp,
+            @NonNull ParallelDeflater parallelDeflater)
+            throws IOException {
+        if (Files.exists(tmp)) {
+            String msg = String.format("Tmp storage '%s' already exists", tmp.toAbsolutePath());
+            throw new IllegalStateException(msg);
+        }
+
+        ParallelDeflater.Result result;
+        try (OutputStream out =
+                new BufferedOutputStream(
+                        Files.newOutputStream(tmp, StandardOpenOption.CREATE_NEW))) {
+            // Just in case we crash before writeTo is called, attempt to clean up on VM exit.
+            tmp.toFile().deleteOnExit();
+            result = parallelDeflater.deflate(in, out, compressionLevel);
+        }
+        crc = result.crc;
+        compressedSize = result.compressedSize;
+        uncompressedSize = result.uncompressedSize;
+        compressionFlag = LocalFileHeader.COMPRESSION_DEFLATE;
+    }
+
     @Override
     public void prepare() throws IOException {}
 
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.zipflinger;
+
+import com.android.annotations.NonNull;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only view of a zip archive backed by a memory mapping of the whole file.
+ *
+ * <p>Parsing the Central Directory off the mapping avoids copying it to the heap and turns the
+ * per-entry Local File Header lookups (one read syscall each with a FileChannel) into plain memory
+ * accesses. The FileChannel is kept open so payloads can still be zero-copied with transferTo.
+ *
+ * <p>Only archives smaller than 2GiB can be mapped. Use {@link #canMap(Path)} to decide whether to
+ * fall back to the regular channel based parsing.
+ *
+ * <p>Closing the reader closes the channel. The mapping stays valid, the JVM unmaps the file once
+ * neither the reader nor the views returned by {@link #slice(Location)} are referenced.
+ */
+public class MappedZipReader implements Closeable {
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer mapping;
+
+    public MappedZipReader(@NonNull Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                String msg = String.format("Cannot map '%s' (%d bytes, max 2GiB)", file, size);
+                throw new IllegalStateException(msg);
+            }
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mapping.order(ByteOrder.LITTLE_ENDIAN);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public static boolean canMap(@NonNull Path file) throws IOException {
+        return Files.size(file) <= Integer.MAX_VALUE;
+    }
+
+    @NonNull
+    public Path getPath() {
+        return file;
+    }
+
+    @NonNull
+    FileChannel getChannel() {
+        return channel;
+    }
+
+    long size() {
+        return mapping.capacity();
+    }
+
+    /** Returns a little-endian, read-only view of the mapping covering the location. */
+    @NonNull
+    ByteBuffer slice(@NonNull Location location) {
+        if (location.first < 0 || location.first + location.size() > mapping.capacity()) {
+            String msg = String.format("Location %s not within '%s' boundaries", location, file);
+            throw new IllegalStateException(msg);
+        }
+        ByteBuffer view = mapping.duplicate();
+        view.position(Math.toIntExact(location.first));
+        view.limit(Math.toIntExact(location.first + location.size()));
+        return view.slice().asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    short getShort(long offset) {
+        return mapping.getShort(Math.toIntExact(offset));
+    }
+
+    int getInt(long offset) {
+        return mapping.getInt(Math.toIntExact(offset));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.zipflinger;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Deflates a single stream by splitting it in fixed size blocks which are compressed concurrently
+ * (a la pigz).
+ *
+ * <p>Each block is compressed with its own raw Deflater, primed with the last 32KiB of the
+ * previous block as a dictionary so back-references can still cross block boundaries. All blocks
+ * but the last one end with a SYNC_FLUSH (an empty stored block) which byte-aligns the output.
+ * Only the last block is terminated with BFINAL. The concatenation of all blocks is therefore one
+ * valid raw deflate stream which any inflater can decode.
+ *
+ * <p>The crc32 of each block is computed by the worker compressing it. Block crcs are combined in
+ * order into the crc of the whole stream.
+ *
+ * <p>The compression ratio is within a fraction of a percent of a single-threaded Deflater since
+ * the dictionary carries over, at the cost of five bytes per block.
+ */
+public class ParallelDeflater {
+
+    // Deflate back-references cannot go further than 32KiB.
+    static final int DICTIONARY_SIZE = 32 * 1024;
+
+    public static final int MIN_BLOCK_SIZE = 128 * 1024;
+    public static final int MAX_BLOCK_SIZE = 1024 * 1024;
+    public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+
+    private final ExecutorService executor;
+    private final int parallelism;
+    private final int blockSize;
+
+    /**
+     * @param executor The executor where blocks are compressed. It is never shut down by this
+     *     object.
+     * @param parallelism The maximum number of blocks compressed concurrently. This also bounds
+     *     memory usage to roughly (2 * parallelism * blockSize).
+     * @param blockSize The size of uncompressed blocks (between MIN_BLOCK_SIZE and MAX_BLOCK_SIZE).
+     */
+    public ParallelDeflater(@NonNull ExecutorService executor, int parallelism, int blockSize) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+        }
+        if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE) {
+            String msg =
+                    String.format(
+                            "Block size %d not in [%d, %d]",
+                            blockSize, MIN_BLOCK_SIZE, MAX_BLOCK_SIZE);
+            throw new IllegalArgumentException(msg);
+        }
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.blockSize = blockSize;
+    }
+
+    public ParallelDeflater(@NonNull ExecutorService executor, int parallelism) {
+        this(executor, parallelism, DEFAULT_BLOCK_SIZE);
+    }
+
+    public static class Result {
+        public final int crc;
+        public final long uncompressedSize;
+        public final long compressedSize;
+
+        Result(int crc, long uncompressedSize, long compressedSize) {
+            this.crc = crc;
+            this.uncompressedSize = uncompressedSize;
+            this.compressedSize = compressedSize;
+        }
+    }
+
+    private static class Block {
+        final byte[] payload;
+        final int payloadSize;
+        final int crc;
+        final int uncompressedSize;
+
+        Block(byte[] payload, int payloadSize, int crc, int uncompressedSize) {
+            this.payload = payload;
+            this.payloadSize = payloadSize;
+            this.crc = crc;
+            this.uncompressedSize = uncompressedSize;
+        }
+    }
+
+    /**
+     * Drain the InputStream and write its raw deflated content to the OutputStream. Neither stream
+     * is closed.
+     */
+    @NonNull
+    public Result deflate(@NonNull InputStream in, @NonNull OutputStream out, int compressionLevel)
+            throws IOException {
+        ArrayDeque<Future<Block>> pending = new ArrayDeque<>();
+        int crc = 0;
+        long uncompressedSize = 0;
+        long compressedSize = 0;
+
+        try {
+            byte[] previous = null;
+            byte[] current = readBlock(in);
+            // Always emit at least one (final) block so an empty input yields a valid stream.
+            do {
+                byte[] next = current.length == blockSize ? readBlock(in) : new byte[0];
+                boolean last = next.length == 0;
+                byte[] dictionary = previous == null ? null : tail(previous);
+                byte[] input = current;
+                pending.add(
+                        executor.submit(
+                                () -> compressBlock(input, dictionary, compressionLevel, last)));
+
+                // Throttle reading so memory stays bounded.
+                while (pending.size() >= parallelism) {
+                    Block block = await(pending.poll());
+                    out.write(block.payload, 0, block.payloadSize);
+                    crc = Crc32.combine(crc, block.crc, block.uncompressedSize);
+                    uncompressedSize += block.uncompressedSize;
+                    compressedSize += block.payloadSize;
+                }
+
+                previous = current;
+                current = next;
+            } while (current.length != 0);
+
+            while (!pending.isEmpty()) {
+                Block block = await(pending.poll());
+                out.write(block.payload, 0, block.payloadSize);
+                crc = Crc32.combine(crc, block.crc, block.uncompressedSize);
+                uncompressedSize += block.uncompressedSize;
+                compressedSize += block.payloadSize;
+            }
+        } finally {
+            for (Future<Block> future : pending) {
+                future.cancel(true);
+            }
+        }
+
+        return new Result(crc, uncompressedSize, compressedSize);
+    }
+
+    @NonNull
+    private byte[] readBlock(@NonNull InputStream in) throws IOException {
+        byte[] bytes = new byte[blockSize];
+        int total = 0;
+        int read;
+        while (total < blockSize && (read = in.read(bytes, total, blockSize - total)) != -1) {
+            total += read;
+        }
+        return total == blockSize ? bytes : Arrays.copyOf(bytes, total);
+    }
+
+    @NonNull
+    private static byte[] tail(@NonNull byte[] bytes) {
+        int size = Math.min(DICTIONARY_SIZE, bytes.length);
+        return Arrays.copyOfRange(bytes, bytes.length - size, bytes.length);
+    }
+
+    @NonNull
+    private static Block compressBlock(
+            @NonNull byte[] input, @Nullable byte[] dictionary, int compressionLevel, boolean last) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(input, 0, input.length);
+
+        Deflater deflater = DeflaterPool.obtain(compressionLevel);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(input);
+            if (last) {
+                deflater.finish();
+            }
+
+            // Incompressible data grows by a few bytes per 16KiB stored block.
+            byte[] output = new byte[input.length + input.length / 1000 + 64];
+            int written = 0;
+            while (true) {
+                if (written == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                int flush = last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH;
+                written += deflater.deflate(output, written, output.length - written, flush);
+                if (last ? deflater.finished() : written < output.length) {
+                    break;
+                }
+            }
+            return new Block(output, written, Ints.longToUint(crc32.getValue()), input.length);
+        } finally {
+            DeflaterPool.release(compressionLevel, deflater);
+        }
+    }
+
+    @NonNull
+    private static Block await(@NonNull Future<Block> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while deflating", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to deflate block", e.getCause());
+        }
+    }
+}
@@ -51,6 +51,21 @@ public class Sources {
         }
     }
 
+    // Files larger than LARGE_LIMIT are deflated in parallel blocks.
+    public static Source from(
+            Path path,
+            @NonNull String name,
+            int compressionLevel,
+            @NonNull ParallelDeflater parallelDeflater)
+            throws IOException {
+        if (Files.size(path) > LARGE_LIMIT) {
+            Path tmp = LargeFileSource.getTmpStoragePath(path.getFileName().toString());
+            return new LargeFileSource(path, tmp, name, compressionLevel, parallelDeflater);
+        } else {
+            return new BytesSource(path, name, compressionLevel);
+        }
+    }
+
     public static Source from(InputStream in, String name, int compressionLevel)
             throws IOException {
         return from(in, name, compressionLevel, LARGE_LIMIT);
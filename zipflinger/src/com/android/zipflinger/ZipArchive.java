@@ -17,6 +17,7 @@ package com.android.zipflinger;
 
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
+import com.android.annotations.VisibleForTesting;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -24,9 +25,17 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ZipArchive implements Archive {
     private final FreeStore freestore;
@@ -36,6 +45,8 @@ public class ZipArchive implements Archive {
     private final ZipWriter writer;
     private final ZipReader reader;
     private final Zip64.Policy policy;
+    private final ZipArchiveOptions options;
+    private ExecutorService ownedExecutor;
     private ZipInfo zipInfo;
     private boolean modified;
 
@@ -52,8 +63,19 @@ public class ZipArchive implements Archive {
      * @param file the file object
      */
     public ZipArchive(@NonNull Path file, Zip64.Policy policy) throws IOException {
+        this(file, new ZipArchiveOptions.Builder().setZip64Policy(policy).build());
+    }
+
+    /**
+     * The object used to manipulate a zip archive.
+     *
+     * @param file the file object
+     * @param options the options controlling zip64 policy and parallel compression
+     */
+    public ZipArchive(@NonNull Path file, @NonNull ZipArchiveOptions options) throws IOException {
         this.file = file;
-        this.policy = policy;
+        this.options = options;
+        this.policy = options.zip64Policy;
         if (Files.exists(file)) {
             ZipMap map = ZipMap.from(file, true, policy);
             zipInfo = new ZipInfo(map.getPayloadLocation(), map.getCdLoc(), map.getEocdLoc());
@@ -159,14 +181,28 @@ public class ZipArchive implements Archive {
 
         try {
             sources.open();
-            for (Source source : sources.getSelectedEntries()) {
-                writeSource(source);
-            }
+            writeSources(sources.getSelectedEntries());
         } finally {
             sources.close();
         }
     }
 
+    /**
+     * Add a batch of sources to the archive. Entries are written in the order of the list.
+     *
+     * <p>If the archive was created with {@link ZipArchiveOptions} enabling parallel compression,
+     * sources are prepared concurrently (see {@link DeferredBytesSource}) while the calling thread
+     * writes the ones already prepared. The resulting archive is the same as if each source had
+     * been added one at a time via {@link #add(Source)}.
+     */
+    public void add(@NonNull List<? extends Source> sources) throws IOException {
+        if (closed) {
+            throw new IllegalStateException(
+                    String.format("Cannot add sources to closed archive %s", file));
+        }
+        writeSources(sources);
+    }
+
     /** See Archive.delete documentation */
     @Override
     public void delete(@NonNull String name) {
@@ -200,6 +236,10 @@ public class ZipArchive implements Archive {
         try (ZipWriter w = writer;
                 ZipReader r = reader) {
             writeArchive(w);
+        } finally {
+            if (ownedExecutor != null) {
+                ownedExecutor.shutdown();
+            }
         }
         return zipInfo;
     }
@@ -209,6 +249,16 @@ public class ZipArchive implements Archive {
         return file;
     }
 
+    /**
+     * Returns every region of the file written to by this archive (entries, virtual entries, CD,
+     * and EOCD). Bytes outside these regions are the same as when the archive was opened. This
+     * allows signers to only re-hash what changed.
+     */
+    @NonNull
+    public List<Location> getWrittenLocations() {
+        return writer.getWrittenLocations();
+    }
+
     public boolean isClosed() {
         return closed;
     }
@@ -292,16 +342,149 @@ public class ZipArchive implements Archive {
         }
     }
 
+    private void writeSources(@NonNull List<? extends Source> sources) throws IOException {
+        if (!options.isParallel() || sources.size() < 2) {
+            for (Source source : sources) {
+                writeSource(source);
+            }
+            return;
+        }
+
+        // Workers claim sources in list order, so this thread can write entries as soon as they
+        // are ready while keeping the output deterministic. A prepared source holds its whole
+        // payload in memory: workers take a permit before claiming a source, and this thread only
+        // gives it back once the source is written, so that workers do not run ahead of a slower
+        // writer by more than maxPreparedSources.
+        List<CompletableFuture<Void>> prepared = new ArrayList<>(sources.size());
+        for (int i = 0; i < sources.size(); i++) {
+            prepared.add(new CompletableFuture<>());
+        }
+        int numWorkers = Math.min(options.compressionParallelism, sources.size());
+        Semaphore preparedPermits = new Semaphore(maxPreparedSources(options));
+        CountDownLatch workersDone = new CountDownLatch(numWorkers);
+        AtomicInteger next = new AtomicInteger(0);
+        Runnable worker =
+                () -> {
+                    try {
+                        while (true) {
+                            preparedPermits.acquireUninterruptibly();
+                            int i = next.getAndIncrement();
+                            if (i >= sources.size()) {
+                                preparedPermits.release();
+                                return;
+                            }
+                            try {
+                                sources.get(i).prepare();
+                                prepared.get(i).complete(null);
+                            } catch (Throwable t) {
+                                prepared.get(i).completeExceptionally(t);
+                            }
+                        }
+                    } finally {
+                        workersDone.countDown();
+                    }
+                };
+
+        ExecutorService executor = getExecutor();
+        for (int i = 0; i < numWorkers; i++) {
+            executor.execute(worker);
+        }
+
+        try {
+            for (int i = 0; i < sources.size(); i++) {
+                awaitPrepared(prepared.get(i));
+                Source source = sources.get(i);
+                if (!skipSource(source)) {
+                    modified = true;
+                    validateName(source);
+                    writePreparedSource(source);
+                }
+                preparedPermits.release();
+            }
+        } finally {
+            // If we stopped early, make workers bail out, and wait for the ones still preparing
+            // a source since the caller may close what the sources read from.
+            next.set(sources.size());
+            preparedPermits.release(numWorkers);
+            awaitUninterruptibly(workersDone);
+        }
+    }
+
+    @VisibleForTesting
+    static int maxPreparedSources(@NonNull ZipArchiveOptions options) {
+        return 2 * options.compressionParallelism;
+    }
+
+    private static void awaitUninterruptibly(@NonNull CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @NonNull
+    private synchronized ExecutorService getExecutor() {
+        if (options.executor != null) {
+            return options.executor;
+        }
+        if (ownedExecutor == null) {
+            ownedExecutor =
+                    Executors.newFixedThreadPool(
+                            options.compressionParallelism,
+                            r -> {
+                                Thread t = new Thread(r, "zipflinger-compressor");
+                                t.setDaemon(true);
+                                return t;
+                            });
+        }
+        return ownedExecutor;
+    }
+
+    private static void awaitPrepared(@NonNull CompletableFuture<Void> future)
+            throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while preparing source", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    // If this is a directory and it is already in the archive, just no-op.
+    private boolean skipSource(@NonNull Source source) {
+        return Source.isNameDirectory(source.getName()) && cd.contains(source.getName());
+    }
+
     private void writeSource(@NonNull Source source) throws IOException {
-        // If this is a directory and it is already in the archive, just no-op.
-        if (Source.isNameDirectory(source.getName()) && cd.contains(source.getName())) {
+        if (skipSource(source)) {
             return;
         }
 
         modified = true;
         validateName(source);
         source.prepare();
+        writePreparedSource(source);
+    }
 
+    private void writePreparedSource(@NonNull Source source) throws IOException {
         // Calculate the size we need (header + payload)
         LocalFileHeader lfh = new LocalFileHeader(source);
         long headerSize = lfh.getSize();
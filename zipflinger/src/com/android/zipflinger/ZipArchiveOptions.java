@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.zipflinger;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Options for ZipArchive.
+ *
+ * <p>By default, an archive prepares (reads, deflates) sources on the calling thread. Setting a
+ * compression parallelism greater than one lets {@link ZipArchive#add(java.util.List)} and {@link
+ * ZipArchive#add(ZipSource)} prepare sources concurrently. Local headers and payloads are still
+ * written by the calling thread, in the order the sources were submitted, so the resulting archive
+ * is identical to the one produced sequentially.
+ *
+ * <p>If no executor is provided, the archive creates a bounded thread pool of the requested
+ * parallelism and shuts it down on close. A provided executor is never shut down by the archive.
+ */
+public class ZipArchiveOptions {
+
+    @NonNull final Zip64.Policy zip64Policy;
+
+    final int compressionParallelism;
+
+    @Nullable final ExecutorService executor;
+
+    private ZipArchiveOptions(
+            @NonNull Zip64.Policy zip64Policy,
+            int compressionParallelism,
+            @Nullable ExecutorService executor) {
+        this.zip64Policy = zip64Policy;
+        this.compressionParallelism = compressionParallelism;
+        this.executor = executor;
+    }
+
+    boolean isParallel() {
+        return compressionParallelism > 1;
+    }
+
+    public static class Builder {
+        private Zip64.Policy zip64Policy = Zip64.Policy.ALLOW;
+        private int compressionParallelism = 1;
+        private ExecutorService executor;
+
+        public Builder setZip64Policy(@NonNull Zip64.Policy policy) {
+            this.zip64Policy = policy;
+            return this;
+        }
+
+        /**
+         * Sources prepared ahead of the calling thread keep their payload in memory until they are
+         * written, so no more than twice this many are prepared but not written at any time.
+         *
+         * @param parallelism The maximum number of sources prepared concurrently. A value of 1
+         *     (the default) disables parallel compression.
+         */
+        public Builder setCompressionParallelism(int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+            }
+            this.compressionParallelism = parallelism;
+            return this;
+        }
+
+        /** Use all available cores to prepare sources. */
+        public Builder setMaxCompressionParallelism() {
+            return setCompressionParallelism(Runtime.getRuntime().availableProcessors());
+        }
+
+        public Builder setExecutor(@NonNull ExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        @NonNull
+        public ZipArchiveOptions build() {
+            return new ZipArchiveOptions(zip64Policy, compressionParallelism, executor);
+        }
+    }
+}
@@ -16,6 +16,7 @@
 package com.android.zipflinger;
 
 import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -38,6 +39,9 @@ public class ZipMap {
     private final Path zipFile;
     private long fileSize;
 
+    // When present, the CD and local headers are read off the mapping instead of the channel.
+    @Nullable private final MappedZipReader mappedReader;
+
     private Location payloadLocation;
     private Location cdLocation;
     private Location eocdLocation;
@@ -48,9 +52,13 @@ public class ZipMap {
             "The provided zip (%s) is invalid. Entry '%s' name field is %d bytes"
                     + " in the Central Directory but %d in the Local File Header";
 
-    private ZipMap(@NonNull Path zipFile, boolean accountDataDescriptors) {
+    private ZipMap(
+            @NonNull Path zipFile,
+            boolean accountDataDescriptors,
+            @Nullable MappedZipReader mappedReader) {
         this.zipFile = zipFile;
         this.accountDataDescriptors = accountDataDescriptors;
+        this.mappedReader = mappedReader;
     }
 
     @NonNull
@@ -75,8 +83,24 @@ public class ZipMap {
     public static ZipMap from(
             @NonNull Path zipFile, boolean accountDataDescriptors, Zip64.Policy policy)
             throws IOException {
-        ZipMap map = new ZipMap(zipFile, accountDataDescriptors);
-        map.parse(policy);
+        ZipMap map = new ZipMap(zipFile, accountDataDescriptors, null);
+        try (FileChannel channel = FileChannel.open(zipFile, StandardOpenOption.READ)) {
+            map.parse(channel, policy);
+        }
+        return map;
+    }
+
+    /**
+     * Parse an archive via its memory mapping. The Central Directory of the returned map is a view
+     * of the mapping, which keeps the file mapped after the reader has been closed until the map is
+     * garbage collected. The map must not be used to edit the archive in place (see {@link
+     * ZipArchive}).
+     */
+    @NonNull
+    public static ZipMap from(@NonNull MappedZipReader reader, Zip64.Policy policy)
+            throws IOException {
+        ZipMap map = new ZipMap(reader.getPath(), false, reader);
+        map.parse(reader.getChannel(), policy);
         return map;
     }
 
@@ -95,43 +119,38 @@ public class ZipMap {
         return eocdLocation;
     }
 
-    private void parse(Zip64.Policy policy) throws IOException {
-        try (FileChannel channel = FileChannel.open(zipFile, StandardOpenOption.READ)) {
-            fileSize = channel.size();
+    private void parse(@NonNull FileChannel channel, Zip64.Policy policy) throws IOException {
+        fileSize = channel.size();
 
-            eocd = EndOfCentralDirectory.find(channel);
-            if (!eocd.getLocation().isValid()) {
-                throw new IllegalStateException(
-                        String.format("Could not find EOCD in '%s'", zipFile));
-            }
-            eocdLocation = eocd.getLocation();
-            cdLocation = eocd.getCdLocation();
-
-            // Check if this is a zip64 archive
-            Zip64Locator locator = Zip64Locator.find(channel, eocd);
-            if (locator.getLocation().isValid()) {
-                if (policy == Zip64.Policy.FORBID) {
-                    String message =
-                            String.format("Cannot parse forbidden zip64 archive %s", zipFile);
-                    throw new IllegalStateException(message);
-                }
-                Zip64Eocd zip64EOCD = Zip64Eocd.parse(channel, locator.getOffsetToEOCD64());
-                cdLocation = zip64EOCD.getCdLocation();
-                if (!cdLocation.isValid()) {
-                    String message = String.format("Zip64Locator led to bad EOCD64 in %s", zipFile);
-                    throw new IllegalStateException(message);
-                }
+        eocd = EndOfCentralDirectory.find(channel);
+        if (!eocd.getLocation().isValid()) {
+            throw new IllegalStateException(String.format("Could not find EOCD in '%s'", zipFile));
+        }
+        eocdLocation = eocd.getLocation();
+        cdLocation = eocd.getCdLocation();
+
+        // Check if this is a zip64 archive
+        Zip64Locator locator = Zip64Locator.find(channel, eocd);
+        if (locator.getLocation().isValid()) {
+            if (policy == Zip64.Policy.FORBID) {
+                String message = String.format("Cannot parse forbidden zip64 archive %s", zipFile);
+                throw new IllegalStateException(message);
             }
-
+            Zip64Eocd zip64EOCD = Zip64Eocd.parse(channel, locator.getOffsetToEOCD64());
+            cdLocation = zip64EOCD.getCdLocation();
             if (!cdLocation.isValid()) {
-                throw new IllegalStateException(
-                        String.format("Could not find CD in '%s'", zipFile));
+                String message = String.format("Zip64Locator led to bad EOCD64 in %s", zipFile);
+                throw new IllegalStateException(message);
             }
+        }
 
-            parseCentralDirectory(channel, cdLocation, policy);
-
-            payloadLocation = new Location(0, cdLocation.first);
+        if (!cdLocation.isValid()) {
+            throw new IllegalStateException(String.format("Could not find CD in '%s'", zipFile));
         }
+
+        parseCentralDirectory(channel, cdLocation, policy);
+
+        payloadLocation = new Location(0, cdLocation.first);
     }
 
     private void parseCentralDirectory(
@@ -140,10 +159,15 @@ public class ZipMap {
         if (location.size() > Integer.MAX_VALUE) {
             throw new IllegalStateException("CD larger than 2GiB not supported");
         }
-        int size = Math.toIntExact(location.size());
-        ByteBuffer buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
-        channel.read(buf, location.first);
-        buf.rewind();
+        ByteBuffer buf;
+        if (mappedReader != null) {
+            buf = mappedReader.slice(location);
+        } else {
+            int size = Math.toIntExact(location.size());
+            buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(buf, location.first);
+            buf.rewind();
+        }
 
         while (buf.remaining() >= 4 && buf.getInt() == CentralDirectoryRecord.SIGNATURE) {
             Entry entry = new Entry();
@@ -365,6 +389,11 @@ public class ZipMap {
             throw new IllegalStateException(
                     "Entry :" + entry.getName() + " invalid offset (" + offset + ")");
         }
+        if (mappedReader != null) {
+            localFieldsBuffer.putInt(mappedReader.getInt(offset));
+            localFieldsBuffer.rewind();
+            return localFieldsBuffer;
+        }
         channel.read(localFieldsBuffer, offset);
         localFieldsBuffer.rewind();
         return localFieldsBuffer;
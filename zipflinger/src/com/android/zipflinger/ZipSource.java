@@ -16,7 +16,9 @@
 package com.android.zipflinger;
 
 import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
@@ -30,10 +32,43 @@ public class ZipSource {
     private FileChannel channel;
     private ZipMap map;
 
+    // Non-null between open() and close() if this source was created via mapped().
+    @Nullable private MappedZipReader mappedReader;
+    private final boolean mapped;
+
     private final List<Source> selectedEntries = new ArrayList<>();
 
     public ZipSource(ZipMap map) {
         this.map = map;
+        this.mapped = false;
+    }
+
+    private ZipSource(@NonNull ZipMap map, boolean mapped) {
+        this.map = map;
+        this.mapped = mapped;
+    }
+
+    /**
+     * Create a ZipSource backed by a memory mapping of the archive (see {@link MappedZipReader}).
+     *
+     * <p>The Central Directory is parsed without copying it to the heap. Selected entries which do
+     * not need recompression are zero-copied to the destination (FileChannel.transferTo) and
+     * entries which do are inflated/deflated straight from the mapping.
+     *
+     * <p>The archive channel is closed once the Central Directory has been parsed, and opened again
+     * only while the archive consumes the source, so a source which is never added to an archive
+     * does not hold any file handle.
+     *
+     * <p>Archives which cannot be mapped (larger than 2GiB) fall back to a regular ZipSource.
+     */
+    @NonNull
+    public static ZipSource mapped(@NonNull Path file) throws IOException {
+        if (!MappedZipReader.canMap(file)) {
+            return new ZipSource(file);
+        }
+        try (MappedZipReader reader = new MappedZipReader(file)) {
+            return new ZipSource(ZipMap.from(reader, Zip64.Policy.ALLOW), true);
+        }
     }
 
     public ZipSource(@NonNull Path file) throws IOException {
@@ -91,15 +126,32 @@ public class ZipSource {
     }
 
     void open() throws IOException {
+        if (mapped) {
+            mappedReader = new MappedZipReader(map.getPath());
+            channel = mappedReader.getChannel();
+            return;
+        }
         channel = FileChannel.open(map.getPath(), StandardOpenOption.READ);
     }
 
     void close() throws IOException {
-        if (channel != null) {
+        if (mappedReader != null) {
+            mappedReader.close();
+            mappedReader = null;
+        } else if (channel != null) {
             channel.close();
         }
     }
 
+    // Must be called between open() and close().
+    @NonNull
+    InputStream getPayloadInputStream(@NonNull Location payloadLocation) throws IOException {
+        if (mappedReader != null) {
+            return new ByteBufferInputStream(mappedReader.slice(payloadLocation));
+        }
+        return new PayloadInputStream(channel, payloadLocation);
+    }
+
     FileChannel getChannel() {
         return channel;
     }
@@ -19,7 +19,6 @@ import com.android.annotations.NonNull;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.util.zip.Deflater;
 
 /*
@@ -53,10 +52,9 @@ class ZipSourceEntryPipe extends Source {
         }
         uncompressedSize = entry.getUncompressedSize();
 
-        FileChannel channel = zipSource.getChannel();
         Location loc = entry.getPayloadLocation();
         try (NoCopyByteArrayOutputStream out = new NoCopyByteArrayOutputStream(8192);
-                InputStream in = new PayloadInputStream(channel, loc)) {
+                InputStream in = zipSource.getPayloadInputStream(loc)) {
 
             Compressor.pipe(in, out, entry.isCompressed(), compressionLevel);
             byteBuffer = out.getByteBuffer();
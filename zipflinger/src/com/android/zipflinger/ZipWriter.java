@@ -24,12 +24,18 @@ import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public class ZipWriter implements Closeable {
     private final Path file;
     private FileChannel channel;
     private boolean isOpen;
 
+    // Every region of the file written to. Allows incremental signers to only re-hash what changed.
+    private final List<Location> writtenLocations = new ArrayList<>();
+
     public ZipWriter(Path file) {
         this.file = file;
         isOpen = false;
@@ -66,21 +72,28 @@ public class ZipWriter implements Closeable {
 
     int write(@NonNull ByteBuffer buffer, long position) throws IOException {
         ensureOpen();
-        return channel.write(buffer, position);
+        int written = channel.write(buffer, position);
+        track(position, written);
+        return written;
     }
 
     public int write(@NonNull ByteBuffer buffer) throws IOException {
         ensureOpen();
-        return channel.write(buffer);
+        long position = channel.position();
+        int written = channel.write(buffer);
+        track(position, written);
+        return written;
     }
 
     public void transferFrom(@NonNull FileChannel src, long position, long count)
             throws IOException {
         ensureOpen();
+        long start = channel.position();
         long copied = 0;
         while (copied != count) {
             copied += src.transferTo(position + copied, count - copied, channel);
         }
+        track(start, count);
     }
 
     public void transferFrom(@NonNull ReadableByteChannel src, long count) throws IOException {
@@ -91,6 +104,19 @@ public class ZipWriter implements Closeable {
             copied += channel.transferFrom(src, position + copied, count - copied);
         }
         channel.position(position + copied);
+        track(position, copied);
+    }
+
+    private void track(long position, long size) {
+        if (size > 0) {
+            writtenLocations.add(new Location(position, size));
+        }
+    }
+
+    // The regions written since this writer was created, in write order.
+    @NonNull
+    List<Location> getWrittenLocations() {
+        return Collections.unmodifiableList(writtenLocations);
     }
 
     private void ensureOpen() throws IOException {
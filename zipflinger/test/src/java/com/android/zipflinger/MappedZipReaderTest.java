@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.zipflinger;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.zip.Deflater;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MappedZipReaderTest extends AbstractZipflingerTest {
+
+    @Test
+    public void testMappedParsingMatchesChannelParsing() throws Exception {
+        Path archive = getPath("stripped.ap_");
+        Map<String, Entry> expected = ZipMap.from(archive).getEntries();
+
+        try (MappedZipReader reader = new MappedZipReader(archive)) {
+            Map<String, Entry> actual = ZipMap.from(reader, Zip64.Policy.ALLOW).getEntries();
+            Assert.assertEquals("Num entries", expected.size(), actual.size());
+            for (Entry e : expected.values()) {
+                Entry a = actual.get(e.getName());
+                Assert.assertNotNull("Entry " + e.getName(), a);
+                Assert.assertEquals("Location", e.getLocation(), a.getLocation());
+                Assert.assertEquals(
+                        "Payload location", e.getPayloadLocation(), a.getPayloadLocation());
+                Assert.assertEquals("Cd location", e.getCdLocation(), a.getCdLocation());
+                Assert.assertEquals("Crc", e.getCrc(), a.getCrc());
+            }
+        }
+    }
+
+    @Test
+    public void testMappedSourceDoesNotHoldChannel() throws Exception {
+        ZipSource source = ZipSource.mapped(getPath("1-2-3files.zip"));
+        Assert.assertEquals("Num entries", 3, source.entries().size());
+        // The channel is only opened while an archive consumes the source.
+        Assert.assertNull("Channel", source.getChannel());
+    }
+
+    @Test
+    public void testMappedMerge() throws Exception {
+        Path dst = getTestPath("mappedMerge.zip");
+        try (ZipArchive archive = new ZipArchive(dst)) {
+            // Zero-copied entries.
+            ZipSource zeroCopy = ZipSource.mapped(getPath("1-2-3files.zip"));
+            for (String name : zeroCopy.entries().keySet()) {
+                zeroCopy.select(name, name);
+            }
+            archive.add(zeroCopy);
+
+            // Force recompression so payloads are piped from the mapping.
+            ZipSource zipSource = ZipSource.mapped(getPath("4-5files.zip"));
+            for (String name : zipSource.entries().keySet()) {
+                zipSource.select(name, name, Deflater.BEST_COMPRESSION, Source.NO_ALIGNMENT);
+            }
+            archive.add(zipSource);
+
+            // The archive closes the channels it opened to consume the sources.
+            Assert.assertFalse("Channel open", zeroCopy.getChannel().isOpen());
+            Assert.assertFalse("Channel open", zipSource.getChannel().isOpen());
+        }
+
+        Map<String, Entry> entries = verifyArchive(dst);
+        Assert.assertEquals("Num entries", 5, entries.size());
+
+        try (ZipArchive archive = new ZipArchive(dst)) {
+            for (int i = 1; i <= 5; i++) {
+                String name = "file" + i + ".txt";
+                ByteBuffer content = archive.getContent(name);
+                byte[] expected = Files.readAllBytes(getPath(name));
+                Assert.assertArrayEquals(name + " content", expected, toByteArray(content));
+            }
+        }
+    }
+}
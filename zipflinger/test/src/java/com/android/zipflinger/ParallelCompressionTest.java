@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.zipflinger;
+
+import com.android.annotations.NonNull;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParallelCompressionTest extends AbstractZipflingerTest {
+
+    private static final int NUM_ENTRIES = 200;
+
+    private static List<Source> createSources(long seed) {
+        Random random = new Random(seed);
+        List<Source> sources = new ArrayList<>();
+        for (int i = 0; i < NUM_ENTRIES; i++) {
+            // Half random (incompressible), half repetitive content.
+            byte[] bytes = new byte[random.nextInt(64_000)];
+            if (i % 2 == 0) {
+                random.nextBytes(bytes);
+            }
+            sources.add(new DeferredBytesSource(bytes, "entry" + i, Deflater.BEST_SPEED));
+        }
+        return sources;
+    }
+
+    @Test
+    public void testParallelOutputMatchesSequential() throws IOException {
+        Path sequential = getTestPath("sequential.zip");
+        try (ZipArchive archive = new ZipArchive(sequential)) {
+            archive.add(createSources(1));
+        }
+
+        Path parallel = getTestPath("parallel.zip");
+        ZipArchiveOptions options =
+                new ZipArchiveOptions.Builder().setCompressionParallelism(4).build();
+        try (ZipArchive archive = new ZipArchive(parallel, options)) {
+            archive.add(createSources(1));
+        }
+
+        verifyArchive(parallel);
+        Assert.assertArrayEquals(
+                "Parallel and sequential archives are identical",
+                Files.readAllBytes(sequential),
+                Files.readAllBytes(parallel));
+    }
+
+    @Test
+    public void testParallelZipSourceRecompression() throws IOException {
+        Path dst = getTestPath("recompressed.zip");
+        ZipArchiveOptions options =
+                new ZipArchiveOptions.Builder().setMaxCompressionParallelism().build();
+        try (ZipArchive archive = new ZipArchive(dst, options)) {
+            ZipSource zipSource = new ZipSource(getPath("1-2-3files.zip"));
+            for (String name : zipSource.entries().keySet()) {
+                zipSource.select(name, name, Deflater.BEST_COMPRESSION, Source.NO_ALIGNMENT);
+            }
+            archive.add(zipSource);
+        }
+
+        Map<String, Entry> entries = verifyArchive(dst);
+        Assert.assertEquals("Num entries", 3, entries.size());
+        try (ZipArchive archive = new ZipArchive(dst)) {
+            ByteBuffer content = archive.getContent("file1.txt");
+            byte[] expected = Files.readAllBytes(getPath("file1.txt"));
+            Assert.assertArrayEquals("file1.txt content", expected, toByteArray(content));
+        }
+    }
+
+    @Test
+    public void testFailureIsReported() throws IOException {
+        Path dst = getTestPath("failure.zip");
+        ZipArchiveOptions options =
+                new ZipArchiveOptions.Builder().setCompressionParallelism(2).build();
+        List<Source> sources = createSources(2);
+        sources.add(
+                NUM_ENTRIES / 2,
+                new DeferredBytesSource(getTestPath("missing"), "missing", Deflater.BEST_SPEED));
+
+        boolean exceptionCaught = false;
+        try (ZipArchive archive = new ZipArchive(dst, options)) {
+            archive.add(sources);
+        } catch (IOException e) {
+            exceptionCaught = true;
+        }
+        Assert.assertTrue("Missing file error surfaced to caller", exceptionCaught);
+    }
+
+    @Test
+    public void testPreparedSourcesAreBoundedWhenWritingIsSlow() throws IOException {
+        Path dst = getTestPath("slowWriter.zip");
+        ZipArchiveOptions options =
+                new ZipArchiveOptions.Builder().setCompressionParallelism(4).build();
+        AtomicInteger outstanding = new AtomicInteger();
+        AtomicInteger maxOutstanding = new AtomicInteger();
+        List<Source> sources = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            sources.add(
+                    new DeferredBytesSource(new byte[1000], "entry" + i, Deflater.BEST_SPEED) {
+                        @Override
+                        public synchronized void prepare() throws IOException {
+                            super.prepare();
+                            maxOutstanding.accumulateAndGet(
+                                    outstanding.incrementAndGet(), Math::max);
+                        }
+
+                        @Override
+                        public long writeTo(@NonNull ZipWriter writer) throws IOException {
+                            sleep(5);
+                            outstanding.decrementAndGet();
+                            return super.writeTo(writer);
+                        }
+                    });
+        }
+
+        try (ZipArchive archive = new ZipArchive(dst, options)) {
+            archive.add(sources);
+        }
+
+        Assert.assertEquals("Num entries", 50, verifyArchive(dst).size());
+        Assert.assertTrue(
+                "At most " + ZipArchive.maxPreparedSources(options) + " prepared sources",
+                maxOutstanding.get() <= ZipArchive.maxPreparedSources(options));
+    }
+
+    @Test
+    public void testNoSourceIsPreparedAfterFailure() throws IOException {
+        Path dst = getTestPath("failureInFlight.zip");
+        ZipArchiveOptions options =
+                new ZipArchiveOptions.Builder().setCompressionParallelism(4).build();
+        AtomicInteger preparing = new AtomicInteger();
+        List<Source> sources = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            boolean fails = i == 1;
+            sources.add(
+                    new DeferredBytesSource(new byte[1000], "entry" + i, Deflater.BEST_SPEED) {
+                        @Override
+                        public synchronized void prepare() throws IOException {
+                            preparing.incrementAndGet();
+                            try {
+                                if (fails) {
+                                    throw new IOException("Failed to prepare");
+                                }
+                                sleep(20);
+                                super.prepare();
+                            } finally {
+                                preparing.decrementAndGet();
+                            }
+                        }
+                    });
+        }
+
+        try (ZipArchive archive = new ZipArchive(dst, options)) {
+            archive.add(sources);
+            Assert.fail("Failure surfaced to caller");
+        } catch (IOException e) {
+            Assert.assertEquals("Failed to prepare", e.getMessage());
+            // The caller may close what the sources read from now.
+            Assert.assertEquals("Sources still being prepared", 0, preparing.get());
+        }
+    }
+
+    private static void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.zipflinger;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParallelDeflaterTest extends AbstractZipflingerTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    // Compressible but not trivially so: random words from a small dictionary.
+    private static byte[] createContent(int size) {
+        Random random = new Random(size);
+        String[] words = {"zip", "flinger", "deflate", "block", "parallel", "crc", "dictionary"};
+        byte[] bytes = new byte[size];
+        int i = 0;
+        while (i < size) {
+            byte[] word = words[random.nextInt(words.length)].getBytes();
+            for (int j = 0; j < word.length && i < size; j++) {
+                bytes[i++] = word[j];
+            }
+            if (random.nextInt(10) == 0 && i < size) {
+                bytes[i++] = (byte) random.nextInt();
+            }
+        }
+        return bytes;
+    }
+
+    private static byte[] inflate(byte[] compressed, int expectedSize) throws DataFormatException {
+        Inflater inflater = new Inflater(true);
+        inflater.setInput(compressed);
+        byte[] inflated = new byte[expectedSize];
+        int inflatedSize = inflater.inflate(inflated);
+        Assert.assertTrue("Inflater reached end of stream", inflater.finished());
+        Assert.assertEquals("Inflated size", expectedSize, inflatedSize);
+        inflater.end();
+        return inflated;
+    }
+
+    private void checkRoundTrip(int size, int blockSize) throws Exception {
+        byte[] content = createContent(size);
+        ParallelDeflater deflater = new ParallelDeflater(executor, 4, blockSize);
+        NoCopyByteArrayOutputStream out = new NoCopyByteArrayOutputStream(size);
+        ParallelDeflater.Result result =
+                deflater.deflate(
+                        new ByteArrayInputStream(content), out, Deflater.DEFAULT_COMPRESSION);
+
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        Assert.assertEquals("Crc", (int) crc.getValue(), result.crc);
+        Assert.assertEquals("Uncompressed size", size, result.uncompressedSize);
+        Assert.assertEquals("Compressed size", out.getCount(), result.compressedSize);
+
+        byte[] compressed = toByteArray(out.getByteBuffer());
+        Assert.assertArrayEquals("Round trip", content, inflate(compressed, size));
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        checkRoundTrip(0, ParallelDeflater.MIN_BLOCK_SIZE);
+    }
+
+    @Test
+    public void testSmallerThanBlock() throws Exception {
+        checkRoundTrip(1000, ParallelDeflater.MIN_BLOCK_SIZE);
+    }
+
+    @Test
+    public void testExactlyOneBlock() throws Exception {
+        checkRoundTrip(ParallelDeflater.MIN_BLOCK_SIZE, ParallelDeflater.MIN_BLOCK_SIZE);
+    }
+
+    @Test
+    public void testManyBlocks() throws Exception {
+        checkRoundTrip(5_000_000, ParallelDeflater.MIN_BLOCK_SIZE);
+        checkRoundTrip(5_000_000, ParallelDeflater.MAX_BLOCK_SIZE);
+    }
+
+    @Test
+    public void testCrcCombine() {
+        byte[] content = createContent(100_000);
+        CRC32 whole = new CRC32();
+        whole.update(content);
+        int split = 31_337;
+        int crc1 = Crc32.crc32(content, 0, split);
+        int crc2 = Crc32.crc32(content, split, content.length - split);
+        int combined = Crc32.combine(crc1, crc2, content.length - split);
+        Assert.assertEquals("Combined crc", (int) whole.getValue(), combined);
+        Assert.assertEquals("Combine with empty", crc1, Crc32.combine(crc1, 0, 0));
+    }
+
+    @Test
+    public void testLargeFileSource() throws Exception {
+        Path src = getTestPath("large.bin");
+        Files.write(src, createContent(3_000_000));
+
+        Path dst = getTestPath("large.zip");
+        ParallelDeflater deflater = new ParallelDeflater(executor, 4);
+        try (ZipArchive archive = new ZipArchive(dst)) {
+            Path tmp = getTestPath("large.tmp");
+            archive.add(new LargeFileSource(src, tmp, "large.bin", Deflater.BEST_SPEED, deflater));
+        }
+
+        verifyArchive(dst);
+        try (ZipArchive archive = new ZipArchive(dst);
+                InputStream in = archive.getInputStream("large.bin")) {
+            byte[] bytes = new byte[3_000_000];
+            int read = 0;
+            int r;
+            while ((r = in.read(bytes, read, bytes.length - read)) > 0) {
+                read += r;
+            }
+            Assert.assertArrayEquals("Content", Files.readAllBytes(src), bytes);
+        }
+    }
+}